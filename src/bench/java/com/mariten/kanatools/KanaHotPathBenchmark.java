@@ -0,0 +1,63 @@
+package com.mariten.kanatools;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Locale;
+
+/**
+  * Throughput of the hot paths which the multi-release JAR replaces on newer JVMs: Shift_JIS bytes of
+  * mostly ASCII CSV through KanaSjisConverter, and the same lines as strings through a conversion plan.
+  *
+  * Run it once with the plain classes and once with the JAR on the class path to compare,
+  * as "ant bench-hot-paths" does.
+  */
+public class KanaHotPathBenchmark
+{
+    private static final int LINE_COUNT = 1 << 16;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 20;
+
+    /** Only every eighth line holds kana, as in a product list with a few Japanese names */
+    private static final String ASCII_LINE = "100245,2024-01-15,SKU-88312-BLK,Wireless keyboard with numeric pad,4980,in stock";
+    private static final String KANA_LINE = "100246,2024-01-15,SKU-88313-WHT,ﾜｲﾔﾚｽｷｰﾎﾞｰﾄﾞ ﾃﾝｷｰ付き,4980,in stock";
+
+
+    //{{{ void main(String[])
+    public static void main(String[] args) throws UnsupportedEncodingException
+    {
+        String[] lines = new String[LINE_COUNT];
+        StringBuilder text = new StringBuilder();
+        for(int k = 0; k < LINE_COUNT; k++) {
+            lines[k] = (k % 8 == 7) ? KANA_LINE : ASCII_LINE;
+            text.append(lines[k]).append('\n');
+        }
+        byte[] text_bytes = text.toString().getBytes("windows-31j");
+        byte[] new_bytes = new byte[text_bytes.length * KanaSjisConverter.MAX_BYTES_PER_BYTE];
+        KanaSjisConverter sjis_converter = new KanaSjisConverter(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA);
+        KanaConversionPlan plan = KanaConversionPlan.forOps(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA);
+
+        System.out.println(String.format(Locale.ROOT, "Java %s, KanaScan from %s",
+            System.getProperty("java.version"), KanaScan.class.getProtectionDomain().getCodeSource().getLocation()));
+
+        long sjis_nanos = Long.MAX_VALUE;
+        long plan_nanos = Long.MAX_VALUE;
+        long checksum = 0;
+        for(int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start_nanos = System.nanoTime();
+            checksum += sjis_converter.convert(text_bytes, 0, text_bytes.length, new_bytes, 0);
+            long sjis_end_nanos = System.nanoTime();
+            for(String line : lines) {
+                checksum += plan.convert(line).length();
+            }
+            long plan_end_nanos = System.nanoTime();
+            if(round >= WARMUP_ROUNDS) {
+                sjis_nanos = Math.min(sjis_nanos, sjis_end_nanos - start_nanos);
+                plan_nanos = Math.min(plan_nanos, plan_end_nanos - sjis_end_nanos);
+            }
+        }
+
+        System.out.println(String.format(Locale.ROOT, "  KanaSjisConverter:  %8.1f MB/s", text_bytes.length * 1000.0 / sjis_nanos));
+        System.out.println(String.format(Locale.ROOT, "  plan convert:       %8.1f ns/line", (double)plan_nanos / LINE_COUNT));
+        System.out.println(String.format(Locale.ROOT, "  (checksum %d)", checksum));
+    }
+    //}}}
+}
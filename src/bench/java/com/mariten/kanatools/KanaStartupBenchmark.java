@@ -0,0 +1,110 @@
+package com.mariten.kanatools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+  * Measures what a short-lived JVM pays before its first conversion: loading KanaConverter,
+  * initializing it (its static tables), and the first "convertKana" call.  Each run is a fresh JVM on the same class path,
+  * since a class is only initialized once per JVM.
+  *
+  * Run as "java -cp kanatools.jar:bench-classes com.mariten.kanatools.KanaStartupBenchmark [runs] [JVM options...]",
+  * where the options are passed on to each fresh JVM, e.g. "-Xint" to keep JIT threads from skewing runs on one CPU.
+  */
+public class KanaStartupBenchmark
+{
+    private static final String CHILD_ARG = "--child";
+    private static final int DEFAULT_RUN_COUNT = 20;
+
+
+    //{{{ void main(String[])
+    public static void main(String[] args) throws IOException, InterruptedException, ClassNotFoundException
+    {
+        if(args.length > 0 && args[0].equals(CHILD_ARG)) {
+            runChild();
+            return;
+        }
+        int run_count = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_RUN_COUNT;
+
+        String java_command = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String class_path = System.getProperty("java.class.path");
+        long[] load_micros = new long[run_count];
+        long[] init_micros = new long[run_count];
+        long[] first_call_micros = new long[run_count];
+        for(int run = 0; run < run_count; run++) {
+            List<String> command = new ArrayList<String>();
+            command.add(java_command);
+            command.add("-Xshare:auto");
+            for(int k = 1; k < args.length; k++) {
+                command.add(args[k]);
+            }
+            command.add("-cp");
+            command.add(class_path);
+            command.add(KanaStartupBenchmark.class.getName());
+            command.add(CHILD_ARG);
+            Process child = new ProcessBuilder(command).redirectErrorStream(true).start();
+            BufferedReader child_output = new BufferedReader(new InputStreamReader(child.getInputStream(), "UTF-8"));
+            String line = child_output.readLine();
+            child_output.close();
+            if(child.waitFor() != 0 || line == null) {
+                throw new IllegalStateException("Benchmark run failed: " + line);
+            }
+            String[] fields = line.split(" ");
+            load_micros[run] = Long.parseLong(fields[0]);
+            init_micros[run] = Long.parseLong(fields[1]);
+            first_call_micros[run] = Long.parseLong(fields[2]);
+        }
+
+        System.out.println(String.format(Locale.ROOT, "%d fresh JVMs, median (min) in microseconds", run_count));
+        System.out.println(String.format(Locale.ROOT, "  KanaConverter class load:  %6d (%d)", median(load_micros), min(load_micros)));
+        System.out.println(String.format(Locale.ROOT, "  KanaConverter class init:  %6d (%d)", median(init_micros), min(init_micros)));
+        System.out.println(String.format(Locale.ROOT, "  first convertKana call:    %6d (%d)", median(first_call_micros), min(first_call_micros)));
+    }
+    //}}}
+
+
+    //{{{ void runChild()
+    private static void runChild() throws ClassNotFoundException
+    {
+        long start_nanos = System.nanoTime();
+        Class<?> converter_class = Class.forName("com.mariten.kanatools.KanaConverter", false, KanaStartupBenchmark.class.getClassLoader());
+        long load_nanos = System.nanoTime();
+        Class.forName(converter_class.getName(), true, converter_class.getClassLoader());
+        long init_nanos = System.nanoTime();
+        String converted = KanaConverter.convertKana("ｶﾞｲﾄﾞﾌﾞｯｸ ﾊﾟｽ　ＡＢＣ", KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_ZEN_ASCII_TO_HAN_ASCII);
+        long call_nanos = System.nanoTime();
+        if(converted.length() == 0) {
+            throw new IllegalStateException("Nothing converted");
+        }
+        System.out.println(((load_nanos - start_nanos) / 1000) + " " + ((init_nanos - load_nanos) / 1000) + " " + ((call_nanos - init_nanos) / 1000));
+    }
+    //}}}
+
+
+    //{{{ long median(long[])
+    private static long median(long[] values)
+    {
+        long[] sorted_values = values.clone();
+        Arrays.sort(sorted_values);
+        return sorted_values[sorted_values.length / 2];
+    }
+    //}}}
+
+
+    //{{{ long min(long[])
+    private static long min(long[] values)
+    {
+        long min_value = Long.MAX_VALUE;
+        for(long value : values) {
+            min_value = Math.min(min_value, value);
+        }
+        return min_value;
+    }
+    //}}}
+}
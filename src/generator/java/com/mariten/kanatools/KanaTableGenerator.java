@@ -0,0 +1,146 @@
+package com.mariten.kanatools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+  * Build step turning the declarative kana mapping file into "KanaTables.java", so that KanaConverter
+  * gets its tables from string constants instead of filling maps one boxed char at a time.
+  *
+  * Run as "java com.mariten.kanatools.KanaTableGenerator src/tables/kana_mappings.txt OUTPUT_SOURCE_DIR".
+  */
+public class KanaTableGenerator
+{
+    private static final String GENERATED_CLASS_NAME = "KanaTables";
+
+    /** Tables spanning more chars than this would waste more memory than they save time */
+    private static final int MAX_TABLE_SPAN = 1024;
+
+
+    //{{{ void main(String[])
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length != 2) {
+            System.err.println("Usage: KanaTableGenerator MAPPING_FILE OUTPUT_SOURCE_DIR");
+            System.exit(2);
+        }
+        File mapping_file = new File(args[0]);
+        Map<String, TreeMap<Character, Character>> tables = readTables(mapping_file);
+
+        File package_dir = new File(args[1], "com/mariten/kanatools");
+        if(!package_dir.isDirectory() && !package_dir.mkdirs()) {
+            throw new IOException("Cannot create " + package_dir);
+        }
+        Writer source = new OutputStreamWriter(new FileOutputStream(new File(package_dir, GENERATED_CLASS_NAME + ".java")), "UTF-8");
+        try {
+            source.write(generateSource(tables, mapping_file.getName()));
+        } finally {
+            source.close();
+        }
+    }
+    //}}}
+
+
+    //{{{ Map<String, TreeMap<Character, Character>> readTables(File)
+    /**
+      * @return Mappings of each table by name, in file order
+      */
+    protected static Map<String, TreeMap<Character, Character>> readTables(File mapping_file) throws IOException
+    {
+        Map<String, TreeMap<Character, Character>> tables = new LinkedHashMap<String, TreeMap<Character, Character>>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mapping_file), "UTF-8"));
+        try {
+            TreeMap<Character, Character> table = null;
+            int line_number = 0;
+            String line;
+            while((line = reader.readLine()) != null) {
+                line_number++;
+                line = line.trim();
+                if(line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                if(line.startsWith("[") && line.endsWith("]")) {
+                    String table_name = line.substring(1, line.length() - 1);
+                    if(!table_name.matches("[A-Z][A-Z0-9_]*") || tables.containsKey(table_name)) {
+                        throw new IOException(mapping_file + ":" + line_number + ": bad or repeated table name " + table_name);
+                    }
+                    table = new TreeMap<Character, Character>();
+                    tables.put(table_name, table);
+                    continue;
+                }
+                String[] pair = line.split("\\s+");
+                if(table == null || pair.length != 2 || pair[0].length() != 1 || pair[1].length() != 1 || pair[1].charAt(0) == 0) {
+                    throw new IOException(mapping_file + ":" + line_number + ": expected a pair of chars in a table, got \"" + line + "\"");
+                }
+                if(table.put(pair[0].charAt(0), pair[1].charAt(0)) != null) {
+                    throw new IOException(mapping_file + ":" + line_number + ": char mapped twice: " + pair[0]);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return tables;
+    }
+    //}}}
+
+
+    //{{{ String generateSource(Map<String, TreeMap<Character, Character>>, String)
+    protected static String generateSource(Map<String, TreeMap<Character, Character>> tables, String mapping_file_name)
+    {
+        StringBuilder source = new StringBuilder();
+        source.append("package com.mariten.kanatools;\n\n");
+        source.append("/**\n");
+        source.append("  * Generated by KanaTableGenerator from ").append(mapping_file_name).append(", edit that file instead.\n");
+        source.append("  */\n");
+        source.append("final class ").append(GENERATED_CLASS_NAME).append("\n{\n");
+        for(Map.Entry<String, TreeMap<Character, Character>> table : tables.entrySet()) {
+            TreeMap<Character, Character> mappings = table.getValue();
+            if(mappings.isEmpty()) {
+                throw new IllegalArgumentException("Table " + table.getKey() + " is empty");
+            }
+            char first_char = mappings.firstKey();
+            int span = mappings.lastKey() - first_char + 1;
+            if(span > MAX_TABLE_SPAN) {
+                throw new IllegalArgumentException("Table " + table.getKey() + " spans " + span + " chars");
+            }
+            List<String> escaped_chars = new ArrayList<String>(span);
+            for(int k = 0; k < span; k++) {
+                Character mapped_char = mappings.get((char)(first_char + k));
+                escaped_chars.add(escape((mapped_char == null) ? 0 : mapped_char));
+            }
+
+            source.append("    static final KanaCharTable ").append(table.getKey()).append(" = new KanaCharTable(");
+            source.append('\'').append(escape(first_char)).append("', \"");
+            for(int k = 0; k < escaped_chars.size(); k++) {
+                if(k > 0 && k % 16 == 0) {
+                    source.append("\"\n        + \"");
+                }
+                source.append(escaped_chars.get(k));
+            }
+            source.append("\");\n");
+        }
+        source.append("\n    private ").append(GENERATED_CLASS_NAME).append("()\n    {\n    }\n}\n");
+        return source.toString();
+    }
+    //}}}
+
+
+    //{{{ String escape(char)
+    private static String escape(char c)
+    {
+        return String.format(Locale.ROOT, "\\u%04x", (int)c);
+    }
+    //}}}
+}
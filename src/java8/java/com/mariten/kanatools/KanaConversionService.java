@@ -0,0 +1,412 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaConversionPlan;
+import com.mariten.kanatools.KanaConverter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+  * Converts text submitted from many threads in batches on a few worker threads of its own,
+  * trading a bounded delay for fewer handoffs and tables which stay in cache.
+  *
+  * A worker takes the oldest waiting request and closes its batch once "max_batch_size" requests are
+  * in it, or once the first of them has waited "max_delay", whichever comes first.  Requests of a batch
+  * are converted grouped by plan, with plans from the shared registry of "KanaConversionPlan.forOps".
+  *
+  * Built for Java 8 apart from the rest of the library, which keeps running on older JVMs.
+  */
+public class KanaConversionService implements AutoCloseable
+{
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+    public static final long DEFAULT_MAX_DELAY_MICROS = 200;
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 1 << 16;
+
+    /** Workers wake up this often to notice a shutdown when idle */
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private static final Comparator<Request> BY_PLAN = Comparator.comparingInt(request -> System.identityHashCode(request.plan));
+
+    private final int max_batch_size;
+    private final long max_delay_nanos;
+    private final BlockingQueue<Request> queue;
+    private final Thread[] workers;
+    private volatile boolean is_shutdown = false;
+
+    private final LongAdder batch_count = new LongAdder();
+    private final LongAdder item_count = new LongAdder();
+    private final AtomicLong max_batch_size_seen = new AtomicLong();
+    private final LongAdder total_queue_delay_nanos = new LongAdder();
+    private final AtomicLong max_queue_delay_nanos = new AtomicLong();
+
+
+    //{{{ KanaConversionService()
+    /**
+      * Service with up to four workers, batches of up to DEFAULT_MAX_BATCH_SIZE and DEFAULT_MAX_DELAY_MICROS of delay.
+      */
+    public KanaConversionService()
+    {
+        this(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())),
+            DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_DELAY_MICROS, TimeUnit.MICROSECONDS);
+    }
+    //}}}
+    //{{{ KanaConversionService(int, int, long, TimeUnit)
+    /**
+      * @param  worker_count    Threads converting batches, started right away
+      * @param  max_batch_size  Most requests converted in one batch
+      * @param  max_delay       Longest a request waits for its batch to fill
+      * @param  unit            Unit of "max_delay"
+      */
+    public KanaConversionService(int worker_count, int max_batch_size, long max_delay, TimeUnit unit)
+    {
+        this(worker_count, max_batch_size, max_delay, unit, DEFAULT_MAX_QUEUE_SIZE);
+    }
+    //}}}
+    //{{{ KanaConversionService(int, int, long, TimeUnit, int)
+    /**
+      * @param  worker_count    Threads converting batches, started right away
+      * @param  max_batch_size  Most requests converted in one batch
+      * @param  max_delay       Longest a request waits for its batch to fill
+      * @param  unit            Unit of "max_delay"
+      * @param  max_queue_size  Most requests waiting, further ones are rejected
+      */
+    public KanaConversionService(int worker_count, int max_batch_size, long max_delay, TimeUnit unit, int max_queue_size)
+    {
+        if(worker_count < 1 || max_batch_size < 1 || max_delay < 0 || max_queue_size < 1) {
+            throw new IllegalArgumentException("Worker count, batch size and queue size must be positive, and the delay not negative");
+        }
+        this.max_batch_size = max_batch_size;
+        this.max_delay_nanos = unit.toNanos(max_delay);
+        this.queue = new LinkedBlockingQueue<Request>(max_queue_size);
+        this.workers = new Thread[worker_count];
+        for(int k = 0; k < worker_count; k++) {
+            this.workers[k] = new Thread(this::runWorker, "kanatools-conversion-" + k);
+            this.workers[k].setDaemon(true);
+            this.workers[k].start();
+        }
+    }
+    //}}}
+
+
+    //{{{ CompletableFuture<String> submit(CharSequence, int)
+    /**
+      * @param  original_text   Text to convert, read on a worker thread so it must not change meanwhile
+      * @param  conversion_ops  Flag-based integer indicating which type of conversions to perform
+      * @return Same result as "convertKana", completed on a worker thread
+      */
+    public CompletableFuture<String> submit(CharSequence original_text, int conversion_ops)
+    {
+        return this.submit(original_text, KanaConversionPlan.forOps(conversion_ops));
+    }
+    //}}}
+    //{{{ CompletableFuture<String> submit(CharSequence, String)
+    /**
+      * @param  original_text          Text to convert, read on a worker thread so it must not change meanwhile
+      * @param  conversion_ops_string  PHP mb_convert_kana style string specifying desired conversions
+      * @return Same result as "convertKana", completed on a worker thread
+      */
+    public CompletableFuture<String> submit(CharSequence original_text, String conversion_ops_string)
+    {
+        return this.submit(original_text, KanaConverter.createOpsArrayFromString(conversion_ops_string));
+    }
+    //}}}
+    //{{{ CompletableFuture<String> submit(CharSequence, KanaConversionPlan)
+    /**
+      * @param  original_text  Text to convert, read on a worker thread so it must not change meanwhile
+      * @param  plan           Conversion to apply
+      * @return Converted text, or failed with a RejectedExecutionException if the queue is full or the service shut down
+      */
+    public CompletableFuture<String> submit(CharSequence original_text, KanaConversionPlan plan)
+    {
+        if(original_text == null || plan == null) {
+            throw new NullPointerException("Text and plan must not be null");
+        }
+        Request request = new Request(original_text, plan);
+        if(this.is_shutdown) {
+            request.result.completeExceptionally(new RejectedExecutionException("Service is shut down"));
+        } else if(!this.queue.offer(request)) {
+            request.result.completeExceptionally(new RejectedExecutionException("Queue is full"));
+        } else if(this.is_shutdown && this.queue.remove(request)) {
+            // Shut down meanwhile, and no worker took the request, which none may be left to do
+            request.result.completeExceptionally(new RejectedExecutionException("Service is shut down"));
+        }
+        return request.result;
+    }
+    //}}}
+
+
+    //{{{ void shutdown()
+    /**
+      * Rejects further requests, requests already waiting are still converted.
+      */
+    public void shutdown()
+    {
+        this.is_shutdown = true;
+    }
+    //}}}
+
+
+    //{{{ boolean awaitTermination(long, TimeUnit)
+    /**
+      * @return Whether all workers finished within the timeout
+      */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long deadline_nanos = System.nanoTime() + unit.toNanos(timeout);
+        for(Thread worker : this.workers) {
+            long remaining_nanos = deadline_nanos - System.nanoTime();
+            if(remaining_nanos > 0) {
+                TimeUnit.NANOSECONDS.timedJoin(worker, remaining_nanos);
+            }
+        }
+        return this.areWorkersDone();
+    }
+    //}}}
+
+
+    //{{{ void close()
+    /**
+      * Shuts down and waits for requests already waiting to be converted.
+      * An interrupt stops the wait, and is left set on the calling thread.
+      */
+    public void close()
+    {
+        this.shutdown();
+        try {
+            for(Thread worker : this.workers) {
+                worker.join();
+            }
+        } catch(InterruptedException e) {
+            // Workers still finish the waiting requests on their own
+            Thread.currentThread().interrupt();
+        }
+    }
+    //}}}
+
+
+    //{{{ Stats getStats()
+    /**
+      * @return Batch size and queue delay counters since the service started
+      */
+    public Stats getStats()
+    {
+        return new Stats(
+            this.batch_count.sum(),
+            this.item_count.sum(),
+            this.max_batch_size_seen.get(),
+            this.total_queue_delay_nanos.sum(),
+            this.max_queue_delay_nanos.get(),
+            this.queue.size());
+    }
+    //}}}
+
+
+    //{{{ void runWorker()
+    private void runWorker()
+    {
+        List<Request> batch = new ArrayList<Request>(this.max_batch_size);
+        while(true) {
+            try {
+                if(!this.collectBatch(batch)) {
+                    return;
+                }
+            } catch(InterruptedException e) {
+                // Nothing else stops workers, so carry on until shut down
+                continue;
+            }
+            this.convertBatch(batch);
+            batch.clear();
+        }
+    }
+    //}}}
+
+
+    //{{{ boolean collectBatch(List<Request>)
+    /**
+      * @return False once the service is shut down and no requests are left
+      */
+    private boolean collectBatch(List<Request> batch) throws InterruptedException
+    {
+        Request first_request = null;
+        while(first_request == null) {
+            if(this.is_shutdown && this.queue.isEmpty()) {
+                return false;
+            }
+            first_request = this.queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        batch.add(first_request);
+        this.queue.drainTo(batch, this.max_batch_size - batch.size());
+
+        // Wait for the batch to fill until the first request has waited long enough
+        long deadline_nanos = first_request.submit_nanos + this.max_delay_nanos;
+        while(batch.size() < this.max_batch_size && !this.is_shutdown) {
+            long remaining_nanos = deadline_nanos - System.nanoTime();
+            if(remaining_nanos <= 0) {
+                break;
+            }
+            Request request = this.queue.poll(remaining_nanos, TimeUnit.NANOSECONDS);
+            if(request == null) {
+                break;
+            }
+            batch.add(request);
+            this.queue.drainTo(batch, this.max_batch_size - batch.size());
+        }
+        return true;
+    }
+    //}}}
+
+
+    //{{{ void convertBatch(List<Request>)
+    private void convertBatch(List<Request> batch)
+    {
+        long batch_start_nanos = System.nanoTime();
+        long batch_delay_nanos = 0;
+        long max_delay_nanos = 0;
+        for(Request request : batch) {
+            long delay_nanos = batch_start_nanos - request.submit_nanos;
+            batch_delay_nanos += delay_nanos;
+            max_delay_nanos = Math.max(max_delay_nanos, delay_nanos);
+        }
+        this.batch_count.increment();
+        this.item_count.add(batch.size());
+        this.total_queue_delay_nanos.add(batch_delay_nanos);
+        updateMax(this.max_batch_size_seen, batch.size());
+        updateMax(this.max_queue_delay_nanos, max_delay_nanos);
+
+        // Requests with the same plan one after another, so its tables stay in cache
+        batch.sort(BY_PLAN);
+        for(Request request : batch) {
+            try {
+                request.result.complete(request.plan.convert(request.original_text));
+            } catch(Throwable e) {
+                request.result.completeExceptionally(e);
+            }
+        }
+    }
+    //}}}
+
+
+    //{{{ boolean areWorkersDone()
+    private boolean areWorkersDone()
+    {
+        for(Thread worker : this.workers) {
+            if(worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    //}}}
+
+
+    //{{{ void updateMax(AtomicLong, long)
+    private static void updateMax(AtomicLong max_value, long value)
+    {
+        long current_max;
+        while(value > (current_max = max_value.get())) {
+            if(max_value.compareAndSet(current_max, value)) {
+                return;
+            }
+        }
+    }
+    //}}}
+
+
+    /**
+      * Text waiting for conversion.
+      */
+    private static class Request
+    {
+        final CharSequence original_text;
+        final KanaConversionPlan plan;
+        final long submit_nanos = System.nanoTime();
+        final CompletableFuture<String> result = new CompletableFuture<String>();
+
+        Request(CharSequence original_text, KanaConversionPlan plan)
+        {
+            this.original_text = original_text;
+            this.plan = plan;
+        }
+    }
+
+
+    /**
+      * Counters of a service at one point in time.
+      */
+    public static class Stats
+    {
+        private final long batch_count;
+        private final long item_count;
+        private final long max_batch_size;
+        private final long total_queue_delay_nanos;
+        private final long max_queue_delay_nanos;
+        private final int queued_count;
+
+        Stats(long batch_count, long item_count, long max_batch_size, long total_queue_delay_nanos, long max_queue_delay_nanos, int queued_count)
+        {
+            this.batch_count = batch_count;
+            this.item_count = item_count;
+            this.max_batch_size = max_batch_size;
+            this.total_queue_delay_nanos = total_queue_delay_nanos;
+            this.max_queue_delay_nanos = max_queue_delay_nanos;
+            this.queued_count = queued_count;
+        }
+
+        /** @return Batches converted */
+        public long getBatchCount()
+        {
+            return this.batch_count;
+        }
+
+        /** @return Requests converted */
+        public long getItemCount()
+        {
+            return this.item_count;
+        }
+
+        /** @return Mean requests per batch */
+        public double getMeanBatchSize()
+        {
+            return (this.batch_count == 0) ? 0 : (double)this.item_count / this.batch_count;
+        }
+
+        /** @return Most requests in one batch */
+        public long getMaxBatchSize()
+        {
+            return this.max_batch_size;
+        }
+
+        /** @return Mean time from submitting a request to the start of its batch */
+        public long getMeanQueueDelayNanos()
+        {
+            return (this.item_count == 0) ? 0 : this.total_queue_delay_nanos / this.item_count;
+        }
+
+        /** @return Longest time from submitting a request to the start of its batch */
+        public long getMaxQueueDelayNanos()
+        {
+            return this.max_queue_delay_nanos;
+        }
+
+        /** @return Requests waiting for a batch */
+        public int getQueuedCount()
+        {
+            return this.queued_count;
+        }
+
+        public String toString()
+        {
+            return String.format(Locale.ROOT, "%d batches, %d items, batch size mean %.1f max %d, queue delay mean %d us max %d us, %d queued",
+                this.batch_count, this.item_count, this.getMeanBatchSize(), this.max_batch_size,
+                this.getMeanQueueDelayNanos() / 1000, this.max_queue_delay_nanos / 1000, this.queued_count);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaConversionPlan;
+import com.mariten.kanatools.KanaConverter;
+import com.mariten.kanatools.KanaCsvNormalizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+  * Adapters for java.util.stream: conversions as functions and collectors which compile their plan once,
+  * and streams of lines which split evenly for "parallel".
+  *
+  * Built for Java 8 apart from the rest of the library, which keeps running on older JVMs.
+  */
+public class KanaStreams
+{
+    /** Ranges smaller than this are not split further */
+    private static final int MIN_SPLIT_SIZE = 1 << 12;
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+
+    //{{{ Function<CharSequence, String> asFunction(int)
+    /**
+      * @param  conversion_ops  Desired conversion ops
+      * @return Function converting text as "convertKana" does
+      */
+    public static Function<CharSequence, String> asFunction(int conversion_ops)
+    {
+        return asFunction(KanaConversionPlan.forOps(conversion_ops));
+    }
+    //}}}
+    //{{{ Function<CharSequence, String> asFunction(String)
+    /**
+      * @param  conversion_ops_string  PHP mb_convert_kana style string specifying desired conversions
+      * @return Function converting text as "convertKana" does
+      */
+    public static Function<CharSequence, String> asFunction(String conversion_ops_string)
+    {
+        return asFunction(KanaConverter.createOpsArrayFromString(conversion_ops_string));
+    }
+    //}}}
+    //{{{ Function<CharSequence, String> asFunction(KanaConversionPlan)
+    /**
+      * @param  plan  Conversion to apply
+      * @return Function converting text with the plan
+      */
+    public static Function<CharSequence, String> asFunction(KanaConversionPlan plan)
+    {
+        return plan::convert;
+    }
+    //}}}
+
+
+    //{{{ UnaryOperator<String> asUnaryOperator(int)
+    /**
+      * @param  conversion_ops  Desired conversion ops
+      * @return Operator converting strings as "convertKana" does, for "replaceAll" and the like
+      */
+    public static UnaryOperator<String> asUnaryOperator(int conversion_ops)
+    {
+        return asUnaryOperator(KanaConversionPlan.forOps(conversion_ops));
+    }
+    //}}}
+    //{{{ UnaryOperator<String> asUnaryOperator(String)
+    /**
+      * @param  conversion_ops_string  PHP mb_convert_kana style string specifying desired conversions
+      * @return Operator converting strings as "convertKana" does, for "replaceAll" and the like
+      */
+    public static UnaryOperator<String> asUnaryOperator(String conversion_ops_string)
+    {
+        return asUnaryOperator(KanaConverter.createOpsArrayFromString(conversion_ops_string));
+    }
+    //}}}
+    //{{{ UnaryOperator<String> asUnaryOperator(KanaConversionPlan)
+    /**
+      * @param  plan  Conversion to apply
+      * @return Operator converting strings with the plan, for "replaceAll" and the like
+      */
+    public static UnaryOperator<String> asUnaryOperator(KanaConversionPlan plan)
+    {
+        return plan::convert;
+    }
+    //}}}
+
+
+    //{{{ Collector<CharSequence, ?, String> joining(KanaConversionPlan, CharSequence)
+    /**
+      * Each element is converted on its own, so a diacritic mark starting one element never collapses
+      * with a kana ending the one before.  The delimiter is not converted.
+      *
+      * @param  plan       Conversion to apply to each element
+      * @param  delimiter  Put between elements
+      * @return Collector joining the converted elements
+      */
+    public static Collector<CharSequence, ?, String> joining(KanaConversionPlan plan, CharSequence delimiter)
+    {
+        return Collectors.mapping(asFunction(plan), Collectors.joining(delimiter));
+    }
+    //}}}
+
+
+    //{{{ Stream<String> lines(Path, Charset)
+    /**
+      * Like "Files.lines", but the file is mapped into memory and a parallel stream splits it into
+      * ranges of whole lines, instead of reading it ahead in growing batches.
+      * Files too large to map at once are read with "Files.lines".
+      *
+      * @param  path     File to read
+      * @param  charset  Charset of the file, where line breaks are single bytes which occur in no other char
+      * @return Lines of the file, without line breaks
+      */
+    public static Stream<String> lines(Path path, Charset charset) throws IOException
+    {
+        checkCharset(charset);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long file_size = channel.size();
+            if(file_size > Integer.MAX_VALUE) {
+                return Files.lines(path, charset);
+            }
+            // Mapping stays valid after the channel is closed
+            MappedByteBuffer mapped_bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, file_size);
+            return StreamSupport.stream(new LineSpliterator(mapped_bytes, charset, 0, (int)file_size), false);
+        } finally {
+            channel.close();
+        }
+    }
+    //}}}
+    //{{{ Stream<String> lines(ByteBuffer, Charset)
+    /**
+      * @param  text_bytes  Bytes from position to limit are read, without changing either
+      * @param  charset     Charset of the bytes, where line breaks are single bytes which occur in no other char
+      * @return Lines of the bytes, without line breaks
+      */
+    public static Stream<String> lines(ByteBuffer text_bytes, Charset charset)
+    {
+        return StreamSupport.stream(lineSpliterator(text_bytes, charset), false);
+    }
+    //}}}
+
+
+    //{{{ Spliterator<String> lineSpliterator(ByteBuffer, Charset)
+    /**
+      * Lines end at LF, CR or CRLF, as for BufferedReader, and a line break at the very end starts no more lines.
+      * Splitting halves the remaining bytes and moves the cut to the start of the next line.
+      *
+      * @param  text_bytes  Bytes from position to limit are read, without changing either
+      * @param  charset     Charset of the bytes, where line breaks are single bytes which occur in no other char
+      * @return Spliterator over the lines of the bytes, without line breaks
+      */
+    public static Spliterator<String> lineSpliterator(ByteBuffer text_bytes, Charset charset)
+    {
+        checkCharset(charset);
+        return new LineSpliterator(text_bytes.duplicate(), charset, text_bytes.position(), text_bytes.limit());
+    }
+    //}}}
+
+
+    //{{{ void checkCharset(Charset)
+    private static void checkCharset(Charset charset)
+    {
+        if(!KanaCsvNormalizer.isAsciiSafeCharset(charset)) {
+            throw new IllegalArgumentException("Line breaks may be part of other chars in " + charset.name());
+        }
+    }
+    //}}}
+
+
+    /**
+      * Lines of the bytes between "index" and "fence", which always sit at the start of a line.
+      */
+    private static class LineSpliterator implements Spliterator<String>
+    {
+        private final ByteBuffer text_bytes;
+        private final Charset charset;
+        private int index;
+        private final int fence;
+
+        LineSpliterator(ByteBuffer text_bytes, Charset charset, int index, int fence)
+        {
+            this.text_bytes = text_bytes;
+            this.charset = charset;
+            this.index = index;
+            this.fence = fence;
+        }
+
+        public boolean tryAdvance(Consumer<? super String> action)
+        {
+            if(this.index >= this.fence) {
+                return false;
+            }
+            int line_end = this.findLineEnd(this.index);
+            String line = this.decode(this.index, line_end);
+            this.index = this.findNextLineStart(line_end);
+            action.accept(line);
+            return true;
+        }
+
+        public Spliterator<String> trySplit()
+        {
+            if(this.fence - this.index < MIN_SPLIT_SIZE) {
+                return null;
+            }
+            int middle = this.index + (this.fence - this.index) / 2;
+            int split_index = this.findNextLineStart(this.findLineEnd(middle));
+            if(split_index >= this.fence) {
+                return null;
+            }
+            LineSpliterator prefix = new LineSpliterator(this.text_bytes, this.charset, this.index, split_index);
+            this.index = split_index;
+            return prefix;
+        }
+
+        public long estimateSize()
+        {
+            return this.fence - this.index;
+        }
+
+        public int characteristics()
+        {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+
+        /**
+          * @return Index of the first line break from "start" on, or the fence
+          */
+        private int findLineEnd(int start)
+        {
+            for(int i = start; i < this.fence; i++) {
+                byte b = this.text_bytes.get(i);
+                if(b == LF || b == CR) {
+                    return i;
+                }
+            }
+            return this.fence;
+        }
+
+        /**
+          * @return Index just past the line break at "line_end"
+          */
+        private int findNextLineStart(int line_end)
+        {
+            if(line_end >= this.fence) {
+                return this.fence;
+            }
+            if(this.text_bytes.get(line_end) == CR && line_end + 1 < this.fence && this.text_bytes.get(line_end + 1) == LF) {
+                return line_end + 2;
+            }
+            return line_end + 1;
+        }
+
+        private String decode(int start, int end)
+        {
+            if(this.text_bytes.hasArray()) {
+                return new String(this.text_bytes.array(), this.text_bytes.arrayOffset() + start, end - start, this.charset);
+            }
+            ByteBuffer line_bytes = this.text_bytes.duplicate();
+            line_bytes.clear();
+            line_bytes.limit(end);
+            line_bytes.position(start);
+            return this.charset.decode(line_bytes).toString();
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaConversionPlan;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+  * Flow.Processor which converts each text item with a conversion plan and publishes the results
+  * in the same order to a single subscriber.
+  *
+  * At most "buffer_size" items are requested upstream ahead of what the subscriber has taken, and
+  * more are requested once half of them have been passed on.  Items are converted in batches of up
+  * to "batch_size": a batch is started once it is full, or right away when nothing is being converted
+  * and the subscriber waits, so a slow trickle of items is not held back.  With an Executor, batches
+  * are converted there, several at a time, and passed on in order.
+  *
+  * Built for Java 9 apart from the rest of the library, which keeps running on older JVMs.
+  */
+public class KanaConversionProcessor implements Flow.Processor<CharSequence, String>
+{
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private final KanaConversionPlan plan;
+    private final Executor executor;
+    private final int batch_size;
+    private final int buffer_size;
+
+    /** Guards all fields below, signals are sent outside of it by the one thread draining */
+    private final Object lock = new Object();
+    private final AtomicInteger drain_count = new AtomicInteger();
+
+    private Flow.Subscription upstream;
+    private Flow.Subscriber<? super String> downstream;
+    private boolean is_started = false;
+
+    /** Items received but not given to a batch yet */
+    private List<CharSequence> open_batch;
+
+    /** Batches started in input order, the first one being passed on from "emitting_index" on once done */
+    private final ArrayDeque<CompletableFuture<List<String>>> batches = new ArrayDeque<CompletableFuture<List<String>>>();
+    private List<String> emitting_batch = null;
+    private int emitting_index = 0;
+
+    /** Demand of the subscriber not met yet */
+    private long requested_count = 0;
+
+    /** Items requested upstream and not passed on yet */
+    private long outstanding_count = 0;
+
+    private boolean is_upstream_done = false;
+    private Throwable upstream_error = null;
+    private Throwable downstream_error = null;
+    private boolean is_cancelled = false;
+    private boolean is_terminated = false;
+
+
+    //{{{ KanaConversionProcessor(KanaConversionPlan)
+    /**
+      * Processor converting on the thread which delivers each item.
+      *
+      * @param  plan  Conversion to apply
+      */
+    public KanaConversionProcessor(KanaConversionPlan plan)
+    {
+        this(plan, null, DEFAULT_BATCH_SIZE, DEFAULT_BUFFER_SIZE);
+    }
+    //}}}
+    //{{{ KanaConversionProcessor(KanaConversionPlan, Executor)
+    /**
+      * @param  plan      Conversion to apply
+      * @param  executor  Batches are converted here, or on the thread which delivers each item if null
+      */
+    public KanaConversionProcessor(KanaConversionPlan plan, Executor executor)
+    {
+        this(plan, executor, DEFAULT_BATCH_SIZE, DEFAULT_BUFFER_SIZE);
+    }
+    //}}}
+    //{{{ KanaConversionProcessor(KanaConversionPlan, Executor, int, int)
+    /**
+      * @param  plan         Conversion to apply
+      * @param  executor     Batches are converted here, or on the thread which delivers each item if null
+      * @param  batch_size   Most items converted in one batch
+      * @param  buffer_size  Most items requested upstream ahead of the subscriber, at least "batch_size"
+      */
+    public KanaConversionProcessor(KanaConversionPlan plan, Executor executor, int batch_size, int buffer_size)
+    {
+        if(batch_size < 1 || buffer_size < batch_size) {
+            throw new IllegalArgumentException("Batch size must be positive and at most the buffer size");
+        }
+        this.plan = plan;
+        this.executor = executor;
+        this.batch_size = batch_size;
+        this.buffer_size = buffer_size;
+        this.open_batch = new ArrayList<CharSequence>(batch_size);
+    }
+    //}}}
+
+
+    //{{{ void subscribe(Flow.Subscriber<? super String>)
+    /**
+      * Only one subscriber is accepted, any other one gets an IllegalStateException.
+      */
+    public void subscribe(Flow.Subscriber<? super String> subscriber)
+    {
+        if(subscriber == null) {
+            throw new NullPointerException("Subscriber must not be null");
+        }
+        boolean is_accepted;
+        synchronized(this.lock) {
+            is_accepted = (this.downstream == null);
+            if(is_accepted) {
+                this.downstream = subscriber;
+            }
+        }
+        if(!is_accepted) {
+            subscriber.onSubscribe(new RejectedSubscription());
+            subscriber.onError(new IllegalStateException("Processor already has a subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new DownstreamSubscription());
+        this.drain();
+    }
+    //}}}
+
+
+    //{{{ void onSubscribe(Flow.Subscription)
+    public void onSubscribe(Flow.Subscription subscription)
+    {
+        synchronized(this.lock) {
+            if(this.upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            this.upstream = subscription;
+        }
+        this.drain();
+    }
+    //}}}
+
+
+    //{{{ void onNext(CharSequence)
+    public void onNext(CharSequence item)
+    {
+        if(item == null) {
+            throw new NullPointerException("Item must not be null");
+        }
+        CompletableFuture<List<String>> started_batch = null;
+        List<CharSequence> batch_items = null;
+        synchronized(this.lock) {
+            if(this.is_cancelled || this.is_terminated) {
+                return;
+            }
+            this.open_batch.add(item);
+            if(this.open_batch.size() >= this.batch_size) {
+                batch_items = this.open_batch;
+                started_batch = this.startBatch();
+            }
+        }
+        if(started_batch != null) {
+            this.convertBatch(batch_items, started_batch);
+        }
+        this.drain();
+    }
+    //}}}
+
+
+    //{{{ void onError(Throwable)
+    public void onError(Throwable error)
+    {
+        synchronized(this.lock) {
+            this.upstream_error = error;
+            this.is_upstream_done = true;
+        }
+        this.drain();
+    }
+    //}}}
+
+
+    //{{{ void onComplete()
+    public void onComplete()
+    {
+        synchronized(this.lock) {
+            this.is_upstream_done = true;
+        }
+        this.drain();
+    }
+    //}}}
+
+
+    //{{{ CompletableFuture<List<String>> startBatch()
+    /**
+      * Queues the open batch, to be converted by "convertBatch" outside of the lock.
+      */
+    private CompletableFuture<List<String>> startBatch()
+    {
+        CompletableFuture<List<String>> batch = new CompletableFuture<List<String>>();
+        this.batches.addLast(batch);
+        this.open_batch = new ArrayList<CharSequence>(this.batch_size);
+        return batch;
+    }
+    //}}}
+
+
+    //{{{ void convertBatch(List<CharSequence>, CompletableFuture<List<String>>)
+    private void convertBatch(List<CharSequence> batch_items, CompletableFuture<List<String>> batch)
+    {
+        Runnable conversion = () -> {
+            try {
+                List<String> converted_items = new ArrayList<String>(batch_items.size());
+                for(CharSequence item : batch_items) {
+                    converted_items.add(this.plan.convert(item));
+                }
+                batch.complete(converted_items);
+            } catch(Throwable e) {
+                batch.completeExceptionally(e);
+            }
+        };
+        if(this.executor == null) {
+            conversion.run();
+            return;
+        }
+        batch.whenComplete((converted_items, error) -> this.drain());
+        try {
+            this.executor.execute(conversion);
+        } catch(RuntimeException e) {
+            batch.completeExceptionally(e);
+        }
+    }
+    //}}}
+
+
+    //{{{ void drain()
+    /**
+      * Passes on whatever the subscriber's demand allows.  Only one thread drains at a time,
+      * calls meanwhile make it go round once more.
+      */
+    private void drain()
+    {
+        if(this.drain_count.getAndIncrement() != 0) {
+            return;
+        }
+        int missed_count = 1;
+        do {
+            this.drainOnce();
+            missed_count = this.drain_count.addAndGet(-missed_count);
+        } while(missed_count != 0);
+    }
+    //}}}
+
+
+    //{{{ void drainOnce()
+    private void drainOnce()
+    {
+        while(true) {
+            Flow.Subscription upstream;
+            Flow.Subscriber<? super String> downstream;
+            String item = null;
+            long upstream_request_count = 0;
+            boolean must_cancel_upstream = false;
+            Throwable error = null;
+            boolean is_complete = false;
+            List<CharSequence> batch_items = null;
+            CompletableFuture<List<String>> started_batch = null;
+
+            synchronized(this.lock) {
+                upstream = this.upstream;
+                downstream = this.downstream;
+                if(upstream == null || downstream == null || this.is_terminated) {
+                    return;
+                }
+                if(this.is_cancelled) {
+                    this.clear();
+                    this.is_terminated = true;
+                    must_cancel_upstream = true;
+                } else if(this.downstream_error != null) {
+                    error = this.downstream_error;
+                    this.clear();
+                    this.is_terminated = true;
+                    must_cancel_upstream = true;
+                } else {
+                    if(!this.is_started) {
+                        this.is_started = true;
+                        upstream_request_count = this.buffer_size;
+                        this.outstanding_count = this.buffer_size;
+                    }
+                    if(this.requested_count > 0) {
+                        try {
+                            item = this.takeConverted();
+                        } catch(CompletionException e) {
+                            error = (e.getCause() != null) ? e.getCause() : e;
+                            this.clear();
+                            this.is_terminated = true;
+                            must_cancel_upstream = true;
+                        }
+                    }
+                    if(item != null) {
+                        this.requested_count--;
+                        this.outstanding_count--;
+                        if(!this.is_upstream_done && this.outstanding_count <= this.buffer_size / 2) {
+                            upstream_request_count += this.buffer_size - this.outstanding_count;
+                            this.outstanding_count = this.buffer_size;
+                        }
+                    } else if(error == null && this.emitting_batch == null && this.batches.isEmpty()) {
+                        if(!this.open_batch.isEmpty() && (this.requested_count > 0 || this.is_upstream_done)) {
+                            // Nothing ahead of the open batch, so waiting for it to fill only adds latency
+                            batch_items = this.open_batch;
+                            started_batch = this.startBatch();
+                        } else if(this.open_batch.isEmpty() && this.is_upstream_done) {
+                            error = this.upstream_error;
+                            is_complete = (error == null);
+                            this.is_terminated = true;
+                        }
+                    }
+                }
+            }
+
+            if(must_cancel_upstream) {
+                upstream.cancel();
+            }
+            if(upstream_request_count > 0) {
+                upstream.request(upstream_request_count);
+            }
+            if(started_batch != null) {
+                this.convertBatch(batch_items, started_batch);
+                continue;
+            }
+            if(item != null) {
+                downstream.onNext(item);
+                continue;
+            }
+            if(error != null) {
+                downstream.onError(error);
+            } else if(is_complete) {
+                downstream.onComplete();
+            }
+            return;
+        }
+    }
+    //}}}
+
+
+    //{{{ String takeConverted()
+    /**
+      * @return Next converted item, or null if the next batch is not done yet
+      */
+    private String takeConverted()
+    {
+        while(true) {
+            if(this.emitting_batch != null) {
+                if(this.emitting_index < this.emitting_batch.size()) {
+                    return this.emitting_batch.get(this.emitting_index++);
+                }
+                this.emitting_batch = null;
+            }
+            CompletableFuture<List<String>> next_batch = this.batches.peekFirst();
+            if(next_batch == null || !next_batch.isDone()) {
+                return null;
+            }
+            this.batches.removeFirst();
+            this.emitting_batch = next_batch.join();
+            this.emitting_index = 0;
+        }
+    }
+    //}}}
+
+
+    //{{{ void clear()
+    private void clear()
+    {
+        this.open_batch = new ArrayList<CharSequence>(0);
+        this.batches.clear();
+        this.emitting_batch = null;
+    }
+    //}}}
+
+
+    /**
+      * Subscription given to the subscriber.
+      */
+    private class DownstreamSubscription implements Flow.Subscription
+    {
+        public void request(long count)
+        {
+            synchronized(lock) {
+                if(count <= 0) {
+                    if(downstream_error == null) {
+                        downstream_error = new IllegalArgumentException("Requested count must be positive, was " + count);
+                    }
+                } else {
+                    requested_count += count;
+                    if(requested_count < 0) {
+                        requested_count = Long.MAX_VALUE;
+                    }
+                }
+            }
+            drain();
+        }
+
+        public void cancel()
+        {
+            synchronized(lock) {
+                is_cancelled = true;
+            }
+            drain();
+        }
+    }
+
+
+    /**
+      * Subscription given to any subscriber after the first one, which is told off right away.
+      */
+    private static class RejectedSubscription implements Flow.Subscription
+    {
+        public void request(long count)
+        {
+        }
+
+        public void cancel()
+        {
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.mariten.kanatools;
+
+/**
+  * Read-only char-to-char mapping over one contiguous range of chars, stored as a plain array
+  * so that lookups need no boxing and building one costs a single array copy.
+  *
+  * Tables of KanaConverter are generated into "KanaTables" at build time from src/tables/kana_mappings.txt.
+  */
+public class KanaCharTable
+{
+    /** Mapped char of each char from "first_char" on, 0 where unmapped */
+    private final char[] mapped_chars;
+    private final char first_char;
+
+
+    //{{{ KanaCharTable(char, String)
+    /**
+      * @param  first_char    Lowest char which may be mapped
+      * @param  mapped_chars  Mapped char of each char from "first_char" on, 0 where unmapped
+      */
+    KanaCharTable(char first_char, String mapped_chars)
+    {
+        this.first_char = first_char;
+        this.mapped_chars = mapped_chars.toCharArray();
+    }
+    //}}}
+
+
+    //{{{ boolean containsKey(char)
+    /**
+      * @return Whether "from_char" is mapped
+      */
+    public boolean containsKey(char from_char)
+    {
+        return this.get(from_char) != 0;
+    }
+    //}}}
+
+
+    //{{{ char get(char)
+    /**
+      * @return Mapped char of "from_char", or 0 if it is not mapped
+      */
+    public char get(char from_char)
+    {
+        int index = from_char - this.first_char;
+        if(index < 0 || index >= this.mapped_chars.length) {
+            return 0;
+        }
+        return this.mapped_chars[index];
+    }
+    //}}}
+}
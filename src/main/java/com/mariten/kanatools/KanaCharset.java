@@ -0,0 +1,358 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaConversionPlan;
+import com.mariten.kanatools.KanaConverter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+  * Charset which decodes like another charset, and converts the decoded text with "convertKana" ops
+  * on the fly.  Any Reader, or library which only accepts a Charset, then sees converted text.
+  *
+  * Named "x-[base charset]-kana-[op letters]", such as "x-UTF-8-kana-KV", and found by "Charset.forName"
+  * through KanaCharsetProvider.  Op letters are those of mb_convert_kana ("V" is accepted, diacritic marks
+  * are always collapsed), so unlike most charset names these are case-sensitive.
+  *
+  * Decoders convert all text decoded by each call, as InputStreamReader never flushes its decoder,
+  * so a hankaku kana ending the bytes of one call does not collapse with a diacritic mark starting the next.
+  * Readers from "newReader" hold such a kana back until they know what follows, and match "convertKana" exactly.
+  * Encoding writes text unchanged, as the base charset does.
+  */
+public class KanaCharset extends Charset
+{
+    public static final String NAME_PREFIX = "x-";
+    public static final String NAME_OPS_SEPARATOR = "-kana-";
+
+    private static final int DECODED_BUFFER_SIZE = 1024;
+    private static final int READER_BUFFER_SIZE = 8192;
+
+    private final Charset base_charset;
+    private final KanaConversionPlan plan;
+
+
+    //{{{ KanaCharset(Charset, String)
+    /**
+      * @param  base_charset           Charset of the bytes
+      * @param  conversion_ops_string  PHP mb_convert_kana style string specifying desired conversions
+      */
+    public KanaCharset(Charset base_charset, String conversion_ops_string)
+    {
+        super(NAME_PREFIX + base_charset.name() + NAME_OPS_SEPARATOR + conversion_ops_string, null);
+        for(int k = 0; k < conversion_ops_string.length(); k++) {
+            char op_letter = conversion_ops_string.charAt(k);
+            if(op_letter != 'V' && !KanaConverter.LETTER_OP_CODE_LOOKUP.containsKey(op_letter)) {
+                throw new IllegalArgumentException("Unknown op letter '" + op_letter + "' in \"" + conversion_ops_string + "\"");
+            }
+        }
+        this.base_charset = base_charset;
+        // Shared with other charsets and callers of the same ops, however their op letters are spelled
+        this.plan = KanaConversionPlan.forOps(KanaConverter.createOpsArrayFromString(conversion_ops_string));
+    }
+    //}}}
+
+
+    //{{{ Charset getBaseCharset()
+    /**
+      * @return Charset which bytes are decoded with before conversion
+      */
+    public Charset getBaseCharset()
+    {
+        return this.base_charset;
+    }
+    //}}}
+
+
+    //{{{ int getConversionOps()
+    /**
+      * @return Conversion ops applied to decoded text
+      */
+    public int getConversionOps()
+    {
+        return this.plan.getConversionOps();
+    }
+    //}}}
+
+
+    public boolean contains(Charset other_charset)
+    {
+        return other_charset == this || this.base_charset.contains(other_charset);
+    }
+
+    public boolean canEncode()
+    {
+        return this.base_charset.canEncode();
+    }
+
+    public CharsetDecoder newDecoder()
+    {
+        return new KanaDecoder(this, this.base_charset, this.plan, false);
+    }
+
+    public CharsetEncoder newEncoder()
+    {
+        return new PassthroughEncoder(this, this.base_charset.newEncoder());
+    }
+
+
+    //{{{ Reader newReader(InputStream)
+    /**
+      * Unlike InputStreamReader with this charset, collapses diacritic marks however the bytes arrive.
+      * Bad input is replaced, as InputStreamReader does.
+      *
+      * @param  byte_input  Bytes in the base charset, closed with the reader
+      * @return Reader of the converted text
+      */
+    public Reader newReader(InputStream byte_input)
+    {
+        CharsetDecoder decoder = new KanaDecoder(this, this.base_charset, this.plan, true)
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return new FlushingReader(byte_input, decoder);
+    }
+    //}}}
+
+
+    /**
+      * Decodes with the base charset into a buffer, then converts the buffer through the plan's table.
+      * Converted chars which do not fit into the output yet are kept for the next call.
+      *
+      * A last decoded kana which may collapse with a diacritic mark is held back while more input is at hand.
+      * Once the input runs out it is converted as it is, unless the caller flushes at the end of input
+      * (as FlushingReader does), in which case it waits for the next call or "flush".
+      */
+    private static class KanaDecoder extends CharsetDecoder
+    {
+        private static final ByteBuffer NO_BYTES = ByteBuffer.allocate(0);
+
+        private final CharsetDecoder base_decoder;
+        private final KanaConversionPlan plan;
+
+        /** Whether the caller always flushes at the end of input, so a kana may be held back past a call */
+        private final boolean is_flushed_by_caller;
+
+        /** Decoded chars not converted yet, in read mode */
+        private final CharBuffer decoded_chars = CharBuffer.allocate(DECODED_BUFFER_SIZE);
+
+        /** Converted chars, written out from "converted_index" on */
+        private final StringBuilder converted_chars = new StringBuilder(DECODED_BUFFER_SIZE * 2);
+        private int converted_index = 0;
+
+        /** Whether the base decoder has been told about the end of input and flushed */
+        private boolean is_base_flushed = false;
+
+        KanaDecoder(Charset charset, Charset base_charset, KanaConversionPlan plan, boolean is_flushed_by_caller)
+        {
+            // Zenkaku-to-hankaku kana conversion may turn one decoded char into two
+            super(charset, base_charset.newDecoder().averageCharsPerByte(), base_charset.newDecoder().maxCharsPerByte() * 2);
+            this.base_decoder = base_charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+            this.plan = plan;
+            this.is_flushed_by_caller = is_flushed_by_caller;
+            this.decoded_chars.flip();
+        }
+
+        protected CoderResult decodeLoop(ByteBuffer in, CharBuffer out)
+        {
+            while(true) {
+                if(!this.writeConverted(out)) {
+                    return CoderResult.OVERFLOW;
+                }
+
+                // Decode after any char held back, which leaves room for more
+                this.decoded_chars.compact();
+                CoderResult base_result = this.base_decoder.decode(in, this.decoded_chars, false);
+                this.decoded_chars.flip();
+
+                // Bad input is replaced (or reported) by this decoder, after all text before it.
+                // Ignored bad input leaves a held back char waiting for what follows.
+                boolean is_error = base_result.isError();
+                CodingErrorAction error_action = base_result.isMalformed() ? this.malformedInputAction() : this.unmappableCharacterAction();
+                boolean is_final = (is_error && error_action != CodingErrorAction.IGNORE)
+                    || (base_result.isUnderflow() && !this.is_flushed_by_caller);
+                this.convertDecoded(is_final);
+                if(!this.writeConverted(out)) {
+                    return CoderResult.OVERFLOW;
+                }
+                if(is_error || base_result.isUnderflow()) {
+                    return base_result;
+                }
+            }
+        }
+
+        protected CoderResult implFlush(CharBuffer out)
+        {
+            if(!this.is_base_flushed) {
+                this.decoded_chars.compact();
+                CoderResult base_result = this.base_decoder.decode(NO_BYTES, this.decoded_chars, true);
+                if(!base_result.isOverflow()) {
+                    base_result = this.base_decoder.flush(this.decoded_chars);
+                }
+                this.decoded_chars.flip();
+                if(base_result.isOverflow()) {
+                    this.convertDecoded(false);
+                    return CoderResult.OVERFLOW;
+                }
+                this.is_base_flushed = true;
+            }
+            this.convertDecoded(true);
+            return this.writeConverted(out) ? CoderResult.UNDERFLOW : CoderResult.OVERFLOW;
+        }
+
+        protected void implReset()
+        {
+            this.base_decoder.reset();
+            this.decoded_chars.clear();
+            this.decoded_chars.flip();
+            this.converted_chars.setLength(0);
+            this.converted_index = 0;
+            this.is_base_flushed = false;
+        }
+
+        private void convertDecoded(boolean is_final)
+        {
+            int converted_count = this.plan.appendConvertedStage(this.decoded_chars, 0, this.decoded_chars.remaining(), is_final, this.converted_chars);
+            this.decoded_chars.position(this.decoded_chars.position() + converted_count);
+        }
+
+        /**
+          * @return Whether all converted chars have been written
+          */
+        private boolean writeConverted(CharBuffer out)
+        {
+            int pending_count = this.converted_chars.length() - this.converted_index;
+            int write_count = Math.min(pending_count, out.remaining());
+            if(write_count > 0) {
+                out.append(this.converted_chars, this.converted_index, this.converted_index + write_count);
+                this.converted_index += write_count;
+            }
+            if(write_count < pending_count) {
+                return false;
+            }
+            this.converted_chars.setLength(0);
+            this.converted_index = 0;
+            return true;
+        }
+    }
+
+
+    /**
+      * Reads bytes into a buffer and decodes them, telling the decoder about the end of input and flushing it,
+      * which InputStreamReader does not.
+      */
+    private static class FlushingReader extends Reader
+    {
+        private final InputStream byte_input;
+        private final CharsetDecoder decoder;
+
+        /** Bytes read but not decoded yet, in read mode */
+        private final ByteBuffer read_bytes = ByteBuffer.allocate(READER_BUFFER_SIZE);
+
+        private boolean is_end_of_input = false;
+        private boolean is_flushed = false;
+
+        FlushingReader(InputStream byte_input, CharsetDecoder decoder)
+        {
+            this.byte_input = byte_input;
+            this.decoder = decoder;
+            this.read_bytes.flip();
+        }
+
+        public int read(char[] buffer, int offset, int length) throws IOException
+        {
+            synchronized(this.lock) {
+                if(length == 0) {
+                    return 0;
+                }
+                CharBuffer out = CharBuffer.wrap(buffer, offset, length);
+                while(!this.is_flushed) {
+                    CoderResult result = this.decoder.decode(this.read_bytes, out, this.is_end_of_input);
+                    if(this.is_end_of_input && result.isUnderflow()) {
+                        result = this.decoder.flush(out);
+                        this.is_flushed = result.isUnderflow();
+                    }
+                    if(result.isError()) {
+                        result.throwException();
+                    }
+                    if(out.position() > offset) {
+                        return out.position() - offset;
+                    }
+                    if(!this.is_end_of_input) {
+                        this.readMoreBytes();
+                    }
+                }
+                return -1;
+            }
+        }
+
+        public void close() throws IOException
+        {
+            this.byte_input.close();
+        }
+
+        private void readMoreBytes() throws IOException
+        {
+            this.read_bytes.compact();
+            int read_count = this.byte_input.read(this.read_bytes.array(), this.read_bytes.position(), this.read_bytes.remaining());
+            if(read_count < 0) {
+                this.is_end_of_input = true;
+            } else {
+                this.read_bytes.position(this.read_bytes.position() + read_count);
+            }
+            this.read_bytes.flip();
+        }
+    }
+
+
+    /**
+      * Encodes with the base charset, leaving text unchanged.
+      */
+    private static class PassthroughEncoder extends CharsetEncoder
+    {
+        private static final CharBuffer NO_CHARS = CharBuffer.allocate(0);
+
+        private final CharsetEncoder base_encoder;
+
+        /** Whether the base encoder has been told about the end of input */
+        private boolean is_base_ended = false;
+
+        PassthroughEncoder(Charset charset, CharsetEncoder base_encoder)
+        {
+            super(charset, base_encoder.averageBytesPerChar(), base_encoder.maxBytesPerChar(), base_encoder.replacement());
+            this.base_encoder = base_encoder
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        }
+
+        protected CoderResult encodeLoop(CharBuffer in, ByteBuffer out)
+        {
+            return this.base_encoder.encode(in, out, false);
+        }
+
+        protected CoderResult implFlush(ByteBuffer out)
+        {
+            if(!this.is_base_ended) {
+                CoderResult base_result = this.base_encoder.encode(NO_CHARS, out, true);
+                if(base_result.isOverflow()) {
+                    return base_result;
+                }
+                this.is_base_ended = true;
+            }
+            return this.base_encoder.flush(out);
+        }
+
+        protected void implReset()
+        {
+            this.base_encoder.reset();
+            this.is_base_ended = false;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaCharset;
+
+import java.nio.charset.Charset;
+import java.nio.charset.spi.CharsetProvider;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+  * Makes KanaCharset instances available to "Charset.forName", by names such as "x-UTF-8-kana-KV".
+  * Registered in META-INF/services, so having the JAR on the class path is enough.
+  *
+  * Any base charset name or alias known to the JVM and any mb_convert_kana op letters can be combined,
+  * "charsets" only lists a few common combinations.
+  */
+public class KanaCharsetProvider extends CharsetProvider
+{
+    private static final String[] LISTED_CHARSET_NAMES = {
+        "x-UTF-8-kana-KV",
+        "x-UTF-8-kana-KVa",
+        "x-Shift_JIS-kana-KV",
+        "x-windows-31j-kana-KV",
+        "x-EUC-JP-kana-KV",
+    };
+
+    /** Slots of the charset cache, a power of two */
+    private static final int CACHE_SIZE = 64;
+
+    /**
+      * Charsets by hash of the name they were asked for, a charset evicts any other one hashing to its slot,
+      * so names made up of ever new aliases or op letters cannot pile up.
+      */
+    private final NamedCharset[] cached_charsets = new NamedCharset[CACHE_SIZE];
+
+
+    //{{{ Charset charsetForName(String)
+    /**
+      * @param  charset_name  Name of the form "x-[base charset]-kana-[op letters]"
+      * @return Charset for that name, or null if the name is not of that form or names an unknown
+      *         base charset or op letter
+      */
+    public Charset charsetForName(String charset_name)
+    {
+        int hash = charset_name.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        NamedCharset cached = this.cached_charsets[slot];
+        if(cached != null && cached.charset_name.equals(charset_name)) {
+            return cached.charset;
+        }
+
+        if(!charset_name.regionMatches(true, 0, KanaCharset.NAME_PREFIX, 0, KanaCharset.NAME_PREFIX.length())) {
+            return null;
+        }
+        int separator_index = charset_name.lastIndexOf(KanaCharset.NAME_OPS_SEPARATOR);
+        if(separator_index <= KanaCharset.NAME_PREFIX.length()) {
+            return null;
+        }
+        String base_charset_name = charset_name.substring(KanaCharset.NAME_PREFIX.length(), separator_index);
+        String conversion_ops_string = charset_name.substring(separator_index + KanaCharset.NAME_OPS_SEPARATOR.length());
+        Charset charset;
+        try {
+            charset = new KanaCharset(Charset.forName(base_charset_name), conversion_ops_string);
+        } catch(IllegalArgumentException e) {
+            // Unknown base charset or op letter, also covers illegal names
+            return null;
+        }
+
+        // Racing threads may each make the charset, any of them is fine to keep
+        this.cached_charsets[slot] = new NamedCharset(charset_name, charset);
+        return charset;
+    }
+    //}}}
+
+
+    //{{{ Iterator<Charset> charsets()
+    /**
+      * @return Common combinations of base charsets and ops, among those available in this JVM
+      */
+    public Iterator<Charset> charsets()
+    {
+        List<Charset> listed_charsets = new ArrayList<Charset>();
+        for(String charset_name : LISTED_CHARSET_NAMES) {
+            Charset charset = this.charsetForName(charset_name);
+            if(charset != null) {
+                listed_charsets.add(charset);
+            }
+        }
+        return listed_charsets.iterator();
+    }
+    //}}}
+
+
+    /**
+      * Charset with the name it was asked for.  Only final fields, so threads racing on a cache slot
+      * see either a whole entry or none.
+      */
+    private static class NamedCharset
+    {
+        final String charset_name;
+        final Charset charset;
+
+        NamedCharset(String charset_name, Charset charset)
+        {
+            this.charset_name = charset_name;
+            this.charset = charset;
+        }
+    }
+}
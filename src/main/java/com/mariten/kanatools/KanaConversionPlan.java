@@ -0,0 +1,665 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaConverter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+  * A "convertKana" conversion (ops and ignored chars) compiled into a per-character lookup table,
+  * optionally extended with custom char-to-char and char-to-string mappings.
+  *
+  * Custom mappings apply to the output of the kana conversion, as if each had been applied with
+  * "String.replace" afterwards, but all of them together cost a single pass over the text.
+  * Each mapping is applied once: mapping 'a' to "b" and 'b' to "c" turns "a" into "b", not "c".
+  *
+  * The table is split into 256-char pages, and pages where no char changes are not stored at all.
+  * Only kana which may be followed by a diacritic mark to collapse with are converted outside the table.
+  *
+  * Plans can be chained with "andThen".  Chained plans are fused into a single table whenever the
+  * later plan never collapses diacritic marks, otherwise the text goes through each table in turn
+  * within one pass, a chunk at a time.
+  *
+  * Plans are immutable and can be shared between threads, "withMapping" and "andThen" return new plans.
+  * "forOps" keeps recently used plans in a small registry, so plans need not be kept around by callers.
+  */
+public class KanaConversionPlan
+{
+    // Table entries hold either a converted char and optional suffix (as in KanaConverter.convertCharAt),
+    // or an index into "mapped_outputs" for output which is a whole string
+    private static final long FLAG_STRING_OUTPUT  = 1L << 32;
+    private static final long FLAG_MAY_COLLAPSE   = 1L << 33;
+
+    private static final int PAGE_SIZE  = 256;
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_MASK  = PAGE_SIZE - 1;
+
+    /** Chars converted by one stage of a pipeline before passing them on to the next */
+    private static final int PIPELINE_CHUNK_SIZE = 1024;
+
+    /** High bytes of every char "convertKana" can change: ASCII, kana and ideographic space, zenkaku ASCII and hankaku katakana */
+    private static final int[] CONVERTIBLE_PAGES = { 0x00, 0x30, 0xFF };
+
+    private static final TreeMap<Character, String> EMPTY_MAPPINGS = new TreeMap<Character, String>();
+
+    /** Slots of the plan registry, a power of two */
+    private static final int REGISTRY_SIZE = 256;
+
+    /**
+      * Plans of "forOps" by hash of their ops and ignored chars, a plan evicts any other one hashing to its slot.
+      * Plans only have final fields, so threads racing on a slot see either a whole plan or none.
+      */
+    private static final KanaConversionPlan[] REGISTRY = new KanaConversionPlan[REGISTRY_SIZE];
+
+    /** Conversion operations, as in "convertKana" */
+    private final int conversion_ops;
+
+    /** Characters excluded from conversion by "conversion_ops" */
+    private final String chars_to_ignore;
+
+    /** Custom mappings by char, each applied once to converted output */
+    private final TreeMap<Character, String> custom_mappings;
+
+    /** Table entry of every char, by high byte then low byte, null pages leave chars unchanged */
+    private final long[][] entry_pages;
+
+    /** Custom mapping of every char as used for output converted outside the table, null if unmapped */
+    private final String[][] mapping_pages;
+
+    /** Outputs of entries flagged FLAG_STRING_OUTPUT */
+    private final String[] mapped_outputs;
+
+    /** Whether this plan was made by "andThen", mappings added to it then apply to its whole output */
+    private final boolean is_composed;
+
+    /** Plans applied one after another when they could not be fused into one table, otherwise null */
+    private final KanaConversionPlan[] pipeline_stages;
+
+
+    //{{{ KanaConversionPlan(int, String)
+    /**
+      * @param  conversion_ops   Flag-based integer indicating which type of conversions to perform
+      * @param  chars_to_ignore  Each character in this string will be excluded from conversion
+      */
+    public KanaConversionPlan(int conversion_ops, String chars_to_ignore)
+    {
+        this(conversion_ops, chars_to_ignore, new TreeMap<Character, String>(), false);
+    }
+    //}}}
+    //{{{ KanaConversionPlan(int)
+    /**
+      * @param  conversion_ops  Flag-based integer indicating which type of conversions to perform
+      */
+    public KanaConversionPlan(int conversion_ops)
+    {
+        this(conversion_ops, "");
+    }
+    //}}}
+    //{{{ KanaConversionPlan(int, String, TreeMap<Character, String>, boolean)
+    private KanaConversionPlan(int conversion_ops, String chars_to_ignore, TreeMap<Character, String> custom_mappings, boolean is_composed)
+    {
+        if(chars_to_ignore == null) {
+            throw new NullPointerException("chars_to_ignore");
+        }
+        this.conversion_ops  = conversion_ops;
+        this.chars_to_ignore = chars_to_ignore;
+        this.custom_mappings = custom_mappings;
+        this.is_composed     = is_composed;
+        this.pipeline_stages = null;
+
+        // Custom mappings by page
+        this.mapping_pages = new String[PAGE_SIZE][];
+        for(Map.Entry<Character, String> mapping : custom_mappings.entrySet()) {
+            char from_char = mapping.getKey();
+            int page_index = from_char >>> PAGE_SHIFT;
+            if(this.mapping_pages[page_index] == null) {
+                this.mapping_pages[page_index] = new String[PAGE_SIZE];
+            }
+            this.mapping_pages[page_index][from_char & PAGE_MASK] = mapping.getValue();
+        }
+
+        // Compile every page in which a char may be converted or mapped
+        this.entry_pages = new long[PAGE_SIZE][];
+        List<String> outputs = new ArrayList<String>();
+        if(conversion_ops > 0) {
+            for(int page_index : CONVERTIBLE_PAGES) {
+                this.entry_pages[page_index] = this.compilePage(page_index, outputs);
+            }
+        }
+        for(Character from_char : custom_mappings.keySet()) {
+            int page_index = from_char >>> PAGE_SHIFT;
+            if(this.entry_pages[page_index] == null) {
+                this.entry_pages[page_index] = this.compilePage(page_index, outputs);
+            }
+        }
+        this.mapped_outputs = outputs.toArray(new String[outputs.size()]);
+    }
+    //}}}
+    //{{{ KanaConversionPlan(KanaConversionPlan[])
+    /**
+      * Pipeline of plans which have no pipelines themselves.  Fields of the first stage are shared
+      * so that the accessors describe where conversion starts.
+      */
+    private KanaConversionPlan(KanaConversionPlan[] pipeline_stages)
+    {
+        KanaConversionPlan first_stage = pipeline_stages[0];
+        this.conversion_ops  = first_stage.conversion_ops;
+        this.chars_to_ignore = first_stage.chars_to_ignore;
+        this.custom_mappings = first_stage.custom_mappings;
+        this.entry_pages     = first_stage.entry_pages;
+        this.mapping_pages   = first_stage.mapping_pages;
+        this.mapped_outputs  = first_stage.mapped_outputs;
+        this.is_composed     = true;
+        this.pipeline_stages = pipeline_stages;
+    }
+    //}}}
+
+
+    //{{{ KanaConversionPlan forOps(int, String)
+    /**
+      * Looks the plan up in a bounded registry without taking any lock, and compiles it on a miss.
+      *
+      * @param  conversion_ops   Flag-based integer indicating which type of conversions to perform
+      * @param  chars_to_ignore  Each character in this string will be excluded from conversion
+      * @return Plan equal to "new KanaConversionPlan(conversion_ops, chars_to_ignore)", shared with other callers
+      */
+    public static KanaConversionPlan forOps(int conversion_ops, String chars_to_ignore)
+    {
+        int hash = conversion_ops * 0x9E3779B9 + chars_to_ignore.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (REGISTRY_SIZE - 1);
+        KanaConversionPlan plan = REGISTRY[slot];
+        if(plan != null && plan.conversion_ops == conversion_ops && plan.chars_to_ignore.equals(chars_to_ignore)) {
+            return plan;
+        }
+        // Racing threads may each compile the plan, any of them is fine to keep
+        plan = new KanaConversionPlan(conversion_ops, chars_to_ignore);
+        REGISTRY[slot] = plan;
+        return plan;
+    }
+    //}}}
+    //{{{ KanaConversionPlan forOps(int)
+    /**
+      * @param  conversion_ops  Flag-based integer indicating which type of conversions to perform
+      * @return Plan equal to "new KanaConversionPlan(conversion_ops)", shared with other callers
+      */
+    public static KanaConversionPlan forOps(int conversion_ops)
+    {
+        return forOps(conversion_ops, "");
+    }
+    //}}}
+
+
+    //{{{ KanaConversionPlan withMapping(char, String)
+    /**
+      * @param  from_char    Char to replace in converted output
+      * @param  to_string    Replacement, may be empty to remove "from_char"
+      * @return New plan with this mapping added, replacing any earlier mapping of "from_char".
+      *         On a plan made by "andThen" the mapping is applied to the output of the whole chain.
+      */
+    public KanaConversionPlan withMapping(char from_char, String to_string)
+    {
+        if(to_string == null) {
+            throw new NullPointerException("to_string");
+        }
+        if(this.is_composed) {
+            return this.andThen(new KanaConversionPlan(0).withMapping(from_char, to_string));
+        }
+        TreeMap<Character, String> new_mappings = new TreeMap<Character, String>(this.custom_mappings);
+        new_mappings.put(from_char, to_string);
+        return new KanaConversionPlan(this.conversion_ops, this.chars_to_ignore, new_mappings, false);
+    }
+    //}}}
+    //{{{ KanaConversionPlan withMapping(char, char)
+    /**
+      * @param  from_char  Char to replace in converted output
+      * @param  to_char    Replacement
+      * @return New plan with this mapping added, replacing any earlier mapping of "from_char"
+      */
+    public KanaConversionPlan withMapping(char from_char, char to_char)
+    {
+        return this.withMapping(from_char, String.valueOf(to_char));
+    }
+    //}}}
+    //{{{ KanaConversionPlan withMappings(Map<Character, String>)
+    /**
+      * @param  mappings  Replacements by char, compiled together in one go
+      * @return New plan with these mappings added, replacing any earlier mappings of the same chars
+      */
+    public KanaConversionPlan withMappings(Map<Character, String> mappings)
+    {
+        TreeMap<Character, String> new_mappings = new TreeMap<Character, String>(this.is_composed ? EMPTY_MAPPINGS : this.custom_mappings);
+        for(Map.Entry<Character, String> mapping : mappings.entrySet()) {
+            if(mapping.getValue() == null) {
+                throw new NullPointerException("Mapping of " + mapping.getKey());
+            }
+            new_mappings.put(mapping.getKey(), mapping.getValue());
+        }
+        if(this.is_composed) {
+            return this.andThen(new KanaConversionPlan(0, "", new_mappings, false));
+        }
+        return new KanaConversionPlan(this.conversion_ops, this.chars_to_ignore, new_mappings, false);
+    }
+    //}}}
+
+
+    //{{{ KanaConversionPlan andThen(KanaConversionPlan)
+    /**
+      * @param  next_plan  Plan to apply to the output of this one
+      * @return Plan giving the same output as "next_plan.convert(this.convert(text))" in a single pass
+      */
+    public KanaConversionPlan andThen(KanaConversionPlan next_plan)
+    {
+        // Flatten both sides into single-table stages
+        List<KanaConversionPlan> stages = new ArrayList<KanaConversionPlan>();
+        this.addStagesTo(stages);
+        next_plan.addStagesTo(stages);
+
+        // Fuse each stage into the one before it where possible
+        List<KanaConversionPlan> fused_stages = new ArrayList<KanaConversionPlan>();
+        KanaConversionPlan current_stage = stages.get(0);
+        for(int k = 1; k < stages.size(); k++) {
+            KanaConversionPlan stage = stages.get(k);
+            if(stage.mayCollapseAny()) {
+                fused_stages.add(current_stage);
+                current_stage = stage;
+            } else {
+                current_stage = current_stage.fuseWith(stage);
+            }
+        }
+        fused_stages.add(current_stage);
+
+        if(fused_stages.size() == 1) {
+            KanaConversionPlan fused_plan = fused_stages.get(0);
+            return new KanaConversionPlan(fused_plan.conversion_ops, fused_plan.chars_to_ignore, fused_plan.custom_mappings, true);
+        }
+        return new KanaConversionPlan(fused_stages.toArray(new KanaConversionPlan[fused_stages.size()]));
+    }
+    //}}}
+
+
+    //{{{ boolean isFused()
+    /**
+      * @return Whether this plan converts through a single table (as opposed to a pipeline of tables)
+      */
+    public boolean isFused()
+    {
+        return this.pipeline_stages == null;
+    }
+    //}}}
+
+
+    //{{{ int getConversionOps()
+    /**
+      * @return Conversion ops of this plan, or of the first plan for plans made by "andThen"
+      */
+    public int getConversionOps()
+    {
+        return this.conversion_ops;
+    }
+    //}}}
+
+
+    //{{{ String getCharsToIgnore()
+    /**
+      * @return Ignored chars of this plan, or of the first plan for plans made by "andThen"
+      */
+    public String getCharsToIgnore()
+    {
+        return this.chars_to_ignore;
+    }
+    //}}}
+
+
+    //{{{ String convert(CharSequence)
+    /**
+      * @param  original_text  Text to convert
+      * @return Same as "convertKana" with this plan's ops and ignored chars, followed by custom mappings
+      */
+    public String convert(CharSequence original_text)
+    {
+        if(this.pipeline_stages != null) {
+            StringBuilder new_string = new StringBuilder(original_text.length());
+            this.appendConverted(original_text, new_string);
+            return new_string.toString();
+        }
+
+        // Text which nothing changes, such as ASCII for kana ops, is returned without copying it
+        int char_count = original_text.length();
+        int unchanged_count = this.countUnchangedChars(original_text);
+        if(unchanged_count == char_count) {
+            return original_text.toString();
+        }
+        StringBuilder new_string = new StringBuilder(char_count);
+        new_string.append(original_text, 0, unchanged_count);
+        this.appendConvertedStage(original_text, unchanged_count, char_count, true, new_string);
+        return new_string.toString();
+    }
+    //}}}
+
+
+    //{{{ int countUnchangedChars(CharSequence)
+    /**
+      * @return Count of leading chars which this plan leaves as they are, none of which may collapse with a mark
+      */
+    private int countUnchangedChars(CharSequence original_text)
+    {
+        int char_count = original_text.length();
+        for(int i = 0; i < char_count; i++) {
+            char this_char = original_text.charAt(i);
+            long[] entry_page = this.entry_pages[this_char >>> PAGE_SHIFT];
+            if(entry_page != null && entry_page[this_char & PAGE_MASK] != this_char) {
+                return i;
+            }
+        }
+        return char_count;
+    }
+    //}}}
+
+
+    //{{{ void appendConverted(CharSequence, StringBuilder)
+    /**
+      * @param  original_text  Text to convert
+      * @param  new_string     Converted text is appended here
+      */
+    public void appendConverted(CharSequence original_text, StringBuilder new_string)
+    {
+        if(this.pipeline_stages == null) {
+            this.appendConvertedStage(original_text, 0, original_text.length(), true, new_string);
+            return;
+        }
+
+        // Each stage reads what the stage before it wrote to its buffer, a chunk of input at a time
+        int stage_count = this.pipeline_stages.length;
+        StringBuilder[] stage_buffers = new StringBuilder[stage_count - 1];
+        for(int k = 0; k < stage_count - 1; k++) {
+            stage_buffers[k] = new StringBuilder(PIPELINE_CHUNK_SIZE * 2);
+        }
+        int char_count = original_text.length();
+        int i = 0;
+        do {
+            int chunk_end = Math.min(char_count, i + PIPELINE_CHUNK_SIZE);
+            i = this.pipeline_stages[0].appendConvertedStage(original_text, i, chunk_end, true, stage_buffers[0]);
+
+            // Input of a stage is complete once every stage before it has consumed all of its own
+            boolean is_input_final = (i >= char_count);
+            for(int k = 1; k < stage_count; k++) {
+                StringBuilder stage_input = stage_buffers[k - 1];
+                StringBuilder stage_output = (k < stage_count - 1) ? stage_buffers[k] : new_string;
+                int consumed_count = this.pipeline_stages[k].appendConvertedStage(stage_input, 0, stage_input.length(), is_input_final, stage_output);
+                stage_input.delete(0, consumed_count);
+                is_input_final = is_input_final && stage_input.length() == 0;
+            }
+        } while(i < char_count);
+    }
+    //}}}
+
+
+    //{{{ int appendConvertedStage(CharSequence, int, int, boolean, StringBuilder)
+    /**
+      * Converts through this plan's own table, so only whole plans which are not pipelines
+      * ("isFused") can be run a part at a time with this.
+      *
+      * @param  original_text  Text to convert
+      * @param  start          Index of first char to convert
+      * @param  limit          Conversion stops at the first unit starting at or after this index
+      * @param  is_final       Whether "original_text" is complete.  If not, a last char which may
+      *                        collapse with a diacritic mark that is yet to come is left unconverted.
+      * @param  new_string     Converted text is appended here
+      * @return Index just past the last converted char
+      */
+    protected int appendConvertedStage(CharSequence original_text, int start, int limit, boolean is_final, StringBuilder new_string)
+    {
+        int char_count = original_text.length();
+        int i = start;
+        while(i < limit) {
+            char this_char = original_text.charAt(i);
+            long[] entry_page = this.entry_pages[this_char >>> PAGE_SHIFT];
+            if(entry_page == null) {
+                new_string.append(this_char);
+                i++;
+                continue;
+            }
+
+            long entry = entry_page[this_char & PAGE_MASK];
+            if(0 != (entry & FLAG_MAY_COLLAPSE)) {
+                if(i < (char_count - 1)) {
+                    // Kana which may collapse, convert together with a following diacritic mark
+                    long conversion_result = KanaConverter.convertCharAt(original_text, i, this.conversion_ops, this.chars_to_ignore);
+                    this.appendMapped(new_string, KanaConverter.getConvertedChar(conversion_result));
+                    char converted_suffix = KanaConverter.getConvertedSuffix(conversion_result);
+                    if(converted_suffix != 0) {
+                        this.appendMapped(new_string, converted_suffix);
+                    }
+                    i += KanaConverter.getConsumedCharCount(conversion_result);
+                    continue;
+                }
+                if(!is_final) {
+                    return i;
+                }
+            }
+
+            if(0 != (entry & FLAG_STRING_OUTPUT)) {
+                new_string.append(this.mapped_outputs[(int)entry]);
+            } else {
+                new_string.append(KanaConverter.getConvertedChar(entry));
+                char converted_suffix = KanaConverter.getConvertedSuffix(entry);
+                if(converted_suffix != 0) {
+                    new_string.append(converted_suffix);
+                }
+            }
+            i++;
+        }
+        return i;
+    }
+    //}}}
+
+
+    //{{{ int convertInto(CharSequence, char[])
+    /**
+      * Converts the whole text into an array instead of a StringBuilder, for plans which are
+      * fused ("isFused") and have no custom mappings, so that every char converts to at most two.
+      *
+      * @param  original_text    Text to convert
+      * @param  converted_chars  Converted text is written here from index 0, at least twice as long as "original_text"
+      * @return Count of converted chars written
+      */
+    protected int convertInto(CharSequence original_text, char[] converted_chars)
+    {
+        if(this.pipeline_stages != null || !this.custom_mappings.isEmpty()) {
+            throw new IllegalStateException("Only plans without custom mappings convert into arrays");
+        }
+        int char_count = original_text.length();
+        int converted_count = 0;
+        int i = 0;
+        while(i < char_count) {
+            char this_char = original_text.charAt(i);
+            long[] entry_page = this.entry_pages[this_char >>> PAGE_SHIFT];
+            if(entry_page == null) {
+                converted_chars[converted_count++] = this_char;
+                i++;
+                continue;
+            }
+
+            long entry = entry_page[this_char & PAGE_MASK];
+            int consumed_char_count = 1;
+            if(0 != (entry & FLAG_MAY_COLLAPSE) && i < (char_count - 1)) {
+                entry = KanaConverter.convertCharAt(original_text, i, this.conversion_ops, this.chars_to_ignore);
+                consumed_char_count = KanaConverter.getConsumedCharCount(entry);
+            }
+            converted_chars[converted_count++] = KanaConverter.getConvertedChar(entry);
+            char converted_suffix = KanaConverter.getConvertedSuffix(entry);
+            if(converted_suffix != 0) {
+                converted_chars[converted_count++] = converted_suffix;
+            }
+            i += consumed_char_count;
+        }
+        return converted_count;
+    }
+    //}}}
+
+
+    //{{{ void addStagesTo(List<KanaConversionPlan>)
+    private void addStagesTo(List<KanaConversionPlan> stages)
+    {
+        if(this.pipeline_stages == null) {
+            stages.add(this);
+        } else {
+            for(KanaConversionPlan stage : this.pipeline_stages) {
+                stages.add(stage);
+            }
+        }
+    }
+    //}}}
+
+
+    //{{{ KanaConversionPlan fuseWith(KanaConversionPlan)
+    /**
+      * @param  next_stage  Single-table plan which never collapses diacritic marks
+      * @return Single-table plan with this plan's ops, whose mappings also do everything "next_stage" does
+      */
+    private KanaConversionPlan fuseWith(KanaConversionPlan next_stage)
+    {
+        // Chars output by this plan's ops which end up different: those it maps, and those the next stage changes
+        TreeMap<Character, String> fused_mappings = new TreeMap<Character, String>();
+        List<Character> affected_chars = new ArrayList<Character>(this.custom_mappings.keySet());
+        for(int page_index = 0; page_index < PAGE_SIZE; page_index++) {
+            long[] entry_page = next_stage.entry_pages[page_index];
+            if(entry_page == null) {
+                continue;
+            }
+            for(int low_byte = 0; low_byte < PAGE_SIZE; low_byte++) {
+                char this_char = (char)((page_index << PAGE_SHIFT) | low_byte);
+                if(entry_page[low_byte] != this_char) {
+                    affected_chars.add(this_char);
+                }
+            }
+        }
+
+        for(Character affected_char : affected_chars) {
+            String mapped = this.custom_mappings.get(affected_char);
+            if(mapped == null) {
+                mapped = String.valueOf(affected_char);
+            }
+            StringBuilder fused_output = new StringBuilder(mapped.length() * 2);
+            next_stage.appendConvertedStage(mapped, 0, mapped.length(), true, fused_output);
+            if(fused_output.length() != 1 || fused_output.charAt(0) != affected_char) {
+                fused_mappings.put(affected_char, fused_output.toString());
+            }
+        }
+        return new KanaConversionPlan(this.conversion_ops, this.chars_to_ignore, fused_mappings, false);
+    }
+    //}}}
+
+
+    //{{{ long[] compilePage(int, List<String>)
+    /**
+      * @param  page_index  High byte of the chars to compile
+      * @param  outputs     String outputs of entries, new ones are added here
+      * @return Table entries of the 256 chars of this page
+      */
+    private long[] compilePage(int page_index, List<String> outputs)
+    {
+        long[] entry_page = new long[PAGE_SIZE];
+        for(int low_byte = 0; low_byte < PAGE_SIZE; low_byte++) {
+            char this_char = (char)((page_index << PAGE_SHIFT) | low_byte);
+            long conversion_result = KanaConverter.convertCharAt(String.valueOf(this_char), 0, this.conversion_ops, this.chars_to_ignore);
+            char converted_char = KanaConverter.getConvertedChar(conversion_result);
+            char converted_suffix = KanaConverter.getConvertedSuffix(conversion_result);
+
+            String mapped_char = this.getMapping(converted_char);
+            String mapped_suffix = (converted_suffix != 0) ? this.getMapping(converted_suffix) : null;
+            long entry;
+            if(mapped_char == null && mapped_suffix == null) {
+                entry = ((long)converted_suffix << 16) | converted_char;
+            } else {
+                StringBuilder mapped_output = new StringBuilder(4);
+                mapped_output.append((mapped_char != null) ? mapped_char : String.valueOf(converted_char));
+                if(converted_suffix != 0) {
+                    mapped_output.append((mapped_suffix != null) ? mapped_suffix : String.valueOf(converted_suffix));
+                }
+                if(mapped_output.length() == 1) {
+                    entry = mapped_output.charAt(0);
+                } else {
+                    entry = FLAG_STRING_OUTPUT | outputs.size();
+                    outputs.add(mapped_output.toString());
+                }
+            }
+
+            if(this.mayCollapse(this_char)) {
+                entry |= FLAG_MAY_COLLAPSE;
+            }
+            entry_page[low_byte] = entry;
+        }
+        return entry_page;
+    }
+    //}}}
+
+
+    //{{{ boolean mayCollapseAny()
+    /**
+      * @return Whether any char may be converted together with a following diacritic mark by this plan
+      */
+    private boolean mayCollapseAny()
+    {
+        if(this.pipeline_stages != null
+        || 0 != (this.conversion_ops & (KanaConverter.OP_COMPOSE_COMBINING_MARKS | KanaConverter.OP_KANA_NFKC))) {
+            return true;
+        }
+        return 0 != (this.conversion_ops & (KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_HAN_KATA_TO_ZEN_HIRA))
+            && 0 == (this.conversion_ops & KanaConverter.OP_KEEP_DIACRITIC_MARKS_APART);
+    }
+    //}}}
+
+
+    //{{{ boolean mayCollapse(char)
+    /**
+      * @return Whether "this_char" is converted together with a following diacritic mark by this plan's ops
+      */
+    private boolean mayCollapse(char this_char)
+    {
+        if(0 != (this.conversion_ops & KanaConverter.OP_COMPOSE_COMBINING_MARKS)
+        && (KanaConverter.MAPPING_COMBINING_VOICED.containsKey(this_char)
+        ||  KanaConverter.MAPPING_COMBINING_ASPIRATED.containsKey(this_char))) {
+            return true;
+        }
+        if(0 != (this.conversion_ops & KanaConverter.OP_KANA_NFKC)
+        && !KanaConverter.isIgnoreChar(this_char, this.chars_to_ignore)) {
+            char folded_char = KanaConverter.convertCharToNfkc(this_char);
+            if(KanaConverter.MAPPING_COMBINING_VOICED.containsKey(folded_char)
+            || KanaConverter.MAPPING_COMBINING_ASPIRATED.containsKey(folded_char)) {
+                return true;
+            }
+        }
+        if(0 == (this.conversion_ops & (KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_HAN_KATA_TO_ZEN_HIRA))
+        || 0 != (this.conversion_ops & KanaConverter.OP_KEEP_DIACRITIC_MARKS_APART)
+        || KanaConverter.isIgnoreChar(this_char, this.chars_to_ignore)) {
+            return false;
+        }
+        return KanaConverter.MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.containsKey(this_char)
+            || KanaConverter.MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_ASPIRATED.containsKey(this_char);
+    }
+    //}}}
+
+
+    //{{{ String getMapping(char)
+    private String getMapping(char target)
+    {
+        String[] mapping_page = this.mapping_pages[target >>> PAGE_SHIFT];
+        return (mapping_page == null) ? null : mapping_page[target & PAGE_MASK];
+    }
+    //}}}
+
+
+    //{{{ void appendMapped(StringBuilder, char)
+    private void appendMapped(StringBuilder new_string, char converted_char)
+    {
+        String mapped = this.getMapping(converted_char);
+        if(mapped == null) {
+            new_string.append(converted_char);
+        } else {
+            new_string.append(mapped);
+        }
+    }
+    //}}}
+}
@@ -0,0 +1,130 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaConverter;
+
+/**
+  * Read-only view of text as it would look after "convertKana", converting each
+  * character only when it is read.  Nothing is converted or allocated up front.
+  *
+  * Only conversions that never change the length of text are supported: hiragana/katakana,
+  * zenkaku/hankaku ASCII, letters, numbers and spaces, and hankaku-to-zenkaku kana when
+  * combined with OP_KEEP_DIACRITIC_MARKS_APART.  Composing combining marks and NFKC folding are not supported.
+  */
+public class KanaConvertedView implements CharSequence
+{
+    /** Ops which convert one character into two (zen-to-han kana), or always collapse two into one (combining marks, NFKC) */
+    private static final int LENGTH_CHANGING_OPS =
+        KanaConverter.OP_ZEN_KATA_TO_HAN_KATA | KanaConverter.OP_ZEN_HIRA_TO_HAN_KATA | KanaConverter.OP_COMPOSE_COMBINING_MARKS
+      | KanaConverter.OP_KANA_NFKC;
+
+    /** Ops which collapse two characters into one, unless diacritic marks are kept apart */
+    private static final int COLLAPSING_OPS =
+        KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_HAN_KATA_TO_ZEN_HIRA;
+
+    private final CharSequence original_text;
+    private final int          conversion_ops;
+    private final String       chars_to_ignore;
+
+    /** Built on first call to "toString", racy publication is harmless since Strings are immutable */
+    private String converted_string;
+
+
+    //{{{ KanaConvertedView(CharSequence, int, String)
+    /**
+      * @param  original_text    Text to view, read through on every access
+      * @param  conversion_ops   Flag-based integer indicating which type of conversions to perform
+      * @param  chars_to_ignore  Each character in this string will be excluded from conversion
+      * @throws IllegalArgumentException  If "conversion_ops" can change the length of text
+      */
+    public KanaConvertedView(CharSequence original_text, int conversion_ops, String chars_to_ignore)
+    {
+        if(!isLengthPreserving(conversion_ops)) {
+            throw new IllegalArgumentException("Conversion ops change text length, cannot be viewed char by char: " + conversion_ops);
+        }
+        if(original_text == null) {
+            throw new NullPointerException("original_text");
+        }
+        if(chars_to_ignore == null) {
+            throw new NullPointerException("chars_to_ignore");
+        }
+        this.original_text   = original_text;
+        this.conversion_ops  = conversion_ops;
+        this.chars_to_ignore = chars_to_ignore;
+    }
+    //}}}
+    //{{{ KanaConvertedView(CharSequence, int)
+    /**
+      * @param  original_text    Text to view, read through on every access
+      * @param  conversion_ops   Flag-based integer indicating which type of conversions to perform
+      * @throws IllegalArgumentException  If "conversion_ops" can change the length of text
+      */
+    public KanaConvertedView(CharSequence original_text, int conversion_ops)
+    {
+        this(original_text, conversion_ops, "");
+    }
+    //}}}
+
+
+    //{{{ boolean isLengthPreserving(int)
+    /**
+      * @param  conversion_ops  Flag-based integer of conversion operations
+      * @return Whether these ops always convert one character into exactly one character
+      */
+    public static boolean isLengthPreserving(int conversion_ops)
+    {
+        if(conversion_ops <= 0) {
+            return true;
+        }
+        if(0 != (conversion_ops & LENGTH_CHANGING_OPS)) {
+            return false;
+        }
+        if(0 != (conversion_ops & COLLAPSING_OPS)
+        && 0 == (conversion_ops & KanaConverter.OP_KEEP_DIACRITIC_MARKS_APART)) {
+            return false;
+        }
+        return true;
+    }
+    //}}}
+
+
+    //{{{ int length()
+    public int length()
+    {
+        return this.original_text.length();
+    }
+    //}}}
+
+
+    //{{{ char charAt(int)
+    public char charAt(int index)
+    {
+        long conversion_result = KanaConverter.convertCharAt(this.original_text, index, this.conversion_ops, this.chars_to_ignore);
+        return KanaConverter.getConvertedChar(conversion_result);
+    }
+    //}}}
+
+
+    //{{{ CharSequence subSequence(int, int)
+    public CharSequence subSequence(int start, int end)
+    {
+        return new KanaConvertedView(this.original_text.subSequence(start, end), this.conversion_ops, this.chars_to_ignore);
+    }
+    //}}}
+
+
+    //{{{ String toString()
+    public String toString()
+    {
+        String converted = this.converted_string;
+        if(converted == null) {
+            int char_count = this.original_text.length();
+            char[] converted_chars = new char[char_count];
+            for(int i = 0; i < char_count; i++) {
+                converted_chars[i] = this.charAt(i);
+            }
+            converted = new String(converted_chars);
+            this.converted_string = converted;
+        }
+        return converted;
+    }
+    //}}}
+}
@@ -1,6 +1,8 @@
 package com.mariten.kanatools;
 import com.mariten.kanatools.KanaAppraiser;
+import com.mariten.kanatools.KanaConversionPlan;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -9,6 +11,10 @@ import java.util.Map;
   *
   * Port of PHP's "mb_convert_kana" function for Java.
   * http://www.php.net/manual/en/function.mb-convert-kana.php
+  *
+  * Besides the static functions, a converter configured once with "builder()" converts through a
+  * compiled plan into a scratch buffer it keeps, so repeated conversions allocate only their output.
+  * Such a converter is for one thread at a time, "Builder.buildPerThread" gives each thread its own.
   */
 public class KanaConverter
 {
@@ -31,6 +37,11 @@ public class KanaConverter
     public static final int OP_ZEN_HIRA_TO_ZEN_KATA        = 0x00010000;
     public static final int OP_ZEN_KATA_TO_ZEN_HIRA        = 0x00020000;
 
+    //// Not part of PHP's options: compose kana followed by a Unicode combining dakuten/handakuten (U+3099/U+309A)
+    public static final int OP_COMPOSE_COMBINING_MARKS     = 0x01000000;
+    //// Not part of PHP's options: fold chars in KanaAppraiser's kana/ASCII/space/punctuation ranges exactly as NFKC would
+    public static final int OP_KANA_NFKC                   = 0x02000000;
+
     //// Maintain backwards compatibility (based on mb_convert_kana's "$option" parameter from PHP)
     //// Details: http://php.net/manual/en/function.mb-convert-kana.php
     public static final Map<Character, Integer> LETTER_OP_CODE_LOOKUP;
@@ -52,6 +63,117 @@ public class KanaConverter
         LETTER_OP_CODE_LOOKUP.put('s', OP_ZEN_SPACE_TO_HAN_SPACE);
     }
 
+    /** Slots of the parsed op string cache, a power of two */
+    private static final int PARSED_OPS_CACHE_SIZE = 64;
+
+    /** Hash of the ops and ignored chars "convertKana" last saw in each of a power of two slots */
+    private static final int[] SIGHTED_OPS_HASHES = new int[64];
+
+    /** Scratch buffers are not shrunk, but neither kept past this size */
+    private static final int MAX_KEPT_SCRATCH_SIZE = 1 << 16;
+
+    /** Compiled conversion of this converter */
+    private final KanaConversionPlan plan;
+
+    /** Converted chars are written here before being copied into the output string */
+    private char[] scratch_chars;
+
+
+    //{{{ KanaConverter()
+    /**
+      * Converter which performs no conversion, use "builder()" to configure one.
+      */
+    public KanaConverter()
+    {
+        this(new KanaConversionPlan(0));
+    }
+    //}}}
+    //{{{ KanaConverter(KanaConversionPlan)
+    /**
+      * @param  plan  Plan without custom mappings
+      */
+    private KanaConverter(KanaConversionPlan plan)
+    {
+        this.plan = plan;
+        this.scratch_chars = new char[0];
+    }
+    //}}}
+
+
+    //{{{ Builder builder()
+    /**
+      * @return Builder for a converter, with no ops and no ignored chars to start with
+      */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+    //}}}
+
+
+    //{{{ String convert(CharSequence)
+    /**
+      * @param  original_text  Input text to perform conversion on
+      * @return Same as "convertKana" with this converter's ops and ignored chars
+      */
+    public String convert(CharSequence original_text)
+    {
+        int char_count = original_text.length();
+        if(char_count == 0 || this.plan.getConversionOps() <= 0) {
+            return original_text.toString();
+        }
+        char[] converted_chars = this.getScratchChars(char_count * 2);
+        int converted_count = this.plan.convertInto(original_text, converted_chars);
+        return new String(converted_chars, 0, converted_count);
+    }
+    //}}}
+    //{{{ void convert(CharSequence, StringBuilder)
+    /**
+      * @param  original_text  Input text to perform conversion on
+      * @param  new_string     Converted text is appended here
+      */
+    public void convert(CharSequence original_text, StringBuilder new_string)
+    {
+        int char_count = original_text.length();
+        if(this.plan.getConversionOps() <= 0) {
+            new_string.append(original_text);
+            return;
+        }
+        char[] converted_chars = this.getScratchChars(char_count * 2);
+        int converted_count = this.plan.convertInto(original_text, converted_chars);
+        new_string.append(converted_chars, 0, converted_count);
+    }
+    //}}}
+
+
+    //{{{ KanaConversionPlan getPlan()
+    /**
+      * @return Compiled conversion of this converter, which can be shared between threads
+      */
+    public KanaConversionPlan getPlan()
+    {
+        return this.plan;
+    }
+    //}}}
+
+
+    //{{{ char[] getScratchChars(int)
+    /**
+      * @return Scratch buffer of at least "min_size" chars, only kept for later calls up to a bounded size
+      */
+    private char[] getScratchChars(int min_size)
+    {
+        if(this.scratch_chars.length >= min_size) {
+            return this.scratch_chars;
+        }
+        char[] new_scratch_chars = new char[Math.max(min_size, Math.min(this.scratch_chars.length * 2, MAX_KEPT_SCRATCH_SIZE))];
+        if(new_scratch_chars.length <= MAX_KEPT_SCRATCH_SIZE) {
+            this.scratch_chars = new_scratch_chars;
+        }
+        return new_scratch_chars;
+    }
+    //}}}
+
 
     //{{{ String convertKana(String, int, String)
     /**
@@ -75,153 +197,24 @@ public class KanaConverter
             return original_string;
         }
 
-        boolean do_collapse_on_hankaku_diacritic = true;
-        if((conversion_ops & OP_KEEP_DIACRITIC_MARKS_APART) != 0) {
-            // Do not glue hankaku katakana diacritic symbols when converting to zenkaku.
-            // Use with 'K' or 'H'
-            do_collapse_on_hankaku_diacritic = false;
+        // Compiled once ops and ignored chars come up again, then looked up
+        if(!isFirstSighting(conversion_ops, chars_to_ignore)) {
+            return KanaConversionPlan.forOps(conversion_ops, chars_to_ignore).convert(original_string);
         }
 
+        // Compiling a plan costs far more than converting one string char by char
         int char_count = original_string.length();
-        StringBuffer new_string = new StringBuffer();
+        StringBuilder new_string = new StringBuilder(char_count);
         int i = 0;
         while(i < char_count) {
-            // Init char holders for this round
-            char this_char = original_string.charAt(i);
-            char current_char = this_char;
-            char hankaku_diacritic_suffix = 0;
-            char next_char = 0;
-            if(i < (char_count - 1)) {
-                next_char = original_string.charAt(i + 1);
-            }
-
-            // Skip all conversions if character is on the excluded chars list
-            boolean is_ignore_char = isIgnoreChar(current_char, chars_to_ignore);
-            if(is_ignore_char) {
-                new_string.append(current_char);
-                i++;
-                continue;
-            }
-
-            // Order of conversion operations written to be similar to original PHP
-            //// Source: https://github.com/php/php-src/blob/128eda843f7dff487fff529a384fee3c5494e0f6/ext/mbstring/libmbfl/filters/mbfilter_tl_jisx0201_jisx0208.c#L41
-            if(0 != (conversion_ops & OP_HAN_ASCII_TO_ZEN_ASCII)) {
-                current_char = convertHankakuAsciiToZenkakuAscii(current_char);
-            }
-
-            if(current_char == this_char
-            && 0 != (conversion_ops & OP_HAN_LETTER_TO_ZEN_LETTER)) {
-                current_char = convertHankakuLetterToZenkakuLetter(current_char);
-            }
-
-            if(current_char == this_char
-            && 0 != (conversion_ops & OP_HAN_NUMBER_TO_ZEN_NUMBER)) {
-                current_char = convertHankakuNumberToZenkakuNumber(current_char);
-            }
-
-            if(current_char == this_char
-            && 0 != (conversion_ops & OP_HAN_SPACE_TO_ZEN_SPACE)) {
-                current_char = convertHankakuSpaceToZenkakuSpace(current_char);
-            }
-
-            if(current_char == this_char
-            && (0 != (conversion_ops & OP_HAN_KATA_TO_ZEN_KATA)
-            ||  0 != (conversion_ops & OP_HAN_KATA_TO_ZEN_HIRA))) {
-                char collapsed_char_for_check = current_char;
-                boolean performed_hankaku_conversion = false;
-                if(do_collapse_on_hankaku_diacritic) {
-                    // Check if current character requires the collapsing of a diacritic mark
-                    collapsed_char_for_check = convertDiacriticHankakuKanaToZenkaku(current_char, next_char);
-                }
-
-                if(collapsed_char_for_check != current_char) {
-                    // Use collapsed result
-                    current_char = collapsed_char_for_check;
-                    performed_hankaku_conversion = true;
-
-                    // Do not include next character in final result string because
-                    // it is a hankaku-only diacritic mark that isn't needed after conversion to zenkaku
-                    i++;
-                }
-                else {
-                    // Use result from hankaku-kana unvoiced mapping
-                    char converted_current_char = convertUnvoicedHankakuKanaToZenkaku(current_char);
-                    if(converted_current_char != current_char) {
-                        current_char = converted_current_char;
-                        performed_hankaku_conversion = true;
-                    }
-                }
-
-                if(performed_hankaku_conversion
-                && 0 == (conversion_ops & OP_HAN_KATA_TO_ZEN_KATA)) {
-                    // If request is not for katakana, perform additional kata->hira conversion
-                    current_char = convertZenkakuKatakanaToZenkakuHiragana(current_char);
-                }
-            }
-
-            if(current_char == this_char
-            && 0 != (conversion_ops & OP_ZEN_ASCII_TO_HAN_ASCII)) {
-                current_char = convertZenkakuAsciiToHankakuAscii(current_char);
-            }
-
-            if(current_char == this_char
-            && 0 != (conversion_ops & OP_ZEN_LETTER_TO_HAN_LETTER)) {
-                current_char = convertZenkakuLetterToHankakuLetter(current_char);
-            }
-
-            if(current_char == this_char
-            && 0 != (conversion_ops & OP_ZEN_NUMBER_TO_HAN_NUMBER)) {
-                current_char = convertZenkakuNumberToHankakuNumber(current_char);
-            }
-
-            if(current_char == this_char
-            && 0 != (conversion_ops & OP_ZEN_SPACE_TO_HAN_SPACE)) {
-                current_char = convertZenkakuSpaceToHankakuSpace(current_char);
-            }
-
-            if(current_char == this_char
-            && 0 != (conversion_ops & OP_ZEN_KATA_TO_HAN_KATA)) {
-                hankaku_diacritic_suffix = determineHankakuDiacriticSuffix(current_char);
-                current_char = convertZenkakuKatakanaToHankakuKatakana(current_char);
-            }
-
-            // Check if current character is a zenkaku katakana character
-            char full_katakana_to_hiragana_result = convertZenkakuKatakanaToZenkakuHiragana(current_char);
-
-            // Do not enter this block if the current character is a zenkaku katakana character, no matter the flags
-            // Protects against katakana characters being incorrectly converted by zen-hiragana to han-katakana logic
-            if(current_char == this_char
-            && full_katakana_to_hiragana_result == current_char
-            && (0 != (conversion_ops & OP_ZEN_HIRA_TO_ZEN_KATA)
-            ||  0 != (conversion_ops & OP_ZEN_HIRA_TO_HAN_KATA))) {
-                // First convert from full hiragana to full katakana
-                current_char = convertZenkakuHiraganaToZenkakuKatakana(current_char);
-
-                if(0 != (conversion_ops & OP_ZEN_HIRA_TO_HAN_KATA)) {
-                    // Proceed to convert to hankaku if requested (skip if zen-kata to han-kata conversion was already performed)
-                    hankaku_diacritic_suffix = determineHankakuDiacriticSuffix(current_char);
-                    current_char = convertZenkakuKatakanaToHankakuKatakana(current_char);
-                }
-            }
-
-            if(current_char == this_char
-            && 0 != (conversion_ops & OP_ZEN_KATA_TO_ZEN_HIRA)) {
-                current_char = full_katakana_to_hiragana_result;
-            }
-
-            // Add converted character to output string buffer
-            new_string.append(current_char);
-
-            // Add hankaku diacritic mark if necessary (only for zen-to-han kana conversions)
-            if(hankaku_diacritic_suffix == HANKAKU_VOICED_MARK
-            || hankaku_diacritic_suffix == HANKAKU_ASPIRATED_MARK) {
+            long conversion_result = convertCharAt(original_string, i, conversion_ops, chars_to_ignore);
+            new_string.append(getConvertedChar(conversion_result));
+            char hankaku_diacritic_suffix = getConvertedSuffix(conversion_result);
+            if(hankaku_diacritic_suffix != 0) {
                 new_string.append(hankaku_diacritic_suffix);
             }
-
-            // Proceed with loop
-            i++;
+            i += getConsumedCharCount(conversion_result);
         }
-
         return new_string.toString();
     }
     //}}}
@@ -271,241 +264,335 @@ public class KanaConverter
     //}}}
 
 
+    //{{{ boolean isFirstSighting(int, String)
+    /**
+      * Remembers the ops and ignored chars of the call, so that a one-off conversion such as the first one
+      * of a short-lived JVM compiles no plan.  Calls with other ops evicting them from their slot
+      * only make them count as new once more.
+      *
+      * @return Whether "convertKana" has not just been called with these ops and ignored chars
+      */
+    private static boolean isFirstSighting(int conversion_ops, String chars_to_ignore)
+    {
+        int hash = conversion_ops * 0x9E3779B9 + chars_to_ignore.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (SIGHTED_OPS_HASHES.length - 1);
+        if(SIGHTED_OPS_HASHES[slot] == hash) {
+            return false;
+        }
+        SIGHTED_OPS_HASHES[slot] = hash;
+        return true;
+    }
+    //}}}
+
+
+    //{{{ KanaOffsetMap convertKanaWithOffsets(String, int, String)
+    /**
+      * Same conversion as "convertKana", but also records how offsets in the original string
+      * correspond to offsets in the converted string (useful for highlighting search hits).
+      * When no character changes length, no mapping data is allocated at all.
+      *
+      * @param  original_string  Input string to perform conversion on
+      * @param  conversion_ops   Flag-based integer indicating which type of conversions to perform
+      * @param  chars_to_ignore  Each character in this string will be excluded from conversion
+      * @return Converted string along with its offset mapping
+      */
+    public static KanaOffsetMap convertKanaWithOffsets(String original_string, int conversion_ops, String chars_to_ignore)
+    {
+        int char_count = original_string.length();
+        if(char_count == 0 || conversion_ops <= 0) {
+            return new KanaOffsetMap(original_string, original_string);
+        }
+
+        StringBuilder new_string = new StringBuilder(char_count);
+        int[] original_breakpoints  = null;
+        int[] converted_breakpoints = null;
+        int breakpoint_count = 0;
+        int i = 0;
+        while(i < char_count) {
+            long conversion_result = convertCharAt(original_string, i, conversion_ops, chars_to_ignore);
+            int consumed_char_count = getConsumedCharCount(conversion_result);
+            new_string.append(getConvertedChar(conversion_result));
+
+            char hankaku_diacritic_suffix = getConvertedSuffix(conversion_result);
+            if(hankaku_diacritic_suffix != 0) {
+                new_string.append(hankaku_diacritic_suffix);
+            }
+            i += consumed_char_count;
+
+            // Record a breakpoint whenever this character changed length
+            int produced_char_count = (hankaku_diacritic_suffix != 0) ? 2 : 1;
+            if(produced_char_count != consumed_char_count) {
+                if(original_breakpoints == null) {
+                    original_breakpoints  = new int[8];
+                    converted_breakpoints = new int[8];
+                } else if(breakpoint_count == original_breakpoints.length) {
+                    original_breakpoints  = Arrays.copyOf(original_breakpoints, breakpoint_count * 2);
+                    converted_breakpoints = Arrays.copyOf(converted_breakpoints, breakpoint_count * 2);
+                }
+                original_breakpoints[breakpoint_count]  = i;
+                converted_breakpoints[breakpoint_count] = new_string.length();
+                breakpoint_count++;
+            }
+        }
+
+        String converted_string = new_string.toString();
+        if(breakpoint_count == 0) {
+            return new KanaOffsetMap(original_string, converted_string);
+        }
+        return new KanaOffsetMap(original_string, converted_string, original_breakpoints, converted_breakpoints, breakpoint_count);
+    }
+    //}}}
+    //{{{ KanaOffsetMap convertKanaWithOffsets(String, int)
+    /**
+      * @param  original_string  Input string to perform conversion on
+      * @param  conversion_ops   Flag-based integer indicating which type of conversions to perform
+      * @return Converted string along with its offset mapping
+      */
+    public static KanaOffsetMap convertKanaWithOffsets(String original_string, int conversion_ops)
+    {
+        return convertKanaWithOffsets(original_string, conversion_ops, "");
+    }
+    //}}}
+
+
+    //{{{ long convertCharAt(CharSequence, int, int, String)
+    /**
+      * Performs the conversion logic of "convertKana" for the single character position "i",
+      * without allocating any output buffer.  Used by "convertKana" itself as well as by
+      * utilities that need to walk converted text one character at a time.
+      *
+      * The result is packed into a long, unpack it with "getConvertedChar",
+      * "getConvertedSuffix" and "getConsumedCharCount".
+      *
+      * @param  original_string  Input text containing the position to convert
+      * @param  i                Index of the character to convert
+      * @param  conversion_ops   Flag-based integer indicating which type of conversions to perform
+      * @param  chars_to_ignore  Each character in this string will be excluded from conversion
+      * @return Converted character, optional hankaku diacritic suffix and count of consumed input characters
+      */
+    protected static long convertCharAt(CharSequence original_string, int i, int conversion_ops, String chars_to_ignore)
+    {
+        // Init char holders for this round
+        int char_count = original_string.length();
+        char this_char = original_string.charAt(i);
+        char current_char = this_char;
+        char hankaku_diacritic_suffix = 0;
+        int consumed_char_count = 1;
+
+        // Return original if no conversion requested
+        if(conversion_ops <= 0) {
+            return packConversionResult(current_char, hankaku_diacritic_suffix, consumed_char_count);
+        }
+
+        // Compose kana followed by a combining diacritic mark (as NFC would), then convert it as if written composed
+        if(0 != (conversion_ops & OP_COMPOSE_COMBINING_MARKS)
+        && i < (char_count - 1)) {
+            char composed_char = convertCombiningDiacriticKanaToComposed(current_char, original_string.charAt(i + 1));
+            if(composed_char != current_char) {
+                this_char = composed_char;
+                current_char = composed_char;
+                consumed_char_count++;
+            }
+        }
+
+        // Skip all conversions if character is on the excluded chars list
+        boolean is_ignore_char = isIgnoreChar(current_char, chars_to_ignore);
+        if(is_ignore_char) {
+            return packConversionResult(current_char, hankaku_diacritic_suffix, consumed_char_count);
+        }
+
+        // Fold as NFKC would, before any other op sees the char
+        if(0 != (conversion_ops & OP_KANA_NFKC)) {
+            char folded_char = convertCharToNfkc(current_char);
+            if(current_char == ZENKAKU_VOICED_MARK || current_char == ZENKAKU_ASPIRATED_MARK) {
+                // Spacing diacritic marks decompose to a space followed by the combining mark
+                return packConversionResult(KanaAppraiser.HANKAKU_SPACE, folded_char, consumed_char_count);
+            }
+            if(i < (char_count - 1)) {
+                char next_char = original_string.charAt(i + 1);
+                if(next_char == HANKAKU_VOICED_MARK || next_char == HANKAKU_ASPIRATED_MARK) {
+                    next_char = convertCharToNfkc(next_char);
+                }
+                char composed_char = convertCombiningDiacriticKanaToComposed(folded_char, next_char);
+                if(composed_char != folded_char) {
+                    folded_char = composed_char;
+                    consumed_char_count++;
+                }
+            }
+            this_char = folded_char;
+            current_char = folded_char;
+        }
+
+        boolean do_collapse_on_hankaku_diacritic = true;
+        if((conversion_ops & OP_KEEP_DIACRITIC_MARKS_APART) != 0) {
+            // Do not glue hankaku katakana diacritic symbols when converting to zenkaku.
+            // Use with 'K' or 'H'
+            do_collapse_on_hankaku_diacritic = false;
+        }
+
+        // Order of conversion operations written to be similar to original PHP
+        //// Source: https://github.com/php/php-src/blob/128eda843f7dff487fff529a384fee3c5494e0f6/ext/mbstring/libmbfl/filters/mbfilter_tl_jisx0201_jisx0208.c#L41
+        if(0 != (conversion_ops & OP_HAN_ASCII_TO_ZEN_ASCII)) {
+            current_char = convertHankakuAsciiToZenkakuAscii(current_char);
+        }
+
+        if(current_char == this_char
+        && 0 != (conversion_ops & OP_HAN_LETTER_TO_ZEN_LETTER)) {
+            current_char = convertHankakuLetterToZenkakuLetter(current_char);
+        }
+
+        if(current_char == this_char
+        && 0 != (conversion_ops & OP_HAN_NUMBER_TO_ZEN_NUMBER)) {
+            current_char = convertHankakuNumberToZenkakuNumber(current_char);
+        }
+
+        if(current_char == this_char
+        && 0 != (conversion_ops & OP_HAN_SPACE_TO_ZEN_SPACE)) {
+            current_char = convertHankakuSpaceToZenkakuSpace(current_char);
+        }
+
+        if(current_char == this_char
+        && (0 != (conversion_ops & OP_HAN_KATA_TO_ZEN_KATA)
+        ||  0 != (conversion_ops & OP_HAN_KATA_TO_ZEN_HIRA))) {
+            char collapsed_char_for_check = current_char;
+            boolean performed_hankaku_conversion = false;
+            if(do_collapse_on_hankaku_diacritic
+            && i < (char_count - 1)) {
+                // Check if current character requires the collapsing of a diacritic mark
+                char next_char = original_string.charAt(i + 1);
+                if(0 != (conversion_ops & OP_COMPOSE_COMBINING_MARKS)) {
+                    // Combining marks glue to hankaku katakana just like hankaku marks
+                    next_char = convertCombiningDiacriticToHankaku(next_char);
+                }
+                collapsed_char_for_check = convertDiacriticHankakuKanaToZenkaku(current_char, next_char);
+            }
+
+            if(collapsed_char_for_check != current_char) {
+                // Use collapsed result
+                current_char = collapsed_char_for_check;
+                performed_hankaku_conversion = true;
+
+                // Do not include next character in final result string because
+                // it is a hankaku-only diacritic mark that isn't needed after conversion to zenkaku
+                consumed_char_count++;
+            }
+            else {
+                // Use result from hankaku-kana unvoiced mapping
+                char converted_current_char = convertUnvoicedHankakuKanaToZenkaku(current_char);
+                if(converted_current_char != current_char) {
+                    current_char = converted_current_char;
+                    performed_hankaku_conversion = true;
+                }
+            }
+
+            if(performed_hankaku_conversion
+            && 0 == (conversion_ops & OP_HAN_KATA_TO_ZEN_KATA)) {
+                // If request is not for katakana, perform additional kata->hira conversion
+                current_char = convertZenkakuKatakanaToZenkakuHiragana(current_char);
+            }
+        }
+
+        if(current_char == this_char
+        && 0 != (conversion_ops & OP_ZEN_ASCII_TO_HAN_ASCII)) {
+            current_char = convertZenkakuAsciiToHankakuAscii(current_char);
+        }
+
+        if(current_char == this_char
+        && 0 != (conversion_ops & OP_ZEN_LETTER_TO_HAN_LETTER)) {
+            current_char = convertZenkakuLetterToHankakuLetter(current_char);
+        }
+
+        if(current_char == this_char
+        && 0 != (conversion_ops & OP_ZEN_NUMBER_TO_HAN_NUMBER)) {
+            current_char = convertZenkakuNumberToHankakuNumber(current_char);
+        }
+
+        if(current_char == this_char
+        && 0 != (conversion_ops & OP_ZEN_SPACE_TO_HAN_SPACE)) {
+            current_char = convertZenkakuSpaceToHankakuSpace(current_char);
+        }
+
+        if(current_char == this_char
+        && 0 != (conversion_ops & OP_ZEN_KATA_TO_HAN_KATA)) {
+            hankaku_diacritic_suffix = determineHankakuDiacriticSuffix(current_char);
+            current_char = convertZenkakuKatakanaToHankakuKatakana(current_char);
+        }
+
+        // Check if current character is a zenkaku katakana character
+        char full_katakana_to_hiragana_result = convertZenkakuKatakanaToZenkakuHiragana(current_char);
+
+        // Do not enter this block if the current character is a zenkaku katakana character, no matter the flags
+        // Protects against katakana characters being incorrectly converted by zen-hiragana to han-katakana logic
+        if(current_char == this_char
+        && full_katakana_to_hiragana_result == current_char
+        && (0 != (conversion_ops & OP_ZEN_HIRA_TO_ZEN_KATA)
+        ||  0 != (conversion_ops & OP_ZEN_HIRA_TO_HAN_KATA))) {
+            // First convert from full hiragana to full katakana
+            current_char = convertZenkakuHiraganaToZenkakuKatakana(current_char);
+
+            if(0 != (conversion_ops & OP_ZEN_HIRA_TO_HAN_KATA)) {
+                // Proceed to convert to hankaku if requested (skip if zen-kata to han-kata conversion was already performed)
+                hankaku_diacritic_suffix = determineHankakuDiacriticSuffix(current_char);
+                current_char = convertZenkakuKatakanaToHankakuKatakana(current_char);
+            }
+        }
+
+        if(current_char == this_char
+        && 0 != (conversion_ops & OP_ZEN_KATA_TO_ZEN_HIRA)) {
+            current_char = full_katakana_to_hiragana_result;
+        }
+
+        return packConversionResult(current_char, hankaku_diacritic_suffix, consumed_char_count);
+    }
+    //}}}
+    //{{{ long packConversionResult(char, char, int)
+    protected static long packConversionResult(char converted_char, char converted_suffix, int consumed_char_count)
+    {
+        return ((long)consumed_char_count << 32) | ((long)converted_suffix << 16) | (long)converted_char;
+    }
+    //}}}
+    //{{{ char getConvertedChar(long)
+    protected static char getConvertedChar(long conversion_result)
+    {
+        return (char)conversion_result;
+    }
+    //}}}
+    //{{{ char getConvertedSuffix(long)
+    protected static char getConvertedSuffix(long conversion_result)
+    {
+        return (char)(conversion_result >>> 16);
+    }
+    //}}}
+    //{{{ int getConsumedCharCount(long)
+    protected static int getConsumedCharCount(long conversion_result)
+    {
+        return (int)(conversion_result >>> 32);
+    }
+    //}}}
+
+
     //{{{ Hankaku Katakana related mappings
     // Diacritic constants
     public static final char HANKAKU_VOICED_MARK    = 'ﾞ';  // dakuten
     public static final char HANKAKU_ASPIRATED_MARK = 'ﾟ';  // handakuten
+    public static final char ZENKAKU_VOICED_MARK    = '゛';  // dakuten
+    public static final char ZENKAKU_ASPIRATED_MARK = '゜';  // handakuten
+
+    // Tables are declared in src/tables/kana_mappings.txt and generated into KanaTables at build time
+    protected static final KanaCharTable MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED  = KanaTables.HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED;
+    protected static final KanaCharTable MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED    = KanaTables.HANKAKU_TO_ZENKAKU_KATAKANA_VOICED;
+    protected static final KanaCharTable MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_ASPIRATED = KanaTables.HANKAKU_TO_ZENKAKU_KATAKANA_ASPIRATED;
+    protected static final KanaCharTable MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA           = KanaTables.ZENKAKU_TO_HANKAKU_KATAKANA;
+    protected static final KanaCharTable MAPPING_HANKAKU_DIACRITIC_SUFFIXES            = KanaTables.HANKAKU_DIACRITIC_SUFFIXES;
+    //}}}
 
-    protected static final Map<Character, Character> MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED;
-    static {
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED = new HashMap<Character, Character>();
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('｡', '。');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('｢', '「');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('｣', '」');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('､', '、');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('･', '・');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｦ', 'ヲ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｧ', 'ァ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｨ', 'ィ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｩ', 'ゥ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｪ', 'ェ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｫ', 'ォ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｬ', 'ャ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｭ', 'ュ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｮ', 'ョ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｯ', 'ッ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｰ', 'ー');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｱ', 'ア');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｲ', 'イ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｳ', 'ウ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｴ', 'エ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｵ', 'オ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｶ', 'カ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｷ', 'キ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｸ', 'ク');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｹ', 'ケ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｺ', 'コ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｻ', 'サ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｼ', 'シ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｽ', 'ス');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｾ', 'セ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ｿ', 'ソ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾀ', 'タ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾁ', 'チ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾂ', 'ツ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾃ', 'テ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾄ', 'ト');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾅ', 'ナ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾆ', 'ニ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾇ', 'ヌ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾈ', 'ネ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾉ', 'ノ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾊ', 'ハ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾋ', 'ヒ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾌ', 'フ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾍ', 'ヘ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾎ', 'ホ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾏ', 'マ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾐ', 'ミ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾑ', 'ム');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾒ', 'メ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾓ', 'モ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾔ', 'ヤ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾕ', 'ユ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾖ', 'ヨ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾗ', 'ラ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾘ', 'リ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾙ', 'ル');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾚ', 'レ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾛ', 'ロ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾜ', 'ワ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾝ', 'ン');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾞ', '゛');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_UNVOICED.put('ﾟ', '゜');
-    }
-
-    protected static final Map<Character, Character> MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED;
-    static {
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED = new HashMap<Character, Character>();
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ｶ', 'ガ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ｷ', 'ギ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ｸ', 'グ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ｹ', 'ゲ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ｺ', 'ゴ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ｻ', 'ザ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ｼ', 'ジ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ｽ', 'ズ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ｾ', 'ゼ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ｿ', 'ゾ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ﾀ', 'ダ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ﾁ', 'ヂ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ﾂ', 'ヅ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ﾃ', 'デ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ﾄ', 'ド');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ﾊ', 'バ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ﾋ', 'ビ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ﾌ', 'ブ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ﾍ', 'ベ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_VOICED.put('ﾎ', 'ボ');
-    }
-
-    protected static final Map<Character, Character> MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_ASPIRATED;
-    static {
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_ASPIRATED = new HashMap<Character, Character>();
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_ASPIRATED.put('ﾊ', 'パ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_ASPIRATED.put('ﾋ', 'ピ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_ASPIRATED.put('ﾌ', 'プ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_ASPIRATED.put('ﾍ', 'ペ');
-        MAPPING_HANKAKU_TO_ZENKAKU_KATAKANA_ASPIRATED.put('ﾎ', 'ポ');
-    }
+    //{{{ Combining diacritic mark mappings
+    // Unicode combining (decomposed) diacritic marks, as found in NFD text such as macOS file names
+    public static final char COMBINING_VOICED_MARK    = '\u3099';  // combining dakuten
+    public static final char COMBINING_ASPIRATED_MARK = '\u309A';  // combining handakuten
 
-    protected static final Map<Character, Character> MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA;
-    static {
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA = new HashMap<Character, Character>();
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('。', '｡');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('「', '｢');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('」', '｣');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('、', '､');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('・', '･');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ァ', 'ｧ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ィ', 'ｨ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ゥ', 'ｩ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ェ', 'ｪ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ォ', 'ｫ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ャ', 'ｬ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ュ', 'ｭ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ョ', 'ｮ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ッ', 'ｯ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ー', 'ｰ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ア', 'ｱ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('イ', 'ｲ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ウ', 'ｳ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ヴ', 'ｳ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('エ', 'ｴ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('オ', 'ｵ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('カ', 'ｶ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ガ', 'ｶ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('キ', 'ｷ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ギ', 'ｷ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ク', 'ｸ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('グ', 'ｸ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ケ', 'ｹ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ゲ', 'ｹ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('コ', 'ｺ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ゴ', 'ｺ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('サ', 'ｻ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ザ', 'ｻ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('シ', 'ｼ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ジ', 'ｼ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ス', 'ｽ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ズ', 'ｽ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('セ', 'ｾ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ゼ', 'ｾ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ソ', 'ｿ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ゾ', 'ｿ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('タ', 'ﾀ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ダ', 'ﾀ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('チ', 'ﾁ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ヂ', 'ﾁ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ツ', 'ﾂ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ヅ', 'ﾂ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('テ', 'ﾃ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('デ', 'ﾃ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ト', 'ﾄ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ド', 'ﾄ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ナ', 'ﾅ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ニ', 'ﾆ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ヌ', 'ﾇ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ネ', 'ﾈ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ノ', 'ﾉ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ハ', 'ﾊ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('バ', 'ﾊ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('パ', 'ﾊ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ヒ', 'ﾋ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ビ', 'ﾋ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ピ', 'ﾋ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('フ', 'ﾌ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ブ', 'ﾌ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('プ', 'ﾌ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ヘ', 'ﾍ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ベ', 'ﾍ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ペ', 'ﾍ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ホ', 'ﾎ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ボ', 'ﾎ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ポ', 'ﾎ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('マ', 'ﾏ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ミ', 'ﾐ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ム', 'ﾑ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('メ', 'ﾒ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('モ', 'ﾓ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ヤ', 'ﾔ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ユ', 'ﾕ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ヨ', 'ﾖ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ラ', 'ﾗ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('リ', 'ﾘ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ル', 'ﾙ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('レ', 'ﾚ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ロ', 'ﾛ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ワ', 'ﾜ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ヮ', 'ﾜ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ヰ', 'ｲ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ヱ', 'ｴ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ヲ', 'ｦ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('ン', 'ﾝ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('゛', 'ﾞ');
-        MAPPING_ZENKAKU_TO_HANKAKU_KATAKANA.put('゜', 'ﾟ');
-    }
-
-    protected static final Map<Character, Character> MAPPING_HANKAKU_DIACRITIC_SUFFIXES;
-    static {
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES = new HashMap<Character, Character>();
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ヴ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ガ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ギ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('グ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ゲ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ゴ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ザ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ジ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ズ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ゼ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ゾ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ダ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ヂ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ヅ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('デ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ド', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('バ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ビ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ブ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ベ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ボ', HANKAKU_VOICED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('パ', HANKAKU_ASPIRATED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ピ', HANKAKU_ASPIRATED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('プ', HANKAKU_ASPIRATED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ペ', HANKAKU_ASPIRATED_MARK);
-        MAPPING_HANKAKU_DIACRITIC_SUFFIXES.put('ポ', HANKAKU_ASPIRATED_MARK);
-    }
+    protected static final KanaCharTable MAPPING_COMBINING_VOICED    = KanaTables.COMBINING_VOICED;
+    protected static final KanaCharTable MAPPING_COMBINING_ASPIRATED = KanaTables.COMBINING_ASPIRATED;
     //}}}
 
 
@@ -570,6 +657,32 @@ public class KanaConverter
     //}}}
 
 
+    //{{{ char convertCharToNfkc(char)
+    /**
+      * Folds a char of KanaAppraiser's kana, ASCII, space and punctuation ranges as NFKC would, on its own.
+      * Composing with a following combining mark is left to the caller.
+      * Spacing diacritic marks (゛ and ゜) return their combining mark, NFKC also puts a space before it.
+      */
+    protected static char convertCharToNfkc(char target)
+    {
+        if(target < KanaAppraiser.ZENKAKU_SPACE) {
+            // Fast path: ASCII is kept as is, and nothing else below the kana ranges is folded here
+            return target;
+        } else if(KanaAppraiser.isZenkakuAscii(target)) {
+            return (char)(target - OFFSET_HANKAKU_ASCII_TO_ZENKAKU_ASCII);
+        } else if(target == KanaAppraiser.ZENKAKU_SPACE) {
+            return KanaAppraiser.HANKAKU_SPACE;
+        } else if(target == HANKAKU_VOICED_MARK || target == ZENKAKU_VOICED_MARK) {
+            return COMBINING_VOICED_MARK;
+        } else if(target == HANKAKU_ASPIRATED_MARK || target == ZENKAKU_ASPIRATED_MARK) {
+            return COMBINING_ASPIRATED_MARK;
+        } else {
+            return convertUnvoicedHankakuKanaToZenkaku(target);
+        }
+    }
+    //}}}
+
+
     //{{{ char convertUnvoicedHankakuKanaToZenkaku(char)
     protected static char convertUnvoicedHankakuKanaToZenkaku(char target)
     {
@@ -605,6 +718,41 @@ public class KanaConverter
     //}}}
 
 
+    //{{{ char convertCombiningDiacriticKanaToComposed(char, char)
+    protected static char convertCombiningDiacriticKanaToComposed(char target, char diacritic_mark)
+    {
+        if(diacritic_mark == COMBINING_VOICED_MARK
+        && MAPPING_COMBINING_VOICED.containsKey(target)) {
+            // Use precomposed *voiced* character
+            return MAPPING_COMBINING_VOICED.get(target);
+        }
+
+        if(diacritic_mark == COMBINING_ASPIRATED_MARK
+        && MAPPING_COMBINING_ASPIRATED.containsKey(target)) {
+            // Use precomposed *aspirated* character
+            return MAPPING_COMBINING_ASPIRATED.get(target);
+        }
+
+        // Not a voiced/aspirated combination, use original
+        return target;
+    }
+    //}}}
+
+
+    //{{{ char convertCombiningDiacriticToHankaku(char)
+    protected static char convertCombiningDiacriticToHankaku(char target)
+    {
+        if(target == COMBINING_VOICED_MARK) {
+            return HANKAKU_VOICED_MARK;
+        }
+        if(target == COMBINING_ASPIRATED_MARK) {
+            return HANKAKU_ASPIRATED_MARK;
+        }
+        return target;
+    }
+    //}}}
+
+
     //{{{ char convertZenkakuKatakanaToHankakuKatakana(char)
     protected static char convertZenkakuKatakanaToHankakuKatakana(char target)
     {
@@ -722,8 +870,18 @@ public class KanaConverter
 
 
     //{{{ int createOpsArrayFromString(String)
-    private static int createOpsArrayFromString(String php_style_options_string)
+    /**
+      * Op strings are usually a few constants, so the last ones parsed are looked up before parsing.
+      */
+    protected static int createOpsArrayFromString(String php_style_options_string)
     {
+        int hash = php_style_options_string.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (PARSED_OPS_CACHE_SIZE - 1);
+        ParsedOps parsed_ops = ParsedOps.CACHE[slot];
+        if(parsed_ops != null && parsed_ops.ops_string.equals(php_style_options_string)) {
+            return parsed_ops.conversion_ops;
+        }
+
         int char_op_count = php_style_options_string.length();
         int conversion_op_flags = 0;
         for(int i = 0; i < char_op_count; i++) {
@@ -732,7 +890,108 @@ public class KanaConverter
                 conversion_op_flags |= LETTER_OP_CODE_LOOKUP.get(php_style_op_code);
             }
         }
+        ParsedOps.CACHE[slot] = new ParsedOps(php_style_options_string, conversion_op_flags);
         return conversion_op_flags;
     }
     //}}}
+
+
+    /**
+      * Configures a converter: ops and ignored chars are set here, and compiled once by "build".
+      */
+    public static class Builder
+    {
+        private int conversion_ops = 0;
+        private String chars_to_ignore = "";
+
+        private Builder()
+        {
+        }
+
+        //{{{ Builder ops(int)
+        /**
+          * @param  conversion_ops  Flag-based integer of conversions to add to those already set
+          * @return This builder
+          */
+        public Builder ops(int conversion_ops)
+        {
+            this.conversion_ops |= conversion_ops;
+            return this;
+        }
+        //}}}
+        //{{{ Builder ops(String)
+        /**
+          * @param  conversion_ops_string  PHP mb_convert_kana style string of conversions to add to those already set
+          * @return This builder
+          */
+        public Builder ops(String conversion_ops_string)
+        {
+            return this.ops(createOpsArrayFromString(conversion_ops_string));
+        }
+        //}}}
+
+        //{{{ Builder ignore(String)
+        /**
+          * @param  chars_to_ignore  Each character in this string will be excluded from conversion, replacing earlier ones
+          * @return This builder
+          */
+        public Builder ignore(String chars_to_ignore)
+        {
+            if(chars_to_ignore == null) {
+                throw new NullPointerException("chars_to_ignore");
+            }
+            this.chars_to_ignore = chars_to_ignore;
+            return this;
+        }
+        //}}}
+
+        //{{{ KanaConverter build()
+        /**
+          * @return Converter for one thread at a time
+          */
+        public KanaConverter build()
+        {
+            return new KanaConverter(KanaConversionPlan.forOps(this.conversion_ops, this.chars_to_ignore));
+        }
+        //}}}
+
+        //{{{ ThreadLocal<KanaConverter> buildPerThread()
+        /**
+          * @return Converter of each thread, all sharing one compiled plan, meant to be kept in a static field
+          */
+        public ThreadLocal<KanaConverter> buildPerThread()
+        {
+            final KanaConversionPlan shared_plan = KanaConversionPlan.forOps(this.conversion_ops, this.chars_to_ignore);
+            return new ThreadLocal<KanaConverter>() {
+                protected KanaConverter initialValue()
+                {
+                    return new KanaConverter(shared_plan);
+                }
+            };
+        }
+        //}}}
+    }
+
+
+    /**
+      * Op string along with its parsed flags.
+      */
+    private static class ParsedOps
+    {
+        /**
+          * Recently parsed op strings by hash, an op string evicts any other one hashing to its slot.
+          * Entries only have final fields, so threads racing on a slot see either a whole entry or none.
+          * Kept here so that KanaConverter does not load this class before an op string is parsed.
+          */
+        static final ParsedOps[] CACHE = new ParsedOps[PARSED_OPS_CACHE_SIZE];
+
+        final String ops_string;
+        final int conversion_ops;
+
+        ParsedOps(String ops_string, int conversion_ops)
+        {
+            this.ops_string = ops_string;
+            this.conversion_ops = conversion_ops;
+        }
+    }
 }
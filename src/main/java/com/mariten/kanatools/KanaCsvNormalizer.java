@@ -0,0 +1,566 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaConversionPlan;
+import com.mariten.kanatools.KanaConverter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+  * Streaming CSV/TSV normalizer which converts only chosen columns, each with its own conversion plan.
+  *
+  * Works on bytes: fields of columns without a plan (and malformed quoted fields) are copied as they are,
+  * only fields of converted columns are decoded, converted and encoded again.  Quoting follows RFC 4180,
+  * a converted field keeps its quotes and is quoted when conversion adds a delimiter, quote or line break.
+  * Line breaks (LF, CRLF or CR) are copied as found.
+  *
+  * Input is cut into chunks of whole records by following quotes as bytes arrive, so chunks can be
+  * converted in parallel on an ExecutorService while output keeps the input order.
+  *
+  * Normalizers are immutable and can be shared between threads, "with*" methods return new normalizers.
+  */
+public class KanaCsvNormalizer
+{
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private static final byte QUOTE = '"';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    // Charsets where line breaks, quotes and other bytes below 0x40 never occur inside another char
+    private static final Set<String> ASCII_SAFE_CHARSETS = new HashSet<String>(Arrays.asList(
+        "UTF-8", "US-ASCII", "ISO-8859-1", "Shift_JIS", "windows-31j", "EUC-JP"
+    ));
+
+    // Charsets of those whose double-byte chars may end with a byte from 0x40 to 0x7E, such as '|' in "ポ"
+    private static final Set<String> TRAIL_BYTE_ASCII_CHARSETS = new HashSet<String>(Arrays.asList(
+        "Shift_JIS", "windows-31j"
+    ));
+    private static final int MIN_TRAIL_BYTE = 0x40;
+    private static final int MAX_ASCII_TRAIL_BYTE = 0x7E;
+
+    // States of the record scanner which cuts input into chunks
+    private static final int STATE_FIELD_START  = 0;
+    private static final int STATE_UNQUOTED     = 1;
+    private static final int STATE_QUOTED       = 2;
+    private static final int STATE_AFTER_QUOTE  = 3;
+
+    /** Plan of each column by index, null for columns which are copied */
+    private final KanaConversionPlan[] column_plans;
+
+    private final byte delimiter;
+    private final Charset charset;
+
+    /** Whether the first record is copied without conversion */
+    private final boolean has_header_row;
+
+    /** Approximate size of each chunk, in bytes */
+    private final int chunk_size;
+
+
+    //{{{ KanaCsvNormalizer()
+    /**
+      * Comma-separated UTF-8 normalizer without a header row, which converts no column until "withColumn" is used.
+      */
+    public KanaCsvNormalizer()
+    {
+        this(new KanaConversionPlan[0], (byte)',', Charset.forName("UTF-8"), false, DEFAULT_CHUNK_SIZE);
+    }
+    //}}}
+    //{{{ KanaCsvNormalizer(KanaConversionPlan[], byte, Charset, boolean, int)
+    private KanaCsvNormalizer(KanaConversionPlan[] column_plans, byte delimiter, Charset charset, boolean has_header_row, int chunk_size)
+    {
+        this.column_plans   = column_plans;
+        this.delimiter      = delimiter;
+        this.charset        = charset;
+        this.has_header_row = has_header_row;
+        this.chunk_size     = chunk_size;
+    }
+    //}}}
+
+
+    //{{{ KanaCsvNormalizer withColumn(int, KanaConversionPlan)
+    /**
+      * @param  column_index  Index of the column, starting at 0
+      * @param  plan          Plan to convert fields of the column with, or null to copy them
+      * @return New normalizer converting this column with "plan"
+      */
+    public KanaCsvNormalizer withColumn(int column_index, KanaConversionPlan plan)
+    {
+        if(column_index < 0) {
+            throw new IllegalArgumentException("Negative column index: " + column_index);
+        }
+        KanaConversionPlan[] new_plans = new KanaConversionPlan[Math.max(this.column_plans.length, column_index + 1)];
+        System.arraycopy(this.column_plans, 0, new_plans, 0, this.column_plans.length);
+        new_plans[column_index] = plan;
+        return new KanaCsvNormalizer(new_plans, this.delimiter, this.charset, this.has_header_row, this.chunk_size);
+    }
+    //}}}
+    //{{{ KanaCsvNormalizer withColumn(int, int, String)
+    /**
+      * @param  column_index     Index of the column, starting at 0
+      * @param  conversion_ops   Flag-based integer indicating which type of conversions to perform
+      * @param  chars_to_ignore  Each character in this string will be excluded from conversion
+      * @return New normalizer converting this column as "convertKana" would
+      */
+    public KanaCsvNormalizer withColumn(int column_index, int conversion_ops, String chars_to_ignore)
+    {
+        return this.withColumn(column_index, new KanaConversionPlan(conversion_ops, chars_to_ignore));
+    }
+    //}}}
+    //{{{ KanaCsvNormalizer withColumn(int, String)
+    /**
+      * @param  column_index           Index of the column, starting at 0
+      * @param  conversion_ops_string  PHP mb_convert_kana style string specifying desired conversions
+      * @return New normalizer converting this column as "convertKana" would
+      */
+    public KanaCsvNormalizer withColumn(int column_index, String conversion_ops_string)
+    {
+        return this.withColumn(column_index, KanaConverter.createOpsArrayFromString(conversion_ops_string), "");
+    }
+    //}}}
+
+
+    //{{{ KanaCsvNormalizer withDelimiter(char)
+    /**
+      * @param  delimiter  Field delimiter, such as ',' or '\t'.  With Shift_JIS or windows-31j it must be below '@',
+      *                    as other ASCII bytes may be the second byte of a double-byte char.
+      * @return New normalizer splitting fields at "delimiter"
+      */
+    public KanaCsvNormalizer withDelimiter(char delimiter)
+    {
+        if(delimiter >= 0x80 || delimiter == QUOTE || delimiter == CR || delimiter == LF) {
+            throw new IllegalArgumentException("Delimiter must be ASCII, other than a quote or line break");
+        }
+        checkDelimiterForCharset((byte)delimiter, this.charset);
+        return new KanaCsvNormalizer(this.column_plans, (byte)delimiter, this.charset, this.has_header_row, this.chunk_size);
+    }
+    //}}}
+
+
+    //{{{ KanaCsvNormalizer withCharset(Charset)
+    /**
+      * @param  charset  Charset of input and output streams, must keep ASCII bytes apart from other chars
+      *                  (UTF-8, US-ASCII, ISO-8859-1, Shift_JIS, windows-31j or EUC-JP)
+      * @return New normalizer reading and writing "charset"
+      */
+    public KanaCsvNormalizer withCharset(Charset charset)
+    {
+        if(!isAsciiSafeCharset(charset)) {
+            throw new IllegalArgumentException("Unsupported charset for CSV bytes: " + charset.name());
+        }
+        checkDelimiterForCharset(this.delimiter, charset);
+        return new KanaCsvNormalizer(this.column_plans, this.delimiter, charset, this.has_header_row, this.chunk_size);
+    }
+    //}}}
+
+
+    //{{{ KanaCsvNormalizer withHeaderRow(boolean)
+    /**
+      * @param  has_header_row  Whether the first record holds column names, which are then copied as they are
+      * @return New normalizer with this setting
+      */
+    public KanaCsvNormalizer withHeaderRow(boolean has_header_row)
+    {
+        return new KanaCsvNormalizer(this.column_plans, this.delimiter, this.charset, has_header_row, this.chunk_size);
+    }
+    //}}}
+
+
+    //{{{ KanaCsvNormalizer withChunkSize(int)
+    /**
+      * @param  chunk_size  Approximate size in bytes of each chunk of records converted at once.
+      *                     A chunk holding a single huge record may be larger.
+      * @return New normalizer with this setting
+      */
+    public KanaCsvNormalizer withChunkSize(int chunk_size)
+    {
+        if(chunk_size <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunk_size);
+        }
+        return new KanaCsvNormalizer(this.column_plans, this.delimiter, this.charset, this.has_header_row, chunk_size);
+    }
+    //}}}
+
+
+    //{{{ String normalize(String)
+    /**
+      * @param  csv_text  Whole CSV text
+      * @return Text with the chosen columns converted
+      */
+    public String normalize(String csv_text)
+    {
+        Charset utf_8 = Charset.forName("UTF-8");
+        byte[] csv_bytes = encode(csv_text, utf_8);
+        ByteArrayOutputStream normalized_bytes = new ByteArrayOutputStream(csv_bytes.length + 16);
+        try {
+            this.normalizeChunk(csv_bytes, 0, csv_bytes.length, true, utf_8, normalized_bytes);
+            return normalized_bytes.toString("UTF-8");
+        } catch(IOException e) {
+            // Never thrown by ByteArrayOutputStream, nor for UTF-8
+            throw new IllegalStateException(e.toString());
+        }
+    }
+    //}}}
+
+
+    //{{{ void normalize(InputStream, OutputStream)
+    /**
+      * Converts one chunk at a time on the calling thread.
+      *
+      * @param  csv_input   CSV bytes in this normalizer's charset, read to the end but not closed
+      * @param  csv_output  Normalized bytes are written here, it is not flushed nor closed
+      */
+    public void normalize(InputStream csv_input, OutputStream csv_output) throws IOException
+    {
+        this.normalize(csv_input, csv_output, null, 1);
+    }
+    //}}}
+    //{{{ void normalize(InputStream, OutputStream, ExecutorService, int)
+    /**
+      * Converts chunks on "workers" while the calling thread reads input and writes output in order.
+      *
+      * @param  csv_input         CSV bytes in this normalizer's charset, read to the end but not closed
+      * @param  csv_output        Normalized bytes are written here, it is not flushed nor closed
+      * @param  workers           Executor converting chunks, or null to convert on the calling thread
+      * @param  max_chunks_ahead  Maximum number of chunks read ahead of output, usually twice the worker count
+      */
+    public void normalize(InputStream csv_input, OutputStream csv_output, ExecutorService workers, int max_chunks_ahead) throws IOException
+    {
+        LinkedList<Future<ByteArrayOutputStream>> pending_chunks = new LinkedList<Future<ByteArrayOutputStream>>();
+        byte[] buffer = new byte[this.chunk_size + (this.chunk_size >> 1)];
+        int buffered_count = 0;
+        int scanned_count = 0;
+        int last_record_end = 0;
+        int scan_state = STATE_FIELD_START;
+        boolean is_after_record_cr = false;
+        boolean is_first_chunk = true;
+
+        while(true) {
+            if(buffered_count == buffer.length) {
+                byte[] larger_buffer = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, larger_buffer, 0, buffered_count);
+                buffer = larger_buffer;
+            }
+            int read_count = csv_input.read(buffer, buffered_count, buffer.length - buffered_count);
+            if(read_count < 0) {
+                break;
+            }
+            buffered_count += read_count;
+
+            // Follow quotes through the new bytes, noting where the last complete record ends
+            for(; scanned_count < buffered_count; scanned_count++) {
+                byte this_byte = buffer[scanned_count];
+                if(is_after_record_cr && this_byte != LF) {
+                    // A CR ends the record by itself only once it is known not to start a CRLF
+                    last_record_end = scanned_count;
+                }
+                scan_state = this.nextScanState(scan_state, this_byte);
+                if(this_byte == LF && scan_state == STATE_FIELD_START) {
+                    last_record_end = scanned_count + 1;
+                }
+                is_after_record_cr = (this_byte == CR && scan_state == STATE_FIELD_START);
+            }
+            if(last_record_end < this.chunk_size) {
+                continue;
+            }
+
+            // Hand over the whole records, keep the rest in a new buffer
+            byte[] chunk_buffer = buffer;
+            buffer = new byte[chunk_buffer.length];
+            buffered_count -= last_record_end;
+            scanned_count -= last_record_end;
+            System.arraycopy(chunk_buffer, last_record_end, buffer, 0, buffered_count);
+            this.submitChunk(chunk_buffer, last_record_end, is_first_chunk, workers, pending_chunks, csv_output);
+            is_first_chunk = false;
+            last_record_end = 0;
+            while(pending_chunks.size() > max_chunks_ahead) {
+                writeChunk(pending_chunks.removeFirst(), csv_output);
+            }
+        }
+
+        if(buffered_count > 0) {
+            this.submitChunk(buffer, buffered_count, is_first_chunk, workers, pending_chunks, csv_output);
+        }
+        while(!pending_chunks.isEmpty()) {
+            writeChunk(pending_chunks.removeFirst(), csv_output);
+        }
+    }
+    //}}}
+
+
+    //{{{ int nextScanState(int, byte)
+    /**
+      * Same reading of quotes as "normalizeChunk": a quote opens a quoted field only at the start of a field,
+      * a doubled quote inside one stands for a quote, and anything after its closing quote is kept in the field.
+      */
+    private int nextScanState(int scan_state, byte this_byte)
+    {
+        switch(scan_state) {
+        case STATE_QUOTED:
+            return (this_byte == QUOTE) ? STATE_AFTER_QUOTE : STATE_QUOTED;
+        case STATE_AFTER_QUOTE:
+            return (this_byte == QUOTE) ? STATE_QUOTED : this.nextUnquotedScanState(this_byte);
+        case STATE_UNQUOTED:
+            return this.nextUnquotedScanState(this_byte);
+        default:
+            return (this_byte == QUOTE) ? STATE_QUOTED : this.nextUnquotedScanState(this_byte);
+        }
+    }
+    //}}}
+    //{{{ int nextUnquotedScanState(byte)
+    /**
+      * Outside quotes, a delimiter or line break byte ends the field.
+      */
+    private int nextUnquotedScanState(byte this_byte)
+    {
+        if(this_byte == this.delimiter || this_byte == LF || this_byte == CR) {
+            return STATE_FIELD_START;
+        }
+        return STATE_UNQUOTED;
+    }
+    //}}}
+
+
+    //{{{ void submitChunk(byte[], int, boolean, ExecutorService, LinkedList, OutputStream)
+    private void submitChunk(final byte[] chunk_buffer, final int chunk_length, final boolean is_first_chunk,
+                             ExecutorService workers, LinkedList<Future<ByteArrayOutputStream>> pending_chunks,
+                             OutputStream csv_output) throws IOException
+    {
+        if(workers == null) {
+            // Write the whole chunk at once, so that "csv_output" needs no buffering of its own
+            this.normalizeChunk(chunk_buffer, chunk_length, is_first_chunk).writeTo(csv_output);
+            return;
+        }
+        Callable<ByteArrayOutputStream> chunk_task = new Callable<ByteArrayOutputStream>() {
+            public ByteArrayOutputStream call() throws IOException
+            {
+                return KanaCsvNormalizer.this.normalizeChunk(chunk_buffer, chunk_length, is_first_chunk);
+            }
+        };
+        pending_chunks.addLast(workers.submit(chunk_task));
+    }
+    //}}}
+
+
+    //{{{ void writeChunk(Future<ByteArrayOutputStream>, OutputStream)
+    private static void writeChunk(Future<ByteArrayOutputStream> pending_chunk, OutputStream csv_output) throws IOException
+    {
+        ByteArrayOutputStream chunk_output;
+        try {
+            chunk_output = pending_chunk.get();
+        } catch(InterruptedException e) {
+            throw new IOException("Interrupted while normalizing");
+        } catch(ExecutionException e) {
+            Throwable failure = e.getCause();
+            if(failure instanceof IOException) {
+                throw (IOException)failure;
+            } else if(failure instanceof RuntimeException) {
+                throw (RuntimeException)failure;
+            } else if(failure instanceof Error) {
+                throw (Error)failure;
+            }
+            throw new IllegalStateException(failure.toString());
+        }
+        chunk_output.writeTo(csv_output);
+    }
+    //}}}
+
+
+    //{{{ ByteArrayOutputStream normalizeChunk(byte[], int, boolean)
+    private ByteArrayOutputStream normalizeChunk(byte[] chunk_buffer, int chunk_length, boolean is_first_chunk) throws IOException
+    {
+        ByteArrayOutputStream chunk_output = new ByteArrayOutputStream(chunk_length + (chunk_length >> 3));
+        this.normalizeChunk(chunk_buffer, 0, chunk_length, is_first_chunk, this.charset, chunk_output);
+        return chunk_output;
+    }
+    //}}}
+    //{{{ void normalizeChunk(byte[], int, int, boolean, Charset, OutputStream)
+    /**
+      * @param  csv_bytes       Buffer holding whole records
+      * @param  start           Index of the first byte of the first record
+      * @param  end             Index just past the last record
+      * @param  is_first_chunk  Whether the first record is the header row (when there is one)
+      * @param  charset         Charset of "csv_bytes"
+      * @param  csv_output      Normalized bytes are written here
+      */
+    private void normalizeChunk(byte[] csv_bytes, int start, int end, boolean is_first_chunk, Charset charset, OutputStream csv_output) throws IOException
+    {
+        boolean is_header_record = is_first_chunk && this.has_header_row;
+        int column_index = 0;
+        int copy_start = start;
+        int i = start;
+        while(i < end) {
+            // Find the end of this field, and where its content is when quoted
+            int field_start = i;
+            boolean is_quoted = (csv_bytes[i] == QUOTE);
+            int closing_quote_index = -1;
+            if(is_quoted) {
+                i++;
+                while(i < end) {
+                    if(csv_bytes[i] == QUOTE) {
+                        if(i + 1 < end && csv_bytes[i + 1] == QUOTE) {
+                            i += 2;
+                            continue;
+                        }
+                        closing_quote_index = i;
+                        i++;
+                        break;
+                    }
+                    i++;
+                }
+            }
+            while(i < end && csv_bytes[i] != this.delimiter && csv_bytes[i] != LF && csv_bytes[i] != CR) {
+                i++;
+            }
+            int field_end = i;
+
+            // Fields which are not converted (and malformed quoted ones) are copied along with what surrounds them
+            KanaConversionPlan plan = (is_header_record || column_index >= this.column_plans.length) ? null : this.column_plans[column_index];
+            if(plan != null && (!is_quoted || closing_quote_index == field_end - 1)) {
+                csv_output.write(csv_bytes, copy_start, field_start - copy_start);
+                if(is_quoted) {
+                    this.writeConvertedField(csv_bytes, field_start + 1, closing_quote_index, true, plan, charset, csv_output);
+                } else {
+                    this.writeConvertedField(csv_bytes, field_start, field_end, false, plan, charset, csv_output);
+                }
+                copy_start = field_end;
+            }
+
+            // Step over the delimiter or line break after the field
+            if(i >= end) {
+                break;
+            }
+            if(csv_bytes[i] == this.delimiter) {
+                column_index++;
+            } else {
+                if(csv_bytes[i] == CR && i + 1 < end && csv_bytes[i + 1] == LF) {
+                    i++;
+                }
+                column_index = 0;
+                is_header_record = false;
+            }
+            i++;
+        }
+        csv_output.write(csv_bytes, copy_start, end - copy_start);
+    }
+    //}}}
+
+
+    //{{{ void writeConvertedField(byte[], int, int, boolean, KanaConversionPlan, Charset, OutputStream)
+    /**
+      * @param  content_start  Index of the first byte of the field content (inside quotes when quoted)
+      * @param  content_end    Index just past the field content
+      * @param  is_quoted      Whether the content is quoted, and doubled quotes stand for single ones
+      */
+    private void writeConvertedField(byte[] csv_bytes, int content_start, int content_end, boolean is_quoted,
+                                     KanaConversionPlan plan, Charset charset, OutputStream csv_output) throws IOException
+    {
+        String field_value = decode(csv_bytes, content_start, content_end, charset);
+        if(is_quoted) {
+            field_value = field_value.replace("\"\"", "\"");
+        }
+        String converted_value = plan.convert(field_value);
+        if(converted_value.equals(field_value)) {
+            // Unchanged, keep the original bytes
+            if(is_quoted) {
+                csv_output.write(QUOTE);
+                csv_output.write(csv_bytes, content_start, content_end - content_start);
+                csv_output.write(QUOTE);
+            } else {
+                csv_output.write(csv_bytes, content_start, content_end - content_start);
+            }
+            return;
+        }
+
+        if(is_quoted || this.needsQuotes(converted_value)) {
+            csv_output.write(QUOTE);
+            csv_output.write(encode(converted_value.replace("\"", "\"\""), charset));
+            csv_output.write(QUOTE);
+        } else {
+            csv_output.write(encode(converted_value, charset));
+        }
+    }
+    //}}}
+
+
+    //{{{ boolean needsQuotes(String)
+    private boolean needsQuotes(String field_value)
+    {
+        for(int k = 0; k < field_value.length(); k++) {
+            char this_char = field_value.charAt(k);
+            if(this_char == this.delimiter || this_char == QUOTE || this_char == CR || this_char == LF) {
+                return true;
+            }
+        }
+        return false;
+    }
+    //}}}
+
+
+    //{{{ String decode(byte[], int, int, Charset)
+    private static String decode(byte[] csv_bytes, int start, int end, Charset charset)
+    {
+        // Replace malformed input, the same way InputStreamReader does
+        CharsetDecoder decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try {
+            return decoder.decode(ByteBuffer.wrap(csv_bytes, start, end - start)).toString();
+        } catch(CharacterCodingException e) {
+            throw new IllegalStateException(e.toString());
+        }
+    }
+    //}}}
+
+
+    //{{{ byte[] encode(String, Charset)
+    private static byte[] encode(String text, Charset charset)
+    {
+        try {
+            return text.getBytes(charset.name());
+        } catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.toString());
+        }
+    }
+    //}}}
+
+
+    //{{{ void checkDelimiterForCharset(byte, Charset)
+    private static void checkDelimiterForCharset(byte delimiter, Charset charset)
+    {
+        if(delimiter >= MIN_TRAIL_BYTE && delimiter <= MAX_ASCII_TRAIL_BYTE
+        && TRAIL_BYTE_ASCII_CHARSETS.contains(charset.name())) {
+            throw new IllegalArgumentException("Delimiter '" + (char)delimiter + "' may be part of a double-byte char in " + charset.name());
+        }
+    }
+    //}}}
+
+
+    //{{{ boolean isAsciiSafeCharset(Charset)
+    /**
+      * Bytes from 0x40 on are not covered: in Shift_JIS and windows-31j they may be the second byte of a double-byte char.
+      *
+      * @return Whether line breaks, quotes and other bytes below 0x40 in "charset" always stand for ASCII chars,
+      *         never for part of another char
+      */
+    protected static boolean isAsciiSafeCharset(Charset charset)
+    {
+        return ASCII_SAFE_CHARSETS.contains(charset.name());
+    }
+    //}}}
+}
@@ -0,0 +1,300 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaConverter;
+
+/**
+  * Hash map keyed by text, where keys match each other whenever their
+  * "convertKana" results (for the conversion ops given at construction) are equal.
+  *
+  * Lookups compute the hash and equality directly from the probe CharSequence,
+  * converting one character at a time, so no normalized String is created by "get".
+  * Uses open addressing (linear probing) with the folded hashes kept in a primitive array.
+  */
+public class KanaFoldedHashMap<V>
+{
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /** Conversion operations applied to keys before comparison */
+    private final int conversion_ops;
+
+    /** Characters excluded from conversion */
+    private final String chars_to_ignore;
+
+    // Parallel slot arrays, a slot is empty when its key is null
+    private int[]    key_hashes;
+    private String[] folded_keys;
+    private Object[] slot_values;
+    private int      entry_count;
+
+
+    //{{{ KanaFoldedHashMap(int, String)
+    /**
+      * @param  conversion_ops   Flag-based integer indicating conversions used to fold keys (as in "convertKana")
+      * @param  chars_to_ignore  Each character in this string will be excluded from conversion
+      */
+    public KanaFoldedHashMap(int conversion_ops, String chars_to_ignore)
+    {
+        if(chars_to_ignore == null) {
+            throw new NullPointerException("chars_to_ignore");
+        }
+        this.conversion_ops  = conversion_ops;
+        this.chars_to_ignore = chars_to_ignore;
+        this.allocateSlots(DEFAULT_CAPACITY);
+    }
+    //}}}
+    //{{{ KanaFoldedHashMap(int)
+    /**
+      * @param  conversion_ops   Flag-based integer indicating conversions used to fold keys (as in "convertKana")
+      */
+    public KanaFoldedHashMap(int conversion_ops)
+    {
+        this(conversion_ops, "");
+    }
+    //}}}
+
+
+    //{{{ V get(CharSequence)
+    /**
+      * @param  key  Key in any form that folds to the same text as the stored key
+      * @return Value mapped to the folded key, or null if there is none
+      */
+    @SuppressWarnings("unchecked")
+    public V get(CharSequence key)
+    {
+        int slot = this.findSlot(key, this.computeFoldedHash(key));
+        if(slot < 0) {
+            return null;
+        }
+        return (V)this.slot_values[slot];
+    }
+    //}}}
+
+
+    //{{{ boolean containsKey(CharSequence)
+    public boolean containsKey(CharSequence key)
+    {
+        return this.findSlot(key, this.computeFoldedHash(key)) >= 0;
+    }
+    //}}}
+
+
+    //{{{ V put(CharSequence, V)
+    /**
+      * @param  key    Key to store, kept internally in its folded form
+      * @param  value  Value to map the key to
+      * @return Value previously mapped to the folded key, or null if there was none
+      */
+    @SuppressWarnings("unchecked")
+    public V put(CharSequence key, V value)
+    {
+        int key_hash = this.computeFoldedHash(key);
+        int slot = this.findSlot(key, key_hash);
+        if(slot >= 0) {
+            V previous_value = (V)this.slot_values[slot];
+            this.slot_values[slot] = value;
+            return previous_value;
+        }
+
+        // Keep load factor at or below 1/2 so probe sequences stay short
+        if((this.entry_count + 1) * 2 > this.folded_keys.length) {
+            this.resize(this.folded_keys.length * 2);
+        }
+
+        String folded_key = KanaConverter.convertKana(key.toString(), this.conversion_ops, this.chars_to_ignore);
+        this.insertIntoEmptySlot(key_hash, folded_key, value);
+        this.entry_count++;
+        return null;
+    }
+    //}}}
+
+
+    //{{{ V remove(CharSequence)
+    /**
+      * @param  key  Key in any form that folds to the same text as the stored key
+      * @return Value that was mapped to the folded key, or null if there was none
+      */
+    @SuppressWarnings("unchecked")
+    public V remove(CharSequence key)
+    {
+        int slot = this.findSlot(key, this.computeFoldedHash(key));
+        if(slot < 0) {
+            return null;
+        }
+
+        V removed_value = (V)this.slot_values[slot];
+        this.folded_keys[slot] = null;
+        this.slot_values[slot] = null;
+        this.entry_count--;
+
+        // Shift back following entries of the probe run so no lookup is cut short by the hole
+        int mask = this.folded_keys.length - 1;
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        while(this.folded_keys[next] != null) {
+            int home = this.key_hashes[next] & mask;
+            if(((next - home) & mask) >= ((next - hole) & mask)) {
+                this.key_hashes[hole]  = this.key_hashes[next];
+                this.folded_keys[hole] = this.folded_keys[next];
+                this.slot_values[hole] = this.slot_values[next];
+                this.folded_keys[next] = null;
+                this.slot_values[next] = null;
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        return removed_value;
+    }
+    //}}}
+
+
+    //{{{ int size()
+    public int size()
+    {
+        return this.entry_count;
+    }
+    //}}}
+
+
+    //{{{ boolean isEmpty()
+    public boolean isEmpty()
+    {
+        return this.entry_count == 0;
+    }
+    //}}}
+
+
+    //{{{ void clear()
+    public void clear()
+    {
+        this.allocateSlots(DEFAULT_CAPACITY);
+    }
+    //}}}
+
+
+    //{{{ int computeFoldedHash(CharSequence)
+    /**
+      * Hashes the folded form of "key" while converting it one character at a time.
+      * Produces the same value as hashing the result of "convertKana" on the key.
+      */
+    protected int computeFoldedHash(CharSequence key)
+    {
+        int char_count = key.length();
+        int hash = 0;
+        int i = 0;
+        while(i < char_count) {
+            long conversion_result = KanaConverter.convertCharAt(key, i, this.conversion_ops, this.chars_to_ignore);
+            hash = 31 * hash + KanaConverter.getConvertedChar(conversion_result);
+
+            char converted_suffix = KanaConverter.getConvertedSuffix(conversion_result);
+            if(converted_suffix != 0) {
+                hash = 31 * hash + converted_suffix;
+            }
+            i += KanaConverter.getConsumedCharCount(conversion_result);
+        }
+        return spreadHash(hash);
+    }
+    //}}}
+
+
+    //{{{ boolean matchesFoldedKey(CharSequence, String)
+    /**
+      * Compares the folded form of "key" against an already folded key, converting lazily.
+      */
+    protected boolean matchesFoldedKey(CharSequence key, String folded_key)
+    {
+        int char_count = key.length();
+        int folded_count = folded_key.length();
+        int i = 0;
+        int j = 0;
+        while(i < char_count) {
+            long conversion_result = KanaConverter.convertCharAt(key, i, this.conversion_ops, this.chars_to_ignore);
+            if(j >= folded_count
+            || folded_key.charAt(j) != KanaConverter.getConvertedChar(conversion_result)) {
+                return false;
+            }
+            j++;
+
+            char converted_suffix = KanaConverter.getConvertedSuffix(conversion_result);
+            if(converted_suffix != 0) {
+                if(j >= folded_count
+                || folded_key.charAt(j) != converted_suffix) {
+                    return false;
+                }
+                j++;
+            }
+            i += KanaConverter.getConsumedCharCount(conversion_result);
+        }
+        return j == folded_count;
+    }
+    //}}}
+
+
+    //{{{ int findSlot(CharSequence, int)
+    private int findSlot(CharSequence key, int key_hash)
+    {
+        int mask = this.folded_keys.length - 1;
+        int slot = key_hash & mask;
+        while(this.folded_keys[slot] != null) {
+            if(this.key_hashes[slot] == key_hash
+            && this.matchesFoldedKey(key, this.folded_keys[slot])) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+    //}}}
+
+
+    //{{{ void insertIntoEmptySlot(int, String, Object)
+    private void insertIntoEmptySlot(int key_hash, String folded_key, Object value)
+    {
+        int mask = this.folded_keys.length - 1;
+        int slot = key_hash & mask;
+        while(this.folded_keys[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        this.key_hashes[slot]  = key_hash;
+        this.folded_keys[slot] = folded_key;
+        this.slot_values[slot] = value;
+    }
+    //}}}
+
+
+    //{{{ void resize(int)
+    private void resize(int new_capacity)
+    {
+        int[]    old_hashes = this.key_hashes;
+        String[] old_keys   = this.folded_keys;
+        Object[] old_values = this.slot_values;
+        int old_count = this.entry_count;
+
+        this.allocateSlots(new_capacity);
+        for(int slot = 0; slot < old_keys.length; slot++) {
+            if(old_keys[slot] != null) {
+                this.insertIntoEmptySlot(old_hashes[slot], old_keys[slot], old_values[slot]);
+            }
+        }
+        this.entry_count = old_count;
+    }
+    //}}}
+
+
+    //{{{ void allocateSlots(int)
+    private void allocateSlots(int capacity)
+    {
+        this.key_hashes  = new int[capacity];
+        this.folded_keys = new String[capacity];
+        this.slot_values = new Object[capacity];
+        this.entry_count = 0;
+    }
+    //}}}
+
+
+    //{{{ int spreadHash(int)
+    private static int spreadHash(int hash)
+    {
+        // Mix upper bits downward since slots are picked with a power-of-two mask
+        return hash ^ (hash >>> 16);
+    }
+    //}}}
+}
@@ -0,0 +1,313 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaConverter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+  * Finds every occurrence of many patterns within text at once, as if patterns and text had
+  * all been passed through "convertKana" with the same conversion ops.
+  *
+  * Aho-Corasick automaton built over the converted patterns.  Text is converted on the fly one
+  * character at a time while it is fed through the automaton, and match offsets refer to the
+  * original (unconverted) text.  Instances are immutable and can be shared between threads.
+  */
+public class KanaMultiMatcher
+{
+    /**
+      * Receives matches found by "findAll".
+      */
+    public interface MatchHandler
+    {
+        /**
+          * @param  pattern_index  Index of the matched pattern in the array given at construction
+          * @param  match_start    Offset in the searched text where the match starts
+          * @param  match_end      Offset in the searched text just past the end of the match
+          * @return Whether to continue searching for further matches
+          */
+        boolean onMatch(int pattern_index, int match_start, int match_end);
+    }
+
+
+    private static final int ROOT_STATE = 0;
+    private static final int NO_STATE   = -1;
+
+    /** Conversion operations applied to both patterns and searched text */
+    private final int conversion_ops;
+
+    /** Characters excluded from conversion */
+    private final String chars_to_ignore;
+
+    /** Patterns as given at construction */
+    private final String[] patterns;
+
+    /** Length of each pattern after conversion */
+    private final int[] folded_pattern_lengths;
+
+    /** Longest converted pattern, sizes the window of remembered text offsets */
+    private final int max_folded_length;
+
+    // Transitions of state s are edge_chars/edge_targets[edge_offsets[s] .. edge_offsets[s + 1]), sorted by char
+    private final int[]  edge_offsets;
+    private final char[] edge_chars;
+    private final int[]  edge_targets;
+
+    /** Longest proper suffix of each state that is also a state */
+    private final int[] fail_states;
+
+    /** Nearest state along the fail chain that ends a pattern, or NO_STATE */
+    private final int[] output_links;
+
+    /** First pattern ending at each state, or -1 */
+    private final int[] state_first_patterns;
+
+    /** Next pattern converting to the same text as this one, or -1 */
+    private final int[] next_same_patterns;
+
+
+    //{{{ KanaMultiMatcher(String[], int, String)
+    /**
+      * @param  patterns         Texts to search for, empty patterns never match
+      * @param  conversion_ops   Flag-based integer indicating conversions used to fold text (as in "convertKana")
+      * @param  chars_to_ignore  Each character in this string will be excluded from conversion
+      */
+    public KanaMultiMatcher(String[] patterns, int conversion_ops, String chars_to_ignore)
+    {
+        if(chars_to_ignore == null) {
+            throw new NullPointerException("chars_to_ignore");
+        }
+        this.conversion_ops  = conversion_ops;
+        this.chars_to_ignore = chars_to_ignore;
+        this.patterns        = patterns.clone();
+
+        // Build trie of converted patterns
+        int pattern_count = this.patterns.length;
+        List<TreeMap<Character, Integer>> trie_children = new ArrayList<TreeMap<Character, Integer>>();
+        trie_children.add(new TreeMap<Character, Integer>());
+        int[] first_patterns = new int[16];
+        first_patterns[ROOT_STATE] = -1;
+        this.folded_pattern_lengths = new int[pattern_count];
+        this.next_same_patterns     = new int[pattern_count];
+        int longest = 0;
+        for(int p = 0; p < pattern_count; p++) {
+            String folded_pattern = KanaConverter.convertKana(this.patterns[p], conversion_ops, chars_to_ignore);
+            this.folded_pattern_lengths[p] = folded_pattern.length();
+            this.next_same_patterns[p] = -1;
+            if(folded_pattern.length() == 0) {
+                continue;
+            }
+            longest = Math.max(longest, folded_pattern.length());
+
+            int state = ROOT_STATE;
+            for(int i = 0; i < folded_pattern.length(); i++) {
+                Character edge_char = folded_pattern.charAt(i);
+                Integer child = trie_children.get(state).get(edge_char);
+                if(child == null) {
+                    child = trie_children.size();
+                    trie_children.add(new TreeMap<Character, Integer>());
+                    trie_children.get(state).put(edge_char, child);
+                    if(child >= first_patterns.length) {
+                        int[] grown = new int[first_patterns.length * 2];
+                        System.arraycopy(first_patterns, 0, grown, 0, first_patterns.length);
+                        first_patterns = grown;
+                    }
+                    first_patterns[child] = -1;
+                }
+                state = child;
+            }
+            this.next_same_patterns[p] = first_patterns[state];
+            first_patterns[state] = p;
+        }
+        this.max_folded_length = longest;
+
+        // Flatten trie into sorted primitive edge arrays
+        int state_count = trie_children.size();
+        int edge_count = state_count - 1;
+        this.edge_offsets = new int[state_count + 1];
+        this.edge_chars   = new char[edge_count];
+        this.edge_targets = new int[edge_count];
+        this.state_first_patterns = new int[state_count];
+        int e = 0;
+        for(int s = 0; s < state_count; s++) {
+            this.edge_offsets[s] = e;
+            this.state_first_patterns[s] = first_patterns[s];
+            for(Map.Entry<Character, Integer> edge : trie_children.get(s).entrySet()) {
+                this.edge_chars[e]   = edge.getKey();
+                this.edge_targets[e] = edge.getValue();
+                e++;
+            }
+        }
+        this.edge_offsets[state_count] = e;
+
+        // Breadth-first pass computing fail and output links
+        this.fail_states  = new int[state_count];
+        this.output_links = new int[state_count];
+        this.output_links[ROOT_STATE] = NO_STATE;
+        int[] queue = new int[state_count];
+        int queue_head = 0;
+        int queue_tail = 0;
+        queue[queue_tail++] = ROOT_STATE;
+        while(queue_head < queue_tail) {
+            int s = queue[queue_head++];
+            for(int edge = this.edge_offsets[s]; edge < this.edge_offsets[s + 1]; edge++) {
+                char edge_char = this.edge_chars[edge];
+                int target = this.edge_targets[edge];
+                int fallback = NO_STATE;
+                if(s != ROOT_STATE) {
+                    int f = this.fail_states[s];
+                    while(true) {
+                        fallback = this.findTransition(f, edge_char);
+                        if(fallback != NO_STATE || f == ROOT_STATE) {
+                            break;
+                        }
+                        f = this.fail_states[f];
+                    }
+                }
+                this.fail_states[target] = (fallback == NO_STATE) ? ROOT_STATE : fallback;
+
+                int fail_target = this.fail_states[target];
+                this.output_links[target] = (this.state_first_patterns[fail_target] >= 0)
+                    ? fail_target
+                    : this.output_links[fail_target];
+                queue[queue_tail++] = target;
+            }
+        }
+    }
+    //}}}
+    //{{{ KanaMultiMatcher(String[], int)
+    /**
+      * @param  patterns         Texts to search for, empty patterns never match
+      * @param  conversion_ops   Flag-based integer indicating conversions used to fold text (as in "convertKana")
+      */
+    public KanaMultiMatcher(String[] patterns, int conversion_ops)
+    {
+        this(patterns, conversion_ops, "");
+    }
+    //}}}
+
+
+    //{{{ int getPatternCount()
+    public int getPatternCount()
+    {
+        return this.patterns.length;
+    }
+    //}}}
+
+
+    //{{{ String getPattern(int)
+    public String getPattern(int pattern_index)
+    {
+        return this.patterns[pattern_index];
+    }
+    //}}}
+
+
+    //{{{ void findAll(CharSequence, MatchHandler)
+    /**
+      * Reports every (possibly overlapping) match in order of where matches end.
+      *
+      * @param  text     Text to search through, in any unconverted form
+      * @param  handler  Receives each match, may stop the search early
+      */
+    public void findAll(CharSequence text, MatchHandler handler)
+    {
+        if(this.max_folded_length == 0) {
+            return;
+        }
+
+        // Remember which original offset produced each of the latest converted chars
+        int ring_size = Integer.highestOneBit(this.max_folded_length) << 1;
+        int ring_mask = ring_size - 1;
+        int[] ring_origins = new int[ring_size];
+
+        int text_length = text.length();
+        int state = ROOT_STATE;
+        int folded_count = 0;
+        int i = 0;
+        while(i < text_length) {
+            long conversion_result = KanaConverter.convertCharAt(text, i, this.conversion_ops, this.chars_to_ignore);
+            int unit_end = i + KanaConverter.getConsumedCharCount(conversion_result);
+            char converted_suffix = KanaConverter.getConvertedSuffix(conversion_result);
+            int unit_folded_count = (converted_suffix != 0) ? 2 : 1;
+            for(int u = 0; u < unit_folded_count; u++) {
+                char folded_char = (u == 0) ? KanaConverter.getConvertedChar(conversion_result) : converted_suffix;
+                ring_origins[folded_count & ring_mask] = i;
+                state = this.nextState(state, folded_char);
+
+                int output_state = (this.state_first_patterns[state] >= 0) ? state : this.output_links[state];
+                while(output_state != NO_STATE) {
+                    for(int p = this.state_first_patterns[output_state]; p >= 0; p = this.next_same_patterns[p]) {
+                        int match_start = ring_origins[(folded_count - this.folded_pattern_lengths[p] + 1) & ring_mask];
+                        if(!handler.onMatch(p, match_start, unit_end)) {
+                            return;
+                        }
+                    }
+                    output_state = this.output_links[output_state];
+                }
+                folded_count++;
+            }
+            i = unit_end;
+        }
+    }
+    //}}}
+
+
+    //{{{ boolean containsAny(CharSequence)
+    /**
+      * @param  text  Text to search through, in any unconverted form
+      * @return Whether any pattern occurs in "text"
+      */
+    public boolean containsAny(CharSequence text)
+    {
+        final boolean[] found = new boolean[1];
+        this.findAll(text, new MatchHandler() {
+            public boolean onMatch(int pattern_index, int match_start, int match_end) {
+                found[0] = true;
+                return false;
+            }
+        });
+        return found[0];
+    }
+    //}}}
+
+
+    //{{{ int nextState(int, char)
+    private int nextState(int state, char folded_char)
+    {
+        while(true) {
+            int target = this.findTransition(state, folded_char);
+            if(target != NO_STATE) {
+                return target;
+            }
+            if(state == ROOT_STATE) {
+                return ROOT_STATE;
+            }
+            state = this.fail_states[state];
+        }
+    }
+    //}}}
+
+
+    //{{{ int findTransition(int, char)
+    private int findTransition(int state, char edge_char)
+    {
+        // Binary search through this state's sorted edges
+        int low  = this.edge_offsets[state];
+        int high = this.edge_offsets[state + 1] - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            char middle_char = this.edge_chars[middle];
+            if(middle_char < edge_char) {
+                low = middle + 1;
+            } else if(middle_char > edge_char) {
+                high = middle - 1;
+            } else {
+                return this.edge_targets[middle];
+            }
+        }
+        return NO_STATE;
+    }
+    //}}}
+}
@@ -0,0 +1,91 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaConversionPlan;
+import com.mariten.kanatools.KanaConverter;
+
+/**
+  * Drop-in for "Normalizer.normalize(text, Normalizer.Form.NFKC)" on Japanese text, limited to width and kana folding.
+  *
+  * Output is identical to NFKC for text made of the ranges defined in KanaAppraiser: hankaku and
+  * zenkaku ASCII, spaces, hiragana, katakana (hankaku and zenkaku) and their punctuation, including
+  * dakuten/handakuten in all their forms.  Any other char is passed through unchanged, so combining
+  * marks other than U+3099/U+309A are neither reordered nor composed.
+  *
+  * Uses a precompiled KanaConversionPlan with OP_KANA_NFKC, so no Unicode decomposition tables are loaded.
+  */
+public class KanaNfkc
+{
+    private static final KanaConversionPlan NFKC_PLAN = new KanaConversionPlan(KanaConverter.OP_KANA_NFKC);
+
+
+    //{{{ String normalize(String)
+    /**
+      * @param  original_string  String to normalize
+      * @return Same as NFKC for chars in KanaAppraiser's ranges, "original_string" itself if nothing changes
+      */
+    public static String normalize(String original_string)
+    {
+        int first_folded_index = findFirstFoldedChar(original_string);
+        if(first_folded_index < 0) {
+            return original_string;
+        }
+
+        StringBuilder new_string = new StringBuilder(original_string.length());
+        new_string.append(original_string, 0, first_folded_index);
+        NFKC_PLAN.appendConverted(original_string.subSequence(first_folded_index, original_string.length()), new_string);
+        return new_string.toString();
+    }
+    //}}}
+
+
+    //{{{ String normalize(CharSequence)
+    /**
+      * @param  original_text  Text to normalize
+      * @return Same as NFKC for chars in KanaAppraiser's ranges
+      */
+    public static String normalize(CharSequence original_text)
+    {
+        return normalize(original_text.toString());
+    }
+    //}}}
+
+
+    //{{{ boolean isNormalized(CharSequence)
+    /**
+      * @param  original_text  Text to check
+      * @return Whether "normalize" would return the text unchanged
+      */
+    public static boolean isNormalized(CharSequence original_text)
+    {
+        return findFirstFoldedChar(original_text) < 0;
+    }
+    //}}}
+
+
+    //{{{ int findFirstFoldedChar(CharSequence)
+    /**
+      * Fast path: chars below U+3000 never change nor compose, and are skipped with a single comparison.
+      *
+      * @return Index of the first char which may change (with or without the char after it), or -1 if none
+      */
+    private static int findFirstFoldedChar(CharSequence original_text)
+    {
+        int char_count = original_text.length();
+        for(int i = 0; i < char_count; i++) {
+            char this_char = original_text.charAt(i);
+            if(this_char < KanaAppraiser.ZENKAKU_SPACE) {
+                continue;
+            }
+            if(KanaConverter.convertCharToNfkc(this_char) != this_char
+            || this_char == KanaConverter.ZENKAKU_VOICED_MARK
+            || this_char == KanaConverter.ZENKAKU_ASPIRATED_MARK) {
+                return i;
+            }
+            if(i < (char_count - 1)
+            && KanaConverter.convertCombiningDiacriticKanaToComposed(this_char, KanaConverter.convertCharToNfkc(original_text.charAt(i + 1))) != this_char) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    //}}}
+}
@@ -0,0 +1,132 @@
+package com.mariten.kanatools;
+
+/**
+  * Result of "KanaConverter.convertKanaWithOffsets", holding the converted string together with
+  * a mapping between offsets in the original string and offsets in the converted string.
+  *
+  * Only conversions that change length (collapsing hankaku diacritic marks, splitting diacritic
+  * marks off when converting to hankaku) shift offsets, so the mapping is stored run-length encoded:
+  * one breakpoint per length-changing unit, and nothing at all when no unit changed length.
+  * Mapping in either direction is a binary search over the breakpoints.
+  */
+public class KanaOffsetMap
+{
+    private static final int[] NO_BREAKPOINTS = new int[0];
+
+    private final String original_string;
+    private final String converted_string;
+
+    // After breakpoint k, converted offset = original offset + (converted_breakpoints[k] - original_breakpoints[k])
+    private final int[] original_breakpoints;
+    private final int[] converted_breakpoints;
+    private final int   breakpoint_count;
+
+
+    //{{{ KanaOffsetMap(String, String, int[], int[], int)
+    KanaOffsetMap(String original_string, String converted_string, int[] original_breakpoints, int[] converted_breakpoints, int breakpoint_count)
+    {
+        this.original_string       = original_string;
+        this.converted_string      = converted_string;
+        this.original_breakpoints  = original_breakpoints;
+        this.converted_breakpoints = converted_breakpoints;
+        this.breakpoint_count      = breakpoint_count;
+    }
+    //}}}
+    //{{{ KanaOffsetMap(String, String)
+    KanaOffsetMap(String original_string, String converted_string)
+    {
+        this(original_string, converted_string, NO_BREAKPOINTS, NO_BREAKPOINTS, 0);
+    }
+    //}}}
+
+
+    //{{{ String getOriginalString()
+    public String getOriginalString()
+    {
+        return this.original_string;
+    }
+    //}}}
+
+
+    //{{{ String getConvertedString()
+    public String getConvertedString()
+    {
+        return this.converted_string;
+    }
+    //}}}
+
+
+    //{{{ boolean isIdentity()
+    /**
+      * @return Whether every offset maps to itself (no conversion changed length)
+      */
+    public boolean isIdentity()
+    {
+        return this.breakpoint_count == 0;
+    }
+    //}}}
+
+
+    //{{{ int toConvertedOffset(int)
+    /**
+      * @param  original_offset  Offset in the original string, from 0 to its length
+      * @return Corresponding offset in the converted string.  An offset falling inside two
+      *         original chars that were collapsed into one maps to the end of that converted char.
+      */
+    public int toConvertedOffset(int original_offset)
+    {
+        checkOffset(original_offset, this.original_string.length());
+        int k = findLastAtOrBefore(this.original_breakpoints, this.breakpoint_count, original_offset);
+        if(k < 0) {
+            return original_offset;
+        }
+        return original_offset + (this.converted_breakpoints[k] - this.original_breakpoints[k]);
+    }
+    //}}}
+
+
+    //{{{ int toOriginalOffset(int)
+    /**
+      * @param  converted_offset  Offset in the converted string, from 0 to its length
+      * @return Corresponding offset in the original string.  An offset falling inside two
+      *         converted chars split from one original char maps to the end of that original char.
+      */
+    public int toOriginalOffset(int converted_offset)
+    {
+        checkOffset(converted_offset, this.converted_string.length());
+        int k = findLastAtOrBefore(this.converted_breakpoints, this.breakpoint_count, converted_offset);
+        if(k < 0) {
+            return converted_offset;
+        }
+        return converted_offset - (this.converted_breakpoints[k] - this.original_breakpoints[k]);
+    }
+    //}}}
+
+
+    //{{{ int findLastAtOrBefore(int[], int, int)
+    private static int findLastAtOrBefore(int[] breakpoints, int breakpoint_count, int offset)
+    {
+        int low  = 0;
+        int high = breakpoint_count - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            if(breakpoints[middle] <= offset) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+    //}}}
+
+
+    //{{{ void checkOffset(int, int)
+    private static void checkOffset(int offset, int string_length)
+    {
+        if(offset < 0 || offset > string_length) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " outside of string with length " + string_length);
+        }
+    }
+    //}}}
+}
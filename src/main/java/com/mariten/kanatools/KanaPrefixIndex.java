@@ -0,0 +1,335 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaConverter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+  * Prefix lookup (autocomplete) over a fixed set of keys, where keys and queries are compared
+  * after being passed through "convertKana" with the same conversion ops.
+  *
+  * Keys are held in a radix trie flattened into primitive arrays.  Every node covers a contiguous
+  * range of the keys sorted by converted form, so all matches of a prefix are found with a single
+  * walk down the trie.  Queries are converted on the fly while walking.
+  *
+  * An index is an immutable snapshot: it can be read from any number of threads without locking,
+  * and "withAdded" returns a new snapshot to publish in its place.
+  */
+public class KanaPrefixIndex
+{
+    private static final int ROOT_NODE = 0;
+    private static final int NO_NODE   = -1;
+
+    /** Conversion operations applied to both keys and queries */
+    private final int conversion_ops;
+
+    /** Characters excluded from conversion */
+    private final String chars_to_ignore;
+
+    // Keys sorted by converted form, with the originals kept in the same order
+    private final String[] folded_keys;
+    private final String[] original_keys;
+
+    // Node n matches keys folded_keys[node_range_starts[n] .. node_range_ends[n]),
+    // which all share their first node_depths[n] chars
+    private final int[] node_depths;
+    private final int[] node_range_starts;
+    private final int[] node_range_ends;
+
+    // Children of node n are edge_chars/edge_targets[edge_offsets[n] .. edge_offsets[n + 1]), sorted by char
+    private final int[]  edge_offsets;
+    private final char[] edge_chars;
+    private final int[]  edge_targets;
+
+
+    //{{{ KanaPrefixIndex(Collection<String>, int, String)
+    /**
+      * @param  keys             Keys to index, in any unconverted form
+      * @param  conversion_ops   Flag-based integer indicating conversions used to fold text (as in "convertKana")
+      * @param  chars_to_ignore  Each character in this string will be excluded from conversion
+      */
+    public KanaPrefixIndex(Collection<String> keys, int conversion_ops, String chars_to_ignore)
+    {
+        if(chars_to_ignore == null) {
+            throw new NullPointerException("chars_to_ignore");
+        }
+        this.conversion_ops  = conversion_ops;
+        this.chars_to_ignore = chars_to_ignore;
+
+        // Sort keys by converted form
+        int key_count = keys.size();
+        final String[] unsorted_folded = new String[key_count];
+        String[] unsorted_original = keys.toArray(new String[key_count]);
+        Integer[] order = new Integer[key_count];
+        for(int k = 0; k < key_count; k++) {
+            unsorted_folded[k] = KanaConverter.convertKana(unsorted_original[k], conversion_ops, chars_to_ignore);
+            order[k] = k;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return unsorted_folded[a].compareTo(unsorted_folded[b]);
+            }
+        });
+        this.folded_keys   = new String[key_count];
+        this.original_keys = new String[key_count];
+        for(int k = 0; k < key_count; k++) {
+            this.folded_keys[k]   = unsorted_folded[order[k]];
+            this.original_keys[k] = unsorted_original[order[k]];
+        }
+
+        // Build radix trie top-down, nodes are numbered in creation order
+        TrieBuilder trie_builder = new TrieBuilder(this.folded_keys);
+        if(key_count > 0) {
+            trie_builder.addNode(0, key_count, 0);
+        }
+        int node_count = trie_builder.node_count;
+        this.node_depths       = Arrays.copyOf(trie_builder.depths, node_count);
+        this.node_range_starts = Arrays.copyOf(trie_builder.range_starts, node_count);
+        this.node_range_ends   = Arrays.copyOf(trie_builder.range_ends, node_count);
+        this.edge_offsets      = Arrays.copyOf(trie_builder.edge_offsets, node_count + 1);
+        this.edge_chars        = Arrays.copyOf(trie_builder.edge_chars, trie_builder.edge_count);
+        this.edge_targets      = Arrays.copyOf(trie_builder.edge_targets, trie_builder.edge_count);
+    }
+    //}}}
+    //{{{ KanaPrefixIndex(Collection<String>, int)
+    /**
+      * @param  keys             Keys to index, in any unconverted form
+      * @param  conversion_ops   Flag-based integer indicating conversions used to fold text (as in "convertKana")
+      */
+    public KanaPrefixIndex(Collection<String> keys, int conversion_ops)
+    {
+        this(keys, conversion_ops, "");
+    }
+    //}}}
+
+
+    //{{{ List<String> prefixMatches(CharSequence, int)
+    /**
+      * @param  prefix  Query in any unconverted form
+      * @param  limit   Maximum number of keys to return
+      * @return Original keys whose converted form starts with the converted "prefix", ordered by converted form
+      */
+    public List<String> prefixMatches(CharSequence prefix, int limit)
+    {
+        int node = this.findPrefixNode(prefix);
+        if(node == NO_NODE || limit <= 0) {
+            return new ArrayList<String>(0);
+        }
+
+        int range_start = this.node_range_starts[node];
+        int range_end = range_start + Math.min(this.node_range_ends[node] - range_start, limit);
+        List<String> matches = new ArrayList<String>(range_end - range_start);
+        for(int k = range_start; k < range_end; k++) {
+            matches.add(this.original_keys[k]);
+        }
+        return matches;
+    }
+    //}}}
+
+
+    //{{{ int countPrefixMatches(CharSequence)
+    /**
+      * @param  prefix  Query in any unconverted form
+      * @return Number of keys whose converted form starts with the converted "prefix"
+      */
+    public int countPrefixMatches(CharSequence prefix)
+    {
+        int node = this.findPrefixNode(prefix);
+        if(node == NO_NODE) {
+            return 0;
+        }
+        return this.node_range_ends[node] - this.node_range_starts[node];
+    }
+    //}}}
+
+
+    //{{{ int size()
+    public int size()
+    {
+        return this.original_keys.length;
+    }
+    //}}}
+
+
+    //{{{ KanaPrefixIndex withAdded(Collection<String>)
+    /**
+      * @param  added_keys  Keys to index in addition to those of this snapshot
+      * @return New snapshot with the same conversion ops, this snapshot is left unchanged
+      */
+    public KanaPrefixIndex withAdded(Collection<String> added_keys)
+    {
+        List<String> all_keys = new ArrayList<String>(this.original_keys.length + added_keys.size());
+        all_keys.addAll(Arrays.asList(this.original_keys));
+        all_keys.addAll(added_keys);
+        return new KanaPrefixIndex(all_keys, this.conversion_ops, this.chars_to_ignore);
+    }
+    //}}}
+
+
+    //{{{ int findPrefixNode(CharSequence)
+    /**
+      * Walks the trie with the converted prefix.
+      * @return Node whose key range is exactly the keys starting with the prefix, or NO_NODE
+      */
+    private int findPrefixNode(CharSequence prefix)
+    {
+        if(this.folded_keys.length == 0) {
+            return NO_NODE;
+        }
+
+        int node = ROOT_NODE;
+        int depth = 0;
+        int prefix_length = prefix.length();
+        int i = 0;
+        while(i < prefix_length) {
+            long conversion_result = KanaConverter.convertCharAt(prefix, i, this.conversion_ops, this.chars_to_ignore);
+            char converted_suffix = KanaConverter.getConvertedSuffix(conversion_result);
+            int unit_folded_count = (converted_suffix != 0) ? 2 : 1;
+            for(int u = 0; u < unit_folded_count; u++) {
+                char folded_char = (u == 0) ? KanaConverter.getConvertedChar(conversion_result) : converted_suffix;
+                if(depth == this.node_depths[node]) {
+                    // End of this node's shared chars, branch by next char
+                    node = this.findChild(node, folded_char);
+                    if(node == NO_NODE) {
+                        return NO_NODE;
+                    }
+                } else if(this.folded_keys[this.node_range_starts[node]].charAt(depth) != folded_char) {
+                    return NO_NODE;
+                }
+                depth++;
+            }
+            i += KanaConverter.getConsumedCharCount(conversion_result);
+        }
+        return node;
+    }
+    //}}}
+
+
+    //{{{ int findChild(int, char)
+    private int findChild(int node, char edge_char)
+    {
+        int low  = this.edge_offsets[node];
+        int high = this.edge_offsets[node + 1] - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            char middle_char = this.edge_chars[middle];
+            if(middle_char < edge_char) {
+                low = middle + 1;
+            } else if(middle_char > edge_char) {
+                high = middle - 1;
+            } else {
+                return this.edge_targets[middle];
+            }
+        }
+        return NO_NODE;
+    }
+    //}}}
+
+
+    /**
+      * Growable arrays used only while building a snapshot.
+      */
+    private static class TrieBuilder
+    {
+        private final String[] sorted_keys;
+
+        int[]  depths       = new int[16];
+        int[]  range_starts = new int[16];
+        int[]  range_ends   = new int[16];
+        int[]  edge_offsets = new int[17];
+        char[] edge_chars   = new char[16];
+        int[]  edge_targets = new int[16];
+        int    node_count   = 0;
+        int    edge_count   = 0;
+
+        TrieBuilder(String[] sorted_keys)
+        {
+            this.sorted_keys = sorted_keys;
+        }
+
+        //{{{ int addNode(int, int, int)
+        /**
+          * Adds the node covering sorted keys [range_start, range_end), entered after "entry_depth" chars,
+          * followed by all of its descendants.  Children of one node get consecutive edge slots.
+          */
+        int addNode(int range_start, int range_end, int entry_depth)
+        {
+            int node = this.node_count++;
+            this.ensureNodeCapacity(this.node_count);
+
+            // Sorted keys share as many leading chars as the first and last of them do
+            String first_key = this.sorted_keys[range_start];
+            String last_key  = this.sorted_keys[range_end - 1];
+            int depth = entry_depth;
+            while(depth < first_key.length()
+            && depth < last_key.length()
+            && first_key.charAt(depth) == last_key.charAt(depth)) {
+                depth++;
+            }
+            this.depths[node]       = depth;
+            this.range_starts[node] = range_start;
+            this.range_ends[node]   = range_end;
+
+            // Keys ending here sort first, the rest are grouped by their next char
+            int group_start = range_start;
+            while(group_start < range_end && this.sorted_keys[group_start].length() == depth) {
+                group_start++;
+            }
+            int first_edge = this.edge_count;
+            int child_edge_count = 0;
+            for(int k = group_start; k < range_end; k++) {
+                if(k == group_start || this.sorted_keys[k].charAt(depth) != this.sorted_keys[k - 1].charAt(depth)) {
+                    child_edge_count++;
+                }
+            }
+            this.edge_count += child_edge_count;
+            this.ensureEdgeCapacity(this.edge_count);
+            this.edge_offsets[node] = first_edge;
+            this.edge_offsets[node + 1] = this.edge_count;
+
+            int edge = first_edge;
+            while(group_start < range_end) {
+                char edge_char = this.sorted_keys[group_start].charAt(depth);
+                int group_end = group_start + 1;
+                while(group_end < range_end && this.sorted_keys[group_end].charAt(depth) == edge_char) {
+                    group_end++;
+                }
+                // Children may grow the edge arrays, so only store into them once the child exists
+                int child = this.addNode(group_start, group_end, depth + 1);
+                this.edge_chars[edge]   = edge_char;
+                this.edge_targets[edge] = child;
+                edge++;
+                group_start = group_end;
+            }
+            return node;
+        }
+        //}}}
+
+        //{{{ void ensureNodeCapacity(int)
+        private void ensureNodeCapacity(int needed)
+        {
+            if(needed + 1 > this.depths.length) {
+                int capacity = Math.max(needed + 1, this.depths.length * 2);
+                this.depths       = Arrays.copyOf(this.depths, capacity);
+                this.range_starts = Arrays.copyOf(this.range_starts, capacity);
+                this.range_ends   = Arrays.copyOf(this.range_ends, capacity);
+                this.edge_offsets = Arrays.copyOf(this.edge_offsets, capacity + 1);
+            }
+        }
+        //}}}
+
+        //{{{ void ensureEdgeCapacity(int)
+        private void ensureEdgeCapacity(int needed)
+        {
+            if(needed > this.edge_chars.length) {
+                int capacity = Math.max(needed, this.edge_chars.length * 2);
+                this.edge_chars   = Arrays.copyOf(this.edge_chars, capacity);
+                this.edge_targets = Arrays.copyOf(this.edge_targets, capacity);
+            }
+        }
+        //}}}
+    }
+}
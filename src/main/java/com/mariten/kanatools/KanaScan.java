@@ -0,0 +1,25 @@
+package com.mariten.kanatools;
+
+/**
+  * Scanning loops of the hot conversion paths, kept apart so that the multi-release JAR can replace
+  * them with versions for newer JVMs under META-INF/versions.  Every version must return the same results.
+  */
+class KanaScan
+{
+    //{{{ int skipAsciiBytes(byte[], int, int)
+    /**
+      * @param  bytes  Bytes to scan
+      * @param  start  Index of first byte to scan
+      * @param  limit  Index just past the last byte to scan
+      * @return Index of the first byte from "start" on which is not ASCII, or "limit"
+      */
+    static int skipAsciiBytes(byte[] bytes, int start, int limit)
+    {
+        int i = start;
+        while(i < limit && bytes[i] >= 0) {
+            i++;
+        }
+        return i;
+    }
+    //}}}
+}
@@ -0,0 +1,274 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaConverter;
+
+/**
+  * Finds a pattern within text as if both had been passed through "convertKana" with the same
+  * conversion ops, without converting the searched text up front.
+  *
+  * Matching follows Boyer-Moore-Horspool over the folded view of the text, and reported offsets
+  * refer to the original (unconverted) text.  Instances are immutable and can be shared between threads.
+  */
+public class KanaSearcher
+{
+    private static final int SKIP_TABLE_SIZE = 256;
+    private static final int SKIP_TABLE_MASK = SKIP_TABLE_SIZE - 1;
+
+    /** Conversion operations applied to both pattern and searched text */
+    private final int conversion_ops;
+
+    /** Characters excluded from conversion */
+    private final String chars_to_ignore;
+
+    /** Pattern after conversion */
+    private final char[] folded_pattern;
+
+    /** Horspool shift for the folded char ending a window, indexed by its low byte */
+    private final int[] skip_table;
+
+    /** True when a single input char can convert to two output chars (zen-to-han kana, NFKC diacritic marks) */
+    private final boolean is_expanding;
+
+
+    //{{{ KanaSearcher(String, int, String)
+    /**
+      * @param  pattern          Text to search for, converted once here
+      * @param  conversion_ops   Flag-based integer indicating conversions used to fold text (as in "convertKana")
+      * @param  chars_to_ignore  Each character in this string will be excluded from conversion
+      */
+    public KanaSearcher(String pattern, int conversion_ops, String chars_to_ignore)
+    {
+        if(chars_to_ignore == null) {
+            throw new NullPointerException("chars_to_ignore");
+        }
+        this.conversion_ops  = conversion_ops;
+        this.chars_to_ignore = chars_to_ignore;
+        this.folded_pattern  = KanaConverter.convertKana(pattern, conversion_ops, chars_to_ignore).toCharArray();
+        this.is_expanding    = conversion_ops > 0
+            && 0 != (conversion_ops & (KanaConverter.OP_ZEN_KATA_TO_HAN_KATA | KanaConverter.OP_ZEN_HIRA_TO_HAN_KATA
+                                     | KanaConverter.OP_KANA_NFKC));
+
+        // Chars sharing a low byte share a slot, keep the smallest shift so no match is skipped
+        int pattern_length = this.folded_pattern.length;
+        this.skip_table = new int[SKIP_TABLE_SIZE];
+        for(int b = 0; b < SKIP_TABLE_SIZE; b++) {
+            this.skip_table[b] = Math.max(pattern_length, 1);
+        }
+        for(int k = 0; k < pattern_length - 1; k++) {
+            this.skip_table[this.folded_pattern[k] & SKIP_TABLE_MASK] = pattern_length - 1 - k;
+        }
+    }
+    //}}}
+    //{{{ KanaSearcher(String, int)
+    /**
+      * @param  pattern          Text to search for, converted once here
+      * @param  conversion_ops   Flag-based integer indicating conversions used to fold text (as in "convertKana")
+      */
+    public KanaSearcher(String pattern, int conversion_ops)
+    {
+        this(pattern, conversion_ops, "");
+    }
+    //}}}
+
+
+    //{{{ int indexIn(CharSequence, int)
+    /**
+      * @param  text        Text to search through, in any unconverted form
+      * @param  from_index  Offset in "text" to start searching from
+      * @return Offset in "text" where the first match starts, or -1 if there is no match
+      */
+    public int indexIn(CharSequence text, int from_index)
+    {
+        if(from_index < 0) {
+            from_index = 0;
+        }
+        if(this.folded_pattern.length == 0) {
+            return Math.min(from_index, text.length());
+        }
+        if(this.is_expanding) {
+            return this.indexInStreaming(text, from_index);
+        }
+        return this.indexInSkipping(text, from_index);
+    }
+    //}}}
+    //{{{ int indexIn(CharSequence)
+    public int indexIn(CharSequence text)
+    {
+        return this.indexIn(text, 0);
+    }
+    //}}}
+
+
+    //{{{ int matchEndIn(CharSequence, int)
+    /**
+      * @param  text         Text which was searched
+      * @param  match_start  Offset returned by "indexIn"
+      * @return Offset in "text" just past the end of the match starting at "match_start", or -1 if none starts there
+      */
+    public int matchEndIn(CharSequence text, int match_start)
+    {
+        // Converted units may be two chars long, so a match can begin on the second of them
+        int end = this.matchEndFrom(text, match_start, 0);
+        if(end < 0 && this.is_expanding) {
+            end = this.matchEndFrom(text, match_start, 1);
+        }
+        return end;
+    }
+    //}}}
+
+
+    //{{{ int indexInSkipping(CharSequence, int)
+    /**
+      * Each converted unit yields exactly one folded char, so windows can be moved over the
+      * original text directly and only the chars being compared need converting.
+      */
+    private int indexInSkipping(CharSequence text, int from_index)
+    {
+        int text_length = text.length();
+        int last_k = this.folded_pattern.length - 1;
+        int window_end = this.alignToUnitStart(text, from_index, from_index + last_k);
+        while(window_end < text_length) {
+            char window_last = KanaConverter.getConvertedChar(this.convertAt(text, window_end));
+            if(window_last == this.folded_pattern[last_k]) {
+                int unit_start = window_end;
+                int k = last_k - 1;
+                while(k >= 0) {
+                    unit_start = this.previousUnitStart(text, from_index, unit_start);
+                    if(unit_start < 0
+                    || KanaConverter.getConvertedChar(this.convertAt(text, unit_start)) != this.folded_pattern[k]) {
+                        break;
+                    }
+                    k--;
+                }
+                if(k < 0) {
+                    return unit_start;
+                }
+            }
+
+            // Moving "shift" original chars passes at most "shift" units, so no window is skipped
+            int shift = this.skip_table[window_last & SKIP_TABLE_MASK];
+            window_end = this.alignToUnitStart(text, from_index, window_end + shift);
+        }
+        return -1;
+    }
+    //}}}
+
+
+    //{{{ int indexInStreaming(CharSequence, int)
+    /**
+      * Units may yield two folded chars, so convert every unit in order while keeping the
+      * latest window of folded chars in a ring buffer.  Comparisons are still skipped Horspool-style.
+      */
+    private int indexInStreaming(CharSequence text, int from_index)
+    {
+        int pattern_length = this.folded_pattern.length;
+        int ring_size = Integer.highestOneBit(pattern_length) << 1;
+        int ring_mask = ring_size - 1;
+        char[] ring_chars   = new char[ring_size];
+        int[]  ring_origins = new int[ring_size];
+
+        int text_length = text.length();
+        int folded_count = 0;
+        int next_window_end = pattern_length - 1;
+        int i = from_index;
+        while(i < text_length) {
+            long conversion_result = this.convertAt(text, i);
+            char converted_suffix = KanaConverter.getConvertedSuffix(conversion_result);
+            int unit_folded_count = (converted_suffix != 0) ? 2 : 1;
+            for(int u = 0; u < unit_folded_count; u++) {
+                char folded_char = (u == 0) ? KanaConverter.getConvertedChar(conversion_result) : converted_suffix;
+                ring_chars[folded_count & ring_mask]   = folded_char;
+                ring_origins[folded_count & ring_mask] = i;
+                if(folded_count == next_window_end) {
+                    int k = pattern_length - 1;
+                    while(k >= 0
+                    && ring_chars[(folded_count - (pattern_length - 1 - k)) & ring_mask] == this.folded_pattern[k]) {
+                        k--;
+                    }
+                    if(k < 0) {
+                        return ring_origins[(folded_count - pattern_length + 1) & ring_mask];
+                    }
+                    next_window_end += this.skip_table[folded_char & SKIP_TABLE_MASK];
+                }
+                folded_count++;
+            }
+            i += KanaConverter.getConsumedCharCount(conversion_result);
+        }
+        return -1;
+    }
+    //}}}
+
+
+    //{{{ int matchEndFrom(CharSequence, int, int)
+    private int matchEndFrom(CharSequence text, int match_start, int skip_folded_chars)
+    {
+        int text_length = text.length();
+        int pattern_length = this.folded_pattern.length;
+        if(pattern_length == 0) {
+            return match_start;
+        }
+
+        int k = -skip_folded_chars;
+        int i = match_start;
+        while(i < text_length) {
+            long conversion_result = this.convertAt(text, i);
+            i += KanaConverter.getConsumedCharCount(conversion_result);
+            char converted_suffix = KanaConverter.getConvertedSuffix(conversion_result);
+            for(int u = 0; u < ((converted_suffix != 0) ? 2 : 1); u++) {
+                char folded_char = (u == 0) ? KanaConverter.getConvertedChar(conversion_result) : converted_suffix;
+                if(k >= 0 && folded_char != this.folded_pattern[k]) {
+                    return -1;
+                }
+                k++;
+                if(k == pattern_length) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+    //}}}
+
+
+    //{{{ int alignToUnitStart(CharSequence, int, int)
+    /**
+      * Moves "position" forward off the trailing diacritic of a collapsed unit.
+      */
+    private int alignToUnitStart(CharSequence text, int from_index, int position)
+    {
+        if(position > from_index
+        && position < text.length()
+        && KanaConverter.getConsumedCharCount(this.convertAt(text, position - 1)) == 2) {
+            return position + 1;
+        }
+        return position;
+    }
+    //}}}
+
+
+    //{{{ int previousUnitStart(CharSequence, int, int)
+    /**
+      * A char only merges with the one before it when that one is a base kana,
+      * which itself can never be a trailing diacritic, so one char of look-behind is enough.
+      */
+    private int previousUnitStart(CharSequence text, int from_index, int unit_start)
+    {
+        int previous = unit_start - 1;
+        if(previous < from_index) {
+            return -1;
+        }
+        if(previous > from_index
+        && KanaConverter.getConsumedCharCount(this.convertAt(text, previous - 1)) == 2) {
+            previous--;
+        }
+        return previous;
+    }
+    //}}}
+
+
+    //{{{ long convertAt(CharSequence, int)
+    private long convertAt(CharSequence text, int i)
+    {
+        return KanaConverter.convertCharAt(text, i, this.conversion_ops, this.chars_to_ignore);
+    }
+    //}}}
+}
@@ -0,0 +1,358 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaConverter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+
+/**
+  * Converts Shift_JIS or Windows-31J bytes to bytes of the same charset, as decoding, "convertKana"
+  * and encoding would, without ever decoding to Java chars.
+  *
+  * Hankaku katakana are the single bytes 0xA1-0xDF, a base followed by its diacritic mark (0xDE or 0xDF)
+  * becomes one zenkaku kana, and zenkaku kana split into base and mark bytes.  Double-byte chars are
+  * stepped over as lead/trail pairs, so a trail byte is never taken for a hankaku kana.  Bytes which
+  * nothing changes are copied in runs.
+  *
+  * Lookup tables are built once from "convertKana" for every byte and byte pair of the charset,
+  * conversions whose result the charset cannot hold leave the bytes unchanged.  Converters are immutable
+  * and can be shared between threads.
+  */
+public class KanaSjisConverter
+{
+    /** Conversion may at most double the byte count, such as a hankaku kana becoming a zenkaku one */
+    public static final int MAX_BYTES_PER_BYTE = 2;
+
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+    private static final int HANKAKU_KANA_FIRST = 0xA1;
+    private static final int HANKAKU_KANA_LAST = 0xDF;
+    private static final int HANKAKU_VOICED_MARK_BYTE = 0xDE;
+    private static final int HANKAKU_ASPIRATED_MARK_BYTE = 0xDF;
+    private static final char UNMAPPED_CHAR = '\uFFFD';
+
+    // Ops which depend on chars Shift_JIS cannot hold
+    private static final int UNSUPPORTED_OPS = KanaConverter.OP_COMPOSE_COMBINING_MARKS | KanaConverter.OP_KANA_NFKC;
+
+    private final int conversion_ops;
+    private final Charset charset;
+
+    /** Replacement of each single byte, null where it is copied */
+    private final byte[][] single_byte_outputs = new byte[256][];
+
+    /** Replacement of each hankaku base byte followed by a voiced or aspirated mark, null where they are converted apart */
+    private final byte[][] voiced_outputs = new byte[256][];
+    private final byte[][] aspirated_outputs = new byte[256][];
+
+    /** Replacement of each double-byte char, by lead byte and then trail byte, null for rows where all are copied */
+    private final byte[][][] double_byte_outputs = new byte[256][][];
+
+    /** Whether a byte is always copied on its own, neither converted nor starting a pair */
+    private final boolean[] is_copied_byte = new boolean[256];
+
+    /** Whether all ASCII bytes are copied, so that runs of them can be skipped at once */
+    private final boolean is_ascii_copied;
+
+
+    //{{{ KanaSjisConverter(int)
+    /**
+      * @param  conversion_ops  Desired conversion ops, applied to Windows-31J bytes
+      */
+    public KanaSjisConverter(int conversion_ops)
+    {
+        this(conversion_ops, Charset.forName("windows-31j"));
+    }
+    //}}}
+    //{{{ KanaSjisConverter(int, Charset)
+    /**
+      * @param  conversion_ops  Desired conversion ops
+      * @param  charset         Shift_JIS or windows-31j
+      */
+    public KanaSjisConverter(int conversion_ops, Charset charset)
+    {
+        if(!charset.name().equals("Shift_JIS") && !charset.name().equals("windows-31j")) {
+            throw new IllegalArgumentException("Charset must be Shift_JIS or windows-31j, not " + charset.name());
+        }
+        if((conversion_ops & UNSUPPORTED_OPS) != 0) {
+            throw new IllegalArgumentException("Combining mark and NFKC ops are not supported on Shift_JIS bytes");
+        }
+        this.conversion_ops = conversion_ops;
+        this.charset = charset;
+
+        for(int b = 0; b < 256; b++) {
+            if(!isLeadByte(b)) {
+                this.single_byte_outputs[b] = this.createOutput(new byte[] { (byte)b }, false);
+            }
+        }
+        for(int b = HANKAKU_KANA_FIRST; b <= HANKAKU_KANA_LAST; b++) {
+            this.voiced_outputs[b] = this.createOutput(new byte[] { (byte)b, (byte)HANKAKU_VOICED_MARK_BYTE }, true);
+            this.aspirated_outputs[b] = this.createOutput(new byte[] { (byte)b, (byte)HANKAKU_ASPIRATED_MARK_BYTE }, true);
+        }
+        for(int lead = 0; lead < 256; lead++) {
+            if(!isLeadByte(lead)) {
+                continue;
+            }
+            byte[][] row = null;
+            for(int trail = 0; trail < 256; trail++) {
+                if(!isTrailByte(trail)) {
+                    continue;
+                }
+                byte[] output = this.createOutput(new byte[] { (byte)lead, (byte)trail }, false);
+                if(output != null) {
+                    if(row == null) {
+                        row = new byte[256][];
+                    }
+                    row[trail] = output;
+                }
+            }
+            this.double_byte_outputs[lead] = row;
+        }
+        boolean is_ascii_copied = true;
+        for(int b = 0; b < 256; b++) {
+            this.is_copied_byte[b] = !isLeadByte(b) && this.single_byte_outputs[b] == null
+                && this.voiced_outputs[b] == null && this.aspirated_outputs[b] == null;
+            if(b < 0x80 && !this.is_copied_byte[b]) {
+                is_ascii_copied = false;
+            }
+        }
+        this.is_ascii_copied = is_ascii_copied;
+    }
+    //}}}
+
+
+    //{{{ int getConversionOps()
+    /**
+      * @return Conversion ops this converter applies
+      */
+    public int getConversionOps()
+    {
+        return this.conversion_ops;
+    }
+    //}}}
+
+
+    //{{{ Charset getCharset()
+    /**
+      * @return Charset of the converted bytes
+      */
+    public Charset getCharset()
+    {
+        return this.charset;
+    }
+    //}}}
+
+
+    //{{{ byte[] convert(byte[])
+    /**
+      * @param  original_bytes  Bytes to convert
+      * @return Converted bytes
+      */
+    public byte[] convert(byte[] original_bytes)
+    {
+        byte[] new_bytes = new byte[original_bytes.length * MAX_BYTES_PER_BYTE];
+        int new_length = this.convert(original_bytes, 0, original_bytes.length, new_bytes, 0);
+        if(new_length == new_bytes.length) {
+            return new_bytes;
+        }
+        byte[] trimmed_bytes = new byte[new_length];
+        System.arraycopy(new_bytes, 0, trimmed_bytes, 0, new_length);
+        return trimmed_bytes;
+    }
+    //}}}
+    //{{{ int convert(byte[], int, int, byte[], int)
+    /**
+      * @param  original_bytes  Bytes to convert
+      * @param  offset          Index of first byte to convert
+      * @param  length          Number of bytes to convert, all of the input
+      * @param  new_bytes       Converted bytes are written here, with room for MAX_BYTES_PER_BYTE times "length"
+      * @param  new_offset      Index where converted bytes start
+      * @return Number of converted bytes written
+      */
+    public int convert(byte[] original_bytes, int offset, int length, byte[] new_bytes, int new_offset)
+    {
+        long conversion_result = this.convertBytes(original_bytes, offset, offset + length, true, new_bytes, new_offset);
+        return getWrittenEnd(conversion_result) - new_offset;
+    }
+    //}}}
+    //{{{ void convert(InputStream, OutputStream)
+    /**
+      * Converts all bytes of a stream.  Neither stream is closed.
+      *
+      * @param  input   Bytes to convert
+      * @param  output  Converted bytes are written here
+      */
+    public void convert(InputStream input, OutputStream output) throws IOException
+    {
+        byte[] read_buffer = new byte[STREAM_BUFFER_SIZE];
+        byte[] write_buffer = new byte[STREAM_BUFFER_SIZE * MAX_BYTES_PER_BYTE];
+        int pending_count = 0;
+        while(true) {
+            int read_count = input.read(read_buffer, pending_count, read_buffer.length - pending_count);
+            boolean is_final = (read_count < 0);
+            int limit = pending_count + (is_final ? 0 : read_count);
+
+            // A lead byte without its trail, or a hankaku base which may take a mark, waits for the next read
+            long conversion_result = this.convertBytes(read_buffer, 0, limit, is_final, write_buffer, 0);
+            output.write(write_buffer, 0, getWrittenEnd(conversion_result));
+            int consumed_end = getConsumedEnd(conversion_result);
+            pending_count = limit - consumed_end;
+            System.arraycopy(read_buffer, consumed_end, read_buffer, 0, pending_count);
+            if(is_final) {
+                return;
+            }
+        }
+    }
+    //}}}
+
+
+    //{{{ long convertBytes(byte[], int, int, boolean, byte[], int)
+    /**
+      * @param  original_bytes  Bytes to convert
+      * @param  start           Index of first byte to convert
+      * @param  limit           Index just past the last byte available
+      * @param  is_final        Whether no bytes follow "limit", otherwise a trailing lead byte or hankaku base is left
+      * @param  new_bytes       Converted bytes are written here
+      * @param  new_start       Index where converted bytes start
+      * @return Index just past the last consumed byte and index just past the last written byte, packed
+      */
+    protected long convertBytes(byte[] original_bytes, int start, int limit, boolean is_final, byte[] new_bytes, int new_start)
+    {
+        int i = start;
+        int copy_start = start;
+        int new_index = new_start;
+        while(i < limit) {
+            int b = original_bytes[i] & 0xFF;
+            if(this.is_copied_byte[b]) {
+                // ASCII bytes at a char boundary are whole chars, never trail bytes
+                i = (b < 0x80 && this.is_ascii_copied) ? KanaScan.skipAsciiBytes(original_bytes, i + 1, limit) : i + 1;
+                continue;
+            }
+            byte[] output;
+            int consumed_count;
+            if(isLeadByte(b)) {
+                if(i + 1 >= limit) {
+                    if(!is_final) {
+                        break;
+                    }
+                    // Lone lead byte at the end is copied
+                    i++;
+                    continue;
+                }
+                int trail = original_bytes[i + 1] & 0xFF;
+                byte[][] row = this.double_byte_outputs[b];
+                output = (row == null) ? null : row[trail];
+                if(output == null) {
+                    // A byte which cannot be a trail starts the next char
+                    i += isTrailByte(trail) ? 2 : 1;
+                    continue;
+                }
+                consumed_count = 2;
+            } else {
+                output = null;
+                consumed_count = 1;
+                if(this.voiced_outputs[b] != null || this.aspirated_outputs[b] != null) {
+                    if(i + 1 >= limit) {
+                        if(!is_final) {
+                            break;
+                        }
+                    } else {
+                        int next_b = original_bytes[i + 1] & 0xFF;
+                        if(next_b == HANKAKU_VOICED_MARK_BYTE) {
+                            output = this.voiced_outputs[b];
+                        } else if(next_b == HANKAKU_ASPIRATED_MARK_BYTE) {
+                            output = this.aspirated_outputs[b];
+                        }
+                        if(output != null) {
+                            consumed_count = 2;
+                        }
+                    }
+                }
+                if(output == null) {
+                    output = this.single_byte_outputs[b];
+                    if(output == null) {
+                        i++;
+                        continue;
+                    }
+                }
+            }
+
+            // Copy the unchanged run before this char, then its replacement
+            int run_length = i - copy_start;
+            System.arraycopy(original_bytes, copy_start, new_bytes, new_index, run_length);
+            new_index += run_length;
+            for(int k = 0; k < output.length; k++) {
+                new_bytes[new_index++] = output[k];
+            }
+            i += consumed_count;
+            copy_start = i;
+        }
+
+        int run_length = i - copy_start;
+        System.arraycopy(original_bytes, copy_start, new_bytes, new_index, run_length);
+        new_index += run_length;
+        return ((long)i << 32) | (new_index & 0xFFFFFFFFL);
+    }
+    //}}}
+
+
+    //{{{ int getConsumedEnd(long)
+    protected static int getConsumedEnd(long conversion_result)
+    {
+        return (int)(conversion_result >>> 32);
+    }
+    //}}}
+
+
+    //{{{ int getWrittenEnd(long)
+    protected static int getWrittenEnd(long conversion_result)
+    {
+        return (int)conversion_result;
+    }
+    //}}}
+
+
+    //{{{ byte[] createOutput(byte[], boolean)
+    /**
+      * @param  original_bytes  One char, or a hankaku base and its mark
+      * @param  must_collapse   Whether a result is only wanted if it is a single char
+      * @return Bytes the original bytes convert to, or null if they are unchanged (or not converted to bytes of this charset)
+      */
+    private byte[] createOutput(byte[] original_bytes, boolean must_collapse)
+    {
+        try {
+            String original_text = new String(original_bytes, this.charset.name());
+            if(original_text.indexOf(UNMAPPED_CHAR) >= 0) {
+                return null;
+            }
+            String new_text = KanaConverter.convertKana(original_text, this.conversion_ops);
+            if(new_text.equals(original_text) || (must_collapse && new_text.length() != 1)) {
+                return null;
+            }
+            byte[] new_bytes = new_text.getBytes(this.charset.name());
+            if(!new String(new_bytes, this.charset.name()).equals(new_text) || new_bytes.length > original_bytes.length * MAX_BYTES_PER_BYTE) {
+                return null;
+            }
+            return new_bytes;
+        } catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.toString());
+        }
+    }
+    //}}}
+
+
+    //{{{ boolean isLeadByte(int)
+    private static boolean isLeadByte(int b)
+    {
+        return (b >= 0x81 && b <= 0x9F) || (b >= 0xE0 && b <= 0xFC);
+    }
+    //}}}
+
+
+    //{{{ boolean isTrailByte(int)
+    private static boolean isTrailByte(int b)
+    {
+        return (b >= 0x40 && b <= 0x7E) || (b >= 0x80 && b <= 0xFC);
+    }
+    //}}}
+}
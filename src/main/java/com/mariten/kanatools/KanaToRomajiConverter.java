@@ -0,0 +1,411 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaConverter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+  * Converts kana into Hepburn romaji.
+  *
+  * Zenkaku hiragana, zenkaku katakana and hankaku katakana are all accepted.  Each character is first
+  * brought to zenkaku katakana with the same logic as "KanaConverter.convertKana" (hankaku and combining
+  * voiced/aspirated marks are collapsed), then looked up in flat tables indexed by character.  At most two
+  * kana past the current one are ever looked at, for yoon (きょ -> kyo), sokuon (っ), hatsuon (ん) and
+  * long vowels.  Characters which are not kana are copied unchanged.
+  *
+  * Long vowels (おう, うう, おお and ー) are written according to one of the LONG_VOWELS_* styles.
+  */
+public class KanaToRomajiConverter
+{
+    /** Long vowels written as spelled in kana: とうきょう -> toukyou, ラーメン -> raamen */
+    public static final int LONG_VOWELS_AS_WRITTEN = 0;
+    /** Long vowels written with macrons: とうきょう -> tōkyō, ラーメン -> rāmen */
+    public static final int LONG_VOWELS_MACRON     = 1;
+    /** Long vowels shortened, as on passports: とうきょう -> tokyo, ラーメン -> ramen */
+    public static final int LONG_VOWELS_OMITTED    = 2;
+
+    /** Ops bringing any kana to zenkaku katakana before lookup */
+    private static final int NORMALIZE_OPS =
+        KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_ZEN_HIRA_TO_ZEN_KATA | KanaConverter.OP_COMPOSE_COMBINING_MARKS;
+
+    //{{{ Kana mapping tables
+    // Pairs of {katakana, romaji}, single kana first, then kana followed by a small kana
+    private static final String[] KATAKANA_TO_ROMAJI = {
+        "ア", "a",   "イ", "i",   "ウ", "u",   "エ", "e",   "オ", "o",
+        "ァ", "a",   "ィ", "i",   "ゥ", "u",   "ェ", "e",   "ォ", "o",
+        "カ", "ka",  "キ", "ki",  "ク", "ku",  "ケ", "ke",  "コ", "ko",
+        "ガ", "ga",  "ギ", "gi",  "グ", "gu",  "ゲ", "ge",  "ゴ", "go",
+        "サ", "sa",  "シ", "shi", "ス", "su",  "セ", "se",  "ソ", "so",
+        "ザ", "za",  "ジ", "ji",  "ズ", "zu",  "ゼ", "ze",  "ゾ", "zo",
+        "タ", "ta",  "チ", "chi", "ツ", "tsu", "テ", "te",  "ト", "to",
+        "ダ", "da",  "ヂ", "ji",  "ヅ", "zu",  "デ", "de",  "ド", "do",
+        "ナ", "na",  "ニ", "ni",  "ヌ", "nu",  "ネ", "ne",  "ノ", "no",
+        "ハ", "ha",  "ヒ", "hi",  "フ", "fu",  "ヘ", "he",  "ホ", "ho",
+        "バ", "ba",  "ビ", "bi",  "ブ", "bu",  "ベ", "be",  "ボ", "bo",
+        "パ", "pa",  "ピ", "pi",  "プ", "pu",  "ペ", "pe",  "ポ", "po",
+        "マ", "ma",  "ミ", "mi",  "ム", "mu",  "メ", "me",  "モ", "mo",
+        "ヤ", "ya",  "ユ", "yu",  "ヨ", "yo",  "ャ", "ya",  "ュ", "yu",  "ョ", "yo",
+        "ラ", "ra",  "リ", "ri",  "ル", "ru",  "レ", "re",  "ロ", "ro",
+        "ワ", "wa",  "ヮ", "wa",  "ヰ", "i",   "ヱ", "e",   "ヲ", "o",
+        "ン", "n",   "ッ", "",
+        "ヴ", "vu",  "ヵ", "ka",  "ヶ", "ke",
+        "ヷ", "va",  "ヸ", "vi",  "ヹ", "ve",  "ヺ", "vo",
+
+        // Yoon with ャュョ after i-row kana is generated, these are the remaining combinations
+        "イェ", "ye",  "ウィ", "wi",  "ウェ", "we",  "ウォ", "wo",
+        "クァ", "kwa", "グァ", "gwa",
+        "シェ", "she", "ジェ", "je",  "チェ", "che",
+        "ツァ", "tsa", "ツィ", "tsi", "ツェ", "tse", "ツォ", "tso",
+        "ティ", "ti",  "トゥ", "tu",  "テュ", "tyu",
+        "ディ", "di",  "ドゥ", "du",  "デュ", "dyu",
+        "ファ", "fa",  "フィ", "fi",  "フェ", "fe",  "フォ", "fo",  "フュ", "fyu",
+        "ヴァ", "va",  "ヴィ", "vi",  "ヴェ", "ve",  "ヴォ", "vo",  "ヴュ", "vyu",
+    };
+
+    /** Small kana which combine with the kana before them, in slot order */
+    private static final String COMBINING_SMALL_KANA = "ァィゥェォャュョ";
+
+    private static final String VOWELS        = "aiueo";
+    private static final String MACRON_VOWELS = "āīūēō";
+
+    private static final char KATAKANA_FIRST = 'ァ';
+    private static final char KATAKANA_LAST  = 'ヺ';
+    private static final char CHOONPU        = 'ー';
+
+    // Every kana gets SLOT_STRIDE slots: itself, then itself followed by each combining small kana
+    private static final int SLOT_STRIDE  = 1 + COMBINING_SMALL_KANA.length();
+    private static final int NO_SLOT      = 0xFFFF;
+    private static final int CHOONPU_SLOT = (KATAKANA_LAST - KATAKANA_FIRST + 1) * SLOT_STRIDE;
+    private static final int HATSUON_SLOT = ('ン' - KATAKANA_FIRST) * SLOT_STRIDE;
+    private static final int SOKUON_SLOT  = ('ッ' - KATAKANA_FIRST) * SLOT_STRIDE;
+    private static final int U_SLOT       = ('ウ' - KATAKANA_FIRST) * SLOT_STRIDE;
+    private static final int O_SLOT       = ('オ' - KATAKANA_FIRST) * SLOT_STRIDE;
+
+    /** Most input chars read by "readSyllable" at one position: base, diacritic mark, small kana, and a peek past it */
+    private static final int SYLLABLE_PEEK_CHARS = 4;
+
+    private static final int STREAM_BUFFER_SIZE = 8192;
+
+    /** Romaji for each slot, null for combinations which are not a single syllable */
+    private static final String[] SYLLABLE_ROMAJI;
+
+    /** Index in COMBINING_SMALL_KANA of each katakana, or -1 */
+    private static final byte[] SMALL_KANA_INDEXES;
+
+    static {
+        int katakana_count = KATAKANA_LAST - KATAKANA_FIRST + 1;
+        String[] syllable_romaji = new String[CHOONPU_SLOT + 1];
+        byte[] small_kana_indexes = new byte[katakana_count];
+        for(int k = 0; k < katakana_count; k++) {
+            small_kana_indexes[k] = (byte)COMBINING_SMALL_KANA.indexOf(KATAKANA_FIRST + k);
+        }
+
+        for(int p = 0; p < KATAKANA_TO_ROMAJI.length; p += 2) {
+            String katakana = KATAKANA_TO_ROMAJI[p];
+            String romaji = KATAKANA_TO_ROMAJI[p + 1];
+            int slot = (katakana.charAt(0) - KATAKANA_FIRST) * SLOT_STRIDE;
+            if(katakana.length() > 1) {
+                slot += 1 + small_kana_indexes[katakana.charAt(1) - KATAKANA_FIRST];
+            } else if(romaji.length() > 1 && romaji.endsWith("i")) {
+                // Yoon: キ+ャ -> kya, but シ+ャ -> sha, チ+ャ -> cha, ジ+ャ -> ja
+                String stem = romaji.substring(0, romaji.length() - 1);
+                boolean is_palatal = stem.equals("j") || stem.equals("sh") || stem.equals("ch");
+                if(!is_palatal) {
+                    stem += "y";
+                }
+                for(int s = COMBINING_SMALL_KANA.indexOf('ャ'); s < COMBINING_SMALL_KANA.length(); s++) {
+                    String small_romaji = KATAKANA_TO_ROMAJI[2 * indexOfKatakana(COMBINING_SMALL_KANA.charAt(s)) + 1];
+                    syllable_romaji[slot + 1 + s] = stem + small_romaji.substring(1);
+                }
+            }
+            syllable_romaji[slot] = romaji;
+        }
+        syllable_romaji[CHOONPU_SLOT] = "-";
+
+        SYLLABLE_ROMAJI    = syllable_romaji;
+        SMALL_KANA_INDEXES = small_kana_indexes;
+    }
+    //}}}
+
+
+    //{{{ String convertToRomaji(CharSequence, int)
+    /**
+      * @param  kana_text          Text containing hiragana, katakana or hankaku katakana
+      * @param  long_vowel_style   One of the LONG_VOWELS_* constants
+      * @return Text with kana converted to Hepburn romaji
+      */
+    public static String convertToRomaji(CharSequence kana_text, int long_vowel_style)
+    {
+        checkLongVowelStyle(long_vowel_style);
+        StringBuilder romaji = new StringBuilder(kana_text.length() * 2);
+        appendRomaji(kana_text, 0, true, long_vowel_style, romaji);
+        return romaji.toString();
+    }
+    //}}}
+    //{{{ String convertToRomaji(CharSequence)
+    /**
+      * @param  kana_text  Text containing hiragana, katakana or hankaku katakana
+      * @return Text with kana converted to Hepburn romaji, long vowels written with macrons
+      */
+    public static String convertToRomaji(CharSequence kana_text)
+    {
+        return convertToRomaji(kana_text, LONG_VOWELS_MACRON);
+    }
+    //}}}
+
+
+    //{{{ String[] convertToRomaji(String[], int)
+    /**
+      * Converts many texts at once, reusing a single working buffer.
+      *
+      * @param  kana_texts         Texts containing hiragana, katakana or hankaku katakana
+      * @param  long_vowel_style   One of the LONG_VOWELS_* constants
+      * @return Converted texts, in the same order
+      */
+    public static String[] convertToRomaji(String[] kana_texts, int long_vowel_style)
+    {
+        checkLongVowelStyle(long_vowel_style);
+        String[] romaji_texts = new String[kana_texts.length];
+        StringBuilder romaji = new StringBuilder();
+        for(int t = 0; t < kana_texts.length; t++) {
+            romaji.setLength(0);
+            appendRomaji(kana_texts[t], 0, true, long_vowel_style, romaji);
+            romaji_texts[t] = romaji.toString();
+        }
+        return romaji_texts;
+    }
+    //}}}
+
+
+    //{{{ void convertToRomaji(Reader, Writer, int)
+    /**
+      * Converts everything read from "kana_reader" until end of stream, writing romaji as it goes.
+      * Only the few characters needed for lookahead are held back between reads.
+      * Neither stream is closed or flushed.
+      *
+      * @param  kana_reader        Source of text containing hiragana, katakana or hankaku katakana
+      * @param  romaji_writer      Destination of converted text
+      * @param  long_vowel_style   One of the LONG_VOWELS_* constants
+      * @throws IOException  If reading or writing fails
+      */
+    public static void convertToRomaji(Reader kana_reader, Writer romaji_writer, int long_vowel_style) throws IOException
+    {
+        checkLongVowelStyle(long_vowel_style);
+        char[] read_buffer = new char[STREAM_BUFFER_SIZE];
+        char[] write_buffer = new char[STREAM_BUFFER_SIZE * 2];
+        StringBuilder pending = new StringBuilder(STREAM_BUFFER_SIZE + SYLLABLE_PEEK_CHARS * 2);
+        StringBuilder romaji = new StringBuilder(STREAM_BUFFER_SIZE * 2);
+        boolean is_final = false;
+        while(!is_final) {
+            int read_count = kana_reader.read(read_buffer);
+            is_final = (read_count < 0);
+            if(!is_final) {
+                pending.append(read_buffer, 0, read_count);
+            }
+
+            int processed_count = appendRomaji(pending, 0, is_final, long_vowel_style, romaji);
+            pending.delete(0, processed_count);
+
+            int romaji_length = romaji.length();
+            if(romaji_length > write_buffer.length) {
+                write_buffer = new char[romaji_length];
+            }
+            romaji.getChars(0, romaji_length, write_buffer, 0);
+            romaji_writer.write(write_buffer, 0, romaji_length);
+            romaji.setLength(0);
+        }
+    }
+    //}}}
+
+
+    //{{{ int appendRomaji(CharSequence, int, boolean, int, StringBuilder)
+    /**
+      * @param  kana_text          Text to convert
+      * @param  start              Index of first character to convert
+      * @param  is_final           Whether "kana_text" is the end of input.  If not, conversion stops
+      *                            early when lookahead would run past the end of "kana_text".
+      * @param  long_vowel_style   One of the LONG_VOWELS_* constants
+      * @param  romaji             Converted text is appended here
+      * @return Index just past the last converted character
+      */
+    private static int appendRomaji(CharSequence kana_text, int start, boolean is_final, int long_vowel_style, StringBuilder romaji)
+    {
+        int end = kana_text.length();
+        int i = start;
+        while(i < end) {
+            if(!is_final && i + SYLLABLE_PEEK_CHARS > end) {
+                return i;
+            }
+            int romaji_start = romaji.length();
+            int syllable = readSyllable(kana_text, i);
+            int slot = getSyllableSlot(syllable);
+            int syllable_end = i + getSyllableLength(syllable);
+
+            if(slot == NO_SLOT) {
+                // Not kana, copy as is
+                romaji.append(kana_text, i, syllable_end);
+            }
+            else if(slot == SOKUON_SLOT || slot == HATSUON_SLOT) {
+                // Spelling depends on the following syllable
+                if(!is_final && syllable_end + SYLLABLE_PEEK_CHARS > end) {
+                    return i;
+                }
+                int following_slot = (syllable_end < end) ? getSyllableSlot(readSyllable(kana_text, syllable_end)) : NO_SLOT;
+                String following_romaji = (following_slot == NO_SLOT) ? "" : SYLLABLE_ROMAJI[following_slot];
+                char following_first = (following_romaji.length() > 0) ? following_romaji.charAt(0) : 0;
+                if(slot == HATSUON_SLOT) {
+                    // Apostrophe keeps ん apart from a following vowel or y (kin'en, kon'ya)
+                    romaji.append('n');
+                    if(following_first == 'y' || (following_first != 0 && VOWELS.indexOf(following_first) >= 0)) {
+                        romaji.append('\'');
+                    }
+                }
+                else if(following_first != 0
+                && following_slot != HATSUON_SLOT
+                && following_slot != CHOONPU_SLOT
+                && VOWELS.indexOf(following_first) < 0) {
+                    // Sokuon doubles the next consonant, "ch" is preceded by "t" (matcha)
+                    romaji.append(following_romaji.startsWith("ch") ? 't' : following_first);
+                }
+            }
+            else {
+                String syllable_romaji = SYLLABLE_ROMAJI[slot];
+                romaji.append(syllable_romaji);
+
+                int vowel_index = (syllable_romaji.length() > 0)
+                    ? VOWELS.indexOf(syllable_romaji.charAt(syllable_romaji.length() - 1))
+                    : -1;
+                if(vowel_index >= 0) {
+                    // Absorb long vowel marks, and おう/おお/うう unless written as is
+                    boolean is_lengthened = false;
+                    while(true) {
+                        if(!is_final && syllable_end + SYLLABLE_PEEK_CHARS > end) {
+                            romaji.setLength(romaji_start);
+                            return i;
+                        }
+                        if(syllable_end >= end) {
+                            break;
+                        }
+                        int following = readSyllable(kana_text, syllable_end);
+                        int following_slot = getSyllableSlot(following);
+                        if(following_slot == CHOONPU_SLOT) {
+                            if(long_vowel_style == LONG_VOWELS_AS_WRITTEN) {
+                                romaji.append(VOWELS.charAt(vowel_index));
+                            }
+                        }
+                        else if(is_lengthened
+                        || long_vowel_style == LONG_VOWELS_AS_WRITTEN
+                        || !isLongVowelPair(vowel_index, following_slot)) {
+                            break;
+                        }
+                        is_lengthened = true;
+                        syllable_end += getSyllableLength(following);
+                    }
+                    if(is_lengthened && long_vowel_style == LONG_VOWELS_MACRON) {
+                        romaji.setCharAt(romaji.length() - 1, MACRON_VOWELS.charAt(vowel_index));
+                    }
+                }
+            }
+            i = syllable_end;
+        }
+        return i;
+    }
+    //}}}
+
+
+    //{{{ int readSyllable(CharSequence, int)
+    /**
+      * Reads one kana, together with a following small kana if they form a single syllable.
+      *
+      * @return Syllable slot (or NO_SLOT if not kana) in the low 16 bits, count of consumed input characters above
+      */
+    private static int readSyllable(CharSequence kana_text, int i)
+    {
+        long conversion_result = KanaConverter.convertCharAt(kana_text, i, NORMALIZE_OPS, "");
+        char katakana = KanaConverter.getConvertedChar(conversion_result);
+        int consumed_char_count = KanaConverter.getConsumedCharCount(conversion_result);
+        if(katakana == CHOONPU) {
+            return (consumed_char_count << 16) | CHOONPU_SLOT;
+        }
+        if(katakana < KATAKANA_FIRST || katakana > KATAKANA_LAST) {
+            return (consumed_char_count << 16) | NO_SLOT;
+        }
+
+        int slot = (katakana - KATAKANA_FIRST) * SLOT_STRIDE;
+        int small_i = i + consumed_char_count;
+        if(small_i < kana_text.length()) {
+            long small_result = KanaConverter.convertCharAt(kana_text, small_i, NORMALIZE_OPS, "");
+            char small_katakana = KanaConverter.getConvertedChar(small_result);
+            if(small_katakana >= KATAKANA_FIRST && small_katakana <= KATAKANA_LAST) {
+                int small_index = SMALL_KANA_INDEXES[small_katakana - KATAKANA_FIRST];
+                if(small_index >= 0 && SYLLABLE_ROMAJI[slot + 1 + small_index] != null) {
+                    consumed_char_count += KanaConverter.getConsumedCharCount(small_result);
+                    slot += 1 + small_index;
+                }
+            }
+        }
+        return (consumed_char_count << 16) | slot;
+    }
+    //}}}
+
+
+    //{{{ int getSyllableSlot(int)
+    private static int getSyllableSlot(int syllable)
+    {
+        return syllable & 0xFFFF;
+    }
+    //}}}
+
+
+    //{{{ int getSyllableLength(int)
+    private static int getSyllableLength(int syllable)
+    {
+        return syllable >>> 16;
+    }
+    //}}}
+
+
+    //{{{ boolean isLongVowelPair(int, int)
+    /**
+      * @return Whether the vowel at "vowel_index" followed by the kana in "following_slot" is a long vowel (ou, oo, uu)
+      */
+    private static boolean isLongVowelPair(int vowel_index, int following_slot)
+    {
+        char vowel = VOWELS.charAt(vowel_index);
+        if(vowel == 'o') {
+            return following_slot == U_SLOT || following_slot == O_SLOT;
+        }
+        if(vowel == 'u') {
+            return following_slot == U_SLOT;
+        }
+        return false;
+    }
+    //}}}
+
+
+    //{{{ int indexOfKatakana(char)
+    /**
+      * @return Index of the {katakana, romaji} pair for a single kana in KATAKANA_TO_ROMAJI
+      */
+    private static int indexOfKatakana(char katakana)
+    {
+        for(int p = 0; p < KATAKANA_TO_ROMAJI.length; p += 2) {
+            if(KATAKANA_TO_ROMAJI[p].length() == 1 && KATAKANA_TO_ROMAJI[p].charAt(0) == katakana) {
+                return p / 2;
+            }
+        }
+        throw new IllegalStateException("No romaji for " + katakana);
+    }
+    //}}}
+
+
+    //{{{ void checkLongVowelStyle(int)
+    private static void checkLongVowelStyle(int long_vowel_style)
+    {
+        if(long_vowel_style < LONG_VOWELS_AS_WRITTEN || long_vowel_style > LONG_VOWELS_OMITTED) {
+            throw new IllegalArgumentException("Unknown long vowel style: " + long_vowel_style);
+        }
+    }
+    //}}}
+}
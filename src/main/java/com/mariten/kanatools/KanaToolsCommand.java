@@ -0,0 +1,620 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaConversionPlan;
+import com.mariten.kanatools.KanaConverter;
+import com.mariten.kanatools.KanaCsvNormalizer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+  * Command line bulk converter, run as "kanatools convert [options] [in [out]]".
+  *
+  * Text is split into chunks at line breaks and converted by a pool of worker threads,
+  * output is written in input order.  No conversion collapses chars across a line break,
+  * so the result is the same as converting the whole text at once.
+  *
+  * Regular input files in a charset where a line feed is always the byte 0x0A (such as UTF-8)
+  * are memory-mapped, and workers also decode their own chunk.  Other input is read through a Reader.
+  */
+public class KanaToolsCommand
+{
+    public static final int EXIT_SUCCESS = 0;
+    public static final int EXIT_FAILURE = 1;
+    public static final int EXIT_USAGE   = 2;
+
+    private static final String STDIO_NAME = "-";
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private static final int MAPPED_REGION_SIZE = 1 << 28;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+    private static final long STATS_INTERVAL_MILLIS = 1000;
+
+    private static final String USAGE =
+        "Usage: kanatools convert [options] [in [out]]\n" +
+        "\n" +
+        "Converts text from \"in\" to \"out\" (stdin/stdout when omitted or \"-\").\n" +
+        "\n" +
+        "Options:\n" +
+        "  --ops OPS         mb_convert_kana style letters, such as KV or KVa (\"V\" is accepted, marks are always collapsed)\n" +
+        "  --ignore CHARS    Chars to exclude from conversion\n" +
+        "  --compose         Also compose kana followed by combining dakuten/handakuten\n" +
+        "  --nfkc            Also fold kana, ASCII, space and punctuation as NFKC would\n" +
+        "  --encoding NAME   Charset of input and output (default UTF-8)\n" +
+        "  --threads N       Worker threads (default: available processors)\n" +
+        "  --chunk-size N    Approximate size of each unit of work, in chars or mapped bytes (default 1048576)\n" +
+        "  --no-mmap         Read input files through a stream instead of mapping them\n" +
+        "  --stats           Report throughput on stderr every second, and once done\n";
+
+
+    //{{{ void main(String[])
+    public static void main(String[] args)
+    {
+        int exit_code = run(args, System.in, System.out, System.err);
+        System.exit(exit_code);
+    }
+    //}}}
+
+
+    //{{{ int run(String[], InputStream, OutputStream, PrintStream)
+    /**
+      * @param  args     Command line arguments, starting with the command name
+      * @param  std_in   Read when no input file is given
+      * @param  std_out  Written when no output file is given
+      * @param  std_err  Receives error messages and throughput stats
+      * @return Exit code: EXIT_SUCCESS, EXIT_FAILURE on I/O errors, EXIT_USAGE on bad arguments
+      */
+    public static int run(String[] args, InputStream std_in, OutputStream std_out, PrintStream std_err)
+    {
+        if(args.length == 0) {
+            std_err.print(USAGE);
+            return EXIT_USAGE;
+        }
+        String command = args[0];
+        if(command.equals("help") || command.equals("--help") || command.equals("-h")) {
+            std_err.print(USAGE);
+            return EXIT_SUCCESS;
+        }
+        if(!command.equals("convert")) {
+            std_err.println("kanatools: unknown command \"" + command + "\"");
+            std_err.print(USAGE);
+            return EXIT_USAGE;
+        }
+
+        ConvertOptions options;
+        try {
+            options = parseConvertOptions(args);
+        } catch(IllegalArgumentException e) {
+            std_err.println("kanatools: " + e.getMessage());
+            std_err.print(USAGE);
+            return EXIT_USAGE;
+        }
+
+        try {
+            convert(options, std_in, std_out, std_err);
+        } catch(IOException e) {
+            std_err.println("kanatools: " + e.getMessage());
+            return EXIT_FAILURE;
+        }
+        return EXIT_SUCCESS;
+    }
+    //}}}
+
+
+    //{{{ ConvertOptions parseConvertOptions(String[])
+    private static ConvertOptions parseConvertOptions(String[] args)
+    {
+        ConvertOptions options = new ConvertOptions();
+        int file_count = 0;
+        for(int k = 1; k < args.length; k++) {
+            String arg = args[k];
+            if(arg.equals("--ops")) {
+                options.conversion_ops |= parseOpLetters(requireValue(args, k++));
+            } else if(arg.equals("--ignore")) {
+                options.chars_to_ignore = requireValue(args, k++);
+            } else if(arg.equals("--compose")) {
+                options.conversion_ops |= KanaConverter.OP_COMPOSE_COMBINING_MARKS;
+            } else if(arg.equals("--nfkc")) {
+                options.conversion_ops |= KanaConverter.OP_KANA_NFKC;
+            } else if(arg.equals("--encoding")) {
+                String charset_name = requireValue(args, k++);
+                try {
+                    options.charset = Charset.forName(charset_name);
+                } catch(RuntimeException e) {
+                    throw new IllegalArgumentException("unsupported encoding \"" + charset_name + "\"");
+                }
+            } else if(arg.equals("--threads")) {
+                options.thread_count = parsePositiveInt(arg, requireValue(args, k++));
+            } else if(arg.equals("--chunk-size")) {
+                options.chunk_size = parsePositiveInt(arg, requireValue(args, k++));
+            } else if(arg.equals("--no-mmap")) {
+                options.use_mmap = false;
+            } else if(arg.equals("--stats")) {
+                options.show_stats = true;
+            } else if(arg.startsWith("--")) {
+                throw new IllegalArgumentException("unknown option \"" + arg + "\"");
+            } else if(file_count == 0) {
+                options.input_name = arg;
+                file_count++;
+            } else if(file_count == 1) {
+                options.output_name = arg;
+                file_count++;
+            } else {
+                throw new IllegalArgumentException("too many file arguments");
+            }
+        }
+        return options;
+    }
+    //}}}
+
+
+    //{{{ String requireValue(String[], int)
+    private static String requireValue(String[] args, int option_index)
+    {
+        if(option_index + 1 >= args.length) {
+            throw new IllegalArgumentException("missing value for " + args[option_index]);
+        }
+        return args[option_index + 1];
+    }
+    //}}}
+
+
+    //{{{ int parsePositiveInt(String, String)
+    private static int parsePositiveInt(String option_name, String value)
+    {
+        int parsed_value;
+        try {
+            parsed_value = Integer.parseInt(value);
+        } catch(NumberFormatException e) {
+            parsed_value = 0;
+        }
+        if(parsed_value <= 0) {
+            throw new IllegalArgumentException(option_name + " must be a positive number, got \"" + value + "\"");
+        }
+        return parsed_value;
+    }
+    //}}}
+
+
+    //{{{ int parseOpLetters(String)
+    private static int parseOpLetters(String op_letters)
+    {
+        int conversion_ops = 0;
+        for(int k = 0; k < op_letters.length(); k++) {
+            char op_letter = op_letters.charAt(k);
+            if(KanaConverter.LETTER_OP_CODE_LOOKUP.containsKey(op_letter)) {
+                conversion_ops |= KanaConverter.LETTER_OP_CODE_LOOKUP.get(op_letter);
+            } else if(op_letter != 'V') {
+                throw new IllegalArgumentException("unknown op letter '" + op_letter + "' in \"" + op_letters + "\"");
+            }
+        }
+        return conversion_ops;
+    }
+    //}}}
+
+
+    //{{{ void convert(ConvertOptions, InputStream, OutputStream, PrintStream)
+    private static void convert(ConvertOptions options, InputStream std_in, OutputStream std_out, PrintStream std_err) throws IOException
+    {
+        KanaConversionPlan plan = new KanaConversionPlan(options.conversion_ops, options.chars_to_ignore);
+        ExecutorService workers = null;
+        if(options.thread_count > 1) {
+            workers = Executors.newFixedThreadPool(options.thread_count, new WorkerThreadFactory());
+        }
+
+        File input_file = isStdio(options.input_name) ? null : new File(options.input_name);
+        OutputStream output_stream = isStdio(options.output_name) ? std_out : new FileOutputStream(options.output_name);
+        try {
+            Writer output_writer = new BufferedWriter(new OutputStreamWriter(output_stream, options.charset), OUTPUT_BUFFER_SIZE);
+            ThroughputStats stats = options.show_stats ? new ThroughputStats(std_err) : null;
+            OrderedOutput ordered_output = new OrderedOutput(workers, options.thread_count * 2, output_writer, stats);
+
+            if(input_file != null
+            && input_file.isFile()
+            && options.use_mmap
+            && KanaCsvNormalizer.isAsciiSafeCharset(options.charset)) {
+                convertMappedFile(plan, input_file, options, ordered_output);
+            } else {
+                InputStream input_stream = (input_file == null) ? std_in : new FileInputStream(input_file);
+                try {
+                    convertStream(plan, input_stream, options, ordered_output);
+                } finally {
+                    if(input_file != null) {
+                        input_stream.close();
+                    }
+                }
+            }
+
+            ordered_output.finish();
+            output_writer.flush();
+            if(stats != null) {
+                stats.report(true);
+            }
+        } finally {
+            if(workers != null) {
+                workers.shutdownNow();
+            }
+            if(output_stream != std_out) {
+                output_stream.close();
+            }
+        }
+    }
+    //}}}
+
+
+    //{{{ void convertStream(KanaConversionPlan, InputStream, ConvertOptions, OrderedOutput)
+    private static void convertStream(final KanaConversionPlan plan, InputStream input_stream, ConvertOptions options, OrderedOutput ordered_output) throws IOException
+    {
+        CountingInputStream counted_input = new CountingInputStream(input_stream);
+        Reader reader = new InputStreamReader(counted_input, options.charset);
+        char[] read_buffer = new char[Math.min(options.chunk_size, OUTPUT_BUFFER_SIZE)];
+        StringBuilder pending_text = new StringBuilder(options.chunk_size + read_buffer.length);
+        int searched_length = 0;
+        long submitted_byte_count = 0;
+
+        int read_count;
+        while((read_count = reader.read(read_buffer)) >= 0) {
+            pending_text.append(read_buffer, 0, read_count);
+            if(pending_text.length() < options.chunk_size) {
+                continue;
+            }
+
+            // Cut after the last line break, only searching what was appended since the last search.
+            // A CR at the very end may still turn out to start a CRLF, so it is searched again next time.
+            int cut_index = pending_text.length();
+            while(cut_index > searched_length && !isLineEnd(pending_text, cut_index)) {
+                cut_index--;
+            }
+            searched_length = Math.max(0, pending_text.length() - 1);
+            if(!isLineEnd(pending_text, cut_index)) {
+                continue;
+            }
+
+            final String chunk = pending_text.substring(0, cut_index);
+            pending_text.delete(0, cut_index);
+            searched_length = Math.max(0, pending_text.length() - 1);
+            long byte_count = counted_input.getCount() - submitted_byte_count;
+            submitted_byte_count += byte_count;
+            ordered_output.submit(new Callable<String>() {
+                public String call()
+                {
+                    return plan.convert(chunk);
+                }
+            }, byte_count);
+        }
+
+        if(pending_text.length() > 0) {
+            final String chunk = pending_text.toString();
+            ordered_output.submit(new Callable<String>() {
+                public String call()
+                {
+                    return plan.convert(chunk);
+                }
+            }, counted_input.getCount() - submitted_byte_count);
+        }
+    }
+    //}}}
+
+
+    //{{{ void convertMappedFile(KanaConversionPlan, File, ConvertOptions, OrderedOutput)
+    private static void convertMappedFile(final KanaConversionPlan plan, File input_file, ConvertOptions options, OrderedOutput ordered_output) throws IOException
+    {
+        final Charset charset = options.charset;
+        FileInputStream input_stream = new FileInputStream(input_file);
+        try {
+            FileChannel channel = input_stream.getChannel();
+            long file_size = channel.size();
+            long region_start = 0;
+            MappedByteBuffer region = null;
+            long position = 0;
+            while(position < file_size) {
+                // Keep the region mapped around the chunk, remapping from the chunk start once it runs out
+                long chunk_end = Math.min(file_size, position + options.chunk_size);
+                if(region == null || chunk_end > region_start + region.capacity()) {
+                    region_start = position;
+                    region = channel.map(FileChannel.MapMode.READ_ONLY, region_start, Math.min(file_size - region_start, Math.max(MAPPED_REGION_SIZE, options.chunk_size)));
+                }
+
+                // Extend the chunk to the end of its last line, looking one byte ahead to keep a CRLF together
+                long region_end = region_start + region.capacity();
+                while(chunk_end < file_size) {
+                    if(chunk_end == region_end) {
+                        if(region_end - position >= Integer.MAX_VALUE / 2) {
+                            throw new IOException("Line longer than " + (Integer.MAX_VALUE / 2) + " bytes in " + input_file);
+                        }
+                        region_start = position;
+                        region = channel.map(FileChannel.MapMode.READ_ONLY, region_start, Math.min(file_size - region_start, (region_end - position) * 2));
+                        region_end = region_start + region.capacity();
+                    }
+                    byte last_byte = region.get((int)(chunk_end - 1 - region_start));
+                    if(last_byte == '\n'
+                    || (last_byte == '\r' && region.get((int)(chunk_end - region_start)) != '\n')) {
+                        break;
+                    }
+                    chunk_end++;
+                }
+
+                ByteBuffer chunk_view = region.duplicate();
+                chunk_view.limit((int)(chunk_end - region_start));
+                chunk_view.position((int)(position - region_start));
+                final ByteBuffer chunk_bytes = chunk_view.slice();
+                ordered_output.submit(new Callable<String>() {
+                    public String call() throws IOException
+                    {
+                        // Decode the same way InputStreamReader does, replacing malformed input
+                        CharsetDecoder decoder = charset.newDecoder()
+                            .onMalformedInput(CodingErrorAction.REPLACE)
+                            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                        CharBuffer chunk_chars = decoder.decode(chunk_bytes);
+                        return plan.convert(chunk_chars);
+                    }
+                }, chunk_end - position);
+                position = chunk_end;
+            }
+        } finally {
+            input_stream.close();
+        }
+    }
+    //}}}
+
+
+    //{{{ boolean isLineEnd(CharSequence, int)
+    /**
+      * @return Whether a line break (LF, CRLF or CR) ends just before "index", false for a CR which is last in "text"
+      */
+    private static boolean isLineEnd(CharSequence text, int index)
+    {
+        if(index == 0) {
+            return false;
+        }
+        char last_char = text.charAt(index - 1);
+        return last_char == '\n'
+            || (last_char == '\r' && index < text.length() && text.charAt(index) != '\n');
+    }
+    //}}}
+
+
+    //{{{ boolean isStdio(String)
+    private static boolean isStdio(String file_name)
+    {
+        return file_name == null || file_name.equals(STDIO_NAME);
+    }
+    //}}}
+
+
+    /**
+      * Settings of the "convert" command.
+      */
+    private static class ConvertOptions
+    {
+        int conversion_ops = 0;
+        String chars_to_ignore = "";
+        Charset charset = Charset.forName("UTF-8");
+        int thread_count = Runtime.getRuntime().availableProcessors();
+        int chunk_size = DEFAULT_CHUNK_SIZE;
+        boolean use_mmap = true;
+        boolean show_stats = false;
+        String input_name = null;
+        String output_name = null;
+    }
+
+
+    /**
+      * Runs chunk conversions on the workers (or right away without workers),
+      * and writes their results in submission order.
+      * At most "max_pending" chunks are in flight, which bounds memory use.
+      */
+    private static class OrderedOutput
+    {
+        private final ExecutorService workers;
+        private final int max_pending;
+        private final Writer output_writer;
+        private final ThroughputStats stats;
+        private final LinkedList<Future<String>> pending_chunks = new LinkedList<Future<String>>();
+        private final LinkedList<Long> pending_byte_counts = new LinkedList<Long>();
+
+        OrderedOutput(ExecutorService workers, int max_pending, Writer output_writer, ThroughputStats stats)
+        {
+            this.workers = workers;
+            this.max_pending = max_pending;
+            this.output_writer = output_writer;
+            this.stats = stats;
+        }
+
+        void submit(Callable<String> chunk_task, long input_byte_count) throws IOException
+        {
+            if(this.workers == null) {
+                this.write(callChunkTask(chunk_task), input_byte_count);
+                return;
+            }
+            this.pending_chunks.addLast(this.workers.submit(chunk_task));
+            this.pending_byte_counts.addLast(input_byte_count);
+            while(this.pending_chunks.size() > this.max_pending) {
+                this.writeOldest();
+            }
+        }
+
+        void finish() throws IOException
+        {
+            while(!this.pending_chunks.isEmpty()) {
+                this.writeOldest();
+            }
+        }
+
+        private void writeOldest() throws IOException
+        {
+            Future<String> oldest_chunk = this.pending_chunks.removeFirst();
+            long input_byte_count = this.pending_byte_counts.removeFirst();
+            String converted_chunk;
+            try {
+                converted_chunk = oldest_chunk.get();
+            } catch(InterruptedException e) {
+                throw new IOException("Interrupted while converting");
+            } catch(ExecutionException e) {
+                throw rethrowChunkFailure(e.getCause());
+            }
+            this.write(converted_chunk, input_byte_count);
+        }
+
+        private void write(String converted_chunk, long input_byte_count) throws IOException
+        {
+            this.output_writer.write(converted_chunk);
+            if(this.stats != null) {
+                this.stats.addChunk(converted_chunk, input_byte_count);
+            }
+        }
+
+        private static String callChunkTask(Callable<String> chunk_task) throws IOException
+        {
+            try {
+                return chunk_task.call();
+            } catch(Exception e) {
+                throw rethrowChunkFailure(e);
+            }
+        }
+
+        private static IOException rethrowChunkFailure(Throwable failure)
+        {
+            if(failure instanceof IOException) {
+                return (IOException)failure;
+            } else if(failure instanceof RuntimeException) {
+                throw (RuntimeException)failure;
+            } else if(failure instanceof Error) {
+                throw (Error)failure;
+            }
+            IOException wrapped = new IOException("Conversion failed: " + failure);
+            wrapped.initCause(failure);
+            return wrapped;
+        }
+    }
+
+
+    /**
+      * Counts input bytes and lines as chunks are written, and reports throughput to stderr.
+      */
+    private static class ThroughputStats
+    {
+        private final PrintStream std_err;
+        private final long start_millis = System.currentTimeMillis();
+        private long last_report_millis = this.start_millis;
+        private long byte_count = 0;
+        private long line_count = 0;
+
+        ThroughputStats(PrintStream std_err)
+        {
+            this.std_err = std_err;
+        }
+
+        void addChunk(String converted_chunk, long input_byte_count)
+        {
+            this.byte_count += input_byte_count;
+            // Chunks end with whole line breaks, so a CR last in one is never followed by an LF
+            int chunk_length = converted_chunk.length();
+            for(int k = 0; k < chunk_length; k++) {
+                char this_char = converted_chunk.charAt(k);
+                if(this_char == '\n' || (this_char == '\r' && (k + 1 == chunk_length || converted_chunk.charAt(k + 1) != '\n'))) {
+                    this.line_count++;
+                }
+            }
+            this.report(false);
+        }
+
+        void report(boolean is_final)
+        {
+            long now_millis = System.currentTimeMillis();
+            if(!is_final && now_millis - this.last_report_millis < STATS_INTERVAL_MILLIS) {
+                return;
+            }
+            this.last_report_millis = now_millis;
+            double elapsed_seconds = Math.max(now_millis - this.start_millis, 1) / 1000.0;
+            double megabytes = this.byte_count / (1024.0 * 1024.0);
+            this.std_err.println(String.format(Locale.US, "kanatools: %s%.1f MB, %d lines in %.1f s (%.1f MB/s, %.0f lines/s)",
+                is_final ? "done, " : "", megabytes, this.line_count, elapsed_seconds,
+                megabytes / elapsed_seconds, this.line_count / elapsed_seconds));
+        }
+    }
+
+
+    /**
+      * Counts bytes read from the wrapped stream.
+      */
+    private static class CountingInputStream extends FilterInputStream
+    {
+        private long count = 0;
+
+        CountingInputStream(InputStream wrapped_stream)
+        {
+            super(wrapped_stream);
+        }
+
+        long getCount()
+        {
+            return this.count;
+        }
+
+        public int read() throws IOException
+        {
+            int read_byte = super.read();
+            if(read_byte >= 0) {
+                this.count++;
+            }
+            return read_byte;
+        }
+
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            int read_count = super.read(buffer, offset, length);
+            if(read_count > 0) {
+                this.count += read_count;
+            }
+            return read_count;
+        }
+
+        public long skip(long length) throws IOException
+        {
+            long skipped_count = super.skip(length);
+            this.count += skipped_count;
+            return skipped_count;
+        }
+    }
+
+
+    /**
+      * Daemon worker threads, so an abandoned conversion never keeps the JVM alive.
+      */
+    private static class WorkerThreadFactory implements ThreadFactory
+    {
+        private int thread_count = 0;
+
+        public synchronized Thread newThread(Runnable task)
+        {
+            Thread worker = new Thread(task, "kanatools-worker-" + (++this.thread_count));
+            worker.setDaemon(true);
+            return worker;
+        }
+    }
+}
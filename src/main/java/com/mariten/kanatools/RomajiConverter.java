@@ -0,0 +1,343 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaAppraiser;
+import com.mariten.kanatools.KanaConverter;
+
+/**
+  * Converts romaji (Hepburn or wapuro/IME style input) into kana.
+  *
+  * Romaji is first turned into zenkaku hiragana, then every character of the result goes through the
+  * same per-character logic as "KanaConverter.convertKana" with the requested conversion ops.
+  * For example OP_ZEN_HIRA_TO_ZEN_KATA gives katakana and OP_ZEN_HIRA_TO_HAN_KATA gives hankaku katakana.
+  * Both steps happen in a single pass over the input.
+  *
+  * Supported input includes:
+  *   - Hepburn and wapuro spellings (shi/si, chi/ti, tsu/tu, fu/hu, ji/zi, sha/sya, ...)
+  *   - Yoon (kya, sho, ju, cha, ...), doubled consonants and "tch" for sokuon (kk -> っk, matcha -> まっちゃ)
+  *   - "n'", "nn" and "n"/"m" before consonants for ん
+  *   - Small kana via "x" or "l" prefixes (xa, ltu, xtsu, xya, ...)
+  *   - Long vowels written with macrons or circumflexes (Tōkyō -> とうきょう) and "-" after kana (ー)
+  */
+public class RomajiConverter
+{
+    //{{{ Romaji mapping table
+    // Pairs of {romaji, hiragana}, compiled into the lookup trie below
+    private static final String[] ROMAJI_TO_HIRAGANA = {
+        "a",   "あ",   "i",   "い",   "u",   "う",   "e",   "え",   "o",   "お",
+        "ka",  "か",   "ki",  "き",   "ku",  "く",   "ke",  "け",   "ko",  "こ",
+        "ga",  "が",   "gi",  "ぎ",   "gu",  "ぐ",   "ge",  "げ",   "go",  "ご",
+        "sa",  "さ",   "shi", "し",   "si",  "し",   "su",  "す",   "se",  "せ",   "so",  "そ",
+        "za",  "ざ",   "ji",  "じ",   "zi",  "じ",   "zu",  "ず",   "ze",  "ぜ",   "zo",  "ぞ",
+        "ta",  "た",   "chi", "ち",   "ti",  "ち",   "tsu", "つ",   "tu",  "つ",   "te",  "て",   "to",  "と",
+        "da",  "だ",   "di",  "ぢ",   "du",  "づ",   "dzu", "づ",   "de",  "で",   "do",  "ど",
+        "na",  "な",   "ni",  "に",   "nu",  "ぬ",   "ne",  "ね",   "no",  "の",
+        "ha",  "は",   "hi",  "ひ",   "fu",  "ふ",   "hu",  "ふ",   "he",  "へ",   "ho",  "ほ",
+        "ba",  "ば",   "bi",  "び",   "bu",  "ぶ",   "be",  "べ",   "bo",  "ぼ",
+        "pa",  "ぱ",   "pi",  "ぴ",   "pu",  "ぷ",   "pe",  "ぺ",   "po",  "ぽ",
+        "ma",  "ま",   "mi",  "み",   "mu",  "む",   "me",  "め",   "mo",  "も",
+        "ya",  "や",   "yu",  "ゆ",   "yo",  "よ",   "ye",  "いぇ",
+        "ra",  "ら",   "ri",  "り",   "ru",  "る",   "re",  "れ",   "ro",  "ろ",
+        "wa",  "わ",   "wi",  "ゐ",   "we",  "ゑ",   "wo",  "を",
+        "n",   "ん",
+        "vu",  "ゔ",   "va",  "ゔぁ", "vi",  "ゔぃ", "ve",  "ゔぇ", "vo",  "ゔぉ",
+        "kya", "きゃ", "kyu", "きゅ", "kyo", "きょ",
+        "gya", "ぎゃ", "gyu", "ぎゅ", "gyo", "ぎょ",
+        "sha", "しゃ", "shu", "しゅ", "sho", "しょ", "she", "しぇ",
+        "sya", "しゃ", "syu", "しゅ", "syo", "しょ",
+        "ja",  "じゃ", "ju",  "じゅ", "jo",  "じょ", "je",  "じぇ",
+        "jya", "じゃ", "jyu", "じゅ", "jyo", "じょ",
+        "zya", "じゃ", "zyu", "じゅ", "zyo", "じょ",
+        "cha", "ちゃ", "chu", "ちゅ", "cho", "ちょ", "che", "ちぇ",
+        "tya", "ちゃ", "tyu", "ちゅ", "tyo", "ちょ",
+        "cya", "ちゃ", "cyu", "ちゅ", "cyo", "ちょ",
+        "dya", "ぢゃ", "dyu", "ぢゅ", "dyo", "ぢょ",
+        "thi", "てぃ", "dhi", "でぃ",
+        "nya", "にゃ", "nyu", "にゅ", "nyo", "にょ",
+        "hya", "ひゃ", "hyu", "ひゅ", "hyo", "ひょ",
+        "bya", "びゃ", "byu", "びゅ", "byo", "びょ",
+        "pya", "ぴゃ", "pyu", "ぴゅ", "pyo", "ぴょ",
+        "mya", "みゃ", "myu", "みゅ", "myo", "みょ",
+        "rya", "りゃ", "ryu", "りゅ", "ryo", "りょ",
+        "fa",  "ふぁ", "fi",  "ふぃ", "fe",  "ふぇ", "fo",  "ふぉ", "fyu", "ふゅ",
+        "xa",  "ぁ",   "xi",  "ぃ",   "xu",  "ぅ",   "xe",  "ぇ",   "xo",  "ぉ",
+        "la",  "ぁ",   "li",  "ぃ",   "lu",  "ぅ",   "le",  "ぇ",   "lo",  "ぉ",
+        "xya", "ゃ",   "xyu", "ゅ",   "xyo", "ょ",   "lya", "ゃ",   "lyu", "ゅ",   "lyo", "ょ",
+        "xtu", "っ",   "ltu", "っ",   "xtsu", "っ",  "ltsu", "っ",
+        "xwa", "ゎ",   "lwa", "ゎ",   "xka", "ゕ",   "lka", "ゕ",   "xke", "ゖ",   "lke", "ゖ",
+    };
+
+    /** Consonants which, when doubled, are written with a sokuon (っ) */
+    private static final String SOKUON_CONSONANTS = "bcdfghjkprstvwyz";
+
+    private static final char SOKUON     = 'っ';
+    private static final char HATSUON    = 'ん';
+    private static final char CHOONPU    = 'ー';
+    private static final int  ALPHABET_SIZE = 26;
+    private static final int  NO_NODE    = 0;
+    private static final int  ROOT_NODE  = 1;
+
+    // Trie over lowercase ASCII letters, node 0 is the "no node" sentinel
+    private static final short[] TRIE_TRANSITIONS;
+    private static final int[]   TRIE_OUTPUT_STARTS;
+    private static final byte[]  TRIE_OUTPUT_LENGTHS;
+    private static final byte[]  TRIE_NODE_DEPTHS;
+
+    // All kana outputs concatenated, outputs are read from here (including via KanaConverter.convertCharAt)
+    private static final String KANA_OUTPUTS;
+    private static final int    OUTPUT_SOKUON;
+    private static final int    OUTPUT_HATSUON;
+    private static final int    OUTPUT_CHOONPU;
+    private static final int    OUTPUT_LONG_VOWELS;
+
+    static {
+        int max_nodes = 2;
+        for(int p = 0; p < ROMAJI_TO_HIRAGANA.length; p += 2) {
+            max_nodes += ROMAJI_TO_HIRAGANA[p].length();
+        }
+        short[] transitions    = new short[max_nodes * ALPHABET_SIZE];
+        int[]   output_starts  = new int[max_nodes];
+        byte[]  output_lengths = new byte[max_nodes];
+        byte[]  node_depths    = new byte[max_nodes];
+        StringBuilder outputs  = new StringBuilder();
+
+        int node_count = ROOT_NODE + 1;
+        for(int p = 0; p < ROMAJI_TO_HIRAGANA.length; p += 2) {
+            String romaji = ROMAJI_TO_HIRAGANA[p];
+            int node = ROOT_NODE;
+            for(int i = 0; i < romaji.length(); i++) {
+                int slot = node * ALPHABET_SIZE + (romaji.charAt(i) - 'a');
+                if(transitions[slot] == NO_NODE) {
+                    node_depths[node_count] = (byte)(i + 1);
+                    transitions[slot] = (short)node_count++;
+                }
+                node = transitions[slot];
+            }
+            output_starts[node]  = outputs.length();
+            output_lengths[node] = (byte)ROMAJI_TO_HIRAGANA[p + 1].length();
+            outputs.append(ROMAJI_TO_HIRAGANA[p + 1]);
+        }
+
+        OUTPUT_SOKUON = outputs.length();
+        outputs.append(SOKUON);
+        OUTPUT_HATSUON = outputs.length();
+        outputs.append(HATSUON);
+        OUTPUT_CHOONPU = outputs.length();
+        outputs.append(CHOONPU);
+        // Kana lengthening each vowel, in "aiueo" order
+        OUTPUT_LONG_VOWELS = outputs.length();
+        outputs.append("あいうえう");
+
+        TRIE_TRANSITIONS    = transitions;
+        TRIE_OUTPUT_STARTS  = output_starts;
+        TRIE_OUTPUT_LENGTHS = output_lengths;
+        TRIE_NODE_DEPTHS    = node_depths;
+        KANA_OUTPUTS        = outputs.toString();
+    }
+    //}}}
+
+
+    //{{{ String convertRomaji(CharSequence, int, String)
+    /**
+      * Converts romaji in the input to kana, then applies "conversion_ops" to the whole result.
+      *
+      * @param  original_text    Input text containing romaji
+      * @param  conversion_ops   Flag-based integer of KanaConverter ops to apply after romaji becomes hiragana
+      * @param  chars_to_ignore  Each character in this string will be excluded from "conversion_ops" conversion
+      * @return Converted text
+      */
+    public static String convertRomaji(CharSequence original_text, int conversion_ops, String chars_to_ignore)
+    {
+        if(chars_to_ignore == null) {
+            throw new NullPointerException("chars_to_ignore");
+        }
+
+        int char_count = original_text.length();
+        StringBuilder new_string = new StringBuilder(char_count);
+        boolean follows_romaji = false;
+        int i = 0;
+        while(i < char_count) {
+            char this_char = original_text.charAt(i);
+            char romaji_char = foldRomajiChar(this_char);
+            if(romaji_char != 0) {
+                char next_romaji_char = (i + 1 < char_count) ? foldRomajiChar(original_text.charAt(i + 1)) : 0;
+
+                // Doubled consonant ("kk", "tt", ...) or "tch" becomes sokuon before the following syllable
+                if(SOKUON_CONSONANTS.indexOf(romaji_char) >= 0
+                && (next_romaji_char == romaji_char || (romaji_char == 't' && next_romaji_char == 'c'))
+                && findLongestMatchNode(original_text, i + 1) != NO_NODE) {
+                    appendKana(new_string, OUTPUT_SOKUON, 1, conversion_ops, chars_to_ignore);
+                    follows_romaji = true;
+                    i++;
+                    continue;
+                }
+
+                // Explicit hatsuon: "n'", and "nn" unless it starts a "n" syllable ("onna")
+                if(romaji_char == 'n'
+                && (next_romaji_char == 'n' || (i + 1 < char_count && original_text.charAt(i + 1) == '\''))) {
+                    char after_next = (i + 2 < char_count) ? foldRomajiChar(original_text.charAt(i + 2)) : 0;
+                    if(next_romaji_char != 'n' || !isVowelOrY(after_next)) {
+                        appendKana(new_string, OUTPUT_HATSUON, 1, conversion_ops, chars_to_ignore);
+                        follows_romaji = true;
+                        i += 2;
+                        continue;
+                    }
+                }
+
+                // Hepburn writes hatsuon as "m" before labials ("shimbun")
+                if(romaji_char == 'm'
+                && (next_romaji_char == 'b' || next_romaji_char == 'm' || next_romaji_char == 'p')
+                && findLongestMatchNode(original_text, i + 1) != NO_NODE) {
+                    appendKana(new_string, OUTPUT_HATSUON, 1, conversion_ops, chars_to_ignore);
+                    follows_romaji = true;
+                    i++;
+                    continue;
+                }
+
+                // Longest syllable, though "n" only stands alone before consonants or at the end ("kanji", "hon")
+                int match_node = findLongestMatchNode(original_text, i);
+                int match_length = TRIE_NODE_DEPTHS[match_node];
+                if(match_length == 1 && romaji_char == 'n' && isVowelOrY(next_romaji_char)) {
+                    match_length = 0;
+                }
+                if(match_length > 0) {
+                    appendKana(new_string, TRIE_OUTPUT_STARTS[match_node], TRIE_OUTPUT_LENGTHS[match_node], conversion_ops, chars_to_ignore);
+
+                    // Macron or circumflex on the final vowel lengthens it
+                    char last_char = original_text.charAt(i + match_length - 1);
+                    int long_vowel_index = "aiueo".indexOf(foldRomajiChar(last_char));
+                    if(long_vowel_index >= 0
+                    && !KanaAppraiser.isHankakuLetter(last_char)
+                    && !KanaAppraiser.isZenkakuLetter(last_char)) {
+                        appendKana(new_string, OUTPUT_LONG_VOWELS + long_vowel_index, 1, conversion_ops, chars_to_ignore);
+                    }
+                    follows_romaji = true;
+                    i += match_length;
+                    continue;
+                }
+            }
+            else if(this_char == '-' && follows_romaji) {
+                appendKana(new_string, OUTPUT_CHOONPU, 1, conversion_ops, chars_to_ignore);
+                i++;
+                continue;
+            }
+
+            // Not romaji, convert as "convertKana" would
+            long conversion_result = KanaConverter.convertCharAt(original_text, i, conversion_ops, chars_to_ignore);
+            appendConversionResult(new_string, conversion_result);
+            follows_romaji = false;
+            i += KanaConverter.getConsumedCharCount(conversion_result);
+        }
+        return new_string.toString();
+    }
+    //}}}
+    //{{{ String convertRomaji(CharSequence, int)
+    /**
+      * @param  original_text   Input text containing romaji
+      * @param  conversion_ops  Flag-based integer of KanaConverter ops to apply after romaji becomes hiragana
+      * @return Converted text
+      */
+    public static String convertRomaji(CharSequence original_text, int conversion_ops)
+    {
+        return convertRomaji(original_text, conversion_ops, "");
+    }
+    //}}}
+    //{{{ String convertRomaji(CharSequence)
+    /**
+      * @param  original_text  Input text containing romaji
+      * @return Text with romaji converted to zenkaku hiragana
+      */
+    public static String convertRomaji(CharSequence original_text)
+    {
+        return convertRomaji(original_text, 0, "");
+    }
+    //}}}
+
+
+    //{{{ int findLongestMatchNode(CharSequence, int)
+    /**
+      * @return Trie node of the longest romaji syllable starting at "start", or NO_NODE if there is none
+      */
+    private static int findLongestMatchNode(CharSequence text, int start)
+    {
+        int node = ROOT_NODE;
+        int match_node = NO_NODE;
+        int char_count = text.length();
+        for(int i = start; i < char_count; i++) {
+            char romaji_char = foldRomajiChar(text.charAt(i));
+            if(romaji_char == 0) {
+                break;
+            }
+            node = TRIE_TRANSITIONS[node * ALPHABET_SIZE + (romaji_char - 'a')];
+            if(node == NO_NODE) {
+                break;
+            }
+            if(TRIE_OUTPUT_LENGTHS[node] > 0) {
+                match_node = node;
+            }
+        }
+        return match_node;
+    }
+    //}}}
+
+
+    //{{{ void appendKana(StringBuilder, int, int, int, String)
+    private static void appendKana(StringBuilder new_string, int output_start, int output_length, int conversion_ops, String chars_to_ignore)
+    {
+        for(int k = output_start; k < output_start + output_length; k++) {
+            appendConversionResult(new_string, KanaConverter.convertCharAt(KANA_OUTPUTS, k, conversion_ops, chars_to_ignore));
+        }
+    }
+    //}}}
+
+
+    //{{{ void appendConversionResult(StringBuilder, long)
+    private static void appendConversionResult(StringBuilder new_string, long conversion_result)
+    {
+        new_string.append(KanaConverter.getConvertedChar(conversion_result));
+        char converted_suffix = KanaConverter.getConvertedSuffix(conversion_result);
+        if(converted_suffix != 0) {
+            new_string.append(converted_suffix);
+        }
+    }
+    //}}}
+
+
+    //{{{ char foldRomajiChar(char)
+    /**
+      * @return Lowercase ASCII letter for a hankaku/zenkaku letter or a long-vowel-marked vowel, or 0
+      */
+    protected static char foldRomajiChar(char target)
+    {
+        if(KanaAppraiser.isZenkakuLetter(target)) {
+            target = (char)(target - KanaConverter.OFFSET_HANKAKU_ASCII_TO_ZENKAKU_ASCII);
+        }
+        if(target >= KanaAppraiser.HANKAKU_LETTER_LOWER_FIRST && target <= KanaAppraiser.HANKAKU_LETTER_LOWER_LAST) {
+            return target;
+        }
+        if(target >= KanaAppraiser.HANKAKU_LETTER_UPPER_FIRST && target <= KanaAppraiser.HANKAKU_LETTER_UPPER_LAST) {
+            return (char)(target - KanaAppraiser.HANKAKU_LETTER_UPPER_FIRST + KanaAppraiser.HANKAKU_LETTER_LOWER_FIRST);
+        }
+        switch(target) {
+        case 'ā': case 'Ā': case 'â': case 'Â':
+            return 'a';
+        case 'ī': case 'Ī': case 'î': case 'Î':
+            return 'i';
+        case 'ū': case 'Ū': case 'û': case 'Û':
+            return 'u';
+        case 'ē': case 'Ē': case 'ê': case 'Ê':
+            return 'e';
+        case 'ō': case 'Ō': case 'ô': case 'Ô':
+            return 'o';
+        default:
+            return 0;
+        }
+    }
+    //}}}
+
+
+    //{{{ boolean isVowelOrY(char)
+    private static boolean isVowelOrY(char romaji_char)
+    {
+        return romaji_char != 0 && "aiueoy".indexOf(romaji_char) >= 0;
+    }
+    //}}}
+}
@@ -0,0 +1,590 @@
+package com.mariten.kanatools;
+import com.mariten.kanatools.KanaConversionPlan;
+import com.mariten.kanatools.KanaConverter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+  * Local HTTP sidecar for services which cannot call the library directly, on the JDK's built-in
+  * HTTP server.  Run as "java -cp kanatools.jar:kanatools-server.jar com.mariten.kanatools.KanaConversionServer".
+  *
+  * POST /convert?ops=KV[&amp;ignore=...] converts the request body as UTF-8: either text whose lines are the
+  * items, or a JSON array of strings (Content-Type application/json, or a body starting with "[").
+  * The response has the same form.  GET /stats returns request, item, byte and latency counters as JSON.
+  *
+  * Each request runs on its own virtual thread where the JVM has them (Java 21 and later), on a cached
+  * thread pool otherwise.  Plans come from the registry of "KanaConversionPlan.forOps".
+  *
+  * Built as its own JAR, for Java 8 and later.
+  */
+public class KanaConversionServer
+{
+    public static final int DEFAULT_PORT = 8460;
+    public static final String DEFAULT_HOST = "127.0.0.1";
+
+    private static final int MAX_BODY_SIZE = 64 << 20;
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_BAD_REQUEST = 400;
+    private static final int STATUS_NOT_FOUND = 404;
+    private static final int STATUS_METHOD_NOT_ALLOWED = 405;
+    private static final int STATUS_TOO_LARGE = 413;
+    private static final int STATUS_SERVER_ERROR = 500;
+    private static final String TEXT_CONTENT_TYPE = "text/plain; charset=UTF-8";
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=UTF-8";
+
+    /** Latency histogram bounds, in microseconds */
+    private static final long[] LATENCY_BUCKET_BOUNDS = { 100, 1000, 10000, 100000 };
+
+    private static final String USAGE =
+        "Usage: kanatools-server [--host HOST] [--port PORT]\n" +
+        "\n" +
+        "Serves POST /convert?ops=KV[&ignore=CHARS] with a body of lines or a JSON array of strings,\n" +
+        "and GET /stats with throughput and latency counters.  Listens on " + DEFAULT_HOST + ":" + DEFAULT_PORT + " by default.\n";
+
+    private final HttpServer http_server;
+    private final ExecutorService request_executor;
+    private final boolean has_virtual_threads;
+
+    private final long start_nanos = System.nanoTime();
+    private final LongAdder request_count = new LongAdder();
+    private final LongAdder error_count = new LongAdder();
+    private final LongAdder item_count = new LongAdder();
+    private final LongAdder bytes_in_count = new LongAdder();
+    private final LongAdder bytes_out_count = new LongAdder();
+    private final LongAdder total_latency_micros = new LongAdder();
+    private final AtomicLong max_latency_micros = new AtomicLong();
+    private final LongAdder[] latency_bucket_counts;
+
+
+    //{{{ KanaConversionServer(InetSocketAddress)
+    /**
+      * @param  address  Where to listen, port 0 picks a free port
+      */
+    public KanaConversionServer(InetSocketAddress address) throws IOException
+    {
+        this.http_server = HttpServer.create(address, 0);
+        ExecutorService virtual_thread_executor = createVirtualThreadExecutor();
+        this.has_virtual_threads = (virtual_thread_executor != null);
+        this.request_executor = this.has_virtual_threads ? virtual_thread_executor : Executors.newCachedThreadPool();
+        this.http_server.setExecutor(this.request_executor);
+        this.http_server.createContext("/convert", this::handleConvert);
+        this.http_server.createContext("/stats", this::handleStats);
+
+        this.latency_bucket_counts = new LongAdder[LATENCY_BUCKET_BOUNDS.length + 1];
+        for(int k = 0; k < this.latency_bucket_counts.length; k++) {
+            this.latency_bucket_counts[k] = new LongAdder();
+        }
+    }
+    //}}}
+
+
+    //{{{ void main(String[])
+    public static void main(String[] args) throws IOException
+    {
+        String host = DEFAULT_HOST;
+        int port = DEFAULT_PORT;
+        for(int k = 0; k < args.length; k++) {
+            if(args[k].equals("--host") && k + 1 < args.length) {
+                host = args[++k];
+            } else if(args[k].equals("--port") && k + 1 < args.length) {
+                port = Integer.parseInt(args[++k]);
+            } else {
+                System.err.print(USAGE);
+                System.exit(args[k].equals("--help") ? 0 : 2);
+            }
+        }
+        KanaConversionServer server = new KanaConversionServer(new InetSocketAddress(host, port));
+        server.start();
+        System.err.println("kanatools-server: listening on http://" + host + ":" + server.getPort()
+            + (server.hasVirtualThreads() ? " (virtual threads)" : " (thread pool)"));
+    }
+    //}}}
+
+
+    //{{{ void start()
+    public void start()
+    {
+        this.http_server.start();
+    }
+    //}}}
+
+
+    //{{{ void stop()
+    /**
+      * Stops accepting requests, waits a second for those under way, and stops their threads.
+      */
+    public void stop()
+    {
+        this.http_server.stop(1);
+        this.request_executor.shutdown();
+        try {
+            this.request_executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    //}}}
+
+
+    //{{{ int getPort()
+    /**
+      * @return Port the server listens on
+      */
+    public int getPort()
+    {
+        return this.http_server.getAddress().getPort();
+    }
+    //}}}
+
+
+    //{{{ boolean hasVirtualThreads()
+    /**
+      * @return Whether each request runs on its own virtual thread
+      */
+    public boolean hasVirtualThreads()
+    {
+        return this.has_virtual_threads;
+    }
+    //}}}
+
+
+    //{{{ void handleConvert(HttpExchange)
+    private void handleConvert(HttpExchange exchange) throws IOException
+    {
+        long request_start_nanos = System.nanoTime();
+        int status = STATUS_OK;
+        try {
+            if(!exchange.getRequestURI().getPath().equals("/convert")) {
+                status = this.sendText(exchange, STATUS_NOT_FOUND, "Not found\n");
+                return;
+            }
+            if(!exchange.getRequestMethod().equals("POST")) {
+                status = this.sendText(exchange, STATUS_METHOD_NOT_ALLOWED, "Use POST\n");
+                return;
+            }
+            Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            KanaConversionPlan plan;
+            try {
+                plan = this.getPlan(parameters.get("ops"), parameters.get("ignore"));
+            } catch(IllegalArgumentException e) {
+                status = this.sendText(exchange, STATUS_BAD_REQUEST, e.getMessage() + "\n");
+                return;
+            }
+
+            byte[] body = readBody(exchange.getRequestBody());
+            if(body == null) {
+                status = this.sendText(exchange, STATUS_TOO_LARGE, "Body larger than " + MAX_BODY_SIZE + " bytes\n");
+                return;
+            }
+            this.bytes_in_count.add(body.length);
+            String text = new String(body, StandardCharsets.UTF_8);
+
+            if(isJsonRequest(exchange, text)) {
+                List<String> items;
+                try {
+                    items = parseJsonStringArray(text);
+                } catch(IllegalArgumentException e) {
+                    status = this.sendText(exchange, STATUS_BAD_REQUEST, e.getMessage() + "\n");
+                    return;
+                }
+                StringBuilder json = new StringBuilder(text.length() + 16);
+                json.append('[');
+                for(int k = 0; k < items.size(); k++) {
+                    if(k > 0) {
+                        json.append(',');
+                    }
+                    appendJsonString(json, plan.convert(items.get(k)));
+                }
+                json.append("]\n");
+                this.item_count.add(items.size());
+                this.send(exchange, STATUS_OK, JSON_CONTENT_TYPE, json.toString());
+            } else {
+                // No conversion collapses chars across a line break, so all lines are converted in one go
+                this.item_count.add(countLines(text));
+                this.send(exchange, STATUS_OK, TEXT_CONTENT_TYPE, plan.convert(text));
+            }
+        } catch(IOException e) {
+            // Body or answer lost on the connection, count the request as failed
+            status = STATUS_SERVER_ERROR;
+            throw e;
+        } catch(RuntimeException e) {
+            // Answered rather than left to the HTTP server, which would just drop the connection
+            status = STATUS_SERVER_ERROR;
+            this.sendText(exchange, STATUS_SERVER_ERROR, e.toString() + "\n");
+        } finally {
+            exchange.close();
+            this.recordRequest(status, request_start_nanos);
+        }
+    }
+    //}}}
+
+
+    //{{{ void handleStats(HttpExchange)
+    private void handleStats(HttpExchange exchange) throws IOException
+    {
+        try {
+            if(!exchange.getRequestURI().getPath().equals("/stats")) {
+                this.sendText(exchange, STATUS_NOT_FOUND, "Not found\n");
+                return;
+            }
+            if(!exchange.getRequestMethod().equals("GET")) {
+                this.sendText(exchange, STATUS_METHOD_NOT_ALLOWED, "Use GET\n");
+                return;
+            }
+            this.send(exchange, STATUS_OK, JSON_CONTENT_TYPE, this.getStatsJson() + "\n");
+        } finally {
+            exchange.close();
+        }
+    }
+    //}}}
+
+
+    //{{{ String getStatsJson()
+    /**
+      * @return Counters since start as a JSON object, latencies in microseconds
+      */
+    public String getStatsJson()
+    {
+        double uptime_seconds = (System.nanoTime() - this.start_nanos) / 1e9;
+        long requests = this.request_count.sum();
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"requests\":").append(requests);
+        json.append(",\"errors\":").append(this.error_count.sum());
+        json.append(",\"items\":").append(this.item_count.sum());
+        json.append(",\"bytes_in\":").append(this.bytes_in_count.sum());
+        json.append(",\"bytes_out\":").append(this.bytes_out_count.sum());
+        json.append(",\"uptime_seconds\":").append(String.format(Locale.ROOT, "%.3f", uptime_seconds));
+        json.append(",\"requests_per_second\":").append(String.format(Locale.ROOT, "%.1f", requests / uptime_seconds));
+        json.append(",\"latency_micros\":{\"mean\":").append((requests == 0) ? 0 : this.total_latency_micros.sum() / requests);
+        json.append(",\"max\":").append(this.max_latency_micros.get());
+        for(int k = 0; k < LATENCY_BUCKET_BOUNDS.length; k++) {
+            json.append(",\"le_").append(LATENCY_BUCKET_BOUNDS[k]).append("\":").append(this.latency_bucket_counts[k].sum());
+        }
+        json.append(",\"over_").append(LATENCY_BUCKET_BOUNDS[LATENCY_BUCKET_BOUNDS.length - 1]).append("\":");
+        json.append(this.latency_bucket_counts[LATENCY_BUCKET_BOUNDS.length].sum());
+        json.append("},\"virtual_threads\":").append(this.has_virtual_threads).append('}');
+        return json.toString();
+    }
+    //}}}
+
+
+    //{{{ KanaConversionPlan getPlan(String, String)
+    /**
+      * @return Plan for the op letters and ignored chars
+      */
+    private KanaConversionPlan getPlan(String op_letters, String chars_to_ignore)
+    {
+        if(op_letters == null || op_letters.length() == 0) {
+            throw new IllegalArgumentException("Missing \"ops\" parameter");
+        }
+        for(int k = 0; k < op_letters.length(); k++) {
+            char op_letter = op_letters.charAt(k);
+            if(op_letter != 'V' && !KanaConverter.LETTER_OP_CODE_LOOKUP.containsKey(op_letter)) {
+                throw new IllegalArgumentException("Unknown op letter '" + op_letter + "' in \"" + op_letters + "\"");
+            }
+        }
+        if(chars_to_ignore == null) {
+            chars_to_ignore = "";
+        }
+        return KanaConversionPlan.forOps(KanaConverter.createOpsArrayFromString(op_letters), chars_to_ignore);
+    }
+    //}}}
+
+
+    //{{{ void recordRequest(int, long)
+    private void recordRequest(int status, long request_start_nanos)
+    {
+        long latency_micros = (System.nanoTime() - request_start_nanos) / 1000;
+        this.request_count.increment();
+        if(status != STATUS_OK) {
+            this.error_count.increment();
+        }
+        this.total_latency_micros.add(latency_micros);
+        long max_micros;
+        while(latency_micros > (max_micros = this.max_latency_micros.get())) {
+            if(this.max_latency_micros.compareAndSet(max_micros, latency_micros)) {
+                break;
+            }
+        }
+        int bucket = 0;
+        while(bucket < LATENCY_BUCKET_BOUNDS.length && latency_micros > LATENCY_BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        this.latency_bucket_counts[bucket].increment();
+    }
+    //}}}
+
+
+    //{{{ void send(HttpExchange, int, String, String)
+    private void send(HttpExchange exchange, int status, String content_type, String body) throws IOException
+    {
+        byte[] body_bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", content_type);
+        exchange.sendResponseHeaders(status, body_bytes.length);
+        OutputStream response_body = exchange.getResponseBody();
+        response_body.write(body_bytes);
+        response_body.close();
+        this.bytes_out_count.add(body_bytes.length);
+    }
+    //}}}
+
+
+    //{{{ int sendText(HttpExchange, int, String)
+    /**
+      * @return The status sent
+      */
+    private int sendText(HttpExchange exchange, int status, String message) throws IOException
+    {
+        this.send(exchange, status, TEXT_CONTENT_TYPE, message);
+        return status;
+    }
+    //}}}
+
+
+    //{{{ ExecutorService createVirtualThreadExecutor()
+    /**
+      * @return Executor starting a virtual thread per task, or null on JVMs without virtual threads
+      */
+    private static ExecutorService createVirtualThreadExecutor()
+    {
+        try {
+            Method factory_method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)factory_method.invoke(null);
+        } catch(ReflectiveOperationException e) {
+            // Before Java 21, or a preview feature not enabled
+            return null;
+        } catch(UnsupportedOperationException e) {
+            return null;
+        }
+    }
+    //}}}
+
+
+    //{{{ Map<String, String> parseQuery(String)
+    private static Map<String, String> parseQuery(String raw_query) throws UnsupportedEncodingException
+    {
+        Map<String, String> parameters = new HashMap<String, String>();
+        if(raw_query == null) {
+            return parameters;
+        }
+        for(String pair : raw_query.split("&")) {
+            int equals_index = pair.indexOf('=');
+            if(equals_index > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals_index), "UTF-8"), URLDecoder.decode(pair.substring(equals_index + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+    //}}}
+
+
+    //{{{ byte[] readBody(InputStream)
+    /**
+      * @return Whole body, or null if it is larger than MAX_BODY_SIZE
+      */
+    private static byte[] readBody(InputStream request_body) throws IOException
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read_count;
+        while((read_count = request_body.read(buffer)) >= 0) {
+            body.write(buffer, 0, read_count);
+            if(body.size() > MAX_BODY_SIZE) {
+                return null;
+            }
+        }
+        return body.toByteArray();
+    }
+    //}}}
+
+
+    //{{{ boolean isJsonRequest(HttpExchange, String)
+    private static boolean isJsonRequest(HttpExchange exchange, String text)
+    {
+        String content_type = exchange.getRequestHeaders().getFirst("Content-Type");
+        if(content_type != null && content_type.toLowerCase(Locale.ROOT).contains("json")) {
+            return true;
+        }
+        for(int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if(!isJsonWhitespace(c)) {
+                return c == '[';
+            }
+        }
+        return false;
+    }
+    //}}}
+
+
+    //{{{ int countLines(String)
+    private static int countLines(String text)
+    {
+        int line_count = 0;
+        for(int i = 0; i < text.length(); i++) {
+            if(text.charAt(i) == '\n') {
+                line_count++;
+            }
+        }
+        if(text.length() > 0 && text.charAt(text.length() - 1) != '\n') {
+            line_count++;
+        }
+        return line_count;
+    }
+    //}}}
+
+
+    //{{{ List<String> parseJsonStringArray(String)
+    /**
+      * @param  json  JSON array of strings
+      * @return Strings of the array
+      */
+    protected static List<String> parseJsonStringArray(String json)
+    {
+        List<String> items = new ArrayList<String>();
+        int i = skipJsonWhitespace(json, 0);
+        if(i >= json.length() || json.charAt(i) != '[') {
+            throw new IllegalArgumentException("Expected a JSON array of strings");
+        }
+        i = skipJsonWhitespace(json, i + 1);
+        if(i < json.length() && json.charAt(i) == ']') {
+            i++;
+        } else {
+            while(true) {
+                if(i >= json.length() || json.charAt(i) != '"') {
+                    throw new IllegalArgumentException("Expected a string at offset " + i);
+                }
+                StringBuilder item = new StringBuilder();
+                i = parseJsonString(json, i + 1, item);
+                items.add(item.toString());
+                i = skipJsonWhitespace(json, i);
+                if(i < json.length() && json.charAt(i) == ',') {
+                    i = skipJsonWhitespace(json, i + 1);
+                } else if(i < json.length() && json.charAt(i) == ']') {
+                    i++;
+                    break;
+                } else {
+                    throw new IllegalArgumentException("Expected ',' or ']' at offset " + i);
+                }
+            }
+        }
+        if(skipJsonWhitespace(json, i) != json.length()) {
+            throw new IllegalArgumentException("Unexpected text after the array at offset " + i);
+        }
+        return items;
+    }
+    //}}}
+
+
+    //{{{ int parseJsonString(String, int, StringBuilder)
+    /**
+      * @return Index just past the closing quote
+      */
+    private static int parseJsonString(String json, int start, StringBuilder item)
+    {
+        int i = start;
+        while(i < json.length()) {
+            char c = json.charAt(i++);
+            if(c == '"') {
+                return i;
+            }
+            if(c != '\\') {
+                item.append(c);
+                continue;
+            }
+            if(i >= json.length()) {
+                break;
+            }
+            char escaped = json.charAt(i++);
+            switch(escaped) {
+                case '"':  item.append('"');  break;
+                case '\\': item.append('\\'); break;
+                case '/':  item.append('/');  break;
+                case 'b':  item.append('\b'); break;
+                case 'f':  item.append('\f'); break;
+                case 'n':  item.append('\n'); break;
+                case 'r':  item.append('\r'); break;
+                case 't':  item.append('\t'); break;
+                case 'u':
+                    if(i + 4 > json.length()) {
+                        throw new IllegalArgumentException("Incomplete \\u escape at offset " + (i - 2));
+                    }
+                    try {
+                        item.append((char)Integer.parseInt(json.substring(i, i + 4), 16));
+                    } catch(NumberFormatException e) {
+                        throw new IllegalArgumentException("Bad \\u escape at offset " + (i - 2));
+                    }
+                    i += 4;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Bad escape at offset " + (i - 2));
+            }
+        }
+        throw new IllegalArgumentException("Unterminated string");
+    }
+    //}}}
+
+
+    //{{{ int skipJsonWhitespace(String, int)
+    private static int skipJsonWhitespace(String json, int start)
+    {
+        int i = start;
+        while(i < json.length() && isJsonWhitespace(json.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+    //}}}
+
+
+    //{{{ boolean isJsonWhitespace(char)
+    private static boolean isJsonWhitespace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+    //}}}
+
+
+    //{{{ void appendJsonString(StringBuilder, String)
+    protected static void appendJsonString(StringBuilder json, String item)
+    {
+        json.append('"');
+        for(int i = 0; i < item.length(); i++) {
+            char c = item.charAt(i);
+            if(c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if(c == '\n') {
+                json.append("\\n");
+            } else if(c == '\r') {
+                json.append("\\r");
+            } else if(c == '\t') {
+                json.append("\\t");
+            } else if(c < 0x20) {
+                json.append(String.format("\\u%04x", (int)c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+    //}}}
+}
@@ -0,0 +1,148 @@
+package com.mariten.kanatools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+  * Load generator for KanaConversionServer on localhost, reporting throughput and latency percentiles.
+  * Run as "java -cp kanatools.jar:kanatools-server.jar com.mariten.kanatools.KanaConversionServerLoad [options]".
+  */
+public class KanaConversionServerLoad
+{
+    private static final String USAGE =
+        "Usage: kanatools-server load [--url URL] [--ops OPS] [--requests N] [--concurrency N] [--batch N]\n" +
+        "\n" +
+        "Sends N requests of \"batch\" random lines each from \"concurrency\" threads to URL\n" +
+        "(default http://" + KanaConversionServer.DEFAULT_HOST + ":" + KanaConversionServer.DEFAULT_PORT + "),\n" +
+        "then reports requests and lines per second and latency percentiles.\n";
+
+    private static final String LINE_ALPHABET = "ｶﾞｲﾄﾞﾌﾞｯｸﾊﾟｽＡＢ１２あいう漢字 ";
+    private static final int LINE_LENGTH = 24;
+
+
+    //{{{ void main(String[])
+    public static void main(String[] args) throws Exception
+    {
+        String base_url = "http://" + KanaConversionServer.DEFAULT_HOST + ":" + KanaConversionServer.DEFAULT_PORT;
+        String op_letters = "KVa";
+        int request_count = 10000;
+        int thread_count = 16;
+        int batch_size = 100;
+        for(int k = 0; k < args.length; k++) {
+            String value = (k + 1 < args.length) ? args[k + 1] : null;
+            if(args[k].equals("--url") && value != null) {
+                base_url = value;
+            } else if(args[k].equals("--ops") && value != null) {
+                op_letters = value;
+            } else if(args[k].equals("--requests") && value != null) {
+                request_count = Integer.parseInt(value);
+            } else if(args[k].equals("--concurrency") && value != null) {
+                thread_count = Integer.parseInt(value);
+            } else if(args[k].equals("--batch") && value != null) {
+                batch_size = Integer.parseInt(value);
+            } else {
+                System.err.print(USAGE);
+                System.exit(args[k].equals("--help") ? 0 : 2);
+            }
+            k++;
+        }
+
+        final URL url = new URL(base_url + "/convert?ops=" + op_letters);
+        final byte[] body = createBody(batch_size);
+        final long[] latencies_nanos = new long[request_count];
+        final AtomicInteger next_request = new AtomicInteger();
+        final AtomicInteger failed_count = new AtomicInteger();
+
+        Thread[] threads = new Thread[thread_count];
+        long start_nanos = System.nanoTime();
+        for(int t = 0; t < thread_count; t++) {
+            threads[t] = new Thread(() -> {
+                int request_index;
+                while((request_index = next_request.getAndIncrement()) < latencies_nanos.length) {
+                    long request_start_nanos = System.nanoTime();
+                    try {
+                        post(url, body);
+                    } catch(IOException e) {
+                        failed_count.incrementAndGet();
+                    }
+                    latencies_nanos[request_index] = System.nanoTime() - request_start_nanos;
+                }
+            });
+            threads[t].start();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        double elapsed_seconds = (System.nanoTime() - start_nanos) / 1e9;
+
+        Arrays.sort(latencies_nanos);
+        System.out.println(String.format(Locale.ROOT,
+            "%d requests (%d failed) of %d lines in %.2f s: %.0f requests/s, %.0f lines/s, latency p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+            request_count, failed_count.get(), batch_size, elapsed_seconds,
+            request_count / elapsed_seconds, (double)request_count * batch_size / elapsed_seconds,
+            percentile(latencies_nanos, 0.50) / 1e6, percentile(latencies_nanos, 0.99) / 1e6,
+            (latencies_nanos.length == 0) ? 0.0 : latencies_nanos[latencies_nanos.length - 1] / 1e6));
+    }
+    //}}}
+
+
+    //{{{ void post(URL, byte[])
+    private static void post(URL url, byte[] body) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+        OutputStream request_body = connection.getOutputStream();
+        request_body.write(body);
+        request_body.close();
+        if(connection.getResponseCode() != 200) {
+            throw new IOException("Status " + connection.getResponseCode());
+        }
+        // Reading the whole response lets the connection be kept alive
+        InputStream response_body = connection.getInputStream();
+        byte[] buffer = new byte[8192];
+        while(response_body.read(buffer) >= 0) {
+        }
+        response_body.close();
+    }
+    //}}}
+
+
+    //{{{ byte[] createBody(int)
+    private static byte[] createBody(int line_count)
+    {
+        Random random = new Random(44);
+        StringBuilder body = new StringBuilder(line_count * (LINE_LENGTH + 1));
+        for(int line = 0; line < line_count; line++) {
+            for(int k = 0; k < LINE_LENGTH; k++) {
+                body.append(LINE_ALPHABET.charAt(random.nextInt(LINE_ALPHABET.length())));
+            }
+            body.append('\n');
+        }
+        return body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    //}}}
+
+
+    //{{{ double percentile(long[], double)
+    private static double percentile(long[] sorted_values, double fraction)
+    {
+        if(sorted_values.length == 0) {
+            return 0;
+        }
+        int index = (int)Math.min(sorted_values.length - 1, Math.round(fraction * (sorted_values.length - 1)));
+        return sorted_values[index];
+    }
+    //}}}
+}
@@ -0,0 +1,274 @@
+package com.mariten.kanatools.TestsKanaCharset;
+
+import com.mariten.kanatools.KanaCharset;
+import com.mariten.kanatools.KanaCharsetProvider;
+import com.mariten.kanatools.KanaConverter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class KanaCharsetTest
+{
+    //{{{ testForName()
+    @Test
+    public void testForName() throws IOException
+    {
+        Charset charset = Charset.forName("x-UTF-8-kana-KV");
+        assertTrue(charset instanceof KanaCharset);
+        assertEquals("x-UTF-8-kana-KV", charset.name());
+        assertEquals(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA, ((KanaCharset)charset).getConversionOps());
+        assertTrue(Charset.availableCharsets().containsKey("x-UTF-8-kana-KV"));
+
+        // Base charset aliases are accepted, the name uses the canonical one
+        assertEquals("x-Shift_JIS-kana-KVa", Charset.forName("x-sjis-kana-KVa").name());
+
+        assertEquals("ガイドブック 1-2", new String("ｶﾞｲﾄﾞﾌﾞｯｸ　１－２".getBytes("UTF-8"), Charset.forName("x-UTF-8-kana-KVas").name()));
+        assertEquals("ガイドブック 12", new String("ｶﾞｲﾄﾞﾌﾞｯｸ　１２".getBytes("Shift_JIS"), "x-Shift_JIS-kana-KVas"));
+
+        for(String bad_name : new String[] { "x-UTF-8-kana-KQ", "x-no-such-charset-kana-KV", "x-UTF-8-kana", "UTF-8-kana-KV" }) {
+            try {
+                Charset.forName(bad_name);
+                fail("Expected exception for " + bad_name);
+            } catch(UnsupportedCharsetException e) {
+                // Caught exception
+            }
+        }
+    }
+    //}}}
+
+
+    //{{{ testProviderCache()
+    @Test
+    public void testProviderCache()
+    {
+        KanaCharsetProvider provider = new KanaCharsetProvider();
+        Charset charset = provider.charsetForName("x-utf8-kana-KV");
+        assertSame(charset, provider.charsetForName("x-utf8-kana-KV"));
+        assertEquals("x-UTF-8-kana-KV", charset.name());
+
+        // Ever new spellings evict each other rather than piling up, and keep sharing plans
+        StringBuilder op_letters = new StringBuilder("K");
+        for(int k = 0; k < 500; k++) {
+            op_letters.append('V');
+            Charset spelled_charset = provider.charsetForName("x-UTF-8-kana-" + op_letters);
+            assertEquals(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA, ((KanaCharset)spelled_charset).getConversionOps());
+        }
+        assertNull(provider.charsetForName("x-UTF-8-kana-KQ"));
+        assertEquals("x-UTF-8-kana-KV", provider.charsetForName("x-utf8-kana-KV").name());
+    }
+    //}}}
+
+
+    //{{{ testMarkAcrossReads()
+    @Test
+    public void testMarkAcrossReads() throws IOException
+    {
+        // Each byte arrives on its own, so the hankaku base ends one decode call and its mark starts another
+        String text = "ﾃﾞｰﾀ ﾊﾟｽ\nｶ";
+        KanaCharset charset = (KanaCharset)Charset.forName("x-UTF-8-kana-KV");
+        assertEquals("データ パス\nカ", readAll(charset.newReader(new OneByteInputStream(text.getBytes("UTF-8")))));
+
+        // InputStreamReader never flushes, so its decoder holds nothing back past the bytes of one read
+        Reader stream_reader = new InputStreamReader(new OneByteInputStream(text.getBytes("UTF-8")), charset);
+        assertEquals("テ゛ータ ハ゜ス\nカ", readAll(stream_reader));
+    }
+    //}}}
+
+
+    //{{{ testTrailingKana()
+    @Test
+    public void testTrailingKana() throws IOException
+    {
+        String text = "ﾊﾟｽ\nｶ";
+        String expected = "パス\nカ";
+        for(String base_charset_name : new String[] { "UTF-8", "Shift_JIS", "UTF-16LE", "UTF-16BE" }) {
+            KanaCharset charset = (KanaCharset)Charset.forName("x-" + base_charset_name + "-kana-KV");
+            byte[] text_bytes = text.getBytes(base_charset_name);
+
+            Reader stream_reader = new InputStreamReader(new ByteArrayInputStream(text_bytes), charset);
+            assertEquals(base_charset_name, expected, readAll(stream_reader));
+            assertEquals(base_charset_name, expected, readAll(charset.newReader(new ByteArrayInputStream(text_bytes))));
+            assertEquals(base_charset_name, expected, readAll(charset.newReader(new OneByteInputStream(text_bytes))));
+            assertEquals(base_charset_name, expected, new String(text_bytes, charset.name()));
+        }
+    }
+    //}}}
+
+
+    //{{{ testSmallBuffersMatchConvertKana()
+    @Test
+    public void testSmallBuffersMatchConvertKana() throws IOException
+    {
+        String alphabet = "ｶｷﾊﾋｳﾞﾟｰあかアカＡＢ１a漢 \n";
+        String[] op_strings = { "KV", "HVc", "k", "KVa", "hsA" };
+        Random random = new Random(40);
+        for(int round = 0; round < 300; round++) {
+            StringBuilder text = new StringBuilder();
+            int text_length = random.nextInt(40);
+            for(int k = 0; k < text_length; k++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String op_string = op_strings[round % op_strings.length];
+            String expected = KanaConverter.convertKana(text.toString(), op_string);
+            KanaCharset charset = new KanaCharset(Charset.forName("UTF-8"), op_string);
+            byte[] text_bytes = text.toString().getBytes("UTF-8");
+
+            // Whole buffer at once
+            assertEquals(expected, charset.newDecoder().decode(ByteBuffer.wrap(text_bytes)).toString());
+
+            // Few bytes in, few chars out at a time
+            int bytes_per_piece = 1 + random.nextInt(3);
+            int chars_per_piece = 1 + random.nextInt(3);
+            assertEquals(expected, readAll(charset.newReader(new FewBytesInputStream(text_bytes, bytes_per_piece)), chars_per_piece));
+
+            // Plain decoders only collapse marks within the bytes of one call, the same for ops without collapsing
+            if(op_string.indexOf('V') < 0) {
+                assertEquals(expected, decodeInPieces(charset.newDecoder(), text_bytes, bytes_per_piece, chars_per_piece));
+            }
+        }
+    }
+    //}}}
+
+
+    //{{{ testMalformedInput()
+    @Test
+    public void testMalformedInput() throws IOException
+    {
+        // Replacement comes after the converted text before it, and stops a held back kana from collapsing
+        byte[] text_bytes = { (byte)0xEF, (byte)0xBD, (byte)0xB6, (byte)0xFF, (byte)0xEF, (byte)0xBE, (byte)0x9E, 'x' };
+        Charset charset = Charset.forName("x-UTF-8-kana-KV");
+        assertEquals("カ\uFFFD゛x", new String(text_bytes, "x-UTF-8-kana-KV"));
+
+        CharsetDecoder ignoring_decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.IGNORE);
+        assertEquals("ガx", ignoring_decoder.decode(ByteBuffer.wrap(text_bytes)).toString());
+
+        try {
+            charset.newDecoder().onMalformedInput(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(text_bytes));
+            fail("Expected exception for malformed input");
+        } catch(CharacterCodingException e) {
+            // Caught exception
+        }
+    }
+    //}}}
+
+
+    //{{{ testEncodeUnchanged()
+    @Test
+    public void testEncodeUnchanged() throws IOException
+    {
+        assertArrayEquals("ｶﾞ１".getBytes("UTF-8"), "ｶﾞ１".getBytes("x-UTF-8-kana-KVa"));
+        assertArrayEquals("ｶﾞ１".getBytes("Shift_JIS"), "ｶﾞ１".getBytes("x-Shift_JIS-kana-KVa"));
+    }
+    //}}}
+
+
+    //{{{ String readAll(Reader)
+    private static String readAll(Reader reader) throws IOException
+    {
+        return readAll(reader, 64);
+    }
+    //}}}
+    //{{{ String readAll(Reader, int)
+    private static String readAll(Reader reader, int chars_per_read) throws IOException
+    {
+        StringBuilder read_text = new StringBuilder();
+        char[] read_buffer = new char[chars_per_read];
+        int read_count;
+        while((read_count = reader.read(read_buffer)) >= 0) {
+            read_text.append(read_buffer, 0, read_count);
+        }
+        return read_text.toString();
+    }
+    //}}}
+
+
+    //{{{ String decodeInPieces(CharsetDecoder, byte[], int, int)
+    private static String decodeInPieces(CharsetDecoder decoder, byte[] text_bytes, int bytes_per_piece, int chars_per_piece)
+    {
+        StringBuilder decoded_text = new StringBuilder();
+        ByteBuffer in = ByteBuffer.allocate(text_bytes.length);
+        in.flip();
+        CharBuffer out = CharBuffer.allocate(chars_per_piece);
+        int fed_count = 0;
+        while(true) {
+            // Feed a few more bytes
+            in.compact();
+            int feed_count = Math.min(bytes_per_piece, text_bytes.length - fed_count);
+            in.put(text_bytes, fed_count, feed_count);
+            fed_count += feed_count;
+            in.flip();
+
+            boolean is_end_of_input = (fed_count == text_bytes.length);
+            CoderResult result;
+            do {
+                result = decoder.decode(in, out, is_end_of_input);
+                out.flip();
+                decoded_text.append(out);
+                out.clear();
+            } while(result.isOverflow());
+            if(is_end_of_input) {
+                break;
+            }
+        }
+        while(decoder.flush(out).isOverflow()) {
+            out.flip();
+            decoded_text.append(out);
+            out.clear();
+        }
+        out.flip();
+        decoded_text.append(out);
+        return decoded_text.toString();
+    }
+    //}}}
+
+
+    /**
+      * Returns at most a few bytes per read.
+      */
+    private static class FewBytesInputStream extends InputStream
+    {
+        private final InputStream source;
+        private final int max_read_count;
+
+        FewBytesInputStream(byte[] content, int max_read_count)
+        {
+            this.source = new ByteArrayInputStream(content);
+            this.max_read_count = max_read_count;
+        }
+
+        public int read() throws IOException
+        {
+            return this.source.read();
+        }
+
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            return this.source.read(buffer, offset, Math.min(length, this.max_read_count));
+        }
+    }
+
+
+    /**
+      * Returns at most one byte per read.
+      */
+    private static class OneByteInputStream extends FewBytesInputStream
+    {
+        OneByteInputStream(byte[] content)
+        {
+            super(content, 1);
+        }
+    }
+}
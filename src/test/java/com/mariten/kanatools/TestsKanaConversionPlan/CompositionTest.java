@@ -0,0 +1,86 @@
+package com.mariten.kanatools.TestsKanaConversionPlan;
+
+import com.mariten.kanatools.KanaConversionPlan;
+import com.mariten.kanatools.KanaConverter;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CompositionTest
+{
+    private static final String ALPHABET = "ｶｷﾊﾋﾎｳｱｰﾞﾟﾞﾟかがぱきカガパヴ　 Aａz1１｡ｰー〜";
+
+    private static final int[] OPS_TO_CHAIN = {
+        0,
+        KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_HAN_SPACE_TO_ZEN_SPACE,
+        KanaConverter.OP_HAN_KATA_TO_ZEN_HIRA,
+        KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_KEEP_DIACRITIC_MARKS_APART,
+        KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA | KanaConverter.OP_ZEN_ASCII_TO_HAN_ASCII,
+        KanaConverter.OP_ZEN_HIRA_TO_ZEN_KATA,
+        KanaConverter.OP_ZEN_KATA_TO_HAN_KATA | KanaConverter.OP_ZEN_HIRA_TO_HAN_KATA,
+        KanaConverter.OP_HAN_ASCII_TO_ZEN_ASCII | KanaConverter.OP_ZEN_SPACE_TO_HAN_SPACE,
+    };
+
+
+    //{{{ testComposedMatchesSequential()
+    @Test
+    public void testComposedMatchesSequential()
+    {
+        Random random = new Random(35);
+        String[] texts = new String[20];
+        for(int t = 0; t < texts.length; t++) {
+            StringBuilder text = new StringBuilder();
+            int text_length = (t == 0) ? 5000 : random.nextInt(40);
+            for(int k = 0; k < text_length; k++) {
+                text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            texts[t] = text.toString();
+        }
+
+        for(int first_ops : OPS_TO_CHAIN) {
+            for(int second_ops : OPS_TO_CHAIN) {
+                KanaConversionPlan first = new KanaConversionPlan(first_ops, "ｷ").withMapping('〜', "~~");
+                KanaConversionPlan second = new KanaConversionPlan(second_ops).withMapping('ー', '-');
+                KanaConversionPlan third = new KanaConversionPlan(first_ops | KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA);
+                KanaConversionPlan composed = first.andThen(second);
+                KanaConversionPlan chained = composed.andThen(third);
+                for(String text : texts) {
+                    String sequential = second.convert(first.convert(text));
+                    assertEquals(text, sequential, composed.convert(text));
+                    assertEquals(text, third.convert(sequential), chained.convert(text));
+                }
+            }
+        }
+    }
+    //}}}
+
+
+    //{{{ testFusion()
+    @Test
+    public void testFusion()
+    {
+        KanaConversionPlan ingest = new KanaConversionPlan(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA);
+        KanaConversionPlan search = new KanaConversionPlan(KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA | KanaConverter.OP_ZEN_ASCII_TO_HAN_ASCII);
+        KanaConversionPlan split  = new KanaConversionPlan(KanaConverter.OP_ZEN_KATA_TO_HAN_KATA);
+
+        // Later plan never collapses marks, so one table is enough
+        KanaConversionPlan ingest_then_search = ingest.andThen(search);
+        assertTrue(ingest_then_search.isFused());
+        assertEquals("がぎ 1", ingest_then_search.convert("ｶﾞｷﾞ １"));
+
+        // Collapse followed by split still fuses, the split is folded into the collapsed output
+        KanaConversionPlan collapse_then_split = ingest.andThen(split);
+        assertTrue(collapse_then_split.isFused());
+        assertEquals("ｶﾞｷﾞ", collapse_then_split.convert("ｶﾞｷﾞ"));
+
+        // Split followed by collapse depends on neighbouring output, so it is pipelined
+        KanaConversionPlan split_then_collapse = split.andThen(ingest);
+        assertFalse(split_then_collapse.isFused());
+        assertEquals("ガキ", split_then_collapse.convert("ガキ"));
+
+        // Mappings added to a composed plan apply to its whole output
+        assertEquals("かぎ 1", ingest_then_search.withMapping('が', 'か').convert("ｶﾞｷﾞ １"));
+        assertEquals("カ-", split_then_collapse.withMapping('ガ', "カ-").convert("ガ"));
+    }
+    //}}}
+}
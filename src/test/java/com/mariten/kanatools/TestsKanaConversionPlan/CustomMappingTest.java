@@ -0,0 +1,113 @@
+package com.mariten.kanatools.TestsKanaConversionPlan;
+
+import com.mariten.kanatools.KanaConversionPlan;
+import com.mariten.kanatools.KanaConverter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CustomMappingTest
+{
+    private static final int[] OPS_TO_CHECK = {
+        0,
+        KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_ZEN_ASCII_TO_HAN_ASCII,
+        KanaConverter.OP_HAN_KATA_TO_ZEN_HIRA | KanaConverter.OP_HAN_ASCII_TO_ZEN_ASCII,
+        KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_KEEP_DIACRITIC_MARKS_APART,
+        KanaConverter.OP_ZEN_KATA_TO_HAN_KATA | KanaConverter.OP_ZEN_HIRA_TO_HAN_KATA | KanaConverter.OP_ZEN_SPACE_TO_HAN_SPACE,
+        KanaConverter.OP_ZEN_HIRA_TO_ZEN_KATA | KanaConverter.OP_HAN_LETTER_TO_ZEN_LETTER | KanaConverter.OP_HAN_NUMBER_TO_ZEN_NUMBER,
+        KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA | KanaConverter.OP_ZEN_LETTER_TO_HAN_LETTER | KanaConverter.OP_ZEN_NUMBER_TO_HAN_NUMBER,
+        KanaConverter.OP_HAN_SPACE_TO_ZEN_SPACE | KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_ZEN_HIRA_TO_ZEN_KATA,
+    };
+
+
+    //{{{ testMatchesConvertKanaWithoutMappings()
+    @Test
+    public void testMatchesConvertKanaWithoutMappings()
+    {
+        // Every BMP char, then random kana-heavy text with diacritic marks
+        StringBuilder all_chars = new StringBuilder(0x10000);
+        for(int c = 0; c <= 0xFFFF; c++) {
+            all_chars.append((char)c);
+        }
+        String kana_alphabet = "ｶｷﾊﾋｳｱﾞﾟﾞﾟかがぱカガパ　 Aａ1１｡ｰー";
+        Random random = new Random(34);
+        StringBuilder kana_text = new StringBuilder();
+        for(int k = 0; k < 5000; k++) {
+            kana_text.append(kana_alphabet.charAt(random.nextInt(kana_alphabet.length())));
+        }
+
+        for(int conversion_ops : OPS_TO_CHECK) {
+            for(String chars_to_ignore : new String[] { "", "ｶﾞAか" }) {
+                KanaConversionPlan plan = new KanaConversionPlan(conversion_ops, chars_to_ignore);
+                assertEquals(
+                    KanaConverter.convertKana(all_chars.toString(), conversion_ops, chars_to_ignore),
+                    plan.convert(all_chars));
+                assertEquals(
+                    KanaConverter.convertKana(kana_text.toString(), conversion_ops, chars_to_ignore),
+                    plan.convert(kana_text));
+            }
+        }
+    }
+    //}}}
+
+
+    //{{{ testMappingsApplyAfterConversion()
+    @Test
+    public void testMappingsApplyAfterConversion()
+    {
+        int conversion_ops = KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_ZEN_ASCII_TO_HAN_ASCII;
+        KanaConversionPlan plan = new KanaConversionPlan(conversion_ops)
+            .withMapping('〜', '～')
+            .withMapping('−', '-')
+            .withMapping('㈱', "(株)")
+            .withMapping('ー', "-");
+
+        String before = "ｶﾌﾞｼｷｶﾞｲｼｬ㈱ 1〜2 ３−４ ｺｰﾋｰ";
+        String expected = KanaConverter.convertKana(before, conversion_ops)
+            .replace("〜", "～")
+            .replace("−", "-")
+            .replace("㈱", "(株)")
+            .replace("ー", "-");
+        assertEquals(expected, plan.convert(before));
+        assertEquals("カブシキガイシャ(株) 1～2 3-4 コ-ヒ-", plan.convert(before));
+
+        // Mapping a char produced by collapsing a diacritic mark, or by splitting one off
+        assertEquals("GAキ", new KanaConversionPlan(conversion_ops).withMapping('ガ', "GA").convert("ｶﾞｷ"));
+        assertEquals("ｶ*", new KanaConversionPlan(KanaConverter.OP_ZEN_KATA_TO_HAN_KATA).withMapping('ﾞ', '*').convert("ガ"));
+
+        // Mappings are applied once, later mappings of the same char win
+        Map<Character, String> mappings = new HashMap<Character, String>();
+        mappings.put('a', "b");
+        mappings.put('b', "c");
+        KanaConversionPlan chained = new KanaConversionPlan(0).withMappings(mappings);
+        assertEquals("bc", chained.convert("ab"));
+        assertEquals("xc", chained.withMapping('a', 'x').convert("ab"));
+        assertEquals("c", chained.withMapping('a', "").convert("ab"));
+
+        try {
+            plan.withMapping('a', null);
+            fail("Expected exception for null mapping");
+        } catch(NullPointerException e) {
+            // Caught exception
+        }
+    }
+    //}}}
+
+
+    //{{{ testUnchangedTextIsNotCopied()
+    @Test
+    public void testUnchangedTextIsNotCopied()
+    {
+        KanaConversionPlan plan = new KanaConversionPlan(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA);
+        String ascii_text = "id,name,price 1200";
+        assertSame(ascii_text, plan.convert(ascii_text));
+        assertEquals("id,ガイド", plan.convert("id,ｶﾞｲﾄﾞ"));
+
+        // Chars ahead of a mark are never taken as unchanged
+        assertEquals("ab゛ガ", plan.convert("abﾞｶﾞ"));
+        assertEquals("xbガ", plan.withMapping('a', 'x').convert("abｶﾞ"));
+    }
+    //}}}
+}
@@ -0,0 +1,125 @@
+package com.mariten.kanatools.TestsKanaConversionPlan;
+
+import com.mariten.kanatools.KanaConversionPlan;
+import com.mariten.kanatools.KanaConverter;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RegistryTest
+{
+    private static final String TEXT = "ｶﾞｲﾄﾞﾌﾞｯｸ　ﾊﾟｽ かなカナＡＢＣ１２３ abc";
+
+    private static final String[] OPS_STRINGS = { "KV", "HV", "k", "h", "cKa", "CAs", "ASKV", "rnKV", "KVx", "" };
+
+
+    //{{{ testForOpsReturnsSharedPlans()
+    @Test
+    public void testForOpsReturnsSharedPlans()
+    {
+        KanaConversionPlan plan = KanaConversionPlan.forOps(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA, "ﾊ");
+        assertSame(plan, KanaConversionPlan.forOps(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA, "ﾊ"));
+        assertEquals(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA, plan.getConversionOps());
+        assertEquals("ﾊ", plan.getCharsToIgnore());
+        assertEquals("ガイドﾊ゜", plan.convert("ｶﾞｲﾄﾞﾊﾟ"));
+
+        KanaConversionPlan other_plan = KanaConversionPlan.forOps(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA);
+        assertNotSame(plan, other_plan);
+        assertEquals("", other_plan.getCharsToIgnore());
+    }
+    //}}}
+
+
+    //{{{ testFirstCallMatchesPlan()
+    @Test
+    public void testFirstCallMatchesPlan()
+    {
+        // Every char of the pages "convertKana" can change, with marks after each kana
+        StringBuilder text = new StringBuilder();
+        for(int page : new int[] { 0x00, 0x30, 0xFF }) {
+            for(int c = page << 8; c < (page + 1) << 8; c++) {
+                text.append((char)c).append((c % 3 == 0) ? 'ﾞ' : 'ﾟ');
+            }
+        }
+        String original_string = text.toString();
+        for(String ops_string : OPS_STRINGS) {
+            // First call converts without a plan, later ones with the registered one
+            String chars_to_ignore = "ｱ" + ops_string;
+            int conversion_ops = 0;
+            for(int k = 0; k < ops_string.length(); k++) {
+                Integer op = KanaConverter.LETTER_OP_CODE_LOOKUP.get(ops_string.charAt(k));
+                if(op != null) {
+                    conversion_ops |= op;
+                }
+            }
+            String expected = new KanaConversionPlan(conversion_ops, chars_to_ignore).convert(original_string);
+            for(int call = 0; call < 3; call++) {
+                assertEquals(ops_string, expected, KanaConverter.convertKana(original_string, conversion_ops, chars_to_ignore));
+            }
+        }
+    }
+    //}}}
+
+
+    //{{{ testStringOpsMatchIntOps()
+    @Test
+    public void testStringOpsMatchIntOps()
+    {
+        Random random = new Random(46);
+        for(int round = 0; round < 2000; round++) {
+            String ops_string = OPS_STRINGS[random.nextInt(OPS_STRINGS.length)];
+            int conversion_ops = 0;
+            for(int k = 0; k < ops_string.length(); k++) {
+                Integer op = KanaConverter.LETTER_OP_CODE_LOOKUP.get(ops_string.charAt(k));
+                if(op != null) {
+                    conversion_ops |= op;
+                }
+            }
+            // Many distinct ignored chars, more than the registry holds
+            String chars_to_ignore = (round % 3 == 0) ? "" : String.valueOf(TEXT.charAt(random.nextInt(TEXT.length()))) + round;
+            assertEquals(
+                new KanaConversionPlan(conversion_ops, chars_to_ignore).convert(TEXT),
+                KanaConverter.convertKana(TEXT, ops_string, chars_to_ignore));
+            assertEquals(
+                KanaConverter.convertKana(TEXT, conversion_ops, chars_to_ignore),
+                KanaConverter.convertKana(TEXT, ops_string, chars_to_ignore));
+        }
+    }
+    //}}}
+
+
+    //{{{ testConcurrentLookups()
+    @Test
+    public void testConcurrentLookups() throws InterruptedException
+    {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[4];
+        for(int t = 0; t < threads.length; t++) {
+            final int thread_index = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run()
+                {
+                    try {
+                        for(int round = 0; round < 3000; round++) {
+                            String chars_to_ignore = "" + (char)('a' + (round + thread_index) % 40);
+                            KanaConversionPlan plan = KanaConversionPlan.forOps(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_HAN_ASCII_TO_ZEN_ASCII, chars_to_ignore);
+                            assertEquals(chars_to_ignore, plan.getCharsToIgnore());
+                            assertEquals(chars_to_ignore + "ＢガＣ", plan.convert(chars_to_ignore + "BｶﾞC"));
+                        }
+                    } catch(Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        if(failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+    //}}}
+}
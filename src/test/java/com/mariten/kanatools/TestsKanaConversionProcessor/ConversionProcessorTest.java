@@ -0,0 +1,204 @@
+package com.mariten.kanatools.TestsKanaConversionProcessor;
+
+import com.mariten.kanatools.KanaConversionPlan;
+import com.mariten.kanatools.KanaConversionProcessor;
+import com.mariten.kanatools.KanaConverter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ConversionProcessorTest
+{
+    private static final KanaConversionPlan PLAN = new KanaConversionPlan(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_ZEN_ASCII_TO_HAN_ASCII);
+
+    //{{{ testOrderWithExecutor()
+    @Test
+    public void testOrderWithExecutor() throws InterruptedException
+    {
+        String alphabet = "ｶﾞｲﾄﾞﾊﾟＡ１あ漢";
+        Random random = new Random(43);
+        List<String> texts = new ArrayList<String>();
+        List<String> expected = new ArrayList<String>();
+        for(int k = 0; k < 5000; k++) {
+            StringBuilder text = new StringBuilder();
+            int text_length = random.nextInt(12);
+            for(int m = 0; m < text_length; m++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            texts.add(text.toString());
+            expected.add(PLAN.convert(text));
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(3);
+        try {
+            KanaConversionProcessor[] processors = {
+                new KanaConversionProcessor(PLAN),
+                new KanaConversionProcessor(PLAN, workers, 7, 40),
+            };
+            for(KanaConversionProcessor processor : processors) {
+                SubmissionPublisher<CharSequence> publisher = new SubmissionPublisher<CharSequence>(workers, 16);
+                publisher.subscribe(processor);
+                RecordingSubscriber subscriber = new RecordingSubscriber(13);
+                processor.subscribe(subscriber);
+                for(String text : texts) {
+                    publisher.submit(text);
+                }
+                publisher.close();
+                assertTrue(subscriber.done.await(30, TimeUnit.SECONDS));
+                assertNull(subscriber.error);
+                assertEquals(expected, subscriber.items);
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+    //}}}
+
+
+    //{{{ testBackPressure()
+    @Test
+    public void testBackPressure()
+    {
+        KanaConversionProcessor processor = new KanaConversionProcessor(PLAN, null, 4, 10);
+        CountingSubscription upstream = new CountingSubscription();
+        processor.onSubscribe(upstream);
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        processor.subscribe(subscriber);
+        assertEquals(10, upstream.requested_count);
+
+        // Nothing passes on without demand, items wait in their batch
+        for(int k = 0; k < 10; k++) {
+            processor.onNext("ｶﾞ" + k);
+        }
+        assertEquals(0, subscriber.items.size());
+        subscriber.subscription.request(3);
+        assertEquals(3, subscriber.items.size());
+        assertEquals("ガ0", subscriber.items.get(0));
+        assertEquals(10, upstream.requested_count);
+
+        // Half of the buffer passed on asks upstream for more
+        subscriber.subscription.request(3);
+        assertEquals(6, subscriber.items.size());
+        assertEquals(15, upstream.requested_count);
+
+        // Rest of a batch which is not full is passed on at the end
+        subscriber.subscription.request(100);
+        processor.onComplete();
+        assertEquals(10, subscriber.items.size());
+        assertEquals("ガ9", subscriber.items.get(9));
+        assertEquals(0, subscriber.done.getCount());
+    }
+    //}}}
+
+
+    //{{{ testErrorsAndCancel()
+    @Test
+    public void testErrorsAndCancel()
+    {
+        // Upstream error follows the items before it
+        KanaConversionProcessor processor = new KanaConversionProcessor(PLAN);
+        processor.onSubscribe(new CountingSubscription());
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        processor.subscribe(subscriber);
+        processor.onNext("ｱ");
+        processor.onError(new IllegalStateException("upstream failed"));
+        assertEquals(1, subscriber.items.size());
+        assertTrue(subscriber.error instanceof IllegalStateException);
+
+        // Cancelling cancels upstream
+        processor = new KanaConversionProcessor(PLAN);
+        CountingSubscription upstream = new CountingSubscription();
+        processor.onSubscribe(upstream);
+        subscriber = new RecordingSubscriber(1);
+        processor.subscribe(subscriber);
+        subscriber.subscription.cancel();
+        assertTrue(upstream.is_cancelled);
+
+        // Non-positive demand is an error, and only one subscriber is accepted
+        processor = new KanaConversionProcessor(PLAN);
+        processor.onSubscribe(new CountingSubscription());
+        subscriber = new RecordingSubscriber(0);
+        processor.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        RecordingSubscriber second_subscriber = new RecordingSubscriber(1);
+        processor.subscribe(second_subscriber);
+        assertTrue(second_subscriber.error instanceof IllegalStateException);
+    }
+    //}}}
+
+
+    /**
+      * Subscriber which records what it gets, requesting a number of items up front and as many again after each one.
+      */
+    private static class RecordingSubscriber implements Flow.Subscriber<String>
+    {
+        final List<String> items = new ArrayList<String>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final long request_count;
+        Flow.Subscription subscription;
+        volatile Throwable error;
+
+        RecordingSubscriber(long request_count)
+        {
+            this.request_count = request_count;
+        }
+
+        public void onSubscribe(Flow.Subscription subscription)
+        {
+            this.subscription = subscription;
+            if(this.request_count > 0) {
+                subscription.request(this.request_count);
+            }
+        }
+
+        public void onNext(String item)
+        {
+            synchronized(this.items) {
+                this.items.add(item);
+            }
+            if(this.request_count > 0 && this.request_count < Long.MAX_VALUE && this.items.size() % this.request_count == 0) {
+                this.subscription.request(this.request_count);
+            }
+        }
+
+        public void onError(Throwable error)
+        {
+            this.error = error;
+            this.done.countDown();
+        }
+
+        public void onComplete()
+        {
+            this.done.countDown();
+        }
+    }
+
+
+    /**
+      * Upstream subscription which counts requested items.
+      */
+    private static class CountingSubscription implements Flow.Subscription
+    {
+        long requested_count = 0;
+        boolean is_cancelled = false;
+
+        public void request(long count)
+        {
+            this.requested_count += count;
+        }
+
+        public void cancel()
+        {
+            this.is_cancelled = true;
+        }
+    }
+}
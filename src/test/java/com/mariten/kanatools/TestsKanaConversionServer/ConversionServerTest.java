@@ -0,0 +1,156 @@
+package com.mariten.kanatools.TestsKanaConversionServer;
+
+import com.mariten.kanatools.KanaConversionServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ConversionServerTest
+{
+    private KanaConversionServer server;
+
+    @Before
+    public void startServer() throws IOException
+    {
+        this.server = new KanaConversionServer(new InetSocketAddress("127.0.0.1", 0));
+        this.server.start();
+    }
+
+    @After
+    public void stopServer()
+    {
+        this.server.stop();
+    }
+
+
+    //{{{ testLinesAndJson()
+    @Test
+    public void testLinesAndJson() throws IOException
+    {
+        assertEquals("ガイドブック\nパス 1\n", this.request("POST", "/convert?ops=KVa", null, "ｶﾞｲﾄﾞﾌﾞｯｸ\nﾊﾟｽ １\n").body);
+        assertEquals("[\"ガイド\",\"\\\"ー\\\"\\n\",\"\"]\n",
+            this.request("POST", "/convert?ops=KV", "application/json", " [\"ｶﾞｲﾄﾞ\", \"\\\"ｰ\\\"\\n\", \"\"] ").body);
+
+        // Ignored chars and a JSON body recognized without a content type
+        assertEquals("[\"ガｲド\"]\n", this.request("POST", "/convert?ops=KV&ignore=%EF%BD%B2", null, "[\"ｶﾞｲﾄﾞ\"]").body);
+    }
+    //}}}
+
+
+    //{{{ testErrors()
+    @Test
+    public void testErrors() throws IOException
+    {
+        assertEquals(400, this.request("POST", "/convert?ops=KQ", null, "x").status);
+        assertEquals(400, this.request("POST", "/convert", null, "x").status);
+        assertEquals(400, this.request("POST", "/convert?ops=K", "application/json", "[\"x\" \"y\"]").status);
+        assertEquals(405, this.request("GET", "/convert?ops=K", null, null).status);
+        assertEquals(404, this.request("GET", "/stats/more", null, null).status);
+    }
+    //}}}
+
+
+    //{{{ testBrokenConnectionCountsAsError()
+    @Test
+    public void testBrokenConnectionCountsAsError() throws Exception
+    {
+        // Body cut short by the client closing the connection
+        Socket socket = new Socket("127.0.0.1", this.server.getPort());
+        try {
+            OutputStream request = socket.getOutputStream();
+            request.write(("POST /convert?ops=KV HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Length: 100\r\n\r\nabc").getBytes(StandardCharsets.US_ASCII));
+            request.flush();
+            socket.shutdownOutput();
+        } finally {
+            socket.close();
+        }
+
+        String stats = "";
+        for(int attempt = 0; attempt < 100 && !stats.contains("\"requests\":1,"); attempt++) {
+            Thread.sleep(50);
+            stats = this.server.getStatsJson();
+        }
+        assertTrue(stats, stats.contains("\"requests\":1,"));
+        assertTrue(stats, stats.contains("\"errors\":1,"));
+    }
+    //}}}
+
+
+    //{{{ testConcurrentRequestsAndStats()
+    @Test
+    public void testConcurrentRequestsAndStats() throws Exception
+    {
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            Future<?>[] results = new Future<?>[64];
+            for(int k = 0; k < results.length; k++) {
+                final String line = "ﾃｽﾄ" + k;
+                results[k] = clients.submit(() -> {
+                    assertEquals("テスト" + line.substring(3) + "\nテスト\n", this.request("POST", "/convert?ops=KV", null, line + "\nﾃｽﾄ\n").body);
+                    return null;
+                });
+            }
+            for(Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            clients.shutdown();
+        }
+
+        String stats = this.request("GET", "/stats", null, null).body;
+        assertTrue(stats, stats.contains("\"requests\":64,"));
+        assertTrue(stats, stats.contains("\"items\":128,"));
+        assertTrue(stats, stats.contains("\"errors\":0,"));
+    }
+    //}}}
+
+
+    //{{{ Response request(String, String, String, String)
+    private Response request(String method, String path, String content_type, String body) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection)new URL("http://127.0.0.1:" + this.server.getPort() + path).openConnection();
+        connection.setRequestMethod(method);
+        if(content_type != null) {
+            connection.setRequestProperty("Content-Type", content_type);
+        }
+        if(body != null) {
+            connection.setDoOutput(true);
+            OutputStream request_body = connection.getOutputStream();
+            request_body.write(body.getBytes(StandardCharsets.UTF_8));
+            request_body.close();
+        }
+        Response response = new Response();
+        response.status = connection.getResponseCode();
+        InputStream response_body = (response.status < 400) ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read_count;
+        while((read_count = response_body.read(buffer)) >= 0) {
+            content.write(buffer, 0, read_count);
+        }
+        response_body.close();
+        response.body = new String(content.toByteArray(), StandardCharsets.UTF_8);
+        return response;
+    }
+    //}}}
+
+
+    private static class Response
+    {
+        int status;
+        String body;
+    }
+}
@@ -0,0 +1,111 @@
+package com.mariten.kanatools.TestsKanaConversionService;
+
+import com.mariten.kanatools.KanaConversionService;
+import com.mariten.kanatools.KanaConverter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ConversionServiceTest
+{
+    private static final String ALPHABET = "ｶｷﾊﾋﾎｳｱｰﾞﾟかがぱカガパ　 Aａ1１｡漢";
+
+    private static final String[] OPS_STRINGS = { "KV", "HV", "k", "cKa", "ASKV" };
+
+
+    //{{{ testMatchesConvertKana()
+    @Test
+    public void testMatchesConvertKana() throws Exception
+    {
+        KanaConversionService service = new KanaConversionService(3, 32, 1, TimeUnit.MILLISECONDS);
+        try {
+            List<String> texts = new ArrayList<String>();
+            List<String> ops_strings = new ArrayList<String>();
+            List<CompletableFuture<String>> results = new ArrayList<CompletableFuture<String>>();
+            Random random = new Random(47);
+            for(int round = 0; round < 3000; round++) {
+                StringBuilder text = new StringBuilder();
+                int text_length = random.nextInt(20);
+                for(int k = 0; k < text_length; k++) {
+                    text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+                }
+                String ops_string = OPS_STRINGS[random.nextInt(OPS_STRINGS.length)];
+                texts.add(text.toString());
+                ops_strings.add(ops_string);
+                results.add(service.submit(text, ops_string));
+            }
+            for(int k = 0; k < results.size(); k++) {
+                assertEquals(KanaConverter.convertKana(texts.get(k), ops_strings.get(k)), results.get(k).get(5, TimeUnit.SECONDS));
+            }
+
+            KanaConversionService.Stats stats = service.getStats();
+            assertEquals(3000, stats.getItemCount());
+            assertTrue(stats.toString(), stats.getMaxBatchSize() > 1);
+            assertTrue(stats.toString(), stats.getMaxBatchSize() <= 32);
+        } finally {
+            service.close();
+        }
+    }
+    //}}}
+
+
+    //{{{ testDeadline()
+    @Test
+    public void testDeadline() throws Exception
+    {
+        // A lone request waits for its batch to fill, but no longer than the delay
+        KanaConversionService service = new KanaConversionService(1, 100, 20, TimeUnit.MILLISECONDS);
+        try {
+            assertEquals("ガイド", service.submit("ｶﾞｲﾄﾞ", KanaConverter.OP_HAN_KATA_TO_ZEN_KATA).get(5, TimeUnit.SECONDS));
+            KanaConversionService.Stats stats = service.getStats();
+            assertEquals(1, stats.getBatchCount());
+            assertTrue(stats.toString(), stats.getMaxQueueDelayNanos() >= TimeUnit.MILLISECONDS.toNanos(10));
+        } finally {
+            service.close();
+        }
+    }
+    //}}}
+
+
+    //{{{ testShutdown()
+    @Test
+    public void testShutdown() throws Exception
+    {
+        KanaConversionService service = new KanaConversionService(2, 16, 50, TimeUnit.MILLISECONDS);
+        CompletableFuture<String> waiting = service.submit("ﾊﾟｽ", "KV");
+        service.shutdown();
+        assertTrue(service.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals("パス", waiting.get());
+
+        try {
+            service.submit("ﾊﾟｽ", "KV").get();
+            fail("Expected rejection after shutdown");
+        } catch(ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+    //}}}
+
+
+    //{{{ testCloseWhenInterrupted()
+    @Test
+    public void testCloseWhenInterrupted() throws Exception
+    {
+        KanaConversionService service = new KanaConversionService(1, 16, 50, TimeUnit.MILLISECONDS);
+        CompletableFuture<String> waiting;
+        try(KanaConversionService closed_service = service) {
+            waiting = closed_service.submit("ﾊﾟｽ", "KV");
+            Thread.currentThread().interrupt();
+        }
+        assertTrue(Thread.interrupted());
+        assertEquals("パス", waiting.get(5, TimeUnit.SECONDS));
+        assertTrue(service.awaitTermination(5, TimeUnit.SECONDS));
+    }
+    //}}}
+}
@@ -0,0 +1,61 @@
+package com.mariten.kanatools.TestsKanaConvertedView;
+
+import com.mariten.kanatools.KanaConvertedView;
+import com.mariten.kanatools.KanaConverter;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ViewTest
+{
+    //{{{ testViewMatchesConvertKana()
+    @Test
+    public void testViewMatchesConvertKana()
+    {
+        String original = " !0:A^a|\"　！０：Ａ＾ａ｜＂あがぱゐゔゕゝアガパヰヸヷヵヽ゛｡ｱｶﾞﾊﾟﾞ漢";
+        int[] op_sets = new int[] {
+            0,
+            KanaConverter.OP_ZEN_HIRA_TO_ZEN_KATA,
+            KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA | KanaConverter.OP_ZEN_ASCII_TO_HAN_ASCII,
+            KanaConverter.OP_HAN_ASCII_TO_ZEN_ASCII,
+            KanaConverter.OP_HAN_LETTER_TO_ZEN_LETTER | KanaConverter.OP_HAN_NUMBER_TO_ZEN_NUMBER | KanaConverter.OP_HAN_SPACE_TO_ZEN_SPACE,
+            KanaConverter.OP_ZEN_LETTER_TO_HAN_LETTER | KanaConverter.OP_ZEN_NUMBER_TO_HAN_NUMBER | KanaConverter.OP_ZEN_SPACE_TO_HAN_SPACE,
+            KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_KEEP_DIACRITIC_MARKS_APART,
+        };
+        for(int ops : op_sets) {
+            String expected = KanaConverter.convertKana(original, ops);
+            KanaConvertedView view = new KanaConvertedView(original, ops);
+            assertEquals(expected.length(), view.length());
+            for(int i = 0; i < view.length(); i++) {
+                assertEquals(expected.charAt(i), view.charAt(i));
+            }
+            assertEquals(expected, view.toString());
+            assertEquals(expected.substring(3, 20), view.subSequence(3, 20).toString());
+        }
+
+        KanaConvertedView ignoring_view = new KanaConvertedView(new StringBuilder("アイ"), KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA, "イ");
+        assertEquals("あイ", ignoring_view.toString());
+    }
+    //}}}
+
+
+    //{{{ testRejectsLengthChangingOps()
+    @Test
+    public void testRejectsLengthChangingOps()
+    {
+        assertTrue(KanaConvertedView.isLengthPreserving(KanaConverter.OP_ZEN_HIRA_TO_ZEN_KATA));
+        assertFalse(KanaConvertedView.isLengthPreserving(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA));
+        assertFalse(KanaConvertedView.isLengthPreserving(KanaConverter.OP_HAN_KATA_TO_ZEN_HIRA));
+        assertFalse(KanaConvertedView.isLengthPreserving(KanaConverter.OP_ZEN_KATA_TO_HAN_KATA | KanaConverter.OP_KEEP_DIACRITIC_MARKS_APART));
+        assertFalse(KanaConvertedView.isLengthPreserving(KanaConverter.OP_ZEN_HIRA_TO_HAN_KATA));
+
+        String rejected_result = "";
+        try {
+            new KanaConvertedView("ﾊﾟ", KanaConverter.OP_HAN_KATA_TO_ZEN_KATA);
+        }
+        catch(IllegalArgumentException rejected_ex) {
+            rejected_result = "caught exception";
+        }
+        assertEquals("caught exception", rejected_result);
+    }
+    //}}}
+}
@@ -0,0 +1,66 @@
+package com.mariten.kanatools.TestsKanaConverter;
+
+import com.mariten.kanatools.KanaConversionPlan;
+import com.mariten.kanatools.KanaConverter;
+import com.mariten.kanatools.KanaConverterTester;
+import com.mariten.kanatools.KanaOffsetMap;
+import java.text.Normalizer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CombiningMarksTest extends KanaConverterTester
+{
+    private static final int OP_COMPOSE = KanaConverter.OP_COMPOSE_COMBINING_MARKS;
+
+    //{{{ testComposeLikeNfc()
+    @Test
+    public void testComposeLikeNfc()
+    {
+        // Every kana followed by either combining mark composes exactly as NFC does
+        for(char base = '぀'; base <= 'ヿ'; base++) {
+            for(char mark : new char[] { KanaConverter.COMBINING_VOICED_MARK, KanaConverter.COMBINING_ASPIRATED_MARK }) {
+                String decomposed = "" + base + mark;
+                assertConverted(OP_COMPOSE, NEVER_TEST_IN_PHP, decomposed, Normalizer.normalize(decomposed, Normalizer.Form.NFC));
+            }
+        }
+
+        // NFD file name, as stored by macOS
+        String file_name = Normalizer.normalize("ガイドブック_パンフレット.pdf", Normalizer.Form.NFD);
+        assertEquals(21, file_name.length());
+        assertConverted(OP_COMPOSE, NEVER_TEST_IN_PHP, file_name, "ガイドブック_パンフレット.pdf");
+
+        // Lone or uncomposable marks are left alone, and nothing is composed without the op
+        assertConverted(OP_COMPOSE, NEVER_TEST_IN_PHP, "゙あ゙", "゙あ゙");
+        assertConverted(KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA, NEVER_TEST_IN_PHP, "ガ", "が");
+    }
+    //}}}
+
+
+    //{{{ testComposeCombinedWithOtherOps()
+    @Test
+    public void testComposeCombinedWithOtherOps()
+    {
+        // Composed char goes through the remaining ops as if it had been written composed
+        assertConverted(OP_COMPOSE | KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA, NEVER_TEST_IN_PHP, "パン", "ぱん");
+        assertConverted(OP_COMPOSE | KanaConverter.OP_ZEN_HIRA_TO_ZEN_KATA, NEVER_TEST_IN_PHP, "がく", "ガク");
+        assertConverted(OP_COMPOSE | KanaConverter.OP_ZEN_KATA_TO_HAN_KATA, NEVER_TEST_IN_PHP, "ドア", "ﾄﾞｱ");
+
+        // Combining marks glue to hankaku katakana like hankaku marks do
+        assertConverted(OP_COMPOSE | KanaConverter.OP_HAN_KATA_TO_ZEN_KATA, NEVER_TEST_IN_PHP, "ｶ゙ﾊ゚ﾎﾞ", "ガパボ");
+        assertConverted(OP_COMPOSE | KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_KEEP_DIACRITIC_MARKS_APART,
+            NEVER_TEST_IN_PHP, "ｶ゙", "ガ");
+        assertConverted(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA, NEVER_TEST_IN_PHP, "ｶ゙", "ガ");
+
+        // Ignore list applies to the composed char
+        assertEquals("がク", KanaConverter.convertKana("がく", OP_COMPOSE | KanaConverter.OP_ZEN_HIRA_TO_ZEN_KATA, "が"));
+
+        // Offsets and compiled plans follow the same units
+        KanaOffsetMap offset_map = KanaConverter.convertKanaWithOffsets("aがb", OP_COMPOSE);
+        assertEquals("aがb", offset_map.getConvertedString());
+        assertEquals(3, offset_map.toOriginalOffset(2));
+        KanaConversionPlan plan = new KanaConversionPlan(OP_COMPOSE | KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA);
+        assertEquals("がぱは", plan.convert("ガパは"));
+        assertFalse(new KanaConversionPlan(KanaConverter.OP_ZEN_KATA_TO_HAN_KATA).andThen(plan).isFused());
+    }
+    //}}}
+}
@@ -0,0 +1,85 @@
+package com.mariten.kanatools.TestsKanaConverter;
+
+import com.mariten.kanatools.KanaConverter;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class InstanceConverterTest
+{
+    private static final String ALPHABET = "ｶｷﾊﾋﾎｳｱｰﾞﾟかがぱきカガパヴ゛゙゚　 Aａz1１｡漢";
+
+    private static final String[] OPS_STRINGS = { "KV", "HV", "K", "kh", "cKa", "CAs", "ASKV", "rnKV", "" };
+
+
+    //{{{ testMatchesConvertKana()
+    @Test
+    public void testMatchesConvertKana()
+    {
+        Random random = new Random(45);
+        for(String ops_string : OPS_STRINGS) {
+            for(String chars_to_ignore : new String[] { "", "ｶﾞ" }) {
+                KanaConverter converter = KanaConverter.builder().ops(ops_string).ignore(chars_to_ignore).build();
+                for(int round = 0; round < 200; round++) {
+                    // Long texts first grow the scratch buffer, short ones then reuse it
+                    int text_length = (round % 50 == 0) ? 3000 : random.nextInt(30);
+                    StringBuilder text = new StringBuilder();
+                    for(int k = 0; k < text_length; k++) {
+                        text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+                    }
+                    String expected = KanaConverter.convertKana(text.toString(), ops_string, chars_to_ignore);
+                    assertEquals(ops_string + " " + text, expected, converter.convert(text));
+
+                    StringBuilder appended = new StringBuilder("<");
+                    converter.convert(text, appended);
+                    assertEquals("<" + expected, appended.toString());
+                }
+            }
+        }
+    }
+    //}}}
+
+
+    //{{{ testBuilderOps()
+    @Test
+    public void testBuilderOps()
+    {
+        KanaConverter converter = KanaConverter.builder()
+            .ops(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA)
+            .ops("a")
+            .build();
+        assertEquals(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_ZEN_ASCII_TO_HAN_ASCII, converter.getPlan().getConversionOps());
+        assertEquals("ガイド 1", converter.convert("ｶﾞｲﾄﾞ　１"));
+        assertEquals("", converter.convert(""));
+        assertEquals("ｶﾞｲﾄﾞ", new KanaConverter().convert("ｶﾞｲﾄﾞ"));
+    }
+    //}}}
+
+
+    //{{{ testBuildPerThread()
+    @Test
+    public void testBuildPerThread() throws InterruptedException
+    {
+        final ThreadLocal<KanaConverter> converters = KanaConverter.builder().ops("KV").buildPerThread();
+        KanaConverter main_converter = converters.get();
+        assertSame(main_converter, converters.get());
+
+        final AtomicReference<KanaConverter> other_converter = new AtomicReference<KanaConverter>();
+        final AtomicReference<String> other_result = new AtomicReference<String>();
+        Thread other_thread = new Thread(new Runnable() {
+            public void run()
+            {
+                other_converter.set(converters.get());
+                other_result.set(converters.get().convert("ﾊﾟｽ"));
+            }
+        });
+        other_thread.start();
+        other_thread.join();
+
+        assertNotSame(main_converter, other_converter.get());
+        assertSame(main_converter.getPlan(), other_converter.get().getPlan());
+        assertEquals("パス", other_result.get());
+    }
+    //}}}
+}
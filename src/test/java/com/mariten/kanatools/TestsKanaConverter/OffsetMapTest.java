@@ -0,0 +1,74 @@
+package com.mariten.kanatools.TestsKanaConverter;
+
+import com.mariten.kanatools.KanaConverter;
+import com.mariten.kanatools.KanaConverterTester;
+import com.mariten.kanatools.KanaOffsetMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class OffsetMapTest extends KanaConverterTester
+{
+    //{{{ testCollapsedDiacritics()
+    @Test
+    public void testCollapsedDiacritics()
+    {
+        KanaOffsetMap offset_map = KanaConverter.convertKanaWithOffsets("aﾊﾟﾝとｶﾞﾑ", KanaConverter.OP_HAN_KATA_TO_ZEN_KATA);
+        assertEquals("aパンとガム", offset_map.getConvertedString());
+        assertEquals("aﾊﾟﾝとｶﾞﾑ", offset_map.getOriginalString());
+        assertFalse(offset_map.isIdentity());
+
+        int[] expected_converted = {0, 1, 2, 2, 3, 4, 5, 5, 6};
+        for(int i = 0; i < expected_converted.length; i++) {
+            assertEquals("original " + i, expected_converted[i], offset_map.toConvertedOffset(i));
+        }
+        int[] expected_original = {0, 1, 3, 4, 5, 7, 8};
+        for(int i = 0; i < expected_original.length; i++) {
+            assertEquals("converted " + i, expected_original[i], offset_map.toOriginalOffset(i));
+        }
+    }
+    //}}}
+
+
+    //{{{ testSplitDiacritics()
+    @Test
+    public void testSplitDiacritics()
+    {
+        KanaOffsetMap offset_map = KanaConverter.convertKanaWithOffsets("パン", KanaConverter.OP_ZEN_KATA_TO_HAN_KATA);
+        assertEquals("ﾊﾟﾝ", offset_map.getConvertedString());
+        assertEquals(0, offset_map.toConvertedOffset(0));
+        assertEquals(2, offset_map.toConvertedOffset(1));
+        assertEquals(3, offset_map.toConvertedOffset(2));
+        assertEquals(0, offset_map.toOriginalOffset(0));
+        assertEquals(1, offset_map.toOriginalOffset(1));
+        assertEquals(1, offset_map.toOriginalOffset(2));
+        assertEquals(2, offset_map.toOriginalOffset(3));
+    }
+    //}}}
+
+
+    //{{{ testLengthPreservingConversion()
+    @Test
+    public void testLengthPreservingConversion()
+    {
+        KanaOffsetMap offset_map = KanaConverter.convertKanaWithOffsets("カナＡＢ", KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA | KanaConverter.OP_ZEN_LETTER_TO_HAN_LETTER);
+        assertEquals("かなAB", offset_map.getConvertedString());
+        assertTrue(offset_map.isIdentity());
+        for(int i = 0; i <= 4; i++) {
+            assertEquals(i, offset_map.toConvertedOffset(i));
+            assertEquals(i, offset_map.toOriginalOffset(i));
+        }
+
+        assertTrue(KanaConverter.convertKanaWithOffsets("", KanaConverter.OP_HAN_KATA_TO_ZEN_KATA).isIdentity());
+        assertEquals("ﾊﾟ", KanaConverter.convertKanaWithOffsets("ﾊﾟ", 0).getConvertedString());
+
+        String out_of_range_result = "";
+        try {
+            offset_map.toOriginalOffset(5);
+        }
+        catch(IndexOutOfBoundsException out_of_range_ex) {
+            out_of_range_result = "caught exception";
+        }
+        assertEquals("caught exception", out_of_range_result);
+    }
+    //}}}
+}
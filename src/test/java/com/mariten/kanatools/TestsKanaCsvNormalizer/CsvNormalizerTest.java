@@ -0,0 +1,266 @@
+package com.mariten.kanatools.TestsKanaCsvNormalizer;
+
+import com.mariten.kanatools.KanaConverter;
+import com.mariten.kanatools.KanaCsvNormalizer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CsvNormalizerTest
+{
+    private static final String[] COLUMN_OPS = { "KV", null, "n", "a" };
+
+    //{{{ testColumns()
+    @Test
+    public void testColumns()
+    {
+        KanaCsvNormalizer normalizer = new KanaCsvNormalizer()
+            .withHeaderRow(true)
+            .withColumn(0, "KV")
+            .withColumn(2, "n");
+        assertEquals(
+            "ﾒｲｷﾞ,ﾒﾓ,１２\r\nヤマダ ガク,ﾀﾛｳ,120\r\n\"スズキ,\"\"イチロー\"\"\",ｶﾅ,\"3,000\"\r\n",
+            normalizer.normalize(
+            "ﾒｲｷﾞ,ﾒﾓ,１２\r\nﾔﾏﾀﾞ ｶﾞｸ,ﾀﾛｳ,１２０\r\n\"ｽｽﾞｷ,\"\"ｲﾁﾛｰ\"\"\",ｶﾅ,\"３,０００\"\r\n"));
+
+        // Quoted when conversion adds a delimiter, and tab-separated
+        assertEquals("\"A,B\",ＣＤ", new KanaCsvNormalizer().withColumn(0, "a").normalize("Ａ，Ｂ,ＣＤ"));
+        assertEquals("A,B\tＣＤ\n", new KanaCsvNormalizer().withDelimiter('\t').withColumn(0, "a").normalize("Ａ，Ｂ\tＣＤ\n"));
+
+        // Empty fields, missing columns and a last line without line break
+        assertEquals(",,\n1\nガ", new KanaCsvNormalizer().withColumn(0, "Kn").withColumn(2, "K").normalize(",,\n１\nｶﾞ"));
+    }
+    //}}}
+
+
+    //{{{ testUntouchedBytesAreCopied()
+    @Test
+    public void testUntouchedBytesAreCopied() throws IOException
+    {
+        // Malformed UTF-8 in a copied column and a malformed quoted field survive byte for byte
+        byte[] csv_bytes = {
+            (byte)0xEF, (byte)0xBD, (byte)0xB6, ',', (byte)0xFF, (byte)0xFE, '\n',
+            '"', 'a', '"', 'x', ',', 'b', '\n',
+        };
+        byte[] expected = {
+            (byte)0xE3, (byte)0x82, (byte)0xAB, ',', (byte)0xFF, (byte)0xFE, '\n',
+            '"', 'a', '"', 'x', ',', 'b', '\n',
+        };
+        ByteArrayOutputStream csv_output = new ByteArrayOutputStream();
+        new KanaCsvNormalizer().withColumn(0, "KV").normalize(new ByteArrayInputStream(csv_bytes), csv_output);
+        assertArrayEquals(expected, csv_output.toByteArray());
+    }
+    //}}}
+
+
+    //{{{ testMatchesFieldByFieldConversion()
+    @Test
+    public void testMatchesFieldByFieldConversion()
+    {
+        KanaCsvNormalizer normalizer = createNormalizer();
+        Random random = new Random(39);
+        for(int round = 0; round < 200; round++) {
+            StringBuilder csv_text = new StringBuilder();
+            StringBuilder expected = new StringBuilder();
+            int row_count = random.nextInt(6);
+            for(int row = 0; row < row_count; row++) {
+                int column_count = 1 + random.nextInt(5);
+                for(int column = 0; column < column_count; column++) {
+                    if(column > 0) {
+                        csv_text.append(',');
+                        expected.append(',');
+                    }
+                    String value = createRandomValue(random);
+                    boolean is_quoted = random.nextBoolean() || needsQuotes(value);
+                    appendField(csv_text, value, is_quoted);
+                    String ops = (column < COLUMN_OPS.length) ? COLUMN_OPS[column] : null;
+                    String converted_value = (ops == null) ? value : KanaConverter.convertKana(value, ops);
+                    appendField(expected, converted_value, is_quoted || (ops != null && needsQuotes(converted_value)));
+                }
+                String line_break = random.nextBoolean() ? "\n" : "\r\n";
+                csv_text.append(line_break);
+                expected.append(line_break);
+            }
+            assertEquals(csv_text.toString(), expected.toString(), normalizer.normalize(csv_text.toString()));
+        }
+    }
+    //}}}
+
+
+    //{{{ testChunksAndWorkersMatchWholeText()
+    @Test
+    public void testChunksAndWorkersMatchWholeText() throws IOException
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(3);
+        try {
+            Random random = new Random(390);
+            for(int round = 0; round < 50; round++) {
+                // Anything goes, including stray and unbalanced quotes
+                String alphabet = "ｶﾞﾊﾟｳﾞあア１Ａ，\",\n\r x";
+                StringBuilder csv_text = new StringBuilder();
+                int text_length = random.nextInt(2000);
+                for(int k = 0; k < text_length; k++) {
+                    csv_text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+                String expected = createNormalizer().normalize(csv_text.toString());
+
+                for(String charset_name : new String[] { "UTF-8", "Shift_JIS" }) {
+                    Charset charset = Charset.forName(charset_name);
+                    KanaCsvNormalizer normalizer = createNormalizer().withCharset(charset).withChunkSize(1 + random.nextInt(100));
+                    byte[] csv_bytes = csv_text.toString().getBytes(charset_name);
+
+                    ByteArrayOutputStream serial_output = new ByteArrayOutputStream();
+                    normalizer.normalize(new ByteArrayInputStream(csv_bytes), serial_output);
+                    assertEquals(expected, serial_output.toString(charset_name));
+
+                    ByteArrayOutputStream parallel_output = new ByteArrayOutputStream();
+                    normalizer.normalize(new ByteArrayInputStream(csv_bytes), parallel_output, workers, 6);
+                    assertEquals(expected, parallel_output.toString(charset_name));
+                }
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+    //}}}
+
+
+    //{{{ testCrOnlyLineBreaksAreChunked()
+    @Test
+    public void testCrOnlyLineBreaksAreChunked() throws IOException
+    {
+        StringBuilder csv_text = new StringBuilder();
+        for(int k = 0; k < 100; k++) {
+            csv_text.append("ｶﾞﾊﾟ,x,１,\"Ａ\r\"\r");
+        }
+        KanaCsvNormalizer normalizer = createNormalizer().withChunkSize(64);
+        byte[] csv_bytes = csv_text.toString().getBytes("UTF-8");
+
+        ThreadPoolExecutor workers = (ThreadPoolExecutor)Executors.newFixedThreadPool(2);
+        try {
+            ByteArrayOutputStream parallel_output = new ByteArrayOutputStream();
+            normalizer.normalize(new ByteArrayInputStream(csv_bytes), parallel_output, workers, 4);
+            assertEquals(createNormalizer().normalize(csv_text.toString()), parallel_output.toString("UTF-8"));
+            assertTrue("Chunks converted: " + workers.getTaskCount(), workers.getTaskCount() > 10);
+        } finally {
+            workers.shutdown();
+        }
+    }
+    //}}}
+
+
+    //{{{ testPipeDelimitedShiftJis()
+    @Test
+    public void testPipeDelimitedShiftJis() throws IOException
+    {
+        // "ポ" is 0x83 0x7C in Shift_JIS, its second byte is a pipe
+        String csv_text = "ポイント|ｶﾞｲﾄﾞ\n";
+        for(String charset_name : new String[] { "Shift_JIS", "windows-31j" }) {
+            Charset charset = Charset.forName(charset_name);
+            try {
+                new KanaCsvNormalizer().withCharset(charset).withDelimiter('|');
+                fail("Expected exception for pipe delimiter in " + charset_name);
+            } catch(IllegalArgumentException e) {
+                // Caught exception
+            }
+            try {
+                new KanaCsvNormalizer().withDelimiter('|').withCharset(charset);
+                fail("Expected exception for " + charset_name + " with pipe delimiter");
+            } catch(IllegalArgumentException e) {
+                // Caught exception
+            }
+
+            // Tab stays below the trail byte range
+            KanaCsvNormalizer normalizer = new KanaCsvNormalizer().withCharset(charset).withDelimiter('\t').withColumn(1, "KV");
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            normalizer.normalize(new ByteArrayInputStream(csv_text.replace('|', '\t').getBytes(charset_name)), output);
+            assertEquals("ポイント\tガイド\n", output.toString(charset_name));
+        }
+
+        // Pipes are fine where ASCII bytes are never part of another char
+        KanaCsvNormalizer utf8_normalizer = new KanaCsvNormalizer().withDelimiter('|').withColumn(1, "KV");
+        assertEquals("ポイント|ガイド\n", utf8_normalizer.normalize(csv_text));
+    }
+    //}}}
+
+
+    //{{{ testInvalidSettings()
+    @Test
+    public void testInvalidSettings()
+    {
+        try {
+            new KanaCsvNormalizer().withCharset(Charset.forName("UTF-16"));
+            fail("Expected exception for charset with multi-byte ASCII");
+        } catch(IllegalArgumentException e) {
+            // Caught exception
+        }
+        try {
+            new KanaCsvNormalizer().withDelimiter('"');
+            fail("Expected exception for quote as delimiter");
+        } catch(IllegalArgumentException e) {
+            // Caught exception
+        }
+        try {
+            new KanaCsvNormalizer().withColumn(-1, "KV");
+            fail("Expected exception for negative column index");
+        } catch(IllegalArgumentException e) {
+            // Caught exception
+        }
+    }
+    //}}}
+
+
+    //{{{ KanaCsvNormalizer createNormalizer()
+    private static KanaCsvNormalizer createNormalizer()
+    {
+        KanaCsvNormalizer normalizer = new KanaCsvNormalizer();
+        for(int column = 0; column < COLUMN_OPS.length; column++) {
+            if(COLUMN_OPS[column] != null) {
+                normalizer = normalizer.withColumn(column, COLUMN_OPS[column]);
+            }
+        }
+        return normalizer;
+    }
+    //}}}
+
+
+    //{{{ String createRandomValue(Random)
+    private static String createRandomValue(Random random)
+    {
+        String alphabet = "ｶﾞﾊﾟｳあア１２Ａ，＂\",\n x";
+        StringBuilder value = new StringBuilder();
+        int value_length = random.nextInt(8);
+        for(int k = 0; k < value_length; k++) {
+            value.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return value.toString();
+    }
+    //}}}
+
+
+    //{{{ boolean needsQuotes(String)
+    private static boolean needsQuotes(String value)
+    {
+        return value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+    }
+    //}}}
+
+
+    //{{{ void appendField(StringBuilder, String, boolean)
+    private static void appendField(StringBuilder csv_text, String value, boolean is_quoted)
+    {
+        if(is_quoted) {
+            csv_text.append('"').append(value.replace("\"", "\"\"")).append('"');
+        } else {
+            csv_text.append(value);
+        }
+    }
+    //}}}
+}
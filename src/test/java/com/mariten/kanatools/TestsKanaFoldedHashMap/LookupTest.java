@@ -0,0 +1,82 @@
+package com.mariten.kanatools.TestsKanaFoldedHashMap;
+
+import com.mariten.kanatools.KanaConverter;
+import com.mariten.kanatools.KanaFoldedHashMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LookupTest
+{
+    //{{{ testWidthAndScriptInsensitiveLookup()
+    @Test
+    public void testWidthAndScriptInsensitiveLookup()
+    {
+        int fold_ops = KanaConverter.OP_HAN_KATA_TO_ZEN_HIRA | KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA;
+        KanaFoldedHashMap<Integer> account_ids = new KanaFoldedHashMap<Integer>(fold_ops);
+        account_ids.put("がいあ", 1);
+        account_ids.put("ﾔﾏﾀﾞ", 2);
+
+        assertEquals(Integer.valueOf(1), account_ids.get("ｶﾞｲｱ"));
+        assertEquals(Integer.valueOf(1), account_ids.get("ガイア"));
+        assertEquals(Integer.valueOf(1), account_ids.get(new StringBuilder("がいあ")));
+        assertEquals(Integer.valueOf(2), account_ids.get("やまだ"));
+        assertEquals(Integer.valueOf(2), account_ids.get("ヤマダ"));
+        assertNull(account_ids.get("ｶｲｱ"));
+        assertNull(account_ids.get("がいあ "));
+        assertNull(account_ids.get(""));
+        assertEquals(2, account_ids.size());
+
+        // Same folded key replaces the existing value
+        assertEquals(Integer.valueOf(1), account_ids.put("ガイア", 3));
+        assertEquals(Integer.valueOf(3), account_ids.get("がいあ"));
+        assertEquals(2, account_ids.size());
+    }
+    //}}}
+
+
+    //{{{ testSplittingConversionsAndIgnoreChars()
+    @Test
+    public void testSplittingConversionsAndIgnoreChars()
+    {
+        // Zen-to-han katakana emits diacritic marks as extra chars
+        KanaFoldedHashMap<String> hankaku_keyed = new KanaFoldedHashMap<String>(KanaConverter.OP_ZEN_KATA_TO_HAN_KATA);
+        hankaku_keyed.put("ﾊﾟﾝ", "bread");
+        assertEquals("bread", hankaku_keyed.get("パン"));
+        assertNull(hankaku_keyed.get("ハン"));
+        assertNull(hankaku_keyed.get("パ"));
+
+        // Ignored chars are compared as-is
+        KanaFoldedHashMap<String> ignoring = new KanaFoldedHashMap<String>(KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA, "ア");
+        ignoring.put("アイ", "kept");
+        assertEquals("kept", ignoring.get("アい"));
+        assertNull(ignoring.get("あい"));
+    }
+    //}}}
+
+
+    //{{{ testGrowAndRemove()
+    @Test
+    public void testGrowAndRemove()
+    {
+        KanaFoldedHashMap<Integer> folded = new KanaFoldedHashMap<Integer>(KanaConverter.OP_ZEN_ASCII_TO_HAN_ASCII);
+        for(int i = 0; i < 1000; i++) {
+            folded.put("key" + i, i);
+        }
+        assertEquals(1000, folded.size());
+        assertEquals(Integer.valueOf(512), folded.get("ｋｅｙ５１２"));
+
+        for(int i = 0; i < 1000; i += 2) {
+            assertEquals(Integer.valueOf(i), folded.remove(KanaConverter.convertKana("key" + i, "A")));
+        }
+        assertEquals(500, folded.size());
+        for(int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), folded.get("key" + i));
+        }
+        assertNull(folded.remove("key0"));
+
+        folded.clear();
+        assertTrue(folded.isEmpty());
+        assertFalse(folded.containsKey("key1"));
+    }
+    //}}}
+}
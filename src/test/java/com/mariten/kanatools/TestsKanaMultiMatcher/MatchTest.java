@@ -0,0 +1,125 @@
+package com.mariten.kanatools.TestsKanaMultiMatcher;
+
+import com.mariten.kanatools.KanaConverter;
+import com.mariten.kanatools.KanaMultiMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MatchTest
+{
+    //{{{ testBlockedTermsInMixedWidths()
+    @Test
+    public void testBlockedTermsInMixedWidths()
+    {
+        int fold_ops = KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_ZEN_HIRA_TO_ZEN_KATA | KanaConverter.OP_ZEN_ASCII_TO_HAN_ASCII;
+        KanaMultiMatcher matcher = new KanaMultiMatcher(new String[] {"ばんく", "ｸﾐ", "ABC", ""}, fold_ops);
+        assertEquals(4, matcher.getPatternCount());
+        assertEquals("ｸﾐ", matcher.getPattern(1));
+
+        List<String> matches = findAll(matcher, "ﾊﾞﾝｸ組 くみ ＡＢＣ");
+        assertEquals(3, matches.size());
+        assertEquals("0:0-4", matches.get(0));
+        assertEquals("1:6-8", matches.get(1));
+        assertEquals("2:9-12", matches.get(2));
+
+        assertTrue(matcher.containsAny("ばﾝク"));
+        assertFalse(matcher.containsAny("はんく"));
+    }
+    //}}}
+
+
+    //{{{ testOverlappingAndDuplicatePatterns()
+    @Test
+    public void testOverlappingAndDuplicatePatterns()
+    {
+        KanaMultiMatcher matcher = new KanaMultiMatcher(new String[] {"アイ", "イウ", "あいう", "ｲｳ"},
+            KanaConverter.OP_HAN_KATA_TO_ZEN_HIRA | KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA);
+        List<String> matches = findAll(matcher, "ｱｲｳ");
+        Collections.sort(matches);
+        assertEquals("[0:0-2, 1:1-3, 2:0-3, 3:1-3]", matches.toString());
+
+        // Stop after first match
+        final int[] match_count = new int[1];
+        matcher.findAll("アイウ", new KanaMultiMatcher.MatchHandler() {
+            public boolean onMatch(int pattern_index, int match_start, int match_end) {
+                match_count[0]++;
+                return false;
+            }
+        });
+        assertEquals(1, match_count[0]);
+    }
+    //}}}
+
+
+    //{{{ testMatchesConvertThenIndexOf()
+    @Test
+    public void testMatchesConvertThenIndexOf()
+    {
+        char[] alphabet = "あかがはぱアカガハパｱｶﾊﾞﾟ".toCharArray();
+        int[] op_sets = new int[] {
+            0,
+            KanaConverter.OP_HAN_KATA_TO_ZEN_HIRA | KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA,
+            KanaConverter.OP_ZEN_KATA_TO_HAN_KATA | KanaConverter.OP_ZEN_HIRA_TO_HAN_KATA,
+        };
+        Random random = new Random(26028);
+        for(int round = 0; round < 500; round++) {
+            int ops = op_sets[round % op_sets.length];
+            String[] patterns = new String[1 + random.nextInt(6)];
+            for(int p = 0; p < patterns.length; p++) {
+                patterns[p] = randomText(random, alphabet, 1 + random.nextInt(3));
+            }
+            String text = randomText(random, alphabet, random.nextInt(30));
+
+            // Reference: count matches of each pattern in the converted text
+            String folded_text = KanaConverter.convertKana(text, ops);
+            int expected_count = 0;
+            for(String pattern : patterns) {
+                String folded_pattern = KanaConverter.convertKana(pattern, ops);
+                for(int at = folded_text.indexOf(folded_pattern); at >= 0; at = folded_text.indexOf(folded_pattern, at + 1)) {
+                    expected_count++;
+                }
+            }
+
+            List<String> matches = findAll(new KanaMultiMatcher(patterns, ops), text);
+            assertEquals("ops=" + ops + " text=" + text, expected_count, matches.size());
+            for(String match : matches) {
+                String[] parts = match.split("[:-]");
+                String matched_text = text.substring(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                String folded_pattern = KanaConverter.convertKana(patterns[Integer.parseInt(parts[0])], ops);
+                assertTrue(match + " in " + text, KanaConverter.convertKana(matched_text, ops).contains(folded_pattern));
+            }
+        }
+    }
+    //}}}
+
+
+    //{{{ List<String> findAll(KanaMultiMatcher, String)
+    private static List<String> findAll(KanaMultiMatcher matcher, String text)
+    {
+        final List<String> matches = new ArrayList<String>();
+        matcher.findAll(text, new KanaMultiMatcher.MatchHandler() {
+            public boolean onMatch(int pattern_index, int match_start, int match_end) {
+                matches.add(pattern_index + ":" + match_start + "-" + match_end);
+                return true;
+            }
+        });
+        return matches;
+    }
+    //}}}
+
+
+    //{{{ String randomText(Random, char[], int)
+    private static String randomText(Random random, char[] alphabet, int length)
+    {
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < length; i++) {
+            text.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return text.toString();
+    }
+    //}}}
+}
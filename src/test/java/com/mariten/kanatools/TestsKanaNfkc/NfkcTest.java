@@ -0,0 +1,119 @@
+package com.mariten.kanatools.TestsKanaNfkc;
+
+import com.mariten.kanatools.KanaAppraiser;
+import com.mariten.kanatools.KanaConverter;
+import com.mariten.kanatools.KanaNfkc;
+import java.text.Normalizer;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class NfkcTest
+{
+    // Every char of KanaAppraiser's kana, ASCII, space and punctuation ranges, plus the combining marks
+    private static final String RANGE_ALPHABET;
+    static {
+        StringBuilder alphabet = new StringBuilder();
+        for(char c = 0; c < 0xFFFF; c++) {
+            if(isInKanaRanges(c)) {
+                alphabet.append(c);
+            }
+        }
+        alphabet.append(KanaConverter.COMBINING_VOICED_MARK);
+        alphabet.append(KanaConverter.COMBINING_ASPIRATED_MARK);
+        RANGE_ALPHABET = alphabet.toString();
+    }
+
+
+    //{{{ testWholeBmp()
+    @Test
+    public void testWholeBmp()
+    {
+        // Chars in the ranges match NFKC, any other char passes through
+        for(int c = 0; c <= 0xFFFF; c++) {
+            String text = String.valueOf((char)c);
+            String expected = isInKanaRanges((char)c) ? Normalizer.normalize(text, Normalizer.Form.NFKC) : text;
+            assertEquals(Integer.toHexString(c), expected, KanaNfkc.normalize(text));
+            assertEquals(Integer.toHexString(c), expected, KanaConverter.convertKana(text, KanaConverter.OP_KANA_NFKC));
+        }
+    }
+    //}}}
+
+
+    //{{{ testDiacriticMarks()
+    @Test
+    public void testDiacriticMarks()
+    {
+        // Every base in the ranges followed by every form of dakuten/handakuten
+        char[] marks = { 'ﾞ', 'ﾟ', '゛', '゜', KanaConverter.COMBINING_VOICED_MARK, KanaConverter.COMBINING_ASPIRATED_MARK };
+        for(int k = 0; k < RANGE_ALPHABET.length(); k++) {
+            for(char mark : marks) {
+                String text = "" + RANGE_ALPHABET.charAt(k) + mark;
+                assertEquals(text, Normalizer.normalize(text, Normalizer.Form.NFKC), KanaNfkc.normalize(text));
+            }
+        }
+
+        assertEquals("ヴァイオリン", KanaNfkc.normalize("ｳﾞｧｲｵﾘﾝ"));
+        assertEquals("ガイドブック pdf", KanaNfkc.normalize("ｶﾞｲﾄﾞﾌﾞｯｸ　ｐｄｆ"));
+        assertEquals("が", KanaNfkc.normalize("が"));
+        assertEquals("か \u3099", KanaNfkc.normalize("か゛"));
+    }
+    //}}}
+
+
+    //{{{ testRandomRangeText()
+    @Test
+    public void testRandomRangeText()
+    {
+        Random random = new Random(37);
+        for(int round = 0; round < 2000; round++) {
+            StringBuilder text = new StringBuilder();
+            int text_length = random.nextInt(40);
+            for(int k = 0; k < text_length; k++) {
+                text.append(RANGE_ALPHABET.charAt(random.nextInt(RANGE_ALPHABET.length())));
+            }
+            String expected = Normalizer.normalize(text, Normalizer.Form.NFKC);
+            assertEquals(text.toString(), expected, KanaNfkc.normalize(text));
+            assertEquals(expected.equals(text.toString()), KanaNfkc.isNormalized(text));
+        }
+    }
+    //}}}
+
+
+    //{{{ testUnchangedTextIsReturnedAsIs()
+    @Test
+    public void testUnchangedTextIsReturnedAsIs()
+    {
+        String text = "東京都 Shibuya-ku ひらがな・カタカナ";
+        assertSame(text, KanaNfkc.normalize(text));
+        assertTrue(KanaNfkc.isNormalized(text));
+        assertFalse(KanaNfkc.isNormalized("ﾃｽﾄ"));
+    }
+    //}}}
+
+
+    //{{{ testCombinedWithOtherOps()
+    @Test
+    public void testCombinedWithOtherOps()
+    {
+        // Other ops see the folded chars
+        assertEquals("ばいおりん", KanaConverter.convertKana("ﾊﾞｲｵﾘﾝ", KanaConverter.OP_KANA_NFKC | KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA));
+        assertEquals("ﾃｽﾄ ABC", KanaConverter.convertKana("ﾃｽﾄ　ＡＢＣ", KanaConverter.OP_KANA_NFKC, "ﾃｽﾄ"));
+    }
+    //}}}
+
+
+    //{{{ boolean isInKanaRanges(char)
+    private static boolean isInKanaRanges(char c)
+    {
+        return (c >= KanaAppraiser.HANKAKU_SPACE && c <= KanaAppraiser.HANKAKU_ASCII_LAST)
+            || (c >= KanaAppraiser.ZENKAKU_SPACE && c <= KanaAppraiser.ZENKAKU_PUNCTUATION_LAST)
+            || KanaAppraiser.isZenkakuHiragana(c)
+            || (c >= KanaAppraiser.ZENKAKU_PUNCTUATION_HG_FIRST && c <= KanaAppraiser.ZENKAKU_PUNCTUATION_HG_LAST)
+            || KanaAppraiser.isZenkakuKatakana(c)
+            || (c >= KanaAppraiser.ZENKAKU_PUNCTUATION_KK_FIRST && c <= KanaAppraiser.ZENKAKU_PUNCTUATION_KK_LAST)
+            || KanaAppraiser.isZenkakuAscii(c)
+            || (c >= KanaAppraiser.HANKAKU_PUNCTUATION_FIRST && c <= KanaAppraiser.HANKAKU_PUNCTUATION_LAST);
+    }
+    //}}}
+}
@@ -0,0 +1,88 @@
+package com.mariten.kanatools.TestsKanaPrefixIndex;
+
+import com.mariten.kanatools.KanaConverter;
+import com.mariten.kanatools.KanaPrefixIndex;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PrefixMatchTest
+{
+    private static final int FOLD_OPS = KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_ZEN_HIRA_TO_ZEN_KATA;
+
+
+    //{{{ testBranchNameAutocomplete()
+    @Test
+    public void testBranchNameAutocomplete()
+    {
+        KanaPrefixIndex branches = new KanaPrefixIndex(Arrays.asList(
+            "シンジュク", "しんばし", "ｼﾌﾞﾔ", "シブヤエキマエ", "ウエノ"
+        ), FOLD_OPS);
+        assertEquals(5, branches.size());
+
+        assertEquals(Arrays.asList("ｼﾌﾞﾔ", "シブヤエキマエ"), branches.prefixMatches("しぶや", 10));
+        assertEquals(Arrays.asList("ｼﾌﾞﾔ"), branches.prefixMatches("ｼﾌﾞ", 1));
+        assertEquals(Arrays.asList("シンジュク", "しんばし"), branches.prefixMatches("シン", 10));
+        assertEquals(4, branches.countPrefixMatches("ｼ"));
+        assertEquals(5, branches.countPrefixMatches(""));
+        assertEquals(0, branches.prefixMatches("ｼﾌﾞﾔｴｷﾏｴﾏｴ", 10).size());
+        assertEquals(0, branches.prefixMatches("シフ", 10).size());
+        assertEquals(0, branches.prefixMatches("シ", 0).size());
+
+        // Snapshots are unaffected by later additions
+        KanaPrefixIndex more_branches = branches.withAdded(Arrays.asList("しぶかわ"));
+        assertEquals(2, branches.countPrefixMatches("シブ"));
+        assertEquals(3, more_branches.countPrefixMatches("シブ"));
+        assertEquals(0, new KanaPrefixIndex(new ArrayList<String>(), FOLD_OPS).countPrefixMatches(""));
+    }
+    //}}}
+
+
+    //{{{ testMatchesSortedScan()
+    @Test
+    public void testMatchesSortedScan()
+    {
+        char[] alphabet = "あいアイｱｲｶﾞかがカガ".toCharArray();
+        Random random = new Random(26029);
+        List<String> keys = new ArrayList<String>();
+        for(int k = 0; k < 300; k++) {
+            keys.add(randomText(random, alphabet, random.nextInt(6)));
+        }
+        KanaPrefixIndex index = new KanaPrefixIndex(keys, FOLD_OPS);
+
+        for(int q = 0; q < 300; q++) {
+            String query = randomText(random, alphabet, random.nextInt(4));
+            String folded_query = KanaConverter.convertKana(query, FOLD_OPS);
+            List<String> expected = new ArrayList<String>();
+            for(String key : keys) {
+                if(KanaConverter.convertKana(key, FOLD_OPS).startsWith(folded_query)) {
+                    expected.add(key);
+                }
+            }
+
+            List<String> actual = index.prefixMatches(query, Integer.MAX_VALUE);
+            assertEquals(query, expected.size(), index.countPrefixMatches(query));
+            Collections.sort(expected);
+            List<String> sorted_actual = new ArrayList<String>(actual);
+            Collections.sort(sorted_actual);
+            assertEquals(query, expected, sorted_actual);
+        }
+    }
+    //}}}
+
+
+    //{{{ String randomText(Random, char[], int)
+    private static String randomText(Random random, char[] alphabet, int length)
+    {
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < length; i++) {
+            text.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return text.toString();
+    }
+    //}}}
+}
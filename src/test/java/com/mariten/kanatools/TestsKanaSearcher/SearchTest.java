@@ -0,0 +1,141 @@
+package com.mariten.kanatools.TestsKanaSearcher;
+
+import com.mariten.kanatools.KanaConverter;
+import com.mariten.kanatools.KanaSearcher;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SearchTest
+{
+    //{{{ testOriginalOffsets()
+    @Test
+    public void testOriginalOffsets()
+    {
+        int fold_ops = KanaConverter.OP_HAN_KATA_TO_ZEN_HIRA | KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA;
+        KanaSearcher searcher = new KanaSearcher("がいあ", fold_ops);
+
+        String memo = "振込 ﾃｽﾄ ｶﾞｲｱ商事 ガイア";
+        int first = searcher.indexIn(memo);
+        assertEquals(7, first);
+        assertEquals(11, searcher.matchEndIn(memo, first));
+        assertEquals("ｶﾞｲｱ", memo.substring(first, searcher.matchEndIn(memo, first)));
+
+        int second = searcher.indexIn(memo, first + 1);
+        assertEquals(14, second);
+        assertEquals(17, searcher.matchEndIn(memo, second));
+        assertEquals(-1, searcher.indexIn(memo, second + 1));
+
+        assertEquals(-1, searcher.indexIn("ｶｲｱ"));
+        assertEquals(-1, searcher.matchEndIn(memo, 0));
+    }
+    //}}}
+
+
+    //{{{ testExpandingConversion()
+    @Test
+    public void testExpandingConversion()
+    {
+        KanaSearcher searcher = new KanaSearcher("パン", KanaConverter.OP_ZEN_KATA_TO_HAN_KATA);
+        String memo = "ﾊﾝﾊﾟﾝパン";
+        assertEquals(2, searcher.indexIn(memo));
+        assertEquals(5, searcher.matchEndIn(memo, 2));
+        assertEquals(5, searcher.indexIn(memo, 3));
+        assertEquals(7, searcher.matchEndIn(memo, 5));
+
+        // Match starting on the diacritic half of a converted unit
+        KanaSearcher mark_searcher = new KanaSearcher("ﾞｱ", KanaConverter.OP_ZEN_KATA_TO_HAN_KATA);
+        assertEquals(0, mark_searcher.indexIn("ガア"));
+        assertEquals(2, mark_searcher.matchEndIn("ガア", 0));
+    }
+    //}}}
+
+
+    //{{{ testNfkcDiacriticMarks()
+    @Test
+    public void testNfkcDiacriticMarks()
+    {
+        // NFKC turns a spacing diacritic mark into a space followed by the combining mark
+        int nfkc_ops = KanaConverter.OP_KANA_NFKC;
+        KanaSearcher mark_searcher = new KanaSearcher("\u3099", nfkc_ops);
+        assertEquals(0, mark_searcher.indexIn("゛ガうぱ"));
+        assertEquals(1, mark_searcher.matchEndIn("゛ガうぱ", 0));
+
+        KanaSearcher space_searcher = new KanaSearcher("\u3000ｶ", nfkc_ops | KanaConverter.OP_ZEN_NUMBER_TO_HAN_NUMBER);
+        assertEquals(-1, space_searcher.indexIn("ー\u3071゛ｰ゛ｶａ"));
+        assertEquals(4, space_searcher.indexIn("ー\u3071゛ｰ ｶａ"));
+    }
+    //}}}
+
+
+    //{{{ testMatchesConvertThenIndexOf()
+    @Test
+    public void testMatchesConvertThenIndexOf()
+    {
+        char[] alphabet = "あかがはぱアカガハパｱｶﾊﾞﾟ゛゜\u3099AＡaｰー \u3000".toCharArray();
+        int[] op_sets = new int[] {
+            0,
+            KanaConverter.OP_HAN_KATA_TO_ZEN_KATA,
+            KanaConverter.OP_HAN_KATA_TO_ZEN_HIRA | KanaConverter.OP_ZEN_KATA_TO_ZEN_HIRA,
+            KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_KEEP_DIACRITIC_MARKS_APART,
+            KanaConverter.OP_ZEN_KATA_TO_HAN_KATA | KanaConverter.OP_ZEN_HIRA_TO_HAN_KATA,
+            KanaConverter.OP_ZEN_ASCII_TO_HAN_ASCII | KanaConverter.OP_ZEN_HIRA_TO_ZEN_KATA,
+            KanaConverter.OP_KANA_NFKC,
+            KanaConverter.OP_KANA_NFKC | KanaConverter.OP_ZEN_NUMBER_TO_HAN_NUMBER,
+        };
+        Random random = new Random(26027);
+        for(int round = 0; round < 3000; round++) {
+            int ops = op_sets[round % op_sets.length];
+            String ignore = (round % 7 == 0) ? "ﾞ" : "";
+            String text = randomText(random, alphabet, random.nextInt(20));
+            String pattern = randomText(random, alphabet, 1 + random.nextInt(3));
+
+            // Reference: fold, indexOf, then map folded offset back to the unit it came from
+            String folded_text = KanaConverter.convertKana(text, ops, ignore);
+            String folded_pattern = KanaConverter.convertKana(pattern, ops, ignore);
+            int[] origins = new int[folded_text.length()];
+            int[] unit_ends = new int[folded_text.length()];
+            int f = 0;
+            int i = 0;
+            while(i < text.length()) {
+                int next = i + 1;
+                String unit = KanaConverter.convertKana(text.substring(i, next), ops, ignore);
+                if(next < text.length()
+                && !KanaConverter.convertKana(text.substring(i, next + 1), ops, ignore).startsWith(unit)) {
+                    next++;
+                    unit = KanaConverter.convertKana(text.substring(i, next), ops, ignore);
+                }
+                for(int u = 0; u < unit.length(); u++) {
+                    origins[f] = i;
+                    unit_ends[f] = next;
+                    f++;
+                }
+                i = next;
+            }
+            int folded_index = folded_text.indexOf(folded_pattern);
+
+            KanaSearcher searcher = new KanaSearcher(pattern, ops, ignore);
+            int found = searcher.indexIn(text);
+            String context = "ops=" + ops + " text=" + text + " pattern=" + pattern;
+            if(folded_index < 0) {
+                assertEquals(context, -1, found);
+            } else {
+                assertEquals(context, origins[folded_index], found);
+                assertEquals(context, unit_ends[folded_index + folded_pattern.length() - 1], searcher.matchEndIn(text, found));
+            }
+        }
+    }
+    //}}}
+
+
+    //{{{ String randomText(Random, char[], int)
+    private static String randomText(Random random, char[] alphabet, int length)
+    {
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < length; i++) {
+            text.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return text.toString();
+    }
+    //}}}
+}
@@ -0,0 +1,145 @@
+package com.mariten.kanatools.TestsKanaSjisConverter;
+
+import com.mariten.kanatools.KanaConverter;
+import com.mariten.kanatools.KanaSjisConverter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SjisConverterTest
+{
+    private static final int[] CONVERSION_OPS = {
+        KanaConverter.OP_HAN_KATA_TO_ZEN_KATA,
+        KanaConverter.OP_HAN_KATA_TO_ZEN_HIRA,
+        KanaConverter.OP_ZEN_KATA_TO_HAN_KATA,
+        KanaConverter.OP_ZEN_HIRA_TO_HAN_KATA | KanaConverter.OP_ZEN_KATA_TO_HAN_KATA,
+        KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_KEEP_DIACRITIC_MARKS_APART,
+        KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_ZEN_ASCII_TO_HAN_ASCII | KanaConverter.OP_ZEN_SPACE_TO_HAN_SPACE,
+    };
+
+    //{{{ testDiacriticMarks()
+    @Test
+    public void testDiacriticMarks() throws IOException
+    {
+        KanaSjisConverter to_zenkaku = new KanaSjisConverter(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA);
+        assertArrayEquals("ガイドブック パス".getBytes("windows-31j"), to_zenkaku.convert("ｶﾞｲﾄﾞﾌﾞｯｸ ﾊﾟｽ".getBytes("windows-31j")));
+
+        KanaSjisConverter to_hankaku = new KanaSjisConverter(KanaConverter.OP_ZEN_KATA_TO_HAN_KATA);
+        assertArrayEquals("ｶﾞｲﾄﾞﾌﾞｯｸ ﾊﾟｽ".getBytes("windows-31j"), to_hankaku.convert("ガイドブック パス".getBytes("windows-31j")));
+    }
+    //}}}
+
+
+    //{{{ testTrailBytesAreNotKana()
+    @Test
+    public void testTrailBytesAreNotKana() throws IOException
+    {
+        // Trail byte of "漢" is 0xBF, the byte of "ｿ"
+        byte[] text_bytes = "漢ｿ".getBytes("Shift_JIS");
+        assertEquals((byte)0xBF, text_bytes[1]);
+        KanaSjisConverter converter = new KanaSjisConverter(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA, Charset.forName("Shift_JIS"));
+        assertArrayEquals("漢ソ".getBytes("Shift_JIS"), converter.convert(text_bytes));
+    }
+    //}}}
+
+
+    //{{{ testMatchesConvertKana()
+    @Test
+    public void testMatchesConvertKana() throws IOException
+    {
+        String alphabet = "ｶｷﾊﾋｳｱｰﾞﾟ｡｢ガパヴカアーかがぱ゛漢能字円ＡＢ１　 a1\n";
+        Random random = new Random(41);
+        for(int round = 0; round < 600; round++) {
+            StringBuilder text = new StringBuilder();
+            int text_length = random.nextInt(60);
+            for(int k = 0; k < text_length; k++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            // Every op set against both tables
+            String charset_name = ((round / CONVERSION_OPS.length) % 2 == 0) ? "windows-31j" : "Shift_JIS";
+            int conversion_ops = CONVERSION_OPS[round % CONVERSION_OPS.length];
+            KanaSjisConverter converter = new KanaSjisConverter(conversion_ops, Charset.forName(charset_name));
+            byte[] text_bytes = text.toString().getBytes(charset_name);
+            byte[] expected = KanaConverter.convertKana(new String(text_bytes, charset_name), conversion_ops).getBytes(charset_name);
+
+            assertArrayEquals(text.toString(), expected, converter.convert(text_bytes));
+
+            // Every read ends between a lead and trail byte, or a base and its mark
+            ByteArrayOutputStream converted_output = new ByteArrayOutputStream();
+            converter.convert(new OneByteInputStream(text_bytes), converted_output);
+            assertArrayEquals(text.toString(), expected, converted_output.toByteArray());
+        }
+    }
+    //}}}
+
+
+    //{{{ testAsciiRuns()
+    @Test
+    public void testAsciiRuns() throws IOException
+    {
+        // Kana and a double-byte char whose trail byte is ASCII, at every offset of a long ASCII run
+        String[] inserts = { "ｶﾞ", "ﾊ", "ア", "表", "ａ" };
+        for(int conversion_ops : CONVERSION_OPS) {
+            KanaSjisConverter converter = new KanaSjisConverter(conversion_ops);
+            for(String insert : inserts) {
+                for(int offset = 0; offset <= 40; offset++) {
+                    StringBuilder text = new StringBuilder("0123456789 abcdefghij,ABCDEFGHIJ;0123456789\n");
+                    text.insert(offset, insert);
+                    byte[] text_bytes = text.toString().getBytes("windows-31j");
+                    byte[] expected = KanaConverter.convertKana(text.toString(), conversion_ops).getBytes("windows-31j");
+                    assertArrayEquals(text.toString(), expected, converter.convert(text_bytes));
+                }
+            }
+        }
+    }
+    //}}}
+
+
+    //{{{ testUnsupported()
+    @Test
+    public void testUnsupported()
+    {
+        try {
+            new KanaSjisConverter(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA, Charset.forName("UTF-8"));
+            fail("Expected exception for charset other than Shift_JIS");
+        } catch(IllegalArgumentException e) {
+            // Caught exception
+        }
+        try {
+            new KanaSjisConverter(KanaConverter.OP_KANA_NFKC);
+            fail("Expected exception for NFKC op");
+        } catch(IllegalArgumentException e) {
+            // Caught exception
+        }
+    }
+    //}}}
+
+
+    /**
+      * Returns at most one byte per read.
+      */
+    private static class OneByteInputStream extends InputStream
+    {
+        private final InputStream source;
+
+        OneByteInputStream(byte[] content)
+        {
+            this.source = new ByteArrayInputStream(content);
+        }
+
+        public int read() throws IOException
+        {
+            return this.source.read();
+        }
+
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            return this.source.read(buffer, offset, Math.min(length, 1));
+        }
+    }
+}
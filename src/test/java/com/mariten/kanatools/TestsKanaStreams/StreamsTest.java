@@ -0,0 +1,122 @@
+package com.mariten.kanatools.TestsKanaStreams;
+
+import com.mariten.kanatools.KanaConversionPlan;
+import com.mariten.kanatools.KanaConverter;
+import com.mariten.kanatools.KanaStreams;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StreamsTest
+{
+    //{{{ testFunctions()
+    @Test
+    public void testFunctions()
+    {
+        List<String> texts = Arrays.asList("ｶﾞｲﾄﾞﾌﾞｯｸ", "１－２", "ﾊﾟｽ");
+        assertEquals(Arrays.asList("ガイドブック", "1-2", "パス"), texts.stream().map(KanaStreams.asFunction("KVa")).collect(Collectors.toList()));
+
+        List<String> replaced_texts = new ArrayList<String>(texts);
+        replaced_texts.replaceAll(KanaStreams.asUnaryOperator(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA));
+        assertEquals(Arrays.asList("ガイドブック", "１－２", "パス"), replaced_texts);
+
+        // Marks at the start of an element stay apart from the element before
+        assertEquals("カ/゛ン", Stream.of("ｶ", "ﾞﾝ").collect(KanaStreams.joining(new KanaConversionPlan(KanaConverter.OP_HAN_KATA_TO_ZEN_KATA), "/")));
+    }
+    //}}}
+
+
+    //{{{ testLinesMatchBufferedReader()
+    @Test
+    public void testLinesMatchBufferedReader() throws IOException
+    {
+        String alphabet = "ｶﾞあア漢a\n\r";
+        Random random = new Random(42);
+        for(int round = 0; round < 300; round++) {
+            StringBuilder text = new StringBuilder();
+            int text_length = random.nextInt(30);
+            for(int k = 0; k < text_length; k++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            List<String> expected = new BufferedReader(new StringReader(text.toString())).lines().collect(Collectors.toList());
+
+            for(Charset charset : new Charset[] { StandardCharsets.UTF_8, Charset.forName("Shift_JIS") }) {
+                byte[] text_bytes = text.toString().getBytes(charset);
+                assertEquals(expected, KanaStreams.lines(ByteBuffer.wrap(text_bytes), charset).collect(Collectors.toList()));
+
+                ByteBuffer direct_bytes = ByteBuffer.allocateDirect(text_bytes.length + 2);
+                direct_bytes.put((byte)'x').put(text_bytes).flip().position(1);
+                assertEquals(expected, KanaStreams.lines(direct_bytes, charset).collect(Collectors.toList()));
+                assertEquals(1, direct_bytes.position());
+            }
+        }
+    }
+    //}}}
+
+
+    //{{{ testSplitsAtLineStarts()
+    @Test
+    public void testSplitsAtLineStarts() throws IOException
+    {
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(420);
+        List<String> lines = new ArrayList<String>();
+        for(int line = 0; line < 20000; line++) {
+            String line_text = "ｶﾞｲﾄﾞ" + random.nextInt() + "漢字";
+            lines.add(line_text);
+            text.append(line_text).append((line % 3 == 0) ? "\r\n" : (line % 3 == 1) ? "\n" : "\r");
+        }
+        byte[] text_bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+
+        // Split down to the smallest ranges, which in order must hold all lines
+        List<Spliterator<String>> parts = new ArrayList<Spliterator<String>>();
+        parts.add(KanaStreams.lineSpliterator(ByteBuffer.wrap(text_bytes), StandardCharsets.UTF_8));
+        for(int k = 0; k < parts.size(); ) {
+            Spliterator<String> prefix = parts.get(k).trySplit();
+            if(prefix == null) {
+                k++;
+            } else {
+                parts.add(k, prefix);
+            }
+        }
+        assertTrue(parts.size() > 8);
+        List<String> split_lines = new ArrayList<String>();
+        for(Spliterator<String> part : parts) {
+            part.forEachRemaining(split_lines::add);
+        }
+        assertEquals(lines, split_lines);
+
+        Path path = Files.createTempFile("kanatools-lines", ".txt");
+        try {
+            Files.write(path, text_bytes);
+            List<String> converted_lines = KanaStreams.lines(path, StandardCharsets.UTF_8).parallel()
+                .map(KanaStreams.asFunction("KV"))
+                .collect(Collectors.toList());
+            assertEquals(lines.stream().map(line -> KanaConverter.convertKana(line, "KV")).collect(Collectors.toList()), converted_lines);
+        } finally {
+            Files.delete(path);
+        }
+
+        try {
+            KanaStreams.lines(ByteBuffer.wrap(text_bytes), StandardCharsets.UTF_16);
+            fail("Expected exception for charset with multi-byte line breaks");
+        } catch(IllegalArgumentException e) {
+            // Caught exception
+        }
+    }
+    //}}}
+}
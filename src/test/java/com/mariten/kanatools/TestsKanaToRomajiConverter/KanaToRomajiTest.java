@@ -0,0 +1,139 @@
+package com.mariten.kanatools.TestsKanaToRomajiConverter;
+
+import com.mariten.kanatools.KanaToRomajiConverter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class KanaToRomajiTest
+{
+    //{{{ testSyllables()
+    @Test
+    public void testSyllables()
+    {
+        assertEquals("sakura",    KanaToRomajiConverter.convertToRomaji("さくら"));
+        assertEquals("shinjuku",  KanaToRomajiConverter.convertToRomaji("しんじゅく"));
+        assertEquals("tsuchida",  KanaToRomajiConverter.convertToRomaji("ツチダ"));
+        assertEquals("fujimoto",  KanaToRomajiConverter.convertToRomaji("ふじもと"));
+        assertEquals("kyoto",     KanaToRomajiConverter.convertToRomaji("きょと"));
+        assertEquals("shachou",   KanaToRomajiConverter.convertToRomaji("シャチョウ", KanaToRomajiConverter.LONG_VOWELS_AS_WRITTEN));
+        assertEquals("jaguchi",   KanaToRomajiConverter.convertToRomaji("じゃぐち"));
+        assertEquals("hyaku",     KanaToRomajiConverter.convertToRomaji("ひゃく"));
+        assertEquals("firumu",    KanaToRomajiConverter.convertToRomaji("フィルム"));
+        assertEquals("vaiorin",   KanaToRomajiConverter.convertToRomaji("ヴァイオリン"));
+        assertEquals("tiasshu",   KanaToRomajiConverter.convertToRomaji("ティアッシュ"));
+        assertEquals("ya",        KanaToRomajiConverter.convertToRomaji("ゃ"));
+        assertEquals("gakkō",     KanaToRomajiConverter.convertToRomaji("カ\u3099ッコウ"));
+    }
+    //}}}
+
+
+    //{{{ testHankakuInput()
+    @Test
+    public void testHankakuInput()
+    {
+        assertEquals("gakkou",    KanaToRomajiConverter.convertToRomaji("ｶﾞｯｺｳ", KanaToRomajiConverter.LONG_VOWELS_AS_WRITTEN));
+        assertEquals("pyon",      KanaToRomajiConverter.convertToRomaji("ﾋﾟｮﾝ"));
+        assertEquals("gyū",       KanaToRomajiConverter.convertToRomaji("ｷﾞｭｳ"));
+        assertEquals("yamada taro", KanaToRomajiConverter.convertToRomaji("ﾔﾏﾀﾞ ﾀﾛｳ", KanaToRomajiConverter.LONG_VOWELS_OMITTED));
+    }
+    //}}}
+
+
+    //{{{ testSokuonAndHatsuon()
+    @Test
+    public void testSokuonAndHatsuon()
+    {
+        assertEquals("kitte",     KanaToRomajiConverter.convertToRomaji("きって"));
+        assertEquals("matcha",    KanaToRomajiConverter.convertToRomaji("まっちゃ"));
+        assertEquals("hokkaidō",  KanaToRomajiConverter.convertToRomaji("ほっかいどう"));
+        assertEquals("a",         KanaToRomajiConverter.convertToRomaji("あっ"));
+        assertEquals("kin'en",    KanaToRomajiConverter.convertToRomaji("きんえん"));
+        assertEquals("kon'ya",    KanaToRomajiConverter.convertToRomaji("こんや"));
+        assertEquals("shinbun",   KanaToRomajiConverter.convertToRomaji("しんぶん"));
+        assertEquals("onna",      KanaToRomajiConverter.convertToRomaji("おんな"));
+    }
+    //}}}
+
+
+    //{{{ testLongVowelStyles()
+    @Test
+    public void testLongVowelStyles()
+    {
+        assertEquals("toukyou",   KanaToRomajiConverter.convertToRomaji("とうきょう", KanaToRomajiConverter.LONG_VOWELS_AS_WRITTEN));
+        assertEquals("tōkyō",     KanaToRomajiConverter.convertToRomaji("とうきょう", KanaToRomajiConverter.LONG_VOWELS_MACRON));
+        assertEquals("tokyo",     KanaToRomajiConverter.convertToRomaji("とうきょう", KanaToRomajiConverter.LONG_VOWELS_OMITTED));
+
+        assertEquals("raamen",    KanaToRomajiConverter.convertToRomaji("ラーメン", KanaToRomajiConverter.LONG_VOWELS_AS_WRITTEN));
+        assertEquals("rāmen",     KanaToRomajiConverter.convertToRomaji("ラーメン", KanaToRomajiConverter.LONG_VOWELS_MACRON));
+        assertEquals("ramen",     KanaToRomajiConverter.convertToRomaji("ﾗｰﾒﾝ",   KanaToRomajiConverter.LONG_VOWELS_OMITTED));
+
+        assertEquals("ōuchi",     KanaToRomajiConverter.convertToRomaji("おおうち"));
+        assertEquals("yūki",      KanaToRomajiConverter.convertToRomaji("ゆうき"));
+        assertEquals("keiko",     KanaToRomajiConverter.convertToRomaji("けいこ"));
+        assertEquals("-",         KanaToRomajiConverter.convertToRomaji("ー"));
+
+        try {
+            KanaToRomajiConverter.convertToRomaji("かな", 3);
+            fail("Expected exception for unknown long vowel style");
+        } catch(IllegalArgumentException e) {
+            // Caught exception
+        }
+    }
+    //}}}
+
+
+    //{{{ testBatchAndStreaming()
+    @Test
+    public void testBatchAndStreaming() throws IOException
+    {
+        String[] names = { "やまだ たろう", "ｽｽﾞｷ ｲﾁﾛｰ", "", "ABC-123" };
+        String[] expected = { "yamada tarō", "suzuki ichirō", "", "ABC-123" };
+        assertArrayEquals(expected, KanaToRomajiConverter.convertToRomaji(names, KanaToRomajiConverter.LONG_VOWELS_MACRON));
+
+        // Stream fed one char at a time must match batch conversion
+        String alphabet = "あいうおかきしちっんゃゅょーｶﾞｯｷｮｳﾞｧﾟﾊ ｰx";
+        Random random = new Random(33);
+        for(int round = 0; round < 300; round++) {
+            StringBuilder text = new StringBuilder();
+            int text_length = random.nextInt(30);
+            for(int k = 0; k < text_length; k++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            for(int style = KanaToRomajiConverter.LONG_VOWELS_AS_WRITTEN; style <= KanaToRomajiConverter.LONG_VOWELS_OMITTED; style++) {
+                StringWriter streamed = new StringWriter();
+                KanaToRomajiConverter.convertToRomaji(new OneCharReader(text.toString()), streamed, style);
+                assertEquals(text.toString(), KanaToRomajiConverter.convertToRomaji(text, style), streamed.toString());
+            }
+        }
+    }
+    //}}}
+
+
+    /**
+      * Returns at most one char per read, to exercise lookahead across reads.
+      */
+    private static class OneCharReader extends Reader
+    {
+        private final StringReader source;
+
+        OneCharReader(String text)
+        {
+            this.source = new StringReader(text);
+        }
+
+        public int read(char[] buffer, int offset, int length) throws IOException
+        {
+            return this.source.read(buffer, offset, Math.min(length, 1));
+        }
+
+        public void close()
+        {
+            this.source.close();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.mariten.kanatools.TestsKanaToolsCommand;
+
+import com.mariten.kanatools.KanaConverter;
+import com.mariten.kanatools.KanaToolsCommand;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ConvertCommandTest
+{
+    private static final String UTF_8 = "UTF-8";
+
+    //{{{ testStdinToStdout()
+    @Test
+    public void testStdinToStdout() throws IOException
+    {
+        String text = createRandomLines(new Random(38), 400);
+        String expected = KanaConverter.convertKana(text, "KVa", "ｰ");
+
+        // Small chunks across several workers must still come out in order
+        for(String thread_count : new String[] { "1", "4" }) {
+            ByteArrayOutputStream std_out = new ByteArrayOutputStream();
+            ByteArrayOutputStream std_err = new ByteArrayOutputStream();
+            int exit_code = KanaToolsCommand.run(
+                new String[] { "convert", "--ops", "KVa", "--ignore", "ｰ", "--threads", thread_count, "--chunk-size", "64" },
+                new ByteArrayInputStream(text.getBytes(UTF_8)), std_out, new PrintStream(std_err, true, UTF_8));
+            assertEquals(std_err.toString(UTF_8), KanaToolsCommand.EXIT_SUCCESS, exit_code);
+            assertEquals(expected, std_out.toString(UTF_8));
+        }
+    }
+    //}}}
+
+
+    //{{{ testFileToFile()
+    @Test
+    public void testFileToFile() throws IOException
+    {
+        String text = createRandomLines(new Random(380), 400);
+        File input_file = File.createTempFile("kanatools-in", ".txt");
+        File output_file = File.createTempFile("kanatools-out", ".txt");
+        input_file.deleteOnExit();
+        output_file.deleteOnExit();
+
+        // Mapped (UTF-8 and Shift_JIS) and streamed file input
+        String[][] variants = {
+            { UTF_8,       "--threads", "3" },
+            { "Shift_JIS", "--threads", "3" },
+            { UTF_8,       "--no-mmap" },
+        };
+        for(String[] variant : variants) {
+            String encoding = variant[0];
+            writeFile(input_file, text.getBytes(encoding));
+            String[] args = new String[variant.length + 8];
+            args[0] = "convert";
+            args[1] = "--ops";
+            args[2] = "KVC";
+            args[3] = "--encoding";
+            args[4] = encoding;
+            args[5] = "--chunk-size";
+            args[6] = "50";
+            System.arraycopy(variant, 1, args, 7, variant.length - 1);
+            args[variant.length + 6] = input_file.getPath();
+            args[variant.length + 7] = output_file.getPath();
+
+            ByteArrayOutputStream std_err = new ByteArrayOutputStream();
+            int exit_code = KanaToolsCommand.run(args, new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(), new PrintStream(std_err, true, UTF_8));
+            assertEquals(std_err.toString(UTF_8), KanaToolsCommand.EXIT_SUCCESS, exit_code);
+            assertEquals(encoding, KanaConverter.convertKana(text, "KVC"), new String(readFile(output_file), encoding));
+        }
+    }
+    //}}}
+
+
+    //{{{ testCrOnlyInputIsChunked()
+    @Test
+    public void testCrOnlyInputIsChunked() throws IOException
+    {
+        StringBuilder text = new StringBuilder();
+        while(text.length() < 200000) {
+            text.append("ﾃﾞｰﾀ ﾊﾟｽ ＡＢＣ\r");
+        }
+        final byte[] text_bytes = text.toString().getBytes(UTF_8);
+
+        // Converted chunks reach the output before the input ends, rather than all input being held in memory
+        final ByteArrayOutputStream std_out = new ByteArrayOutputStream();
+        final int[] output_size_at_end = { -1 };
+        InputStream std_in = new ByteArrayInputStream(text_bytes) {
+            public synchronized int read(byte[] buffer, int offset, int length)
+            {
+                int read_count = super.read(buffer, offset, length);
+                if(read_count < 0 && output_size_at_end[0] < 0) {
+                    output_size_at_end[0] = std_out.size();
+                }
+                return read_count;
+            }
+        };
+        int exit_code = KanaToolsCommand.run(new String[] { "convert", "--ops", "KVa", "--chunk-size", "4096", "--stats" },
+            std_in, std_out, new PrintStream(new ByteArrayOutputStream(), true, UTF_8));
+        assertEquals(KanaToolsCommand.EXIT_SUCCESS, exit_code);
+        assertEquals(KanaConverter.convertKana(text.toString(), "KVa"), std_out.toString(UTF_8));
+        assertTrue("Output before end of input: " + output_size_at_end[0], output_size_at_end[0] > 0);
+    }
+    //}}}
+
+
+    //{{{ testStats()
+    @Test
+    public void testStats() throws IOException
+    {
+        ByteArrayOutputStream std_out = new ByteArrayOutputStream();
+        ByteArrayOutputStream std_err = new ByteArrayOutputStream();
+        int exit_code = KanaToolsCommand.run(new String[] { "convert", "--nfkc", "--stats" },
+            new ByteArrayInputStream("ﾃｽﾄ\nＡＢＣ\r\nｶﾅ\r".getBytes(UTF_8)), std_out, new PrintStream(std_err, true, UTF_8));
+        assertEquals(KanaToolsCommand.EXIT_SUCCESS, exit_code);
+        assertEquals("テスト\nABC\r\nカナ\r", std_out.toString(UTF_8));
+        assertTrue(std_err.toString(UTF_8), std_err.toString(UTF_8).contains("done, 0.0 MB, 3 lines"));
+    }
+    //}}}
+
+
+    //{{{ testErrors()
+    @Test
+    public void testErrors() throws IOException
+    {
+        assertEquals(KanaToolsCommand.EXIT_USAGE,   runQuietly("frobnicate"));
+        assertEquals(KanaToolsCommand.EXIT_USAGE,   runQuietly("convert", "--ops", "KQ"));
+        assertEquals(KanaToolsCommand.EXIT_USAGE,   runQuietly("convert", "--threads", "0"));
+        assertEquals(KanaToolsCommand.EXIT_USAGE,   runQuietly("convert", "--encoding", "no-such-charset"));
+        assertEquals(KanaToolsCommand.EXIT_USAGE,   runQuietly("convert", "--ops"));
+        assertEquals(KanaToolsCommand.EXIT_USAGE,   runQuietly("convert", "a", "b", "c"));
+        assertEquals(KanaToolsCommand.EXIT_FAILURE, runQuietly("convert", new File("no-such-dir", "no-such-file").getPath()));
+        assertEquals(KanaToolsCommand.EXIT_SUCCESS, runQuietly("help"));
+    }
+    //}}}
+
+
+    //{{{ int runQuietly(String...)
+    private static int runQuietly(String... args)
+    {
+        return KanaToolsCommand.run(args, new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(), new PrintStream(new ByteArrayOutputStream()));
+    }
+    //}}}
+
+
+    //{{{ String createRandomLines(Random, int)
+    private static String createRandomLines(Random random, int line_count)
+    {
+        // Voiced marks right after line breaks and at line ends must not collapse across lines
+        String alphabet = "ｶｷﾊﾋｳﾞﾟｰあいカキＡＢ12 漢";
+        StringBuilder text = new StringBuilder();
+        for(int line = 0; line < line_count; line++) {
+            int line_length = random.nextInt(line % 50 == 0 ? 300 : 20);
+            for(int k = 0; k < line_length; k++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            int line_break_kind = random.nextInt(10);
+            text.append(line_break_kind < 2 ? "\r\n" : (line_break_kind < 4 ? "\r" : "\n"));
+        }
+        text.append("ｶﾞ");
+        return text.toString();
+    }
+    //}}}
+
+
+    //{{{ void writeFile(File, byte[])
+    private static void writeFile(File file, byte[] content) throws IOException
+    {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content);
+        } finally {
+            output.close();
+        }
+    }
+    //}}}
+
+
+    //{{{ byte[] readFile(File)
+    private static byte[] readFile(File file) throws IOException
+    {
+        InputStream input = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read_count;
+            while((read_count = input.read(buffer)) >= 0) {
+                content.write(buffer, 0, read_count);
+            }
+            return content.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+    //}}}
+}
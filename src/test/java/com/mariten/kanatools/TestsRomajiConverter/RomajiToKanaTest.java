@@ -0,0 +1,69 @@
+package com.mariten.kanatools.TestsRomajiConverter;
+
+import com.mariten.kanatools.KanaConverter;
+import com.mariten.kanatools.RomajiConverter;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RomajiToKanaTest
+{
+    //{{{ testHepburnAndWapuro()
+    @Test
+    public void testHepburnAndWapuro()
+    {
+        assertEquals("しんぶん",   RomajiConverter.convertRomaji("shimbun"));
+        assertEquals("しんぶん",   RomajiConverter.convertRomaji("sinbun"));
+        assertEquals("ちゃ",       RomajiConverter.convertRomaji("cha"));
+        assertEquals("ちゃ",       RomajiConverter.convertRomaji("tya"));
+        assertEquals("つき",       RomajiConverter.convertRomaji("tsuki"));
+        assertEquals("つき",       RomajiConverter.convertRomaji("tuki"));
+        assertEquals("ふじさん",   RomajiConverter.convertRomaji("Fujisan"));
+        assertEquals("ふじさん",   RomajiConverter.convertRomaji("huzisan"));
+        assertEquals("きょうと",   RomajiConverter.convertRomaji("kyouto"));
+        assertEquals("とうきょう", RomajiConverter.convertRomaji("Tōkyō"));
+        assertEquals("しゃしん",   RomajiConverter.convertRomaji("ＳＨＡＳＨＩＮ"));
+    }
+    //}}}
+
+
+    //{{{ testHatsuonSokuonAndSmallKana()
+    @Test
+    public void testHatsuonSokuonAndSmallKana()
+    {
+        assertEquals("おんな",       RomajiConverter.convertRomaji("onna"));
+        assertEquals("こんにちは",   RomajiConverter.convertRomaji("konnichiha"));
+        assertEquals("きんえん",     RomajiConverter.convertRomaji("kin'en"));
+        assertEquals("きねん",       RomajiConverter.convertRomaji("kinen"));
+        assertEquals("ほん",         RomajiConverter.convertRomaji("hon"));
+        assertEquals("ほん",         RomajiConverter.convertRomaji("honn"));
+        assertEquals("かんじ",       RomajiConverter.convertRomaji("kanji"));
+        assertEquals("きって",       RomajiConverter.convertRomaji("kitte"));
+        assertEquals("まっちゃ",     RomajiConverter.convertRomaji("matcha"));
+        assertEquals("ざっし",       RomajiConverter.convertRomaji("zasshi"));
+        assertEquals("ぁっゃゎ",     RomajiConverter.convertRomaji("xaltuxyalwa"));
+        assertEquals("っ",           RomajiConverter.convertRomaji("xtsu"));
+        assertEquals("らーめん",     RomajiConverter.convertRomaji("ra-men"));
+    }
+    //}}}
+
+
+    //{{{ testConversionOpsAndPassthrough()
+    @Test
+    public void testConversionOpsAndPassthrough()
+    {
+        assertEquals("トウキョウ", RomajiConverter.convertRomaji("toukyou", KanaConverter.OP_ZEN_HIRA_TO_ZEN_KATA));
+        assertEquals("ｶﾞｯｺｳ",     RomajiConverter.convertRomaji("gakkou", KanaConverter.OP_ZEN_HIRA_TO_HAN_KATA));
+        assertEquals("ラーメン",   RomajiConverter.convertRomaji("ra-men", KanaConverter.OP_ZEN_HIRA_TO_ZEN_KATA));
+
+        // Non-romaji text is converted by the same ops
+        assertEquals("カード 1-2 ガム", RomajiConverter.convertRomaji("ka-do １－２ ｶﾞﾑ",
+            KanaConverter.OP_ZEN_HIRA_TO_ZEN_KATA | KanaConverter.OP_HAN_KATA_TO_ZEN_KATA | KanaConverter.OP_ZEN_ASCII_TO_HAN_ASCII));
+        assertEquals("ほん 123 q", RomajiConverter.convertRomaji("hon 123 q"));
+        assertEquals("けkk", RomajiConverter.convertRomaji("kekk"));
+
+        // Ignored chars stay hiragana
+        assertEquals("カなダ", RomajiConverter.convertRomaji("kanada", KanaConverter.OP_ZEN_HIRA_TO_ZEN_KATA, "な"));
+        assertEquals("", RomajiConverter.convertRomaji(""));
+    }
+    //}}}
+}
@@ -0,0 +1,43 @@
+package com.mariten.kanatools;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+  * Java 9 version of the scanning loops, put under META-INF/versions/9 of the multi-release JAR.
+  * Bytes are read eight at a time through a VarHandle view, which the JIT turns into single loads.
+  */
+class KanaScan
+{
+    /** Eight bytes as one long, the byte at the lowest index in the lowest bits */
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /** High bit of each byte of a long */
+    private static final long NON_ASCII_BITS = 0x8080808080808080L;
+
+
+    //{{{ int skipAsciiBytes(byte[], int, int)
+    /**
+      * @param  bytes  Bytes to scan
+      * @param  start  Index of first byte to scan
+      * @param  limit  Index just past the last byte to scan
+      * @return Index of the first byte from "start" on which is not ASCII, or "limit"
+      */
+    static int skipAsciiBytes(byte[] bytes, int start, int limit)
+    {
+        int i = start;
+        while(i <= limit - Long.BYTES) {
+            long non_ascii_bits = (long)LONG_VIEW.get(bytes, i) & NON_ASCII_BITS;
+            if(non_ascii_bits != 0) {
+                return i + (Long.numberOfTrailingZeros(non_ascii_bits) >>> 3);
+            }
+            i += Long.BYTES;
+        }
+        while(i < limit && bytes[i] >= 0) {
+            i++;
+        }
+        return i;
+    }
+    //}}}
+}